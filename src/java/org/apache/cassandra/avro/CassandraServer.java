@@ -72,8 +72,10 @@ import org.apache.cassandra.db.migration.DropColumnFamily;
 import org.apache.cassandra.db.migration.Migration;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.scheduler.IRequestScheduler;
+import org.apache.cassandra.scheduler.RequestCost;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.SpeculativeRetry;
 import org.apache.cassandra.service.StorageService;
 
 import static org.apache.cassandra.avro.AvroRecordFactory.*;
@@ -177,7 +179,7 @@ public class CassandraServer implements Cassandra {
         List<Row> rows;
         try
         {
-            schedule();
+            schedule(RequestCost.forReads(commands));
             rows = StorageProxy.readProtocol(commands, thriftConsistencyLevel(consistency));
         }
         catch (TimeoutException e) 
@@ -435,8 +437,9 @@ public class CassandraServer implements Cassandra {
     {
         try
         {
-            schedule();
-            StorageProxy.mutate(Arrays.asList(rm), thriftConsistencyLevel(consistency));
+            List<RowMutation> mutations = Arrays.asList(rm);
+            schedule(RequestCost.forMutations(mutations));
+            StorageProxy.mutate(mutations, thriftConsistencyLevel(consistency));
         }
         catch (TimeoutException e)
         {
@@ -477,7 +480,7 @@ public class CassandraServer implements Cassandra {
         
         try
         {
-            schedule();
+            schedule(RequestCost.forMutations(rowMutations));
             StorageProxy.mutate(rowMutations, thriftConsistencyLevel(consistencyLevel));
         }
         catch (TimeoutException te)
@@ -805,9 +808,9 @@ public class CassandraServer implements Cassandra {
     /**
      * Schedule the current thread for access to the required services
      */
-    private void schedule()
+    private void schedule(int cost) throws TimeoutException
     {
-        requestScheduler.queue(Thread.currentThread(), state().getSchedulingValue());
+        requestScheduler.queue(Thread.currentThread(), state().getSchedulingValue(), cost, DatabaseDescriptor.getRpcTimeout());
     }
 
     /**
@@ -827,6 +830,19 @@ public class CassandraServer implements Cassandra {
 
         CFMetaData.validateMinMaxCompactionThresholds(cf_def);
         CFMetaData.validateMemtableSettings(cf_def);
+        if (cf_def.compression_chunk_size_in_kb != null)
+            CFMetaData.validateCompressionChunkSize(cf_def.compression_chunk_size_in_kb);
+        if (cf_def.row_cache_head_size != null)
+            CFMetaData.validateRowCacheHeadSize(cf_def.row_cache_head_size);
+
+        // convert Map<CharSequence, CharSequence> to Map<String, String>
+        Map<String, String> compactionStrategyOptions = null;
+        if (cf_def.compaction_strategy_options != null)
+        {
+            compactionStrategyOptions = new HashMap<String, String>();
+            for (Map.Entry<CharSequence, CharSequence> option : cf_def.compaction_strategy_options.entrySet())
+                compactionStrategyOptions.put(option.getKey().toString(), option.getValue().toString());
+        }
 
         return new CFMetaData(cf_def.keyspace.toString(),
                               cf_def.name.toString(),
@@ -846,6 +862,14 @@ public class CassandraServer implements Cassandra {
                               cf_def.memtable_flush_after_mins == null ? CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS : cf_def.memtable_flush_after_mins,
                               cf_def.memtable_throughput_in_mb == null ? CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB : cf_def.memtable_throughput_in_mb,
                               cf_def.memtable_operations_in_millions == null ? CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS : cf_def.memtable_operations_in_millions,
+                              cf_def.memtable_allocator == null ? CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR : CFMetaData.getMemtableAllocatorClass(cf_def.memtable_allocator.toString()),
+                              cf_def.compression_chunk_size_in_kb,
+                              cf_def.compaction_strategy == null ? CFMetaData.DEFAULT_COMPACTION_STRATEGY : CFMetaData.getCompactionStrategyClass(cf_def.compaction_strategy.toString()),
+                              compactionStrategyOptions,
+                              cf_def.speculative_retry == null ? CFMetaData.DEFAULT_SPECULATIVE_RETRY : SpeculativeRetry.fromString(cf_def.speculative_retry.toString()),
+                              cf_def.row_cache_provider == null ? CFMetaData.DEFAULT_ROW_CACHE_PROVIDER : CFMetaData.getRowCacheProviderClass(cf_def.row_cache_provider.toString()),
+                              cf_def.row_cache_head_size,
+                              cf_def.row_cache_head_reversed,
                               ColumnDefinition.fromColumnDefs((Iterable<ColumnDef>) cf_def.column_metadata));
     }
 
@@ -976,7 +1000,7 @@ public class CassandraServer implements Cassandra {
         try
         {
             state().hasColumnFamilyAccess(columnFamily.toString(), Permission.WRITE);
-            schedule();
+            schedule(1);
             StorageProxy.truncateBlocking(state().getKeyspace(), columnFamily.toString());
         }
         catch (org.apache.cassandra.thrift.InvalidRequestException e)
@@ -1037,13 +1061,13 @@ public class CassandraServer implements Cassandra {
             }
             try
             {
-                schedule();
-                rows = StorageProxy.getRangeSlice(new RangeSliceCommand(keyspace,
-                                                                        thriftColumnParent(column_parent),
-                                                                        thriftSlicePredicate(slice_predicate),
-                                                                        bounds,
-                                                                        range.count),
-                                                  thriftConsistencyLevel(consistency_level));
+                RangeSliceCommand command = new RangeSliceCommand(keyspace,
+                                                                  thriftColumnParent(column_parent),
+                                                                  thriftSlicePredicate(slice_predicate),
+                                                                  bounds,
+                                                                  range.count);
+                schedule(RequestCost.forRangeSlice(command));
+                rows = StorageProxy.getRangeSlice(command, thriftConsistencyLevel(consistency_level));
             }
             catch (org.apache.cassandra.thrift.UnavailableException thriftE)
             {
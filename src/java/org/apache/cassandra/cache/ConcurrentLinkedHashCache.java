@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
+/**
+ * Keeps the values themselves, on the heap, in LRU order.
+ */
+public class ConcurrentLinkedHashCache<K, V> implements ICache<K, V>
+{
+    public static final int DEFAULT_CONCURENCY_LEVEL = 64;
+
+    // caches weighed by memory count in units of this many bytes, each value rounded up to a whole unit
+    public static final int MEMORY_UNIT = 64;
+    public static final int UNITS_PER_MB = (1 << 20) / MEMORY_UNIT;
+
+    // the map's own limits on its total weight and on the weight of a single value.  In memory units, these come
+    // to 64GB and 32GB
+    public static final int MAXIMUM_CAPACITY = 1 << 30;
+    public static final int MAXIMUM_WEIGHT = 1 << 29;
+
+    // values are held in a Holder of their own, so that they can be replaced by identity; see reweigh
+    private final ConcurrentLinkedHashMap<K, Holder<V>> map;
+    private final Weigher<V> byteWeigher;
+    // the bytes of the values as last weighed, rather than the map's weight, which is rounded up to whole units
+    private final AtomicLong memorySize = new AtomicLong();
+
+    public ConcurrentLinkedHashCache(int capacity)
+    {
+        this(capacity, DEFAULT_CONCURENCY_LEVEL);
+    }
+
+    public ConcurrentLinkedHashCache(int capacity, int concurrency)
+    {
+        this(capacity, concurrency, Weighers.<Holder<V>>singleton(), null);
+    }
+
+    /**
+     * @param byteWeigher the size of a value in bytes, making capacity a number of MEMORY_UNITs rather than of entries
+     */
+    public ConcurrentLinkedHashCache(int capacity, Weigher<V> byteWeigher)
+    {
+        this(capacity, DEFAULT_CONCURENCY_LEVEL, new Weigher<Holder<V>>()
+        {
+            public int weightOf(Holder<V> holder)
+            {
+                return weightInUnits(holder.bytes);
+            }
+        }, byteWeigher);
+    }
+
+    private ConcurrentLinkedHashCache(int capacity, int concurrency, Weigher<Holder<V>> weigher, Weigher<V> byteWeigher)
+    {
+        this.byteWeigher = byteWeigher;
+        EvictionListener<K, Holder<V>> listener = new EvictionListener<K, Holder<V>>()
+        {
+            public void onEviction(K key, Holder<V> holder)
+            {
+                memorySize.addAndGet(-holder.bytes);
+            }
+        };
+        map = new ConcurrentLinkedHashMap.Builder<K, Holder<V>>()
+                .weigher(weigher)
+                // a capacity in memory units says little about how many entries to size the table for
+                .initialCapacity(byteWeigher != null ? 16 : capacity)
+                .maximumWeightedCapacity(capacity)
+                .concurrencyLevel(concurrency)
+                .listener(listener)
+                .build();
+    }
+
+    /**
+     * @return the weight of a value of the given size, for caches weighed by memory: the MEMORY_UNITs it takes,
+     * rounded up
+     */
+    public static int weightInUnits(long bytes)
+    {
+        long units = bytes / MEMORY_UNIT + (bytes % MEMORY_UNIT == 0 ? 0 : 1);
+        return (int) Math.max(1, Math.min(units, MAXIMUM_WEIGHT));
+    }
+
+    private Holder<V> hold(V value)
+    {
+        Holder<V> holder = new Holder<V>(value, byteWeigher == null ? 0 : byteWeigher.weightOf(value));
+        memorySize.addAndGet(holder.bytes);
+        return holder;
+    }
+
+    private void release(Holder<V> holder)
+    {
+        if (holder != null)
+            memorySize.addAndGet(-holder.bytes);
+    }
+
+    public int capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(int capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    public void put(K key, V value)
+    {
+        release(map.put(key, hold(value)));
+    }
+
+    public V get(K key)
+    {
+        Holder<V> holder = map.get(key);
+        return holder == null ? null : holder.value;
+    }
+
+    public void reweigh(K key, V value, int bytesWritten)
+    {
+        if (byteWeigher == null)
+            return;
+        Holder<V> holder = map.get(key);
+        if (holder == null || holder.value != value)
+            return;
+        // weighing a value can take as long as its size, so wait until writes amount to an eighth of it, making the
+        // cost of weighing proportional to that of the writes
+        if (holder.written.addAndGet(bytesWritten) < Math.max(MEMORY_UNIT, holder.bytes / 8))
+            return;
+        // the map weighs a value when it is put, so put it again, unless it has been replaced or removed meanwhile
+        Holder<V> reweighed = hold(value);
+        if (map.replace(key, holder, reweighed))
+            release(holder);
+        else
+            release(reweighed);
+    }
+
+    public void remove(K key)
+    {
+        release(map.remove(key));
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public void clear()
+    {
+        for (K key : map.keySet())
+            remove(key);
+    }
+
+    public Set<K> keySet()
+    {
+        return map.keySet();
+    }
+
+    public long memorySize()
+    {
+        return byteWeigher == null ? -1 : memorySize.get();
+    }
+
+    public boolean isPutCopying()
+    {
+        return false;
+    }
+
+    // compares by identity
+    private static class Holder<V>
+    {
+        final V value;
+        // size of the value when it was weighed, and what has been written to it since
+        final int bytes;
+        final AtomicLong written = new AtomicLong();
+
+        Holder(V value, int bytes)
+        {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
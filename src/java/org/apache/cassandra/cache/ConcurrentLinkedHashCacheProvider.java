@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * Caches rows as live objects on the heap: the cheapest to read, and the default.
+ */
+public class ConcurrentLinkedHashCacheProvider implements IRowCacheProvider
+{
+    private static final Weigher<ColumnFamily> weigher = new Weigher<ColumnFamily>()
+    {
+        public int weightOf(ColumnFamily cf)
+        {
+            // rows that writes change in place are weighed again; see ColumnFamilyStore.apply
+            return cf.size();
+        }
+    };
+
+    public ICache<DecoratedKey, ColumnFamily> create(int capacity, boolean weighByMemory)
+    {
+        return weighByMemory
+               ? new ConcurrentLinkedHashCache<DecoratedKey, ColumnFamily>(capacity, weigher)
+               : new ConcurrentLinkedHashCache<DecoratedKey, ColumnFamily>(capacity);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * A block of memory outside the Java heap, freed as soon as its last reference is dropped rather
+ * than whenever the collector gets around to the direct buffer holding it.
+ *
+ * The creator holds the first reference.  Readers must reference() the memory before using it,
+ * which fails once it has been freed, and unreference() it when done.
+ */
+public class FreeableMemory
+{
+    private final ByteBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public FreeableMemory(int size)
+    {
+        buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * @return false if the memory has already been freed, in which case it must not be used
+     */
+    public boolean reference()
+    {
+        while (true)
+        {
+            int n = references.get();
+            if (n <= 0)
+                return false;
+            if (references.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    public void unreference()
+    {
+        int n = references.decrementAndGet();
+        assert n >= 0 : n;
+        if (n == 0)
+            FileUtils.clean(buffer);
+    }
+
+    public int size()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return a view of the whole block, with its own position and limit.  Only valid while referenced.
+     */
+    public ByteBuffer buffer()
+    {
+        return buffer.duplicate();
+    }
+}
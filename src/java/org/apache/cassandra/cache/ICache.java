@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.util.Set;
+
+/**
+ * The storage behind an InstrumentedCache, which adds the hit statistics.
+ */
+public interface ICache<K, V>
+{
+    public int capacity();
+
+    public void setCapacity(int capacity);
+
+    public void put(K key, V value);
+
+    public V get(K key);
+
+    /**
+     * Tells the cache that the value cached for key, if it is still value, has been changed in place by a write of
+     * bytesWritten, so a cache weighed by memory may weigh it again.  Only called on caches that are not put-copying.
+     */
+    public void reweigh(K key, V value, int bytesWritten);
+
+    public void remove(K key);
+
+    public int size();
+
+    public void clear();
+
+    public Set<K> keySet();
+
+    /**
+     * @return the bytes taken by the cached values, or -1 if the cache does not keep track of them
+     */
+    public long memorySize();
+
+    /**
+     * @return true if values are copied into the cache by put, and out of it by get, so that changes
+     * to a value after put, or to the result of get, are not seen by the cache
+     */
+    public boolean isPutCopying();
+}
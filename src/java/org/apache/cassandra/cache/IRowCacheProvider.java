@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * Creates the storage for a column family's row cache; chosen per column family by row_cache_provider.
+ * Implementations must have a public no-argument constructor.
+ */
+public interface IRowCacheProvider
+{
+    /**
+     * @param capacity a number of rows, or of ConcurrentLinkedHashCache.MEMORY_UNITs if weighByMemory is set
+     * @param weighByMemory whether each row counts against the capacity by its serialized size, in memory units
+     * rounded up
+     */
+    public ICache<DecoratedKey, ColumnFamily> create(int capacity, boolean weighByMemory);
+}
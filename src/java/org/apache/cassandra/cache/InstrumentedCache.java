@@ -24,14 +24,11 @@ package org.apache.cassandra.cache;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.googlecode.concurrentlinkedhashmap.Weighers;
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-
 public class InstrumentedCache<K, V>
 {
-    public static final int DEFAULT_CONCURENCY_LEVEL = 64;
+    public static final int DEFAULT_CONCURENCY_LEVEL = ConcurrentLinkedHashCache.DEFAULT_CONCURENCY_LEVEL;
 
-    private final ConcurrentLinkedHashMap<K, V> map;
+    private final ICache<K, V> map;
     private final AtomicLong requests = new AtomicLong(0);
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong lastRequests = new AtomicLong(0);
@@ -45,12 +42,12 @@ public class InstrumentedCache<K, V>
 
     public InstrumentedCache(int capacity, int concurency)
     {
-        map = new ConcurrentLinkedHashMap.Builder<K, V>()
-                .weigher(Weighers.<V>singleton())
-                .initialCapacity(capacity)
-                .maximumWeightedCapacity(capacity)
-                .concurrencyLevel(concurency)
-                .build();
+        this(new ConcurrentLinkedHashCache<K, V>(capacity, concurency));
+    }
+
+    public InstrumentedCache(ICache<K, V> map)
+    {
+        this.map = map;
     }
 
     public void put(K key, V value)
@@ -72,6 +69,14 @@ public class InstrumentedCache<K, V>
         return map.get(key);
     }
 
+    /**
+     * @see ICache#reweigh(Object, Object, int)
+     */
+    public void reweigh(K key, V value, int bytesWritten)
+    {
+        map.reweigh(key, value, bytesWritten);
+    }
+
     public void remove(K key)
     {
         map.remove(key);
@@ -103,6 +108,11 @@ public class InstrumentedCache<K, V>
         return map.size();
     }
 
+    public long getMemoryUsed()
+    {
+        return map.memorySize();
+    }
+
     public long getHits()
     {
         return hits.get();
@@ -139,4 +149,12 @@ public class InstrumentedCache<K, V>
     {
         return map.keySet();
     }
+
+    /**
+     * @see ICache#isPutCopying()
+     */
+    public boolean isPutCopying()
+    {
+        return map.isPutCopying();
+    }
 }
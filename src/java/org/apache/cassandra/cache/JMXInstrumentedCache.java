@@ -28,4 +28,10 @@ public class JMXInstrumentedCache<K, V> extends InstrumentedCache<K, V> implemen
         super(capacity);
         AbstractCache.registerMBean(this, table, name);
     }
+
+    public JMXInstrumentedCache(String table, String name, ICache<K, V> map)
+    {
+        super(map);
+        AbstractCache.registerMBean(this, table, name);
+    }
 }
@@ -23,10 +23,22 @@ package org.apache.cassandra.cache;
 
 public interface JMXInstrumentedCacheMBean
 {
+    /**
+     * entries, or units of 64 bytes for caches sized in memory.  With key_cache_size_in_mb set, the capacity of a key cache is
+     * that of the cache all column families share, in bytes (at most Integer.MAX_VALUE), or 0 if the column family
+     * does not cache keys; setting it to 0 or more only turns caching off or on for the column family.  The size
+     * is still that of the column family's own keys.
+     */
     public int getCapacity();
     public void setCapacity(int capacity);
     public int getSize();
 
+    /**
+     * bytes taken by the cached values, or -1 if the cache does not measure them.  Row caches measure them when
+     * row_cache_size_in_mb is set, and then their capacity is in units of 64 bytes.  Key caches always estimate them.
+     */
+    public long getMemoryUsed();
+
     /** total request count since cache creation */
     public long getRequests();
 
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The key cache of one column family, counting its own requests and hits.  It is either a KeyPositionCache
+ * of its own, holding a number of keys, or a view of one shared by every column family, holding a number of
+ * bytes.  The capacity of a shared cache is that of the whole cache, in bytes, or 0 for a column family that
+ * does not cache keys; its size and memory used are those of the column family's own keys.  Setting the
+ * capacity of a column family's view only turns caching for it on or off, since the shared capacity is
+ * key_cache_size_in_mb.
+ */
+public class JMXInstrumentedKeyCache implements JMXInstrumentedKeyCacheMBean
+{
+    private final KeyPositionCache cache;
+    private final int cfId;
+    private final boolean shared;
+    private volatile boolean enabled = true;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong lastRequests = new AtomicLong(0);
+    private final AtomicLong lastHits = new AtomicLong(0);
+    private volatile boolean capacitySetManually;
+
+    public JMXInstrumentedKeyCache(String table, String name, int cfId, int capacity)
+    {
+        this(table, name, cfId, new KeyPositionCache(capacity, false), false);
+    }
+
+    public JMXInstrumentedKeyCache(String table, String name, int cfId, KeyPositionCache sharedCache)
+    {
+        this(table, name, cfId, sharedCache, true);
+    }
+
+    private JMXInstrumentedKeyCache(String table, String name, int cfId, KeyPositionCache cache, boolean shared)
+    {
+        this.cache = cache;
+        this.cfId = cfId;
+        this.shared = shared;
+        AbstractCache.registerMBean(this, table, name);
+    }
+
+    /**
+     * @return the cached position of the key in the sstable of the given generation, or -1 if there is none
+     */
+    public long get(int generation, ByteBuffer key)
+    {
+        long position = cache.get(cfId, generation, key);
+        requests.incrementAndGet();
+        if (position >= 0)
+            hits.incrementAndGet();
+        return position;
+    }
+
+    /**
+     * @return the same as get, without counting the request
+     */
+    public long getInternal(int generation, ByteBuffer key)
+    {
+        return cache.get(cfId, generation, key);
+    }
+
+    public void put(int generation, ByteBuffer key, long position)
+    {
+        if (enabled)
+            cache.put(cfId, generation, key, position);
+    }
+
+    public boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Turns caching for the column family on or off, which is all setting the capacity of a shared cache does.
+     */
+    private void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public int getCapacity()
+    {
+        return enabled ? (int) Math.min(cache.capacity(), Integer.MAX_VALUE) : 0;
+    }
+
+    public boolean isCapacitySetManually()
+    {
+        return capacitySetManually;
+    }
+
+    public void updateCapacity(int capacity)
+    {
+        if (shared)
+            setEnabled(capacity > 0);
+        else
+            cache.setCapacity(capacity);
+    }
+
+    public void setCapacity(int capacity)
+    {
+        updateCapacity(capacity);
+        capacitySetManually = true;
+    }
+
+    public int getSize()
+    {
+        return shared ? cache.size(cfId) : cache.size();
+    }
+
+    public long getMemoryUsed()
+    {
+        return shared ? cache.memorySize(cfId) : cache.memorySize();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public double getRecentHitRate()
+    {
+        long r = requests.get();
+        long h = hits.get();
+        try
+        {
+            return ((double)(h - lastHits.get())) / (r - lastRequests.get());
+        }
+        finally
+        {
+            lastRequests.set(r);
+            lastHits.set(h);
+        }
+    }
+
+    /**
+     * @return the keys cached for the column family, in any of its sstables
+     */
+    public Set<ByteBuffer> getKeySet()
+    {
+        return cache.getKeys(cfId);
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.utils.ObjectSizes;
+
+/**
+ * Maps (column family, sstable generation, row key) to the position of the row in the sstable's data file,
+ * keeping the entries in flat arrays of primitives rather than as objects in a map.
+ *
+ * A map from Pair<Descriptor, DecoratedKey> to Long costs a map entry, the pair, a decorated key with its
+ * token and buffer, and a boxed Long for every key cached, several times the size of the key itself, and
+ * every lookup allocates a pair.  Here an entry costs a few array slots and a copy of the key's bytes, and
+ * lookups allocate nothing.
+ *
+ * The table is split into segments, locked separately.  A segment that goes over capacity evicts its own
+ * entries in CLOCK order, which approximates LRU for the cost of setting a flag on each hit.  The capacity is a
+ * number of entries or, if weighed by memory, an estimate of the bytes they take.  A segment never evicts the
+ * entry it is adding, so the cache may go over capacity by up to one entry per segment.
+ *
+ * Size and memory are also counted per column family, for caches shared between column families.
+ */
+public class KeyPositionCache
+{
+    // bucket, next, hash, sstable, position, key reference and referenced flag, beyond the key bytes themselves
+    public static final int ENTRY_OVERHEAD = 4 + 4 + 4 + 8 + 8 + ObjectSizes.REFERENCE + 1;
+
+    private static final int INITIAL_SEGMENT_ENTRIES = 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final boolean weighByMemory;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong memorySize = new AtomicLong();
+    private final ConcurrentMap<Integer, Usage> usageByCF = new ConcurrentHashMap<Integer, Usage>();
+    private volatile long capacity;
+
+    public KeyPositionCache(long capacity, boolean weighByMemory)
+    {
+        this(capacity, weighByMemory, ConcurrentLinkedHashCache.DEFAULT_CONCURENCY_LEVEL);
+    }
+
+    public KeyPositionCache(long capacity, boolean weighByMemory, int concurrency)
+    {
+        assert capacity >= 0 : capacity;
+        int n = 1;
+        int shift = 32;
+        while (n < concurrency)
+        {
+            n <<= 1;
+            shift--;
+        }
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++)
+            segments[i] = new Segment();
+        segmentShift = shift;
+        this.weighByMemory = weighByMemory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the position cached for the key in the given sstable, or -1 if there is none
+     */
+    public long get(int cfId, int generation, ByteBuffer key)
+    {
+        long sstable = sstable(cfId, generation);
+        int hash = hash(sstable, key);
+        return segmentFor(hash).get(hash, sstable, key);
+    }
+
+    public void put(int cfId, int generation, ByteBuffer key, long position)
+    {
+        assert position >= 0 : position;
+        if (capacity == 0)
+            return;
+        long sstable = sstable(cfId, generation);
+        int hash = hash(sstable, key);
+        segmentFor(hash).put(hash, sstable, key, position);
+    }
+
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity(long capacity)
+    {
+        assert capacity >= 0 : capacity;
+        this.capacity = capacity;
+        if (weight() <= capacity)
+            return;
+        long share = capacity / segments.length;
+        for (Segment segment : segments)
+            segment.evictTo(share);
+    }
+
+    public boolean isWeighedByMemory()
+    {
+        return weighByMemory;
+    }
+
+    public int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * @return an estimate of the heap taken by the entries, which does not count the unused slots of each segment
+     */
+    public long memorySize()
+    {
+        return memorySize.get();
+    }
+
+    /**
+     * @return the number of keys cached for any sstable of the column family
+     */
+    public int size(int cfId)
+    {
+        Usage usage = usageByCF.get(cfId);
+        return usage == null ? 0 : usage.size.get();
+    }
+
+    /**
+     * @return an estimate of the heap taken by the entries of the column family
+     */
+    public long memorySize(int cfId)
+    {
+        Usage usage = usageByCF.get(cfId);
+        return usage == null ? 0 : usage.memorySize.get();
+    }
+
+    public void clear()
+    {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    /**
+     * @return the keys cached for any sstable of the column family, each once
+     */
+    public Set<ByteBuffer> getKeys(int cfId)
+    {
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        for (Segment segment : segments)
+            segment.collectKeys(cfId, keys);
+        return keys;
+    }
+
+    private Usage usageOf(long sstable)
+    {
+        Integer cfId = (int) (sstable >>> 32);
+        Usage usage = usageByCF.get(cfId);
+        if (usage == null)
+        {
+            Usage created = new Usage();
+            usage = usageByCF.putIfAbsent(cfId, created);
+            if (usage == null)
+                usage = created;
+        }
+        return usage;
+    }
+
+    private long weight()
+    {
+        return weighByMemory ? memorySize.get() : size.get();
+    }
+
+    private static long memoryOf(byte[] key)
+    {
+        return ENTRY_OVERHEAD + ObjectSizes.getArraySize(key.length);
+    }
+
+    private Segment segmentFor(int hash)
+    {
+        return segments[(hash >>> segmentShift) & (segments.length - 1)];
+    }
+
+    private static long sstable(int cfId, int generation)
+    {
+        return ((long) cfId << 32) | (generation & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long sstable, ByteBuffer key)
+    {
+        long h = sstable * 0x9E3779B97F4A7C15L;
+        for (int i = key.position(); i < key.limit(); i++)
+            h = 31 * h + key.get(i);
+        // murmur3's finalizer, so that both the high bits picking the segment and the low bits picking the bucket are mixed
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static boolean equal(byte[] bytes, ByteBuffer key)
+    {
+        if (bytes.length != key.remaining())
+            return false;
+        int offset = key.position();
+        for (int i = 0; i < bytes.length; i++)
+        {
+            if (bytes[i] != key.get(offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Entries are numbered slots in parallel arrays, chained from buckets by index.  Slots freed by eviction
+     * are chained into a free list through the same next array.
+     */
+    private final class Segment
+    {
+        private int[] buckets;
+        private int[] next;
+        private int[] hashes;
+        private long[] sstables;
+        private long[] positions;
+        private byte[][] keys; // null for free slots
+        private boolean[] referenced;
+
+        private int used; // slots below this have been handed out at some point
+        private int free;
+        private int hand;
+        private int size;
+        private long memorySize;
+
+        Segment()
+        {
+            reset(INITIAL_SEGMENT_ENTRIES);
+        }
+
+        private void reset(int slots)
+        {
+            buckets = new int[slots];
+            Arrays.fill(buckets, -1);
+            next = new int[slots];
+            hashes = new int[slots];
+            sstables = new long[slots];
+            positions = new long[slots];
+            keys = new byte[slots][];
+            referenced = new boolean[slots];
+            used = 0;
+            free = -1;
+            hand = 0;
+            size = 0;
+            memorySize = 0;
+        }
+
+        synchronized long get(int hash, long sstable, ByteBuffer key)
+        {
+            int i = find(hash, sstable, key);
+            if (i < 0)
+                return -1;
+            referenced[i] = true;
+            return positions[i];
+        }
+
+        synchronized void put(int hash, long sstable, ByteBuffer key, long position)
+        {
+            int i = find(hash, sstable, key);
+            if (i >= 0)
+            {
+                positions[i] = position;
+                referenced[i] = true;
+                return;
+            }
+
+            i = allocate();
+            byte[] bytes = new byte[key.remaining()];
+            for (int j = 0; j < bytes.length; j++)
+                bytes[j] = key.get(key.position() + j);
+            keys[i] = bytes;
+            hashes[i] = hash;
+            sstables[i] = sstable;
+            positions[i] = position;
+            referenced[i] = false;
+            int bucket = hash & (buckets.length - 1);
+            next[i] = buckets[bucket];
+            buckets[bucket] = i;
+            account(bytes, sstable, 1);
+
+            while (size > 1 && weight() > capacity)
+                evict(i);
+        }
+
+        private int find(int hash, long sstable, ByteBuffer key)
+        {
+            for (int i = buckets[hash & (buckets.length - 1)]; i >= 0; i = next[i])
+            {
+                if (hashes[i] == hash && sstables[i] == sstable && equal(keys[i], key))
+                    return i;
+            }
+            return -1;
+        }
+
+        private int allocate()
+        {
+            if (free >= 0)
+            {
+                int i = free;
+                free = next[i];
+                return i;
+            }
+            if (used == keys.length)
+                grow();
+            return used++;
+        }
+
+        // only called with no free slots, so every slot below used is live
+        private void grow()
+        {
+            int slots = keys.length * 2;
+            next = Arrays.copyOf(next, slots);
+            hashes = Arrays.copyOf(hashes, slots);
+            sstables = Arrays.copyOf(sstables, slots);
+            positions = Arrays.copyOf(positions, slots);
+            keys = Arrays.copyOf(keys, slots);
+            referenced = Arrays.copyOf(referenced, slots);
+            buckets = new int[slots];
+            Arrays.fill(buckets, -1);
+            for (int i = 0; i < used; i++)
+            {
+                int bucket = hashes[i] & (slots - 1);
+                next[i] = buckets[bucket];
+                buckets[bucket] = i;
+            }
+        }
+
+        /**
+         * Removes the first entry the clock hand finds unreferenced since it last passed, other than skip.
+         * There must be such an entry.
+         */
+        private void evict(int skip)
+        {
+            while (true)
+            {
+                if (hand >= used)
+                    hand = 0;
+                int i = hand++;
+                if (keys[i] == null || i == skip)
+                    continue;
+                if (referenced[i])
+                {
+                    referenced[i] = false;
+                    continue;
+                }
+                remove(i);
+                return;
+            }
+        }
+
+        private void remove(int i)
+        {
+            int bucket = hashes[i] & (buckets.length - 1);
+            if (buckets[bucket] == i)
+            {
+                buckets[bucket] = next[i];
+            }
+            else
+            {
+                int j = buckets[bucket];
+                while (next[j] != i)
+                    j = next[j];
+                next[j] = next[i];
+            }
+            account(keys[i], sstables[i], -1);
+            keys[i] = null;
+            referenced[i] = false;
+            next[i] = free;
+            free = i;
+        }
+
+        private void account(byte[] key, long sstable, int sign)
+        {
+            long memory = sign * memoryOf(key);
+            size += sign;
+            memorySize += memory;
+            KeyPositionCache.this.size.addAndGet(sign);
+            KeyPositionCache.this.memorySize.addAndGet(memory);
+            Usage usage = usageOf(sstable);
+            usage.size.addAndGet(sign);
+            usage.memorySize.addAndGet(memory);
+        }
+
+        synchronized void evictTo(long weight)
+        {
+            while (size > 0 && (weighByMemory ? memorySize : size) > weight)
+                evict(-1);
+        }
+
+        synchronized void clear()
+        {
+            for (int i = 0; i < used; i++)
+            {
+                if (keys[i] != null)
+                    account(keys[i], sstables[i], -1);
+            }
+            reset(INITIAL_SEGMENT_ENTRIES);
+        }
+
+        synchronized void collectKeys(int cfId, Set<ByteBuffer> collected)
+        {
+            for (int i = 0; i < used; i++)
+            {
+                if (keys[i] != null && (int) (sstables[i] >>> 32) == cfId)
+                    collected.add(ByteBuffer.wrap(keys[i]));
+            }
+        }
+    }
+
+    private static final class Usage
+    {
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicLong memorySize = new AtomicLong();
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.io.DataInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.googlecode.concurrentlinkedhashmap.Weighers;
+
+import org.apache.cassandra.io.ICompactSerializer2;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+/**
+ * Keeps values serialized outside the Java heap, so that only the keys and the map entries count
+ * against it, and the collector never has to trace or copy the values.  A value is serialized on
+ * put and deserialized on every get.
+ *
+ * The capacity is either a number of entries or, if weighed by memory, a number of
+ * ConcurrentLinkedHashCache.MEMORY_UNITs of serialized values.  Each value counts for the units it takes, rounded up.
+ */
+public class SerializingCache<K, V> implements ICache<K, V>
+{
+    private final ConcurrentLinkedHashMap<K, FreeableMemory> map;
+    private final ICompactSerializer2<V> serializer;
+    private final AtomicLong memorySize = new AtomicLong();
+
+    public SerializingCache(int capacity, ICompactSerializer2<V> serializer)
+    {
+        this(capacity, serializer, false);
+    }
+
+    public SerializingCache(int capacity, ICompactSerializer2<V> serializer, boolean weighByMemory)
+    {
+        this.serializer = serializer;
+        EvictionListener<K, FreeableMemory> listener = new EvictionListener<K, FreeableMemory>()
+        {
+            public void onEviction(K key, FreeableMemory memory)
+            {
+                release(memory);
+            }
+        };
+        Weigher<FreeableMemory> weigher = new Weigher<FreeableMemory>()
+        {
+            public int weightOf(FreeableMemory memory)
+            {
+                return ConcurrentLinkedHashCache.weightInUnits(memory.size());
+            }
+        };
+        map = new ConcurrentLinkedHashMap.Builder<K, FreeableMemory>()
+                .weigher(weighByMemory ? weigher : Weighers.<FreeableMemory>singleton())
+                .initialCapacity(weighByMemory ? 16 : capacity)
+                .maximumWeightedCapacity(capacity)
+                .concurrencyLevel(ConcurrentLinkedHashCache.DEFAULT_CONCURENCY_LEVEL)
+                .listener(listener)
+                .build();
+    }
+
+    private FreeableMemory serialize(V value)
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        try
+        {
+            serializer.serialize(value, out);
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+        FreeableMemory memory = new FreeableMemory(out.getLength());
+        memory.buffer().put(out.getData(), 0, out.getLength());
+        memorySize.addAndGet(memory.size());
+        return memory;
+    }
+
+    // drops the cache's own reference, once the memory has left the map
+    private void release(FreeableMemory memory)
+    {
+        memorySize.addAndGet(-memory.size());
+        memory.unreference();
+    }
+
+    private V deserialize(FreeableMemory memory)
+    {
+        try
+        {
+            return serializer.deserialize(new DataInputStream(new BufferInputStream(memory.buffer())));
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+    }
+
+    public int capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(int capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    public void put(K key, V value)
+    {
+        FreeableMemory old = map.put(key, serialize(value));
+        if (old != null)
+            release(old);
+    }
+
+    public V get(K key)
+    {
+        FreeableMemory memory = map.get(key);
+        // it may be evicted, and freed, while we read it
+        if (memory == null || !memory.reference())
+            return null;
+        try
+        {
+            return deserialize(memory);
+        }
+        finally
+        {
+            memory.unreference();
+        }
+    }
+
+    public void reweigh(K key, V value, int bytesWritten)
+    {
+        // values are copied on put, so they never change in place
+    }
+
+    public void remove(K key)
+    {
+        FreeableMemory old = map.remove(key);
+        if (old != null)
+            release(old);
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public void clear()
+    {
+        for (K key : map.keySet())
+            remove(key);
+    }
+
+    public Set<K> keySet()
+    {
+        return map.keySet();
+    }
+
+    public long memorySize()
+    {
+        return memorySize.get();
+    }
+
+    public boolean isPutCopying()
+    {
+        return true;
+    }
+
+    private static class BufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (!buffer.hasRemaining())
+                return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
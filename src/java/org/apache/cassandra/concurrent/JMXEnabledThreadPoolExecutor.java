@@ -23,17 +23,28 @@ import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.*;
 
+import org.apache.cassandra.utils.LatencyTracker;
+
 /**
  * This is a wrapper class for the <i>ScheduledThreadPoolExecutor</i>. It provides an implementation
  * for the <i>afterExecute()</i> found in the <i>ThreadPoolExecutor</i> class to log any unexpected 
  * Runtime Exceptions.
+ *
+ * It also tracks how long tasks wait in the queue, and can be told to shed ISheddable tasks rather than
+ * queue them for longer than a given time.
  */
 
 public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor implements JMXEnabledThreadPoolExecutorMBean
 {
     private final String mbeanName;
+    private final LatencyTracker queueLatency = new LatencyTracker();
+    private final AtomicLong shedTasks = new AtomicLong();
+    // by default, nothing is shed
+    private volatile int maxQueueSize = Integer.MAX_VALUE;
+    private volatile long maxQueueWait = Long.MAX_VALUE;
 
     public JMXEnabledThreadPoolExecutor(String threadPoolName)
     {
@@ -78,6 +89,56 @@ public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor i
         this(stage.getJmxName(), stage.getJmxType());
     }
 
+    /**
+     * Sheds sheddable tasks that would wait in the queue for longer than maxQueueWait ms: those dequeued after
+     * that long, and, as the queue is FIFO, new ones arriving while the oldest queued task has waited that long
+     * already, or while maxQueueSize tasks are queued.
+     */
+    public void setLoadShedding(int maxQueueSize, long maxQueueWait)
+    {
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWait = maxQueueWait;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        QueuedTask task = new QueuedTask(command);
+        if (isSheddable(command))
+        {
+            Runnable oldest = getQueue().peek();
+            if (getQueue().size() >= maxQueueSize
+                || (oldest instanceof QueuedTask && isExpired(task.queuedAt - ((QueuedTask) oldest).queuedAt)))
+            {
+                shed(command);
+                return;
+            }
+        }
+        super.execute(task);
+    }
+
+    @Override
+    public void afterExecute(Runnable r, Throwable t)
+    {
+        super.afterExecute(r instanceof QueuedTask ? ((QueuedTask) r).task : r, t);
+    }
+
+    private static boolean isSheddable(Runnable task)
+    {
+        return task instanceof ISheddable && ((ISheddable) task).isSheddable();
+    }
+
+    private boolean isExpired(long waitedNanos)
+    {
+        return waitedNanos > TimeUnit.MILLISECONDS.toNanos(maxQueueWait);
+    }
+
+    private void shed(Runnable task)
+    {
+        shedTasks.incrementAndGet();
+        ((ISheddable) task).shed();
+    }
+
     private void unregisterMBean()
     {
         try
@@ -129,4 +190,58 @@ public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor i
     {
         return getTaskCount() - getCompletedTaskCount();
     }
+
+    public long getShedTasks()
+    {
+        return shedTasks.get();
+    }
+
+    public long getMaxQueueSize()
+    {
+        return maxQueueSize;
+    }
+
+    public long getMaxQueueWaitMillis()
+    {
+        return maxQueueWait;
+    }
+
+    public double getRecentQueueLatencyMicros()
+    {
+        return queueLatency.getRecentLatencyMicros();
+    }
+
+    public long[] getLifetimeQueueLatencyHistogramMicros()
+    {
+        return queueLatency.getTotalLatencyHistogramMicros();
+    }
+
+    public long[] getRecentQueueLatencyHistogramMicros()
+    {
+        return queueLatency.getRecentLatencyHistogramMicros();
+    }
+
+    /**
+     * Remembers when a task was queued.
+     */
+    private class QueuedTask implements Runnable
+    {
+        final Runnable task;
+        final long queuedAt = System.nanoTime();
+
+        QueuedTask(Runnable task)
+        {
+            this.task = task;
+        }
+
+        public void run()
+        {
+            long waited = System.nanoTime() - queuedAt;
+            queueLatency.addNano(waited);
+            if (isSheddable(task) && isExpired(waited))
+                shed(task);
+            else
+                task.run();
+        }
+    }
 }
@@ -20,4 +20,33 @@ package org.apache.cassandra.concurrent;
 
 public interface JMXEnabledThreadPoolExecutorMBean extends IExecutorMBean
 {
+    /**
+     * Get the number of tasks dropped, without being run, because they would have waited too long
+     */
+    public long getShedTasks();
+
+    /**
+     * Get the number of queued tasks beyond which new sheddable tasks are dropped
+     */
+    public long getMaxQueueSize();
+
+    /**
+     * Get the time, in ms, after which queued sheddable tasks are dropped
+     */
+    public long getMaxQueueWaitMillis();
+
+    /**
+     * Get the mean time tasks have waited in the queue since the last call, in microseconds
+     */
+    public double getRecentQueueLatencyMicros();
+
+    /**
+     * @return an array representing the histogram of the time tasks waited in the queue
+     */
+    public long[] getLifetimeQueueLatencyHistogramMicros();
+
+    /**
+     * @return an array representing the histogram of the time tasks waited in the queue, since the last call
+     */
+    public long[] getRecentQueueLatencyHistogramMicros();
 }
\ No newline at end of file
@@ -25,6 +25,8 @@ import java.util.concurrent.TimeUnit;
 
 import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentReaders;
 import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentWriters;
+import static org.apache.cassandra.config.DatabaseDescriptor.getStageQueueSize;
+import static org.apache.cassandra.config.DatabaseDescriptor.getStageQueueTimeout;
 
 
 /**
@@ -71,13 +73,16 @@ public class StageManager
     {
         assert numThreads > 1 : "multi-threaded stages must have at least 2 threads";
         
-        return new JMXConfigurableThreadPoolExecutor(numThreads,
-                                                     numThreads,
-                                                     KEEPALIVE,
-                                                     TimeUnit.SECONDS,
-                                                     new LinkedBlockingQueue<Runnable>(),
-                                                     new NamedThreadFactory(stage.getJmxName()),
-                                                     stage.getJmxType());
+        JMXConfigurableThreadPoolExecutor executor = new JMXConfigurableThreadPoolExecutor(numThreads,
+                                                                                           numThreads,
+                                                                                           KEEPALIVE,
+                                                                                           TimeUnit.SECONDS,
+                                                                                           new LinkedBlockingQueue<Runnable>(),
+                                                                                           new NamedThreadFactory(stage.getJmxName()),
+                                                                                           stage.getJmxType());
+        // requests from other nodes are not worth running once their coordinator has given up on them
+        executor.setLoadShedding(getStageQueueSize(), getStageQueueTimeout());
+        return executor;
     }
 
     /**
@@ -18,6 +18,8 @@
 
 package org.apache.cassandra.config;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,8 +33,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.avro.util.Utf8;
 import org.apache.cassandra.avro.ColumnDef;
+import org.apache.cassandra.cache.ConcurrentLinkedHashCacheProvider;
+import org.apache.cassandra.cache.IRowCacheProvider;
+import org.apache.cassandra.db.AbstractCompactionStrategy;
+import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.ColumnFamilyType;
 import org.apache.cassandra.db.HintedHandOffManager;
+import org.apache.cassandra.db.SizeTieredCompactionStrategy;
 import org.apache.cassandra.db.SystemTable;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -41,8 +48,11 @@ import org.apache.cassandra.db.marshal.TimeUUIDType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.migration.Migration;
 import org.apache.cassandra.io.SerDeUtils;
+import org.apache.cassandra.service.SpeculativeRetry;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.HeapAllocator;
 import org.apache.cassandra.utils.Pair;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -65,6 +75,13 @@ public final class CFMetaData
     public final static int DEFAULT_MEMTABLE_LIFETIME_IN_MINS = 60;
     public final static int DEFAULT_MEMTABLE_THROUGHPUT_IN_MB = sizeMemtableThroughput();
     public final static double DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS = sizeMemtableOperations(DEFAULT_MEMTABLE_THROUGHPUT_IN_MB);
+    public final static Class<? extends Allocator> DEFAULT_MEMTABLE_ALLOCATOR = HeapAllocator.class;
+    public final static int DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB = 0;
+    public final static Class<? extends AbstractCompactionStrategy> DEFAULT_COMPACTION_STRATEGY = SizeTieredCompactionStrategy.class;
+    public final static SpeculativeRetry DEFAULT_SPECULATIVE_RETRY = SpeculativeRetry.NONE;
+    public final static Class<? extends IRowCacheProvider> DEFAULT_ROW_CACHE_PROVIDER = ConcurrentLinkedHashCacheProvider.class;
+    public final static int DEFAULT_ROW_CACHE_HEAD_SIZE = 0;
+    public final static boolean DEFAULT_ROW_CACHE_HEAD_REVERSED = false;
 
     private static final int MIN_CF_ID = 1000;
 
@@ -98,6 +115,14 @@ public final class CFMetaData
                               DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              DEFAULT_MEMTABLE_ALLOCATOR,
+                              DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                              DEFAULT_COMPACTION_STRATEGY,
+                              Collections.<String, String>emptyMap(),
+                              DEFAULT_SPECULATIVE_RETRY,
+                              DEFAULT_ROW_CACHE_PROVIDER,
+                              DEFAULT_ROW_CACHE_HEAD_SIZE,
+                              DEFAULT_ROW_CACHE_HEAD_REVERSED,
                               cfId,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
@@ -163,6 +188,14 @@ public final class CFMetaData
     private int memtableFlushAfterMins;               // default 60 
     private int memtableThroughputInMb;               // default based on heap size
     private double memtableOperationsInMillions;      // default based on throughput
+    private Class<? extends Allocator> memtableAllocator; // default HeapAllocator
+    private int compressionChunkSizeInKb;             // default 0 (uncompressed)
+    private Class<? extends AbstractCompactionStrategy> compactionStrategyClass; // default SizeTieredCompactionStrategy
+    private Map<String, String> compactionStrategyOptions;
+    private SpeculativeRetry speculativeRetry;        // default NONE
+    private Class<? extends IRowCacheProvider> rowCacheProvider; // default ConcurrentLinkedHashCacheProvider
+    private int rowCacheHeadSize;                     // default 0 (whole rows)
+    private boolean rowCacheHeadReversed;             // default false (head is the first columns)
     // NOTE: if you find yourself adding members to this class, make sure you keep the convert methods in lockstep.
 
     private final Map<ByteBuffer, ColumnDefinition> column_metadata;
@@ -185,6 +218,14 @@ public final class CFMetaData
                        int memtableFlushAfterMins,
                        Integer memtableThroughputInMb,
                        Double memtableOperationsInMillions,
+                       Class<? extends Allocator> memtableAllocator,
+                       Integer compressionChunkSizeInKb,
+                       Class<? extends AbstractCompactionStrategy> compactionStrategyClass,
+                       Map<String, String> compactionStrategyOptions,
+                       SpeculativeRetry speculativeRetry,
+                       Class<? extends IRowCacheProvider> rowCacheProvider,
+                       Integer rowCacheHeadSize,
+                       Boolean rowCacheHeadReversed,
                        Integer cfId,
                        Map<ByteBuffer, ColumnDefinition> column_metadata)
 
@@ -216,6 +257,18 @@ public final class CFMetaData
         this.memtableOperationsInMillions = memtableOperationsInMillions == null
                                             ? DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS
                                             : memtableOperationsInMillions;
+        this.memtableAllocator = memtableAllocator == null ? DEFAULT_MEMTABLE_ALLOCATOR : memtableAllocator;
+        this.compressionChunkSizeInKb = compressionChunkSizeInKb == null
+                                        ? DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB
+                                        : compressionChunkSizeInKb;
+        this.compactionStrategyClass = compactionStrategyClass == null ? DEFAULT_COMPACTION_STRATEGY : compactionStrategyClass;
+        this.compactionStrategyOptions = compactionStrategyOptions == null
+                                         ? Collections.<String, String>emptyMap()
+                                         : new HashMap<String, String>(compactionStrategyOptions);
+        this.speculativeRetry = speculativeRetry == null ? DEFAULT_SPECULATIVE_RETRY : speculativeRetry;
+        this.rowCacheProvider = rowCacheProvider == null ? DEFAULT_ROW_CACHE_PROVIDER : rowCacheProvider;
+        this.rowCacheHeadSize = rowCacheHeadSize == null ? DEFAULT_ROW_CACHE_HEAD_SIZE : rowCacheHeadSize;
+        this.rowCacheHeadReversed = rowCacheHeadReversed == null ? DEFAULT_ROW_CACHE_HEAD_REVERSED : rowCacheHeadReversed;
         this.cfId = cfId;
         this.column_metadata = new HashMap<ByteBuffer, ColumnDefinition>(column_metadata);
     }
@@ -250,6 +303,14 @@ public final class CFMetaData
                       int memTime,
                       Integer memSize,
                       Double memOps,
+                      Class<? extends Allocator> memtableAllocator,
+                      Integer compressionChunkSizeInKb,
+                      Class<? extends AbstractCompactionStrategy> compactionStrategyClass,
+                      Map<String, String> compactionStrategyOptions,
+                      SpeculativeRetry speculativeRetry,
+                      Class<? extends IRowCacheProvider> rowCacheProvider,
+                      Integer rowCacheHeadSize,
+                      Boolean rowCacheHeadReversed,
                       //This constructor generates the id!
                       Map<ByteBuffer, ColumnDefinition> column_metadata)
     {
@@ -271,6 +332,14 @@ public final class CFMetaData
              memTime,
              memSize,
              memOps,
+             memtableAllocator,
+             compressionChunkSizeInKb,
+             compactionStrategyClass,
+             compactionStrategyOptions,
+             speculativeRetry,
+             rowCacheProvider,
+             rowCacheHeadSize,
+             rowCacheHeadReversed,
              nextId(),
              column_metadata);
     }
@@ -295,6 +364,14 @@ public final class CFMetaData
                               DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              DEFAULT_MEMTABLE_ALLOCATOR,
+                              DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                              DEFAULT_COMPACTION_STRATEGY,
+                              Collections.<String, String>emptyMap(),
+                              DEFAULT_SPECULATIVE_RETRY,
+                              DEFAULT_ROW_CACHE_PROVIDER,
+                              DEFAULT_ROW_CACHE_HEAD_SIZE,
+                              DEFAULT_ROW_CACHE_HEAD_REVERSED,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
 
@@ -319,6 +396,14 @@ public final class CFMetaData
                               cfm.memtableFlushAfterMins,
                               cfm.memtableThroughputInMb,
                               cfm.memtableOperationsInMillions,
+                              cfm.memtableAllocator,
+                              cfm.compressionChunkSizeInKb,
+                              cfm.compactionStrategyClass,
+                              cfm.compactionStrategyOptions,
+                              cfm.speculativeRetry,
+                              cfm.rowCacheProvider,
+                              cfm.rowCacheHeadSize,
+                              cfm.rowCacheHeadReversed,
                               cfm.cfId,
                               cfm.column_metadata);
     }
@@ -344,6 +429,14 @@ public final class CFMetaData
                               cfm.memtableFlushAfterMins,
                               cfm.memtableThroughputInMb,
                               cfm.memtableOperationsInMillions,
+                              cfm.memtableAllocator,
+                              cfm.compressionChunkSizeInKb,
+                              cfm.compactionStrategyClass,
+                              cfm.compactionStrategyOptions,
+                              cfm.speculativeRetry,
+                              cfm.rowCacheProvider,
+                              cfm.rowCacheHeadSize,
+                              cfm.rowCacheHeadReversed,
                               cfm.cfId,
                               cfm.column_metadata);
     }
@@ -377,6 +470,20 @@ public final class CFMetaData
         cf.memtable_flush_after_mins = memtableFlushAfterMins;
         cf.memtable_throughput_in_mb = memtableThroughputInMb;
         cf.memtable_operations_in_millions = memtableOperationsInMillions;
+        cf.memtable_allocator = new Utf8(memtableAllocator.getName());
+        cf.compression_chunk_size_in_kb = compressionChunkSizeInKb;
+        cf.compaction_strategy = new Utf8(compactionStrategyClass.getName());
+        // avro can't compare maps, so leave out the usual empty one
+        if (!compactionStrategyOptions.isEmpty())
+        {
+            cf.compaction_strategy_options = new HashMap<CharSequence, CharSequence>();
+            for (Map.Entry<String, String> e : compactionStrategyOptions.entrySet())
+                cf.compaction_strategy_options.put(new Utf8(e.getKey()), new Utf8(e.getValue()));
+        }
+        cf.speculative_retry = new Utf8(speculativeRetry.toString());
+        cf.row_cache_provider = new Utf8(rowCacheProvider.getName());
+        cf.row_cache_head_size = rowCacheHeadSize;
+        cf.row_cache_head_reversed = rowCacheHeadReversed;
         cf.column_metadata = SerDeUtils.createArray(column_metadata.size(),
                                                     org.apache.cassandra.avro.ColumnDef.SCHEMA$);
         for (ColumnDefinition cd : column_metadata.values())
@@ -402,6 +509,29 @@ public final class CFMetaData
         {
             throw new RuntimeException("Could not inflate CFMetaData for " + cf, ex);
         }
+        Class<? extends Allocator> memtableAllocator;
+        Class<? extends AbstractCompactionStrategy> compactionStrategyClass;
+        SpeculativeRetry speculativeRetry;
+        Class<? extends IRowCacheProvider> rowCacheProvider;
+        try
+        {
+            memtableAllocator = cf.memtable_allocator == null
+                                ? DEFAULT_MEMTABLE_ALLOCATOR
+                                : getMemtableAllocatorClass(cf.memtable_allocator.toString());
+            compactionStrategyClass = cf.compaction_strategy == null
+                                      ? DEFAULT_COMPACTION_STRATEGY
+                                      : getCompactionStrategyClass(cf.compaction_strategy.toString());
+            speculativeRetry = cf.speculative_retry == null
+                               ? DEFAULT_SPECULATIVE_RETRY
+                               : SpeculativeRetry.fromString(cf.speculative_retry.toString());
+            rowCacheProvider = cf.row_cache_provider == null
+                               ? DEFAULT_ROW_CACHE_PROVIDER
+                               : getRowCacheProviderClass(cf.row_cache_provider.toString());
+        }
+        catch (ConfigurationException ex)
+        {
+            throw new RuntimeException("Could not inflate CFMetaData for " + cf, ex);
+        }
         Map<ByteBuffer, ColumnDefinition> column_metadata = new TreeMap<ByteBuffer, ColumnDefinition>(BytesType.instance);
         for (ColumnDef aColumn_metadata : cf.column_metadata)
         {
@@ -417,6 +547,10 @@ public final class CFMetaData
         Integer memtable_flush_after_mins = cf.memtable_flush_after_mins == null ? DEFAULT_MEMTABLE_LIFETIME_IN_MINS : cf.memtable_flush_after_mins;
         Integer memtable_throughput_in_mb = cf.memtable_throughput_in_mb == null ? DEFAULT_MEMTABLE_THROUGHPUT_IN_MB : cf.memtable_throughput_in_mb;
         Double memtable_operations_in_millions = cf.memtable_operations_in_millions == null ? DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS : cf.memtable_operations_in_millions;
+        Integer compression_chunk_size_in_kb = cf.compression_chunk_size_in_kb == null ? DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB : cf.compression_chunk_size_in_kb;
+        Integer row_cache_head_size = cf.row_cache_head_size == null ? DEFAULT_ROW_CACHE_HEAD_SIZE : cf.row_cache_head_size;
+        Boolean row_cache_head_reversed = cf.row_cache_head_reversed == null ? DEFAULT_ROW_CACHE_HEAD_REVERSED : cf.row_cache_head_reversed;
+        Map<String, String> compactionStrategyOptions = convertOptions(cf.compaction_strategy_options);
 
         return new CFMetaData(cf.keyspace.toString(),
                               cf.name.toString(),
@@ -436,6 +570,14 @@ public final class CFMetaData
                               memtable_flush_after_mins,
                               memtable_throughput_in_mb,
                               memtable_operations_in_millions,
+                              memtableAllocator,
+                              compression_chunk_size_in_kb,
+                              compactionStrategyClass,
+                              compactionStrategyOptions,
+                              speculativeRetry,
+                              rowCacheProvider,
+                              row_cache_head_size,
+                              row_cache_head_reversed,
                               cf.id,
                               column_metadata);
     }
@@ -505,6 +647,163 @@ public final class CFMetaData
         return memtableOperationsInMillions;
     }
 
+    public Class<? extends Allocator> getMemtableAllocator()
+    {
+        return memtableAllocator;
+    }
+
+    /**
+     * @return a new allocator of the configured type, for a single memtable to copy its contents into
+     */
+    public Allocator createMemtableAllocator()
+    {
+        try
+        {
+            return memtableAllocator.newInstance();
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the Allocator subclass for the given name; unqualified names are looked up in org.apache.cassandra.utils
+     */
+    public static Class<? extends Allocator> getMemtableAllocatorClass(String allocatorName) throws ConfigurationException
+    {
+        String className = allocatorName.contains(".") ? allocatorName : "org.apache.cassandra.utils." + allocatorName;
+        Class<? extends Allocator> allocatorClass = FBUtilities.<Allocator>classForName(className, "memtable allocator");
+        if (!Allocator.class.isAssignableFrom(allocatorClass))
+            throw new ConfigurationException(String.format("Specified memtable allocator class (%s) is not derived from Allocator", className));
+        return allocatorClass;
+    }
+
+    /**
+     * @return the uncompressed size of each compressed chunk of the data file, or 0 if sstables are not compressed
+     */
+    public int getCompressionChunkSizeInKb()
+    {
+        return compressionChunkSizeInKb;
+    }
+
+    public Class<? extends AbstractCompactionStrategy> getCompactionStrategyClass()
+    {
+        return compactionStrategyClass;
+    }
+
+    public Map<String, String> getCompactionStrategyOptions()
+    {
+        return Collections.unmodifiableMap(compactionStrategyOptions);
+    }
+
+    public SpeculativeRetry getSpeculativeRetry()
+    {
+        return speculativeRetry;
+    }
+
+    public Class<? extends IRowCacheProvider> getRowCacheProvider()
+    {
+        return rowCacheProvider;
+    }
+
+    /**
+     * @return the number of columns at the head of each row to cache, or 0 to cache whole rows
+     */
+    public int getRowCacheHeadSize()
+    {
+        return rowCacheHeadSize;
+    }
+
+    /**
+     * @return true if the cached head of a row is its last columns rather than its first
+     */
+    public boolean isRowCacheHeadReversed()
+    {
+        return rowCacheHeadReversed;
+    }
+
+    /**
+     * @return a new provider of the configured type, to create the storage of the row cache
+     */
+    public IRowCacheProvider createRowCacheProviderInstance()
+    {
+        try
+        {
+            return rowCacheProvider.newInstance();
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the IRowCacheProvider for the given name; unqualified names are looked up in org.apache.cassandra.cache
+     */
+    public static Class<? extends IRowCacheProvider> getRowCacheProviderClass(String providerName) throws ConfigurationException
+    {
+        String className = providerName.contains(".") ? providerName : "org.apache.cassandra.cache." + providerName;
+        Class<? extends IRowCacheProvider> providerClass = FBUtilities.<IRowCacheProvider>classForName(className, "row cache provider");
+        if (!IRowCacheProvider.class.isAssignableFrom(providerClass))
+            throw new ConfigurationException(String.format("Specified row cache provider class (%s) does not implement IRowCacheProvider", className));
+        return providerClass;
+    }
+
+    /**
+     * @return a new compaction strategy of the configured type, to choose the sstables the given store compacts
+     */
+    public AbstractCompactionStrategy createCompactionStrategyInstance(ColumnFamilyStore cfs)
+    {
+        try
+        {
+            Constructor<? extends AbstractCompactionStrategy> constructor = compactionStrategyClass.getConstructor(ColumnFamilyStore.class, Map.class);
+            return constructor.newInstance(cfs, getCompactionStrategyOptions());
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the AbstractCompactionStrategy subclass for the given name; unqualified names are looked up in org.apache.cassandra.db
+     */
+    public static Class<? extends AbstractCompactionStrategy> getCompactionStrategyClass(String strategyName) throws ConfigurationException
+    {
+        String className = strategyName.contains(".") ? strategyName : "org.apache.cassandra.db." + strategyName;
+        Class<? extends AbstractCompactionStrategy> strategyClass = FBUtilities.<AbstractCompactionStrategy>classForName(className, "compaction strategy");
+        if (!AbstractCompactionStrategy.class.isAssignableFrom(strategyClass))
+            throw new ConfigurationException(String.format("Specified compaction strategy class (%s) is not derived from AbstractCompactionStrategy", className));
+        return strategyClass;
+    }
+
+    private static Map<String, String> convertOptions(Map<CharSequence, CharSequence> options)
+    {
+        if (options == null)
+            return null;
+        Map<String, String> converted = new HashMap<String, String>();
+        for (Map.Entry<CharSequence, CharSequence> e : options.entrySet())
+            converted.put(e.getKey().toString(), e.getValue().toString());
+        return converted;
+    }
+
     public Map<ByteBuffer, ColumnDefinition> getColumn_metadata()
     {
         return Collections.unmodifiableMap(column_metadata);
@@ -542,6 +841,14 @@ public final class CFMetaData
             .append(memtableFlushAfterMins, rhs.memtableFlushAfterMins)
             .append(memtableThroughputInMb, rhs.memtableThroughputInMb)
             .append(memtableOperationsInMillions, rhs.memtableOperationsInMillions)
+            .append(memtableAllocator, rhs.memtableAllocator)
+            .append(compressionChunkSizeInKb, rhs.compressionChunkSizeInKb)
+            .append(compactionStrategyClass, rhs.compactionStrategyClass)
+            .append(compactionStrategyOptions, rhs.compactionStrategyOptions)
+            .append(speculativeRetry, rhs.speculativeRetry)
+            .append(rowCacheProvider, rhs.rowCacheProvider)
+            .append(rowCacheHeadSize, rhs.rowCacheHeadSize)
+            .append(rowCacheHeadReversed, rhs.rowCacheHeadReversed)
             .isEquals();
     }
 
@@ -568,6 +875,14 @@ public final class CFMetaData
             .append(memtableFlushAfterMins)
             .append(memtableThroughputInMb)
             .append(memtableOperationsInMillions)
+            .append(memtableAllocator)
+            .append(compressionChunkSizeInKb)
+            .append(compactionStrategyClass)
+            .append(compactionStrategyOptions)
+            .append(speculativeRetry)
+            .append(rowCacheProvider)
+            .append(rowCacheHeadSize)
+            .append(rowCacheHeadReversed)
             .toHashCode();
     }
 
@@ -629,6 +944,22 @@ public final class CFMetaData
 
         validateMinMaxCompactionThresholds(cf_def);
         validateMemtableSettings(cf_def);
+        Class<? extends Allocator> newMemtableAllocator = cf_def.memtable_allocator == null
+                                                          ? memtableAllocator
+                                                          : getMemtableAllocatorClass(cf_def.memtable_allocator.toString());
+        if (cf_def.compression_chunk_size_in_kb != null)
+            validateCompressionChunkSize(cf_def.compression_chunk_size_in_kb);
+        if (cf_def.row_cache_head_size != null)
+            validateRowCacheHeadSize(cf_def.row_cache_head_size);
+        Class<? extends AbstractCompactionStrategy> newCompactionStrategyClass = cf_def.compaction_strategy == null
+                                                                                 ? compactionStrategyClass
+                                                                                 : getCompactionStrategyClass(cf_def.compaction_strategy.toString());
+        SpeculativeRetry newSpeculativeRetry = cf_def.speculative_retry == null
+                                               ? speculativeRetry
+                                               : SpeculativeRetry.fromString(cf_def.speculative_retry.toString());
+        Class<? extends IRowCacheProvider> newRowCacheProvider = cf_def.row_cache_provider == null
+                                                                 ? rowCacheProvider
+                                                                 : getRowCacheProviderClass(cf_def.row_cache_provider.toString());
 
         comment = cf_def.comment == null ? "" : cf_def.comment.toString();
         rowCacheSize = cf_def.row_cache_size;
@@ -643,6 +974,21 @@ public final class CFMetaData
         memtableFlushAfterMins = cf_def.memtable_flush_after_mins;
         memtableThroughputInMb = cf_def.memtable_throughput_in_mb;
         memtableOperationsInMillions = cf_def.memtable_operations_in_millions;
+        memtableAllocator = newMemtableAllocator;
+        if (cf_def.compression_chunk_size_in_kb != null)
+            compressionChunkSizeInKb = cf_def.compression_chunk_size_in_kb;
+        // options are kept unless given, or unless they belong to a strategy we are leaving
+        if (cf_def.compaction_strategy_options != null)
+            compactionStrategyOptions = convertOptions(cf_def.compaction_strategy_options);
+        else if (newCompactionStrategyClass != compactionStrategyClass)
+            compactionStrategyOptions = Collections.emptyMap();
+        compactionStrategyClass = newCompactionStrategyClass;
+        speculativeRetry = newSpeculativeRetry;
+        rowCacheProvider = newRowCacheProvider;
+        if (cf_def.row_cache_head_size != null)
+            rowCacheHeadSize = cf_def.row_cache_head_size;
+        if (cf_def.row_cache_head_reversed != null)
+            rowCacheHeadReversed = cf_def.row_cache_head_reversed;
         
         // adjust secondary indexes. figure out who is coming and going.
         Set<ByteBuffer> toRemove = new HashSet<ByteBuffer>();
@@ -746,6 +1092,15 @@ public final class CFMetaData
         def.memtable_flush_after_mins = cfm.memtableFlushAfterMins;
         def.memtable_throughput_in_mb = cfm.memtableThroughputInMb;
         def.memtable_operations_in_millions = cfm.memtableOperationsInMillions;
+        def.memtable_allocator = cfm.memtableAllocator.getName();
+        def.compression_chunk_size_in_kb = cfm.compressionChunkSizeInKb;
+        def.compaction_strategy = cfm.compactionStrategyClass.getName();
+        if (!cfm.compactionStrategyOptions.isEmpty())
+            def.compaction_strategy_options = new HashMap<CharSequence, CharSequence>(cfm.compactionStrategyOptions);
+        def.speculative_retry = cfm.speculativeRetry.toString();
+        def.row_cache_provider = cfm.rowCacheProvider.getName();
+        def.row_cache_head_size = cfm.rowCacheHeadSize;
+        def.row_cache_head_reversed = cfm.rowCacheHeadReversed;
         List<org.apache.cassandra.avro.ColumnDef> column_meta = new ArrayList<org.apache.cassandra.avro.ColumnDef>(cfm.column_metadata.size());
         for (ColumnDefinition cd : cfm.column_metadata.values())
         {
@@ -883,6 +1238,18 @@ public final class CFMetaData
         }
     }
 
+    public static void validateCompressionChunkSize(int chunkSizeInKb) throws ConfigurationException
+    {
+        if (chunkSizeInKb < 0 || chunkSizeInKb > 65536)
+            throw new ConfigurationException("compression_chunk_size_in_kb must be between 0 (uncompressed) and 65536");
+    }
+
+    public static void validateRowCacheHeadSize(int headSize) throws ConfigurationException
+    {
+        if (headSize < 0)
+            throw new ConfigurationException("row_cache_head_size must be 0 (whole rows) or more");
+    }
+
     @Override
     public String toString()
     {
@@ -906,6 +1273,14 @@ public final class CFMetaData
             .append("memtableFlushAfterMins", memtableFlushAfterMins)
             .append("memtableThroughputInMb", memtableThroughputInMb)
             .append("memtableOperationsInMillions", memtableOperationsInMillions)
+            .append("memtableAllocator", memtableAllocator)
+            .append("compressionChunkSizeInKb", compressionChunkSizeInKb)
+            .append("compactionStrategyClass", compactionStrategyClass)
+            .append("compactionStrategyOptions", compactionStrategyOptions)
+            .append("speculativeRetry", speculativeRetry)
+            .append("rowCacheProvider", rowCacheProvider)
+            .append("rowCacheHeadSize", rowCacheHeadSize)
+            .append("rowCacheHeadReversed", rowCacheHeadReversed)
             .append("column_metadata", column_metadata)
             .toString();
     }
@@ -53,12 +53,20 @@ public class Config
     
     public Integer concurrent_reads = 8;
     public Integer concurrent_writes = 32;
+    public Integer range_request_concurrency = 1;
+    public Integer stage_queue_size = 4096;
+    public Long stage_queue_timeout_in_ms = null; // will get set to half of rpc_timeout_in_ms in DatabaseDescriptor
     
     public Integer memtable_flush_writers = null; // will get set to the length of data dirs in DatabaseDescriptor
+    public Integer memtable_total_space_in_mb = null; // will get set to a third of the heap in DatabaseDescriptor
+    public Integer row_cache_size_in_mb = 0;
+    public Integer key_cache_size_in_mb = 0;
     
     public Integer sliced_buffer_size_in_kb = 64;
     
     public Integer storage_port = 7000;
+    public InternodeCompression internode_compression = InternodeCompression.none;
+    public Integer internode_compression_threshold_in_bytes = 1024;
     public String listen_address;
     
     public String rpc_address;
@@ -66,11 +74,17 @@ public class Config
     public Boolean rpc_keepalive = true;
     public Integer rpc_send_buff_size_in_bytes;
     public Integer rpc_recv_buff_size_in_bytes;
+    public RpcServerType rpc_server_type = RpcServerType.sync;
+    public Integer rpc_max_threads = null; // unbounded for sync, 64 for hsha
 
     public Integer thrift_max_message_length_in_mb = 16;
     public Integer thrift_framed_transport_size_in_mb = 15;
     public Boolean snapshot_before_compaction = false;
     public Integer compaction_thread_priority = Thread.MIN_PRIORITY;
+    public Integer concurrent_compactors = null; // will get set to the number of processors in DatabaseDescriptor
+    public Integer compaction_throughput_mb_per_sec = 16;
+    public Integer concurrent_streams_per_session = 4;
+    public Integer stream_throughput_outbound_megabits_per_sec = 400;
     
     public Integer binary_memtable_throughput_in_mb = 256;
     
@@ -120,4 +134,17 @@ public class Config
     {
         keyspace
     }
+
+    public static enum RpcServerType
+    {
+        sync,
+        hsha
+    }
+
+    public static enum InternodeCompression
+    {
+        all,
+        dc,
+        none
+    }
 }
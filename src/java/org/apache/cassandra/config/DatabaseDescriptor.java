@@ -34,6 +34,7 @@ import org.apache.cassandra.auth.AllowAllAuthenticator;
 import org.apache.cassandra.auth.AllowAllAuthority;
 import org.apache.cassandra.auth.IAuthenticator;
 import org.apache.cassandra.auth.IAuthority;
+import org.apache.cassandra.cache.ConcurrentLinkedHashCache;
 import org.apache.cassandra.config.Config.RequestSchedulerId;
 import org.apache.cassandra.db.ColumnFamilyType;
 import org.apache.cassandra.db.DefsTable;
@@ -47,6 +48,7 @@ import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.locator.*;
 import org.apache.cassandra.scheduler.IRequestScheduler;
 import org.apache.cassandra.scheduler.NoScheduler;
+import org.apache.cassandra.service.SpeculativeRetry;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import org.yaml.snakeyaml.Loader;
@@ -128,6 +130,7 @@ public class    DatabaseDescriptor
             ksDesc.putListPropertyType("column_families", RawColumnFamily.class);
             TypeDescription cfDesc = new TypeDescription(RawColumnFamily.class);
             cfDesc.putListPropertyType("column_metadata", RawColumnDefinition.class);
+            cfDesc.putMapPropertyType("compaction_strategy_options", String.class, String.class);
             TypeDescription seedDesc = new TypeDescription(SeedProviderDef.class);
             seedDesc.putMapPropertyType("parameters", String.class, String.class);
             constructor.addTypeDescription(desc);
@@ -224,6 +227,25 @@ public class    DatabaseDescriptor
                 throw new ConfigurationException("concurrent_writes must be at least 2");
             }
 
+            if (conf.range_request_concurrency == null || conf.range_request_concurrency < 1)
+            {
+                throw new ConfigurationException("range_request_concurrency must be at least 1");
+            }
+
+            if (conf.stage_queue_size == null || conf.stage_queue_size < 1)
+            {
+                throw new ConfigurationException("stage_queue_size must be at least 1");
+            }
+
+            if (conf.stage_queue_timeout_in_ms == null)
+            {
+                conf.stage_queue_timeout_in_ms = conf.rpc_timeout_in_ms / 2;
+            }
+            else if (conf.stage_queue_timeout_in_ms < 1 || conf.stage_queue_timeout_in_ms > conf.rpc_timeout_in_ms)
+            {
+                throw new ConfigurationException("stage_queue_timeout_in_ms must be between 1 and rpc_timeout_in_ms");
+            }
+
             /* Memtable flush writer threads */
             if (conf.memtable_flush_writers != null && conf.memtable_flush_writers < 1)
             {
@@ -234,6 +256,21 @@ public class    DatabaseDescriptor
                 conf.memtable_flush_writers = conf.data_file_directories.length;
             }
 
+            /* Global memtable space, across all column families */
+            if (conf.memtable_total_space_in_mb != null && conf.memtable_total_space_in_mb < 1)
+            {
+                throw new ConfigurationException("memtable_total_space_in_mb must be at least 1");
+            }
+            else if (conf.memtable_total_space_in_mb == null)
+            {
+                conf.memtable_total_space_in_mb = (int) (Runtime.getRuntime().maxMemory() / (3 * 1048576));
+            }
+
+            if (conf.row_cache_size_in_mb == null || conf.row_cache_size_in_mb < 0)
+                throw new ConfigurationException("row_cache_size_in_mb must be positive, or 0 to size row caches per column family");
+            if (conf.key_cache_size_in_mb == null || conf.key_cache_size_in_mb < 0)
+                throw new ConfigurationException("key_cache_size_in_mb must be positive, or 0 to size key caches per column family");
+
             /* Local IP or hostname to bind services to */
             if (conf.listen_address != null)
             {
@@ -261,11 +298,55 @@ public class    DatabaseDescriptor
                 throw new ConfigurationException("thrift_max_message_length_in_mb must be greater than thrift_framed_transport_size_in_mb when using TFramedTransport");
             }
 
+            if (conf.rpc_server_type == null)
+            {
+                throw new ConfigurationException("rpc_server_type must be one of sync or hsha");
+            }
+            if (conf.rpc_server_type == Config.RpcServerType.hsha && conf.thrift_framed_transport_size_in_mb <= 0)
+            {
+                throw new ConfigurationException("rpc_server_type hsha requires TFramedTransport; set thrift_framed_transport_size_in_mb");
+            }
+            if (conf.rpc_max_threads != null && conf.rpc_max_threads < 1)
+            {
+                throw new ConfigurationException("rpc_max_threads must be at least 1");
+            }
+
             /* compaction thread priority */
             if (conf.compaction_thread_priority < Thread.MIN_PRIORITY || conf.compaction_thread_priority > Thread.NORM_PRIORITY)
             {
                 throw new ConfigurationException("compaction_thread_priority must be between 1 and 5");
             }
+
+            if (conf.concurrent_compactors != null && conf.concurrent_compactors < 1)
+            {
+                throw new ConfigurationException("concurrent_compactors must be at least 1");
+            }
+            else if (conf.concurrent_compactors == null)
+            {
+                conf.concurrent_compactors = Runtime.getRuntime().availableProcessors();
+            }
+
+            if (conf.compaction_throughput_mb_per_sec == null || conf.compaction_throughput_mb_per_sec < 0)
+            {
+                throw new ConfigurationException("compaction_throughput_mb_per_sec must be 0 (unthrottled) or more");
+            }
+            if (conf.concurrent_streams_per_session == null || conf.concurrent_streams_per_session < 1)
+            {
+                throw new ConfigurationException("concurrent_streams_per_session must be at least 1");
+            }
+            if (conf.stream_throughput_outbound_megabits_per_sec == null || conf.stream_throughput_outbound_megabits_per_sec < 0)
+            {
+                throw new ConfigurationException("stream_throughput_outbound_megabits_per_sec must be 0 (unthrottled) or more");
+            }
+
+            if (conf.internode_compression == null)
+            {
+                throw new ConfigurationException("internode_compression must be one of all, dc or none");
+            }
+            if (conf.internode_compression_threshold_in_bytes == null || conf.internode_compression_threshold_in_bytes < 0)
+            {
+                throw new ConfigurationException("internode_compression_threshold_in_bytes must be 0 or more");
+            }
             
             /* end point snitch */
             if (conf.endpoint_snitch == null)
@@ -582,6 +663,10 @@ public class    DatabaseDescriptor
                     throw new ConfigurationException("memtable_operations_in_millions must be a positive double");
                 }
 
+                if (cf.compression_chunk_size_in_kb != null)
+                    CFMetaData.validateCompressionChunkSize(cf.compression_chunk_size_in_kb);
+                CFMetaData.validateRowCacheHeadSize(cf.row_cache_head_size);
+
                  Map<ByteBuffer, ColumnDefinition> metadata = new TreeMap<ByteBuffer, ColumnDefinition>();
 
                 for (RawColumnDefinition rcd : cf.column_metadata)
@@ -622,6 +707,14 @@ public class    DatabaseDescriptor
                                              cf.memtable_flush_after_mins,
                                              cf.memtable_throughput_in_mb,
                                              cf.memtable_operations_in_millions,
+                                             cf.memtable_allocator == null ? CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR : CFMetaData.getMemtableAllocatorClass(cf.memtable_allocator),
+                                             cf.compression_chunk_size_in_kb,
+                                             cf.compaction_strategy == null ? CFMetaData.DEFAULT_COMPACTION_STRATEGY : CFMetaData.getCompactionStrategyClass(cf.compaction_strategy),
+                                             cf.compaction_strategy_options,
+                                             cf.speculative_retry == null ? CFMetaData.DEFAULT_SPECULATIVE_RETRY : SpeculativeRetry.fromString(cf.speculative_retry),
+                                             cf.row_cache_provider == null ? CFMetaData.DEFAULT_ROW_CACHE_PROVIDER : CFMetaData.getRowCacheProviderClass(cf.row_cache_provider),
+                                             cf.row_cache_head_size,
+                                             cf.row_cache_head_reversed,
                                              metadata);
             }
             defs.add(new KSMetaData(keyspace.name,
@@ -811,6 +904,16 @@ public class    DatabaseDescriptor
         return conf.storage_port;
     }
 
+    public static Config.InternodeCompression getInternodeCompression()
+    {
+        return conf.internode_compression;
+    }
+
+    public static int getInternodeCompressionThreshold()
+    {
+        return conf.internode_compression_threshold_in_bytes;
+    }
+
     public static int getRpcPort()
     {
         return conf.rpc_port;
@@ -841,11 +944,51 @@ public class    DatabaseDescriptor
         return conf.concurrent_writes;
     }
 
+    public static int getRangeRequestConcurrency()
+    {
+        return conf.range_request_concurrency;
+    }
+
+    public static int getStageQueueSize()
+    {
+        return conf.stage_queue_size;
+    }
+
+    public static long getStageQueueTimeout()
+    {
+        return conf.stage_queue_timeout_in_ms;
+    }
+
     public static int getFlushWriters()
     {
             return conf.memtable_flush_writers;
     }
 
+    public static int getTotalMemtableSpaceInMB()
+    {
+        return conf.memtable_total_space_in_mb;
+    }
+
+    public static void setTotalMemtableSpaceInMB(int size)
+    {
+        conf.memtable_total_space_in_mb = size;
+    }
+
+    public static int getRowCacheSizeInMB()
+    {
+        return conf.row_cache_size_in_mb;
+    }
+
+    public static void setRowCacheSizeInMB(int size)
+    {
+        conf.row_cache_size_in_mb = size;
+    }
+
+    public static int getKeyCacheSizeInMB()
+    {
+        return conf.key_cache_size_in_mb;
+    }
+
     public static int getInMemoryCompactionLimit()
     {
         return conf.in_memory_compaction_limit_in_mb * 1024 * 1024;
@@ -968,6 +1111,27 @@ public class    DatabaseDescriptor
         return (int)Math.min(FBUtilities.absoluteFromFraction(v, expectedRows), Integer.MAX_VALUE);
     }
 
+    /**
+     * @return The memory units (see ConcurrentLinkedHashCache.MEMORY_UNIT) of row_cache_size_in_mb that the columnfamily's row cache starts with, before RowCacheBudget
+     * has seen how much it is used: an even share among the columnfamilies that cache rows.
+     */
+    public static int getRowCacheShareFor(String tableName, String columnFamilyName)
+    {
+        CFMetaData cfm = getCFMetaData(tableName, columnFamilyName);
+        if (cfm == null || cfm.getRowCacheSize() <= 0)
+            return 0;
+        int caching = 0;
+        for (KSMetaData ksm : tables.values())
+        {
+            for (CFMetaData other : ksm.cfMetaData().values())
+            {
+                if (other.getRowCacheSize() > 0)
+                    caching++;
+            }
+        }
+        return (int)Math.min(getRowCacheSizeInMB() * (long) ConcurrentLinkedHashCache.UNITS_PER_MB / caching, ConcurrentLinkedHashCache.MAXIMUM_CAPACITY);
+    }
+
     public static KSMetaData getTableDefinition(String table)
     {
         return tables.get(table);
@@ -1018,6 +1182,26 @@ public class    DatabaseDescriptor
         return conf.rpc_recv_buff_size_in_bytes;
     }
 
+    public static Config.RpcServerType getRpcServerType()
+    {
+        return conf.rpc_server_type;
+    }
+
+    public static void setRpcServerType(Config.RpcServerType type)
+    {
+        conf.rpc_server_type = type;
+    }
+
+    public static Integer getRpcMaxThreads()
+    {
+        return conf.rpc_max_threads;
+    }
+
+    public static void setRpcMaxThreads(Integer threads)
+    {
+        conf.rpc_max_threads = threads;
+    }
+
     public static double getCommitLogSyncBatchWindow()
     {
         return conf.commitlog_sync_batch_window_in_ms;
@@ -1062,6 +1246,41 @@ public class    DatabaseDescriptor
         return conf.compaction_thread_priority;
     }
 
+    public static int getConcurrentCompactors()
+    {
+        return conf.concurrent_compactors;
+    }
+
+    public static void setConcurrentCompactors(int value)
+    {
+        conf.concurrent_compactors = value;
+    }
+
+    public static int getCompactionThroughputMbPerSec()
+    {
+        return conf.compaction_throughput_mb_per_sec;
+    }
+
+    public static void setCompactionThroughputMbPerSec(int value)
+    {
+        conf.compaction_throughput_mb_per_sec = value;
+    }
+
+    public static int getConcurrentStreamsPerSession()
+    {
+        return conf.concurrent_streams_per_session;
+    }
+
+    public static int getStreamThroughputOutboundMegabitsPerSec()
+    {
+        return conf.stream_throughput_outbound_megabits_per_sec;
+    }
+
+    public static void setStreamThroughputOutboundMegabitsPerSec(int value)
+    {
+        conf.stream_throughput_outbound_megabits_per_sec = value;
+    }
+
     public static boolean isSnapshotBeforeCompaction()
     {
         return conf.snapshot_before_compaction;
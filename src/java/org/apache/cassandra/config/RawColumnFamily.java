@@ -21,6 +21,8 @@ package org.apache.cassandra.config;
  */
 
 
+import java.util.Map;
+
 import org.apache.cassandra.db.ColumnFamilyType;
 
 /**
@@ -46,4 +48,12 @@ public class RawColumnFamily
     public int memtable_flush_after_mins = CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS;
     public Integer memtable_throughput_in_mb;
     public Double memtable_operations_in_millions;
+    public String memtable_allocator;
+    public Integer compression_chunk_size_in_kb;
+    public String compaction_strategy;
+    public Map<String, String> compaction_strategy_options;
+    public String speculative_retry;
+    public String row_cache_provider;
+    public int row_cache_head_size = CFMetaData.DEFAULT_ROW_CACHE_HEAD_SIZE;
+    public boolean row_cache_head_reversed = CFMetaData.DEFAULT_ROW_CACHE_HEAD_REVERSED;
 }
@@ -33,4 +33,10 @@ public class RequestSchedulerOptions
     public Integer throttle_limit = DEFAULT_THROTTLE_LIMIT;
     public Integer default_weight = DEFAULT_WEIGHT;
     public Map<String, Integer> weights;
+
+    /* WeightedFairScheduler only: per-id caps on in-flight requests, and on time spent queued */
+    public Integer default_concurrency_limit = DEFAULT_THROTTLE_LIMIT;
+    public Map<String, Integer> concurrency_limits;
+    public Integer default_queue_timeout_in_ms; // null means rpc_timeout_in_ms
+    public Map<String, Integer> queue_timeouts_in_ms;
 }
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+/**
+ * Decides which sstables of a column family the CompactionManager compacts in the background.
+ *
+ * The strategy is chosen per column family by CFMetaData.compactionStrategyClass; implementations
+ * must have a public (ColumnFamilyStore, Map<String, String> options) constructor.
+ */
+public abstract class AbstractCompactionStrategy
+{
+    protected final ColumnFamilyStore cfs;
+    protected final Map<String, String> options;
+
+    protected AbstractCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        assert cfs != null;
+        this.cfs = cfs;
+        this.options = options;
+    }
+
+    /**
+     * Called with the compaction lock held, when compaction is enabled for the column family.
+     * @param gcBefore the time before which tombstones may be purged
+     * @return the sstables to compact together next, or an empty list if none need compacting
+     */
+    public abstract List<SSTableReader> getBackgroundCompactionCandidates(int gcBefore);
+
+    /**
+     * @return an estimate of the number of compactions still needed to reach a steady state
+     */
+    public abstract int getEstimatedRemainingTasks();
+
+    /**
+     * @return the size at which compaction output is split into a new sstable
+     */
+    public long getMaxSSTableSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Called, under the SSTableTracker lock, whenever sstables are added to the column family or replaced:
+     * flushes and streams only add, compactions replace, and truncate and drop only remove.
+     */
+    public void replace(Collection<SSTableReader> removed, Iterable<SSTableReader> added)
+    {
+    }
+
+    /**
+     * Called when another strategy takes over the column family.
+     */
+    public void shutdown()
+    {
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+/**
+ * Loads the saved key and row caches in the background, so that a node can join the ring and serve reads
+ * while its caches fill, rather than only once they have.
+ *
+ * The saved keys of each column family are split into batches, which a pool of low priority threads works
+ * through in parallel, across column families and sstables.  Keys are kept in token order, which is the order
+ * of the rows in every sstable, so each batch reads a stretch of each sstable front to back instead of
+ * seeking all over it.  Key cache batches go per sstable, and a column family's row batches only start once
+ * its key batches are done, so that the row reads find the keys already cached.  Looking keys up to warm the
+ * key cache does not count towards the cache's or the bloom filters' statistics.
+ */
+public class CacheWarmer implements CacheWarmerMBean
+{
+    public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CacheWarmer";
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+    // large enough that a batch reads a useful stretch of each sstable, small enough to spread a column family over the threads
+    public static final int BATCH_SIZE = 1000;
+
+    public static final CacheWarmer instance;
+
+    static
+    {
+        instance = new CacheWarmer();
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName(MBEAN_OBJECT_NAME));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final List<Runnable> deferred = new ArrayList<Runnable>();
+    private boolean started;
+
+    private final AtomicLong warmed = new AtomicLong();
+    private long total;
+    private int pendingTasks;
+    private long startedAt;
+
+    private CacheWarmer()
+    {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), DatabaseDescriptor.getConcurrentReaders()));
+        executor = new DebuggableThreadPoolExecutor(threads,
+                                                    threads,
+                                                    Integer.MAX_VALUE,
+                                                    TimeUnit.SECONDS,
+                                                    new LinkedBlockingQueue<Runnable>(),
+                                                    new NamedThreadFactory("CacheWarmer", Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Lets warming begin.  Until then warming is only queued, since rows read into the cache while the commit log
+     * is replayed could miss the writes being replayed.
+     */
+    public synchronized void start()
+    {
+        started = true;
+        startedAt = System.currentTimeMillis();
+        for (Runnable task : deferred)
+            executor.execute(task);
+        deferred.clear();
+    }
+
+    /**
+     * Loads the saved key and row caches of the column family, which must have its sstables loaded.
+     */
+    public void warm(final ColumnFamilyStore cfs)
+    {
+        submit(new Runnable()
+        {
+            public void run()
+            {
+                plan(cfs);
+            }
+        });
+    }
+
+    private void plan(final ColumnFamilyStore cfs)
+    {
+        List<Runnable> keyBatches = new ArrayList<Runnable>();
+        if (cfs.getKeyCacheCapacity() > 0)
+        {
+            NavigableSet<DecoratedKey> keys = cfs.readSavedCache(DatabaseDescriptor.getSerializedKeyCachePath(cfs.table.name, cfs.columnFamily));
+            if (!keys.isEmpty())
+            {
+                for (final SSTableReader sstable : cfs.getSSTables())
+                {
+                    List<DecoratedKey> contained = new ArrayList<DecoratedKey>(keys.subSet(sstable.getFirstKey(), true, sstable.getLastKey(), true));
+                    keyBatches.addAll(batches(contained, new Warmer()
+                    {
+                        public void warm(DecoratedKey key)
+                        {
+                            sstable.getPosition(key, SSTableReader.Operator.EQ, false);
+                        }
+                    }));
+                }
+            }
+        }
+
+        final List<Runnable> rowBatches = cfs.getRowCacheCapacity() > 0
+                                        ? batches(new ArrayList<DecoratedKey>(cfs.readSavedCache(DatabaseDescriptor.getSerializedRowCachePath(cfs.table.name, cfs.columnFamily))),
+                                                  new Warmer()
+                                                  {
+                                                      public void warm(DecoratedKey key)
+                                                      {
+                                                          cfs.cacheRow(key);
+                                                      }
+                                                  })
+                                        : Collections.<Runnable>emptyList();
+
+        submitAll(keyBatches, new Runnable()
+        {
+            public void run()
+            {
+                submitAll(rowBatches, null);
+            }
+        });
+    }
+
+    /**
+     * @return tasks warming the keys, a batch each, which are counted towards the total right away
+     */
+    private List<Runnable> batches(List<DecoratedKey> keys, final Warmer warmer)
+    {
+        synchronized (this)
+        {
+            total += keys.size();
+        }
+        List<Runnable> batches = new ArrayList<Runnable>();
+        for (int i = 0; i < keys.size(); i += BATCH_SIZE)
+        {
+            final List<DecoratedKey> batch = keys.subList(i, Math.min(i + BATCH_SIZE, keys.size()));
+            batches.add(new Runnable()
+            {
+                public void run()
+                {
+                    for (DecoratedKey key : batch)
+                    {
+                        warmer.warm(key);
+                        warmed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        return batches;
+    }
+
+    /**
+     * Submits the tasks, and runs {@code then} on the thread of the last to finish, or right away if there are none.
+     */
+    private void submitAll(List<Runnable> tasks, final Runnable then)
+    {
+        if (tasks.isEmpty())
+        {
+            if (then != null)
+                then.run();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(tasks.size());
+        for (final Runnable task : tasks)
+        {
+            submit(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        if (remaining.decrementAndGet() == 0 && then != null)
+                            then.run();
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void submit(final Runnable task)
+    {
+        if (pendingTasks++ == 0 && started)
+            startedAt = System.currentTimeMillis();
+        Runnable tracked = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    finished();
+                }
+            }
+        };
+        if (started)
+            executor.execute(tracked);
+        else
+            deferred.add(tracked);
+    }
+
+    private synchronized void finished()
+    {
+        if (--pendingTasks > 0)
+            return;
+        if (total > 0)
+            logger.info(String.format("Finished warming caches: %d keys and rows in %d ms", warmed.get(), System.currentTimeMillis() - startedAt));
+        total = 0;
+        warmed.set(0);
+    }
+
+    public synchronized long getPendingKeys()
+    {
+        return total - warmed.get();
+    }
+
+    public long getWarmedKeys()
+    {
+        return warmed.get();
+    }
+
+    public synchronized double getProgress()
+    {
+        if (total == 0)
+            return pendingTasks == 0 ? 1 : 0;
+        return (double) warmed.get() / total;
+    }
+
+    public synchronized long getEstimatedSecondsRemaining()
+    {
+        long done = warmed.get();
+        if (!started || done == 0)
+            return -1;
+        long elapsed = System.currentTimeMillis() - startedAt;
+        return (total - done) * elapsed / done / 1000;
+    }
+
+    private interface Warmer
+    {
+        public void warm(DecoratedKey key);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+public interface CacheWarmerMBean
+{
+    /**
+     * @return saved keys and rows still to be loaded into the caches; 0 once warming is done
+     */
+    public long getPendingKeys();
+
+    /**
+     * @return saved keys and rows loaded so far, since warming last started
+     */
+    public long getWarmedKeys();
+
+    /**
+     * @return the fraction of the saved keys and rows loaded so far, or 1 if there is nothing to warm
+     */
+    public double getProgress();
+
+    /**
+     * @return an estimate of the seconds until warming is done, from the rate so far; -1 if there is no estimate yet
+     */
+    public long getEstimatedSecondsRemaining();
+}
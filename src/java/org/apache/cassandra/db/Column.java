@@ -25,6 +25,7 @@ import java.util.Collection;
 
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -149,7 +150,7 @@ public class Column implements IColumn
     public void updateDigest(MessageDigest digest)
     {
         digest.update(name.array(),name.position()+name.arrayOffset(),name.remaining());
-        digest.update(value.array(),value.position()+name.arrayOffset(),value.remaining());        
+        digest.update(value.array(),value.position()+value.arrayOffset(),value.remaining());        
         
         DataOutputBuffer buffer = new DataOutputBuffer();
         try
@@ -215,6 +216,11 @@ public class Column implements IColumn
     {
         return new Column(ByteBufferUtil.clone(name), ByteBufferUtil.clone(value), timestamp);
     }
+
+    public IColumn localCopy(Allocator allocator)
+    {
+        return new Column(allocator.clone(name), allocator.clone(value), timestamp);
+    }
     
     public String getString(AbstractType comparator)
     {
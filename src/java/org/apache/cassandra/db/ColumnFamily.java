@@ -35,6 +35,7 @@ import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.util.IIterableColumns;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -108,6 +109,20 @@ public class ColumnFamily implements IColumnContainer, IIterableColumns
         return cf;
     }
 
+    /**
+     * @return a copy of this ColumnFamily whose column names and values live in buffers obtained from allocator
+     */
+    public ColumnFamily localCopy(Allocator allocator)
+    {
+        ColumnFamily cf = cloneMeShallow();
+        for (IColumn column : columns.values())
+        {
+            IColumn copy = column.localCopy(allocator);
+            cf.columns.put(copy.name(), copy);
+        }
+        return cf;
+    }
+
     public Integer id()
     {
         return cfid;
@@ -330,7 +345,10 @@ public class ColumnFamily implements IColumnContainer, IIterableColumns
         return (AbstractType)columns.comparator();
     }
 
-    int size()
+    /**
+     * @return the serialized size of the columns, which the heap size of the row is a multiple of
+     */
+    public int size()
     {
         int size = 0;
         for (IColumn column : columns.values())
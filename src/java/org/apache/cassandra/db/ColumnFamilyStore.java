@@ -25,15 +25,18 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Iterables;
 import org.apache.commons.collections.IteratorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.cache.InstrumentedCache;
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.RetryingScheduledThreadPoolExecutor;
@@ -121,9 +124,21 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     /* SSTables on disk for this column family */
     private SSTableTracker ssTables;
 
+    /* chooses the sstables to compact; replaced when the configured strategy changes */
+    private volatile AbstractCompactionStrategy compactionStrategy;
+
+    /* held by the compaction replacing this CF's sstables; compactions of different CFs may run concurrently */
+    final ReentrantLock compactionLock = new ReentrantLock();
+
     private LatencyTracker readStats = new LatencyTracker();
     private LatencyTracker writeStats = new LatencyTracker();
 
+    // a sentinel for each row being read into the row cache, which a write to the row removes; see cacheRow
+    private final ConcurrentMap<DecoratedKey, Object> rowCacheFills = new ConcurrentHashMap<DecoratedKey, Object>();
+
+    // null if the row cache holds whole rows
+    private volatile RowCacheHead rowCacheHead;
+
     // counts of sstables accessed by reads
     private final EstimatedHistogram recentSSTablesPerRead = new EstimatedHistogram(35);
     private final EstimatedHistogram sstablesPerRead = new EstimatedHistogram(35);
@@ -170,6 +185,30 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             memops = new DefaultDouble(metadata.getMemtableOperationsInMillions());
         
         ssTables.updateCacheSizes();
+        if (!ssTables.getRowCacheProvider().getClass().equals(metadata.getRowCacheProvider()))
+        {
+            logger.info("Switching {} row cache to {}", columnFamily, metadata.getRowCacheProvider().getSimpleName());
+            ssTables.setRowCacheProvider(metadata.createRowCacheProviderInstance());
+        }
+        RowCacheHead head = RowCacheHead.forMetadata(metadata);
+        if (!Objects.equal(head, rowCacheHead))
+        {
+            logger.info("Switching {} row cache to {}", columnFamily, head == null ? "whole rows" : head);
+            rowCacheHead = head;
+            // cached rows are no use to the new shape; cacheRow also drops those being cached right now
+            invalidateRowCache();
+        }
+
+        if (!compactionStrategy.getClass().equals(metadata.getCompactionStrategyClass())
+            || !compactionStrategy.options.equals(metadata.getCompactionStrategyOptions()))
+        {
+            logger.info("Switching {} to {} {}", new Object[]{ columnFamily, metadata.getCompactionStrategyClass().getSimpleName(), metadata.getCompactionStrategyOptions() });
+            AbstractCompactionStrategy oldStrategy = compactionStrategy;
+            compactionStrategy = metadata.createCompactionStrategyInstance(this);
+            ssTables.setCompactionStrategy(compactionStrategy);
+            if (!oldStrategy.getClass().equals(compactionStrategy.getClass()))
+                oldStrategy.shutdown();
+        }
         
         // figure out what needs to be added and dropped.
         // future: if/when we have modifiable settings for secondary indexes, they'll need to be handled here.
@@ -205,6 +244,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         this.memtime = new DefaultInteger(metadata.getMemtableFlushAfterMins());
         this.memsize = new DefaultInteger(metadata.getMemtableThroughputInMb());
         this.memops = new DefaultDouble(metadata.getMemtableOperationsInMillions());
+        this.rowCacheHead = RowCacheHead.forMetadata(metadata);
         this.partitioner = partitioner;
         fileIndexGenerator.set(generation);
         memtable = new Memtable(this);
@@ -214,29 +254,14 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             logger.debug("Starting CFS {}", columnFamily);
 
         // scan for sstables corresponding to this cf and load them
-        ssTables = new SSTableTracker(table.name, columnFamilyName);
-        Set<DecoratedKey> savedKeys = readSavedCache(DatabaseDescriptor.getSerializedKeyCachePath(table.name, columnFamilyName));
-        List<SSTableReader> sstables = new ArrayList<SSTableReader>();
-        for (Map.Entry<Descriptor,Set<Component>> sstableFiles : files(table.name, columnFamilyName, false).entrySet())
-        {
-            SSTableReader sstable;
-            try
-            {
-                sstable = SSTableReader.open(sstableFiles.getKey(), sstableFiles.getValue(), savedKeys, ssTables, metadata, this.partitioner);
-            }
-            catch (FileNotFoundException ex)
-            {
-                logger.error("Missing sstable component in " + sstableFiles + "; skipped because of " + ex.getMessage());
-                continue;
-            }
-            catch (IOException ex)
-            {
-                logger.error("Corrupt sstable " + sstableFiles + "; skipped", ex);
-                continue;
-            }
-            sstables.add(sstable);
-        }
+        ssTables = new SSTableTracker(table.name, columnFamilyName, metadata.cfId, metadata.createRowCacheProviderInstance());
+        Collection<SSTableReader> sstables = SSTableReader.batchOpen(files(table.name, columnFamilyName, false).entrySet(),
+                                                                     ssTables,
+                                                                     metadata,
+                                                                     this.partitioner);
         ssTables.add(sstables);
+        compactionStrategy = metadata.createCompactionStrategyInstance(this);
+        ssTables.setCompactionStrategy(compactionStrategy);
 
         // create the private ColumnFamilyStores for the secondary column indexes
         indexedColumns = new ConcurrentSkipListMap<ByteBuffer, ColumnFamilyStore>(getComparator());
@@ -261,9 +286,12 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
-    protected Set<DecoratedKey> readSavedCache(File path)
+    /**
+     * @return the keys saved in the cache file, in token order
+     */
+    protected NavigableSet<DecoratedKey> readSavedCache(File path)
     {
-        Set<DecoratedKey> keys = new TreeSet<DecoratedKey>();
+        NavigableSet<DecoratedKey> keys = new TreeSet<DecoratedKey>();
         if (path.exists())
         {
             try
@@ -501,22 +529,12 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     }
 
     // must be called after all sstables are loaded since row cache merges all row versions
-    public void initRowCache()
+    public void initCaches()
     {
         int rowCacheSavePeriodInSeconds = DatabaseDescriptor.getTableMetaData(table.name).get(columnFamily).getRowCacheSavePeriodInSeconds();
         int keyCacheSavePeriodInSeconds = DatabaseDescriptor.getTableMetaData(table.name).get(columnFamily).getKeyCacheSavePeriodInSeconds();
 
-        long start = System.currentTimeMillis();
-        // sort the results on read because there are few reads and many writes and reads only happen at startup
-        Set<DecoratedKey> savedKeys = readSavedCache(DatabaseDescriptor.getSerializedRowCachePath(table.name, columnFamily));
-        for (DecoratedKey key : savedKeys)
-            cacheRow(key);
-        if (ssTables.getRowCache().getSize() > 0)
-            logger.info(String.format("completed loading (%d ms; %d keys) row cache for %s.%s",
-                                      System.currentTimeMillis()-start,
-                                      ssTables.getRowCache().getSize(),
-                                      table.name,
-                                      columnFamily));
+        CacheWarmer.instance.warm(this);
         if (rowCacheSavePeriodInSeconds > 0)
         {
             cacheSavingExecutor.scheduleWithFixedDelay(rowCacheSaverTask,
@@ -730,9 +748,26 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
         boolean flushRequested = memtable.isThresholdViolated();
         memtable.put(key, columnFamily);
-        ColumnFamily cachedRow = getRawCachedRow(key);
-        if (cachedRow != null)
-            cachedRow.addAll(columnFamily);
+        // a row being read into the cache right now may be missing this write
+        rowCacheFills.remove(key);
+        if (ssTables.getRowCache().isPutCopying())
+        {
+            // the cached row is a copy, so merging the write into it would be lost
+            invalidateCachedRow(key);
+        }
+        else
+        {
+            ColumnFamily cachedRow = getRawCachedRow(key);
+            if (cachedRow != null)
+            {
+                RowCacheHead head = rowCacheHead;
+                if (head == null)
+                    cachedRow.addAll(columnFamily);
+                else
+                    head.apply(cachedRow, columnFamily);
+                ssTables.getRowCache().reweigh(key, cachedRow, columnFamily.size());
+            }
+        }
         writeStats.addNano(System.nanoTime() - start);
         
         return flushRequested ? memtable : null;
@@ -921,6 +956,18 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return invalid;
     }
 
+    public AbstractCompactionStrategy getCompactionStrategy()
+    {
+        return compactionStrategy;
+    }
+
+    public int[] getSSTableCountPerLevel()
+    {
+        return compactionStrategy instanceof LeveledCompactionStrategy
+               ? ((LeveledCompactionStrategy) compactionStrategy).getSSTableCountPerLevel()
+               : null;
+    }
+
     public void removeAllSSTables()
     {
         ssTables.replace(ssTables.getSSTables(), Collections.<SSTableReader>emptyList());
@@ -955,6 +1002,40 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getMemtableThreadSafe().getCurrentThroughput();
     }
 
+    public long getMemtableLiveSize()
+    {
+        return getMemtableThreadSafe().getLiveSize();
+    }
+
+    /**
+     * @return the estimated heap used by this CF's active memtable, plus those of its indexes,
+     * which is what a call to forceFlush would eventually free
+     */
+    public long getActiveMemtablesLiveSize()
+    {
+        long size = getMemtableThreadSafe().getLiveSize();
+        for (ColumnFamilyStore indexCfs : indexedColumns.values())
+            size += indexCfs.getMemtableThreadSafe().getLiveSize();
+        return size;
+    }
+
+    /**
+     * @return the estimated heap used by all of this CF's memtables, including those of its
+     * indexes and those still waiting to be flushed
+     */
+    public long getTotalMemtablesLiveSize()
+    {
+        long size = getActiveMemtablesLiveSize();
+        for (Memtable memtable : memtablesPendingFlush)
+            size += memtable.getLiveSize();
+        for (ColumnFamilyStore indexCfs : indexedColumns.values())
+        {
+            for (Memtable memtable : indexCfs.memtablesPendingFlush)
+                size += memtable.getLiveSize();
+        }
+        return size;
+    }
+
     public int getMemtableSwitchCount()
     {
         return memtableSwitchCount;
@@ -1074,15 +1155,37 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return (int) (System.currentTimeMillis() / 1000) - metadata.getGcGraceSeconds();
     }
 
-    private ColumnFamily cacheRow(DecoratedKey key)
+    ColumnFamily cacheRow(DecoratedKey key)
     {
+        InstrumentedCache<DecoratedKey, ColumnFamily> rowCache = ssTables.getRowCache();
         ColumnFamily cached;
-        if ((cached = ssTables.getRowCache().get(key)) == null)
-        {
-            cached = getTopLevelColumns(QueryFilter.getIdentityFilter(key, new QueryPath(columnFamily)), Integer.MIN_VALUE);
-            if (cached == null)
-                return null;
-            ssTables.getRowCache().put(key, cached);
+        if ((cached = rowCache.get(key)) == null)
+        {
+            // a write to the row from here on removes the sentinel, so we know not to keep what we read.
+            // if another read is already filling the row, leave it to that one
+            Object sentinel = new Object();
+            boolean filling = rowCacheFills.putIfAbsent(key, sentinel) == null;
+            RowCacheHead head = rowCacheHead;
+            QueryFilter filter = head == null
+                               ? QueryFilter.getIdentityFilter(key, new QueryPath(columnFamily))
+                               : head.getFilter(key, columnFamily);
+            try
+            {
+                cached = getTopLevelColumns(filter, Integer.MIN_VALUE);
+                if (cached == null || !filling || rowCacheFills.get(key) != sentinel)
+                    return cached;
+                rowCache.put(key, cached);
+                // A write racing with the put may have missed the row we cached, and be missing from it; rather
+                // than keep it, drop it.  (Later writes are merged into the cached row, or invalidate it.)
+                // Likewise for a row read for the previous head size.
+                if (!rowCacheFills.remove(key, sentinel) || head != rowCacheHead)
+                    rowCache.remove(key);
+            }
+            finally
+            {
+                if (filling)
+                    rowCacheFills.remove(key, sentinel);
+            }
         }
         return cached;
     }
@@ -1095,19 +1198,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         try
         {
             if (ssTables.getRowCache().getCapacity() == 0)
-            {
-                ColumnFamily cf = getTopLevelColumns(filter, gcBefore);
-                         
-                // TODO this is necessary because when we collate supercolumns together, we don't check
-                // their subcolumns for relevance, so we need to do a second prune post facto here.
-                return cf.isSuper() ? removeDeleted(cf, gcBefore) : removeDeletedCF(cf, gcBefore);
-            }
+                return getUncachedColumnFamily(filter, gcBefore);
 
             ColumnFamily cached = cacheRow(filter.key);
             if (cached == null)
                 return null;
- 
-            return filterColumnFamily(cached, filter, gcBefore);
+
+            RowCacheHead head = rowCacheHead;
+            if (head == null)
+                return filterColumnFamily(cached, filter, gcBefore);
+
+            // whether the head holds everything the filter asks for can only be told once it has been applied,
+            // since writes may trim the head meanwhile.  (An empty result is re-read, too.)
+            ColumnFamily cf = collateCachedColumns(cached, filter, gcBefore);
+            return cf != null && head.covers(cached, filter, cf) ? cf : getUncachedColumnFamily(filter, gcBefore);
         }
         finally
         {
@@ -1155,6 +1259,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             }
         }
 
+        return collateCachedColumns(cached, filter, gcBefore);
+    }
+
+    private ColumnFamily collateCachedColumns(ColumnFamily cached, QueryFilter filter, int gcBefore)
+    {
         IColumnIterator ci = filter.getMemtableColumnIterator(cached, null, getComparator());
         ColumnFamily cf = null;
         try
@@ -1171,6 +1280,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return cf.isSuper() ? removeDeleted(cf, gcBefore) : removeDeletedCF(cf, gcBefore);
     }
 
+    private ColumnFamily getUncachedColumnFamily(QueryFilter filter, int gcBefore)
+    {
+        ColumnFamily cf = getTopLevelColumns(filter, gcBefore);
+
+        // TODO this is necessary because when we collate supercolumns together, we don't check
+        // their subcolumns for relevance, so we need to do a second prune post facto here.
+        return cf.isSuper() ? removeDeleted(cf, gcBefore) : removeDeletedCF(cf, gcBefore);
+    }
+
     private ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore)
     {
         // we are querying top-level columns, do a merging fetch with indexes.
@@ -1600,6 +1718,14 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return ssTables.getRowCache().getCapacity() == 0 ? null : ssTables.getRowCache().getInternal(key);
     }
 
+    /**
+     * @return true if the row cache holds only the heads of rows, which may not have the columns a query asks for
+     */
+    public boolean isRowCacheHeadOnly()
+    {
+        return rowCacheHead != null;
+    }
+
     void invalidateCachedRow(DecoratedKey key)
     {
         ssTables.getRowCache().remove(key);
@@ -1615,6 +1741,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         ssTables.getRowCache().clear();
     }
 
+    public InstrumentedCache<DecoratedKey, ColumnFamily> getRowCache()
+    {
+        return ssTables.getRowCache();
+    }
+
     public int getRowCacheCapacity()
     {
         return ssTables.getRowCache().getCapacity();
@@ -47,7 +47,15 @@ public interface ColumnFamilyStoreMBean
      * @return The number of columns.
      */
     public int getMemtableColumnsCount();
-    
+
+    /**
+     * Returns an estimate of the heap occupied by the memtable, counting
+     * object overhead as well as the column data itself.
+     *
+     * @return The size in bytes.
+     */
+    public long getMemtableLiveSize();
+
     /**
      * Returns the number of times that a flush has resulted in the
      * memtable being switched out.
@@ -131,6 +139,11 @@ public interface ColumnFamilyStoreMBean
      */
     public int getLiveSSTableCount();
 
+    /**
+     * @return the number of SSTables in each level, for column families using leveled compaction; null otherwise
+     */
+    public int[] getSSTableCountPerLevel();
+
     /**
      * @return disk space used by SSTables belonging to this CF
      */
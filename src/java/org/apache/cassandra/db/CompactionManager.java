@@ -28,10 +28,11 @@ import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -43,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.AbstractCompactedRow;
@@ -61,7 +63,12 @@ public class CompactionManager implements CompactionManagerMBean
     public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CompactionManager";
     private static final Logger logger = LoggerFactory.getLogger(CompactionManager.class);
     public static final CompactionManager instance;
-    private final ReentrantLock compactionLock = new ReentrantLock();
+    /*
+     * compactions take the read lock, so compactions of different column families can run concurrently;
+     * (compactions of a single column family are serialized by ColumnFamilyStore.compactionLock.)
+     * migrations take the write lock to exclude all of them.
+     */
+    private final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
     // todo: should provide a way to unlock in mbean?
 
     static
@@ -81,15 +88,19 @@ public class CompactionManager implements CompactionManagerMBean
     private CompactionExecutor executor = new CompactionExecutor();
     private Map<ColumnFamilyStore, Integer> estimatedCompactions = new NonBlockingHashMap<ColumnFamilyStore, Integer>();
     
+    /**
+     * @return a lock that, when held, prevents any compaction from running
+     */
     public Lock getCompactionLock()
     {
-        return compactionLock;
+        return compactionLock.writeLock();
     }
 
     /**
      * Call this whenever a compaction might be needed on the given columnfamily.
-     * It's okay to over-call (within reason) since the compactions are single-threaded,
-     * and if a call is unnecessary, it will just be no-oped in the bucketing phase.
+     * It's okay to over-call (within reason) since a call that finds the columnfamily already being
+     * compacted does nothing (that compaction will check again when it is done), and if a call is
+     * unnecessary, the column family's compaction strategy will find nothing to do.
      */
     public Future<Integer> submitMinorIfNeeded(final ColumnFamilyStore cfs)
     {
@@ -97,65 +108,53 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Integer call() throws IOException
             {
-                compactionLock.lock();
+                compactionLock.readLock().lock();
                 try
                 {
                     if (cfs.isInvalid())
                         return 0;
-                    Integer minThreshold = cfs.getMinimumCompactionThreshold();
-                    Integer maxThreshold = cfs.getMaximumCompactionThreshold();
-    
-                    if (minThreshold == 0 || maxThreshold == 0)
+                    if (!cfs.compactionLock.tryLock())
                     {
-                        logger.debug("Compaction is currently disabled.");
+                        logger.debug("{} is already being compacted", cfs.columnFamily);
                         return 0;
                     }
-                    logger.debug("Checking to see if compaction of " + cfs.columnFamily + " would be useful");
-                    Set<List<SSTableReader>> buckets = getBuckets(convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                    updateEstimateFor(cfs, buckets);
-                    
-                    for (List<SSTableReader> sstables : buckets)
+                    try
                     {
-                        if (sstables.size() >= minThreshold)
-                        {
-                            // if we have too many to compact all at once, compact older ones first -- this avoids
-                            // re-compacting files we just created.
-                            Collections.sort(sstables);
-                            return doCompaction(cfs, sstables.subList(0, Math.min(sstables.size(), maxThreshold)), (int) (System.currentTimeMillis() / 1000) - cfs.metadata.getGcGraceSeconds());
-                        }
+                        return doMinorIfNeeded(cfs);
+                    }
+                    finally
+                    {
+                        cfs.compactionLock.unlock();
                     }
                 }
                 finally 
                 {
-                    compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
-                return 0;
             }
         };
         return executor.submit(callable);
     }
 
-    private void updateEstimateFor(ColumnFamilyStore cfs, Set<List<SSTableReader>> buckets)
+    private int doMinorIfNeeded(ColumnFamilyStore cfs) throws IOException
     {
         Integer minThreshold = cfs.getMinimumCompactionThreshold();
         Integer maxThreshold = cfs.getMaximumCompactionThreshold();
 
-        if (minThreshold > 0 && maxThreshold > 0)
-        {
-            int n = 0;
-            for (List<SSTableReader> sstables : buckets)
-            {
-                if (sstables.size() >= minThreshold)
-                {
-                    n += Math.ceil((double)sstables.size() / maxThreshold);
-                }
-            }
-            estimatedCompactions.put(cfs, n);
-        }
-        else
+        if (minThreshold == 0 || maxThreshold == 0)
         {
             logger.debug("Compaction is currently disabled.");
+            return 0;
         }
+        logger.debug("Checking to see if compaction of " + cfs.columnFamily + " would be useful");
+        AbstractCompactionStrategy strategy = cfs.getCompactionStrategy();
+        int gcBefore = (int) (System.currentTimeMillis() / 1000) - cfs.metadata.getGcGraceSeconds();
+        List<SSTableReader> sstables = strategy.getBackgroundCompactionCandidates(gcBefore);
+        estimatedCompactions.put(cfs, strategy.getEstimatedRemainingTasks());
+
+        if (!sstables.isEmpty())
+            return doCompaction(cfs, sstables, gcBefore);
+        return 0;
     }
 
     public void performCleanup(final ColumnFamilyStore cfStore) throws InterruptedException, ExecutionException
@@ -164,7 +163,8 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                compactionLock.lock();
+                compactionLock.readLock().lock();
+                cfStore.compactionLock.lock();
                 try 
                 {
                     if (!cfStore.isInvalid())
@@ -173,7 +173,8 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 finally 
                 {
-                    compactionLock.unlock();
+                    cfStore.compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
             }
         };
@@ -191,7 +192,8 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                compactionLock.lock();
+                compactionLock.readLock().lock();
+                cfStore.compactionLock.lock();
                 try
                 {
                     if (cfStore.isInvalid())
@@ -218,7 +220,8 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 finally 
                 {
-                    compactionLock.unlock();
+                    cfStore.compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
             }
         };
@@ -231,7 +234,8 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                compactionLock.lock();
+                // validation doesn't replace any sstables, so it can run alongside another compaction of the CF
+                compactionLock.readLock().lock();
                 try
                 {
                     if (!cfStore.isInvalid())
@@ -240,7 +244,7 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 finally
                 {
-                    compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
             }
         };
@@ -288,18 +292,23 @@ public class CompactionManager implements CompactionManagerMBean
         sstables = smallerSSTables;
 
         // new sstables from flush can be added during a compaction, but only the compaction can remove them,
-        // so in our single-threaded compaction world this is a valid way of determining if we're compacting
-        // all the sstables (that existed when we started)
+        // and compactions of a column family are serialized, so this is a valid way of determining if we're
+        // compacting all the sstables (that existed when we started)
         boolean major = cfs.isCompleteSSTables(sstables);
 
         long startTime = System.currentTimeMillis();
         long totalkeysWritten = 0;
 
+        // the compaction strategy may ask for the output to be split into sstables of at most maxSSTableSize
+        long maxSSTableSize = cfs.getCompactionStrategy().getMaxSSTableSize();
+        long expectedSSTables = Math.max(1, SSTable.getTotalBytes(sstables) / maxSSTableSize);
+
         // TODO the int cast here is potentially buggy
-        int expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), (int)SSTableReader.getApproximateKeyCount(sstables));
+        int expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), (int)(SSTableReader.getApproximateKeyCount(sstables) / expectedSSTables));
         if (logger.isDebugEnabled())
           logger.debug("Expected bloom filter size : " + expectedBloomFilterSize);
 
+        List<SSTableReader> results = new ArrayList<SSTableReader>();
         SSTableWriter writer;
         CompactionIterator ci = new CompactionIterator(cfs, sstables, gcBefore, major); // retain a handle so we can call close()
         Iterator<AbstractCompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
@@ -316,30 +325,36 @@ public class CompactionManager implements CompactionManagerMBean
                 return 0;
             }
 
-            String newFilename = new File(cfs.getTempSSTablePath(compactionFileLocation)).getAbsolutePath();
-            writer = new SSTableWriter(newFilename, expectedBloomFilterSize, cfs.metadata, cfs.partitioner);
+            long maxDataAge = getMaxDataAge(sstables);
+            writer = new SSTableWriter(new File(cfs.getTempSSTablePath(compactionFileLocation)).getAbsolutePath(), expectedBloomFilterSize, cfs.metadata, cfs.partitioner);
             while (nni.hasNext())
             {
                 AbstractCompactedRow row = nni.next();
                 writer.append(row);
                 totalkeysWritten++;
+
+                if (writer.getFilePointer() >= maxSSTableSize && nni.hasNext())
+                {
+                    results.add(writer.closeAndOpenReader(maxDataAge));
+                    writer = new SSTableWriter(new File(cfs.getTempSSTablePath(compactionFileLocation)).getAbsolutePath(), expectedBloomFilterSize, cfs.metadata, cfs.partitioner);
+                }
             }
+            results.add(writer.closeAndOpenReader(maxDataAge));
         }
         finally
         {
             ci.close();
         }
 
-        SSTableReader ssTable = writer.closeAndOpenReader(getMaxDataAge(sstables));
-        cfs.replaceCompactedSSTables(sstables, Arrays.asList(ssTable));
+        cfs.replaceCompactedSSTables(sstables, results);
         submitMinorIfNeeded(cfs);
 
         long dTime = System.currentTimeMillis() - startTime;
         long startsize = SSTable.getTotalBytes(sstables);
-        long endsize = ssTable.length();
+        long endsize = SSTable.getTotalBytes(results);
         double ratio = (double)endsize / (double)startsize;
         logger.info(String.format("Compacted to %s.  %,d to %,d (~%d%% of original) bytes for %,d keys.  Time: %,dms.",
-                                  writer.getFilename(), startsize, endsize, (int) (ratio * 100), totalkeysWritten, dTime));
+                                  StringUtils.join(results, ","), startsize, endsize, (int) (ratio * 100), totalkeysWritten, dTime));
         return sstables.size();
     }
 
@@ -528,23 +543,13 @@ public class CompactionManager implements CompactionManagerMBean
         return buckets.keySet();
     }
 
-    private static Collection<Pair<SSTableReader, Long>> convertSSTablesToPairs(Collection<SSTableReader> collection)
-    {
-        Collection<Pair<SSTableReader, Long>> tablePairs = new ArrayList<Pair<SSTableReader, Long>>();
-        for(SSTableReader table: collection)
-        {
-            tablePairs.add(new Pair<SSTableReader, Long>(table, table.length()));
-        }
-        return tablePairs;
-    }
-    
     public Future submitIndexBuild(final ColumnFamilyStore cfs, final Table.IndexBuilder builder)
     {
         Runnable runnable = new Runnable()
         {
             public void run()
             {
-                compactionLock.lock();
+                compactionLock.readLock().lock();
                 try
                 {
                     if (cfs.isInvalid())
@@ -554,7 +559,7 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 finally
                 {
-                    compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
             }
         };
@@ -563,7 +568,7 @@ public class CompactionManager implements CompactionManagerMBean
         // future that will be immediately immediately get()ed and executed. Happens during a migration, which locks
         // the compaction thread and then reinitializes a ColumnFamilyStore. Under normal circumstances, CFS spawns
         // index jobs to the compaction manager (this) and blocks on them.
-        if (compactionLock.isHeldByCurrentThread())
+        if (compactionLock.isWriteLockedByCurrentThread())
             return new SimpleFuture(runnable);
         else
             return executor.submit(runnable);
@@ -577,7 +582,7 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public SSTableReader call() throws IOException
             {
-                compactionLock.lock();
+                compactionLock.readLock().lock();
                 try
                 {
                     executor.beginCompaction(builder.cfs, builder);
@@ -585,7 +590,7 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 finally
                 {
-                    compactionLock.unlock();
+                    compactionLock.readLock().unlock();
                 }
             }
         };
@@ -665,8 +670,10 @@ public class CompactionManager implements CompactionManagerMBean
                 public void run ()
                 {
                     logger.debug("Estimating compactions for " + cfs.columnFamily);
-                    final Set<List<SSTableReader>> buckets = getBuckets(convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                    updateEstimateFor(cfs, buckets);
+                    if (cfs.getMinimumCompactionThreshold() > 0 && cfs.getMaximumCompactionThreshold() > 0)
+                        estimatedCompactions.put(cfs, cfs.getCompactionStrategy().getEstimatedRemainingTasks());
+                    else
+                        logger.debug("Compaction is currently disabled.");
                 }
             };
             executor.submit(runnable);
@@ -682,67 +689,148 @@ public class CompactionManager implements CompactionManagerMBean
 
     private static class CompactionExecutor extends DebuggableThreadPoolExecutor
     {
-        private volatile ColumnFamilyStore cfs;
-        private volatile ICompactionInfo ci;
+        // the compactions in progress, by the thread performing them
+        private final Map<Thread, Pair<ColumnFamilyStore, ICompactionInfo>> compactions = new NonBlockingHashMap<Thread, Pair<ColumnFamilyStore, ICompactionInfo>>();
 
         public CompactionExecutor()
         {
-            super("CompactionExecutor", DatabaseDescriptor.getCompactionThreadPriority());
+            super(DatabaseDescriptor.getConcurrentCompactors(),
+                  DatabaseDescriptor.getConcurrentCompactors(),
+                  Integer.MAX_VALUE,
+                  TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<Runnable>(),
+                  new NamedThreadFactory("CompactionExecutor", DatabaseDescriptor.getCompactionThreadPriority()));
         }
 
         @Override
         public void afterExecute(Runnable r, Throwable t)
         {
             super.afterExecute(r, t);
-            cfs = null;
-            ci = null;
+            endCompaction();
         }
 
         void beginCompaction(ColumnFamilyStore cfs, ICompactionInfo ci)
         {
-            this.cfs = cfs;
-            this.ci = ci;
+            compactions.put(Thread.currentThread(), new Pair<ColumnFamilyStore, ICompactionInfo>(cfs, ci));
         }
 
-        public String getColumnFamilyName()
+        void endCompaction()
         {
-            return cfs == null ? null : cfs.getColumnFamilyName();
+            compactions.remove(Thread.currentThread());
         }
 
-        public Long getBytesTotal()
+        public Collection<Pair<ColumnFamilyStore, ICompactionInfo>> getCompactions()
         {
-            return ci == null ? null : ci.getTotalBytes();
+            return new ArrayList<Pair<ColumnFamilyStore, ICompactionInfo>>(compactions.values());
         }
 
-        public Long getBytesCompleted()
+        public void setConcurrency(int threads)
         {
-            return ci == null ? null : ci.getBytesRead();
+            // the core size may never exceed the maximum, so grow the maximum first and shrink it last
+            if (threads > getMaximumPoolSize())
+            {
+                setMaximumPoolSize(threads);
+                setCorePoolSize(threads);
+            }
+            else
+            {
+                setCorePoolSize(threads);
+                setMaximumPoolSize(threads);
+            }
         }
+    }
 
-        public String getType()
-        {
-            return ci == null ? null : ci.getTaskType();
-        }
+    /**
+     * @return the number of compactions (including validations, cleanups and index builds) in progress
+     */
+    public int getActiveCompactions()
+    {
+        return executor.compactions.size();
+    }
+
+    public List<Map<String, String>> getCompactions()
+    {
+        List<Map<String, String>> compactions = new ArrayList<Map<String, String>>();
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : executor.getCompactions())
+        {
+            Map<String, String> info = new HashMap<String, String>();
+            info.put("keyspace", compaction.left.table.name);
+            info.put("columnfamily", compaction.left.getColumnFamilyName());
+            info.put("type", compaction.right.getTaskType());
+            info.put("bytesCompacted", Long.toString(compaction.right.getBytesRead()));
+            info.put("bytesTotal", Long.toString(compaction.right.getTotalBytes()));
+            compactions.add(info);
+        }
+        return compactions;
     }
 
     public String getColumnFamilyInProgress()
     {
-        return executor.getColumnFamilyName();
+        Collection<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = executor.getCompactions();
+        if (compactions.isEmpty())
+            return null;
+        List<String> names = new ArrayList<String>();
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : compactions)
+            names.add(compaction.left.getColumnFamilyName());
+        return StringUtils.join(names, ",");
     }
 
     public Long getBytesTotalInProgress()
     {
-        return executor.getBytesTotal();
+        Collection<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = executor.getCompactions();
+        if (compactions.isEmpty())
+            return null;
+        long total = 0;
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : compactions)
+            total += compaction.right.getTotalBytes();
+        return total;
     }
 
     public Long getBytesCompacted()
     {
-        return executor.getBytesCompleted();
+        Collection<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = executor.getCompactions();
+        if (compactions.isEmpty())
+            return null;
+        long total = 0;
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : compactions)
+            total += compaction.right.getBytesRead();
+        return total;
     }
 
     public String getCompactionType()
     {
-        return executor.getType();
+        Collection<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = executor.getCompactions();
+        if (compactions.isEmpty())
+            return null;
+        List<String> types = new ArrayList<String>();
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : compactions)
+            types.add(compaction.right.getTaskType());
+        return StringUtils.join(types, ",");
+    }
+
+    public int getConcurrentCompactors()
+    {
+        return DatabaseDescriptor.getConcurrentCompactors();
+    }
+
+    public void setConcurrentCompactors(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("concurrent_compactors must be at least 1");
+        DatabaseDescriptor.setConcurrentCompactors(threads);
+        executor.setConcurrency(threads);
+    }
+
+    public int getCompactionThroughputMbPerSec()
+    {
+        return DatabaseDescriptor.getCompactionThroughputMbPerSec();
+    }
+
+    public void setCompactionThroughputMbPerSec(int value)
+    {
+        if (value < 0)
+            throw new IllegalArgumentException("compaction_throughput_mb_per_sec must be 0 (unthrottled) or more");
+        DatabaseDescriptor.setCompactionThroughputMbPerSec(value);
     }
 
     public int getPendingTasks()
@@ -788,7 +876,14 @@ public class CompactionManager implements CompactionManagerMBean
         @Override
         public Object get() throws InterruptedException, ExecutionException
         {
-            runnable.run();
+            try
+            {
+                runnable.run();
+            }
+            finally
+            {
+                executor.endCompaction();
+            }
             runnable = null;
             return runnable;
         }
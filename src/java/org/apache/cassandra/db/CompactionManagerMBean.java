@@ -18,26 +18,34 @@
 
 package org.apache.cassandra.db;
 
+import java.util.List;
+import java.util.Map;
+
 public interface CompactionManagerMBean
 {    
+    /**
+     * @return one map per compaction in progress, with the keys keyspace, columnfamily, type,
+     * bytesCompacted and bytesTotal
+     */
+    public List<Map<String, String>> getCompactions();
 
     /**
-     * @return the columnfamily currently being compacted; null if none
+     * @return the columnfamilies currently being compacted, comma-separated; null if none
      */
     public String getColumnFamilyInProgress();
 
     /**
-     * @return the total (data, not including index and filter) bytes being compacted; null if none
+     * @return the total (data, not including index and filter) bytes being compacted, over all compactions; null if none
      */
     public Long getBytesTotalInProgress();
 
     /**
-     * @return the progress on the current compaction; null if none
+     * @return the progress on the current compactions, summed; null if none
      */
     public Long getBytesCompacted();
 
     /**
-     * @return the type of compaction operation currently in progress; null if none
+     * @return the types of the compaction operations currently in progress, comma-separated; null if none
      */
     public String getCompactionType();
 
@@ -50,4 +58,16 @@ public interface CompactionManagerMBean
      * @return number of completed compactions since server [re]start
      */
     public long getCompletedTasks();
+
+    /**
+     * @return the number of compactions that may run at once
+     */
+    public int getConcurrentCompactors();
+    public void setConcurrentCompactors(int threads);
+
+    /**
+     * @return the node-wide limit on compaction i/o, shared among the compactions in progress; 0 if unthrottled
+     */
+    public int getCompactionThroughputMbPerSec();
+    public void setCompactionThroughputMbPerSec(int value);
 }
@@ -20,6 +20,7 @@ package org.apache.cassandra.db;
 
 import java.nio.ByteBuffer;
 
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -54,7 +55,7 @@ public class DeletedColumn extends Column
     @Override
     public int getLocalDeletionTime()
     {
-       return value.getInt(value.position()+value.arrayOffset()	);
+       return value.getInt(value.position());
     }
     
     @Override
@@ -62,4 +63,10 @@ public class DeletedColumn extends Column
     {
         return new DeletedColumn(ByteBufferUtil.clone(name), ByteBufferUtil.clone(value), timestamp);
     }
+
+    @Override
+    public IColumn localCopy(Allocator allocator)
+    {
+        return new DeletedColumn(allocator.clone(name), allocator.clone(value), timestamp);
+    }
 }
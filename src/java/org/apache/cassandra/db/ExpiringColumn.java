@@ -24,6 +24,7 @@ import java.security.MessageDigest;
 
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.log4j.Logger;
 
@@ -110,6 +111,12 @@ public class ExpiringColumn extends Column
     {
         return new ExpiringColumn(ByteBufferUtil.clone(name), ByteBufferUtil.clone(value), timestamp, timeToLive, localExpirationTime);
     }
+
+    @Override
+    public IColumn localCopy(Allocator allocator)
+    {
+        return new ExpiringColumn(allocator.clone(name), allocator.clone(value), timestamp, timeToLive, localExpirationTime);
+    }
     
     @Override
     public String getString(AbstractType comparator)
@@ -23,6 +23,7 @@ import java.security.MessageDigest;
 import java.util.Collection;
 
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 
 public interface IColumn
@@ -49,6 +50,9 @@ public interface IColumn
     /** clones the column, making copies of any underlying byte buffers */
     IColumn deepCopy();
 
+    /** clones the column, copying name and value into buffers obtained from the given allocator */
+    IColumn localCopy(Allocator allocator);
+
     /**
      * For a simple column, live == !isMarkedForDelete.
      * For a supercolumn, live means it has at least one subcolumn whose timestamp is greater than the
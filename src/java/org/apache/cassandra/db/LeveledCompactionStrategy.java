@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+/**
+ * Keeps the sstables of a column family in levels of non-overlapping, fixed-size sstables (see LeveledManifest),
+ * bounding the number of sstables a read has to look at.  The price is more compaction i/o than size-tiered
+ * compaction, since data is rewritten each time it moves up a level.
+ *
+ * Options:
+ *   sstable_size_in_mb: the size compaction output is split at; defaults to 5
+ *
+ * min_compaction_threshold is the number of level 0 sstables that triggers compacting them into level 1, of which
+ * at most max_compaction_threshold are compacted at once.
+ */
+public class LeveledCompactionStrategy extends AbstractCompactionStrategy
+{
+    public static final String SSTABLE_SIZE_OPTION = "sstable_size_in_mb";
+    public static final int DEFAULT_SSTABLE_SIZE_IN_MB = 5;
+
+    private final long maxSSTableSize;
+    private final LeveledManifest manifest;
+
+    public LeveledCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+        int sstableSizeInMB = DEFAULT_SSTABLE_SIZE_IN_MB;
+        if (options != null && options.containsKey(SSTABLE_SIZE_OPTION))
+            sstableSizeInMB = Integer.parseInt(options.get(SSTABLE_SIZE_OPTION));
+        if (sstableSizeInMB <= 0)
+            throw new IllegalArgumentException(SSTABLE_SIZE_OPTION + " must be positive, not " + sstableSizeInMB);
+        maxSSTableSize = sstableSizeInMB * 1024L * 1024L;
+        manifest = LeveledManifest.create(cfs, maxSSTableSize);
+    }
+
+    public List<SSTableReader> getBackgroundCompactionCandidates(int gcBefore)
+    {
+        return manifest.getCompactionCandidates(cfs.getMinimumCompactionThreshold(), cfs.getMaximumCompactionThreshold());
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        return manifest.getEstimatedTasks(cfs.getMinimumCompactionThreshold(), cfs.getMaximumCompactionThreshold());
+    }
+
+    @Override
+    public long getMaxSSTableSize()
+    {
+        return maxSSTableSize;
+    }
+
+    @Override
+    public void replace(Collection<SSTableReader> removed, Iterable<SSTableReader> added)
+    {
+        manifest.replace(removed, added);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        manifest.delete();
+    }
+
+    public int[] getSSTableCountPerLevel()
+    {
+        return manifest.getSSTableCountPerLevel();
+    }
+
+    int getLevel(SSTableReader sstable)
+    {
+        return manifest.getLevel(sstable);
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.*;
+import java.util.*;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * Tracks the level of each sstable of a column family using LeveledCompactionStrategy.
+ *
+ * Level 0 holds sstables fresh from flushes and streams, which may overlap.  In every other level
+ * the sstables do not overlap, and level N may hold up to 10^N sstables' worth of data, so a read
+ * touches at most one sstable per level above 0.  The levels are saved to <cf>.json in the
+ * keyspace's first data directory each time they change, and restored at startup; sstables not
+ * found there start in level 0.
+ */
+public class LeveledManifest
+{
+    private static final Logger logger = LoggerFactory.getLogger(LeveledManifest.class);
+
+    // with 5MB sstables, the last level holds 10^8 * 5MB
+    static final int MAX_LEVELS = 9;
+
+    private final ColumnFamilyStore cfs;
+    private final long maxSSTableSize;
+    private final File manifestFile;
+    private final List<List<SSTableReader>> generations;
+    private final Map<SSTableReader, Integer> levelOf = new HashMap<SSTableReader, Integer>();
+    // where the last compaction out of each level stopped, so the next one picks up after it
+    private final DecoratedKey[] lastCompactedKeys = new DecoratedKey[MAX_LEVELS];
+
+    private LeveledManifest(ColumnFamilyStore cfs, long maxSSTableSize)
+    {
+        this.cfs = cfs;
+        this.maxSSTableSize = maxSSTableSize;
+        manifestFile = manifestFileFor(cfs);
+        generations = new ArrayList<List<SSTableReader>>(MAX_LEVELS);
+        for (int i = 0; i < MAX_LEVELS; i++)
+            generations.add(new ArrayList<SSTableReader>());
+    }
+
+    static File manifestFileFor(ColumnFamilyStore cfs)
+    {
+        return new File(DatabaseDescriptor.getAllDataFileLocationsForTable(cfs.table.name)[0], cfs.columnFamily + ".json");
+    }
+
+    /**
+     * @return a manifest holding the current sstables of cfs, at the levels saved for them
+     */
+    public static LeveledManifest create(ColumnFamilyStore cfs, long maxSSTableSize)
+    {
+        LeveledManifest manifest = new LeveledManifest(cfs, maxSSTableSize);
+        Map<Integer, Integer> savedLevels = manifest.readLevels();
+
+        // restore the saved levels a level at a time, in key order, so that we can check they
+        // still do not overlap; anything that does goes back to L0
+        List<SSTableReader> sstables = new ArrayList<SSTableReader>(cfs.getSSTables());
+        Collections.sort(sstables, SSTableReader.firstKeyComparator);
+        for (SSTableReader sstable : sstables)
+        {
+            Integer level = savedLevels.get(sstable.descriptor.generation);
+            if (level == null || level >= MAX_LEVELS || (level > 0 && manifest.overlapsLevel(Collections.singleton(sstable), level)))
+                level = 0;
+            manifest.add(sstable, level);
+        }
+        logger.info("Restored levels of {}: {}", cfs.columnFamily, manifest);
+        return manifest;
+    }
+
+    private Map<Integer, Integer> readLevels()
+    {
+        Map<Integer, Integer> levels = new HashMap<Integer, Integer>();
+        if (!manifestFile.exists())
+            return levels;
+        try
+        {
+            Reader reader = new FileReader(manifestFile);
+            try
+            {
+                JSONArray generationsJson = (JSONArray) JSONValue.parseWithException(reader);
+                for (int level = 0; level < generationsJson.size(); level++)
+                {
+                    for (Object generation : (JSONArray) generationsJson.get(level))
+                        levels.put(((Number) generation).intValue(), level);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Unable to read " + manifestFile + "; all sstables of " + cfs.columnFamily + " start in level 0", e);
+            levels.clear();
+        }
+        return levels;
+    }
+
+    private void add(SSTableReader sstable, int level)
+    {
+        levelOf.put(sstable, level);
+        generations.get(level).add(sstable);
+    }
+
+    private void remove(SSTableReader sstable)
+    {
+        Integer level = levelOf.remove(sstable);
+        if (level != null)
+            generations.get(level).remove(sstable);
+    }
+
+    /**
+     * Adds new sstables to level 0, and compaction output to the level after the one it was compacted from.
+     */
+    public synchronized void replace(Collection<SSTableReader> removed, Iterable<SSTableReader> added)
+    {
+        int minLevel = Integer.MAX_VALUE;
+        int maxLevel = -1;
+        for (SSTableReader sstable : removed)
+        {
+            Integer level = levelOf.get(sstable);
+            if (level == null)
+                continue;
+            minLevel = Math.min(minLevel, level);
+            maxLevel = Math.max(maxLevel, level);
+            remove(sstable);
+        }
+
+        List<SSTableReader> newSSTables = new ArrayList<SSTableReader>();
+        for (SSTableReader sstable : added)
+        {
+            if (!levelOf.containsKey(sstable))
+                newSSTables.add(sstable);
+        }
+
+        if (!newSSTables.isEmpty())
+        {
+            int newLevel = 0;
+            if (maxLevel >= 0)
+            {
+                // compacting a level with the overlapping part of the next one promotes the result
+                // to the next one; compacting a level with nothing overlapping in the next one
+                // still moves the result up, to make room
+                newLevel = Math.min(minLevel == maxLevel ? maxLevel + 1 : maxLevel, MAX_LEVELS - 1);
+                // can only happen if the compaction was not one we asked for, or lost some of its sstables
+                if (overlapsLevel(newSSTables, newLevel))
+                {
+                    logger.debug("Compacted sstables overlap level {}; adding them to level 0", newLevel);
+                    newLevel = 0;
+                }
+                lastCompactedKeys[minLevel] = Collections.max(newSSTables, SSTableReader.lastKeyComparator).getLastKey();
+            }
+            for (SSTableReader sstable : newSSTables)
+                add(sstable, newLevel);
+            if (newLevel > 0)
+                Collections.sort(generations.get(newLevel), SSTableReader.firstKeyComparator);
+        }
+
+        if (maxLevel >= 0 || !newSSTables.isEmpty())
+            serialize();
+    }
+
+    /**
+     * @return the sstables of the fullest level that is over its limit, with the sstables they overlap in the
+     * next level, or an empty list when no level needs compacting.  Level 0 is over its limit when it holds
+     * minThreshold sstables, of which the oldest maxThreshold are compacted.
+     */
+    public synchronized List<SSTableReader> getCompactionCandidates(int minThreshold, int maxThreshold)
+    {
+        double bestScore = 1.0;
+        int bestLevel = -1;
+        if (generations.get(0).size() >= minThreshold)
+        {
+            bestScore = (double) generations.get(0).size() / minThreshold;
+            bestLevel = 0;
+        }
+        // the last level can't be compacted into the next one, so it is never over its limit
+        for (int level = 1; level < MAX_LEVELS - 1; level++)
+        {
+            double score = (double) SSTable.getTotalBytes(generations.get(level)) / maxBytesForLevel(level);
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestLevel < 0)
+            return Collections.emptyList();
+
+        List<SSTableReader> candidates;
+        if (bestLevel == 0)
+        {
+            candidates = new ArrayList<SSTableReader>(generations.get(0));
+            // compact older ones first, as the size-tiered strategy does
+            Collections.sort(candidates);
+            candidates = new ArrayList<SSTableReader>(candidates.subList(0, Math.min(candidates.size(), maxThreshold)));
+        }
+        else
+        {
+            candidates = new ArrayList<SSTableReader>();
+            candidates.add(nextToCompact(bestLevel));
+        }
+        candidates.addAll(overlapping(candidates, generations.get(bestLevel + 1)));
+        logger.debug("Compacting level {} of {} into the next: {}", new Object[]{ bestLevel, cfs.columnFamily, candidates });
+        return candidates;
+    }
+
+    /**
+     * @return the sstable of the level after the last one compacted from it, wrapping around at the end
+     */
+    private SSTableReader nextToCompact(int level)
+    {
+        List<SSTableReader> sstables = generations.get(level);
+        DecoratedKey lastCompactedKey = lastCompactedKeys[level];
+        if (lastCompactedKey != null)
+        {
+            for (SSTableReader sstable : sstables)
+            {
+                if (sstable.getFirstKey().compareTo(lastCompactedKey) > 0)
+                    return sstable;
+            }
+        }
+        return sstables.get(0);
+    }
+
+    private boolean overlapsLevel(Collection<SSTableReader> sstables, int level)
+    {
+        return !overlapping(sstables, generations.get(level)).isEmpty();
+    }
+
+    /**
+     * @return the members of candidates whose key ranges overlap the range covered by sstables
+     */
+    private static List<SSTableReader> overlapping(Collection<SSTableReader> sstables, Collection<SSTableReader> candidates)
+    {
+        DecoratedKey first = Collections.min(sstables, SSTableReader.firstKeyComparator).getFirstKey();
+        DecoratedKey last = Collections.max(sstables, SSTableReader.lastKeyComparator).getLastKey();
+        List<SSTableReader> overlapping = new ArrayList<SSTableReader>();
+        for (SSTableReader candidate : candidates)
+        {
+            if (candidate.getFirstKey().compareTo(last) <= 0 && candidate.getLastKey().compareTo(first) >= 0)
+                overlapping.add(candidate);
+        }
+        return overlapping;
+    }
+
+    private long maxBytesForLevel(int level)
+    {
+        return (long) Math.pow(10, level) * maxSSTableSize;
+    }
+
+    public synchronized int getEstimatedTasks(int minThreshold, int maxThreshold)
+    {
+        int tasks = generations.get(0).size() >= minThreshold
+                  ? (int) Math.ceil((double) generations.get(0).size() / maxThreshold)
+                  : 0;
+        for (int level = 1; level < MAX_LEVELS - 1; level++)
+        {
+            long excess = SSTable.getTotalBytes(generations.get(level)) - maxBytesForLevel(level);
+            if (excess > 0)
+                tasks += Math.ceil((double) excess / maxSSTableSize);
+        }
+        return tasks;
+    }
+
+    /**
+     * @return the number of sstables in each level, up to the last non-empty one
+     */
+    public synchronized int[] getSSTableCountPerLevel()
+    {
+        int levels = MAX_LEVELS;
+        while (levels > 1 && generations.get(levels - 1).isEmpty())
+            levels--;
+        int[] counts = new int[levels];
+        for (int i = 0; i < levels; i++)
+            counts[i] = generations.get(i).size();
+        return counts;
+    }
+
+    synchronized int getLevel(SSTableReader sstable)
+    {
+        Integer level = levelOf.get(sstable);
+        return level == null ? -1 : level;
+    }
+
+    private void serialize()
+    {
+        // JSONValue writes any List as a JSON array, so there is no need for the raw JSONArray
+        List<List<Integer>> generationsJson = new ArrayList<List<Integer>>(generations.size());
+        for (List<SSTableReader> sstables : generations)
+        {
+            List<Integer> level = new ArrayList<Integer>(sstables.size());
+            for (SSTableReader sstable : sstables)
+                level.add(sstable.descriptor.generation);
+            generationsJson.add(level);
+        }
+
+        File tmpFile = new File(manifestFile.getPath() + ".tmp");
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+            Writer writer = new OutputStreamWriter(fos);
+            try
+            {
+                writer.write(JSONValue.toJSONString(generationsJson));
+                writer.flush();
+                fos.getFD().sync();
+            }
+            finally
+            {
+                writer.close();
+            }
+            FileUtils.renameWithConfirm(tmpFile, manifestFile);
+        }
+        catch (IOException e)
+        {
+            // the levels are only lost until the next change, or the next restart
+            logger.error("Unable to save levels of " + cfs.columnFamily + " to " + manifestFile, e);
+        }
+    }
+
+    /**
+     * Forgets the saved levels, when the column family stops using leveled compaction.
+     */
+    public synchronized void delete()
+    {
+        if (manifestFile.exists() && !manifestFile.delete())
+            logger.warn("Unable to delete " + manifestFile);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "LeveledManifest(sstables per level: " + Arrays.toString(getSSTableCountPerLevel()) + ")";
+    }
+}
@@ -30,6 +30,7 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cassandra.db.columniterator.IColumnIterator;
 import org.apache.cassandra.db.columniterator.SimpleAbstractColumnIterator;
@@ -39,6 +40,10 @@ import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableWriter;
+import org.apache.cassandra.utils.Allocator;
+import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.SlabAllocator;
 import org.apache.cassandra.utils.WrappedRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +59,8 @@ public class Memtable implements Comparable<Memtable>, IFlushable
 
     private final AtomicInteger currentThroughput = new AtomicInteger(0);
     private final AtomicInteger currentOperations = new AtomicInteger(0);
+    // heap used by the objects holding our data; for slab allocators, the regions are counted separately
+    private final AtomicLong currentLiveOverhead = new AtomicLong(0);
 
     private final long creationTime;
     private final ConcurrentNavigableMap<DecoratedKey, ColumnFamily> columnFamilies = new ConcurrentSkipListMap<DecoratedKey, ColumnFamily>();
@@ -62,6 +69,9 @@ public class Memtable implements Comparable<Memtable>, IFlushable
     private final int THRESHOLD;
     private final int THRESHOLD_COUNT;
 
+    // where column names and values are copied to; HeapAllocator means "keep the buffers we are given"
+    private final Allocator allocator;
+
     public Memtable(ColumnFamilyStore cfs)
     {
 
@@ -69,6 +79,7 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         creationTime = System.currentTimeMillis();
         this.THRESHOLD = cfs.getMemtableThroughputInMB() * 1024 * 1024;
         this.THRESHOLD_COUNT = (int) (cfs.getMemtableOperationsInMillions() * 1024 * 1024);
+        this.allocator = cfs.metadata.createMemtableAllocator();
     }
 
     /**
@@ -98,6 +109,19 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         return currentOperations.get();
     }
 
+    /**
+     * @return an estimate of the heap this memtable occupies, including object overhead
+     * that getCurrentThroughput ignores.  Overwritten columns are not subtracted, so
+     * for update-heavy workloads this errs on the high side.
+     */
+    public long getLiveSize()
+    {
+        long size = currentLiveOverhead.get();
+        if (allocator instanceof SlabAllocator)
+            size += ((SlabAllocator) allocator).getMinimumSize();
+        return size;
+    }
+
     boolean isThresholdViolated()
     {
         return currentThroughput.get() >= this.THRESHOLD || currentOperations.get() >= this.THRESHOLD_COUNT;
@@ -129,13 +153,47 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         currentThroughput.addAndGet(cf.size());
         currentOperations.addAndGet(cf.getColumnCount());
 
+        // the write path already hands us private copies (see StorageProxy.insertLocalMessage), so the
+        // heap allocator has nothing to gain from copying them again
+        if (!(allocator instanceof HeapAllocator))
+        {
+            cf = cf.localCopy(allocator);
+            if (!columnFamilies.containsKey(key))
+                key = new DecoratedKey(key.token, allocator.clone(key.key));
+        }
+
         ColumnFamily oldCf = columnFamilies.putIfAbsent(key, cf);
         if (oldCf == null)
+        {
+            currentLiveOverhead.addAndGet(ObjectSizes.SKIP_LIST_ENTRY + ObjectSizes.DECORATED_KEY + getBufferSize(key.key)
+                                          + ObjectSizes.COLUMN_FAMILY + ObjectSizes.SKIP_LIST + getColumnsSize(cf.getSortedColumns()));
             return;
+        }
 
+        currentLiveOverhead.addAndGet(getColumnsSize(cf.getSortedColumns()));
         oldCf.resolve(cf);
     }
 
+    private long getColumnsSize(Collection<IColumn> columns)
+    {
+        long size = 0;
+        for (IColumn column : columns)
+        {
+            size += ObjectSizes.SKIP_LIST_ENTRY + getBufferSize(column.name());
+            if (column instanceof SuperColumn)
+                size += ObjectSizes.SUPER_COLUMN + ObjectSizes.SKIP_LIST + getColumnsSize(column.getSubColumns());
+            else
+                size += ObjectSizes.COLUMN + getBufferSize(column.value());
+        }
+        return size;
+    }
+
+    private long getBufferSize(ByteBuffer buffer)
+    {
+        // slab-allocated contents are accounted for by the allocator's regions
+        return allocator instanceof SlabAllocator ? ObjectSizes.BYTE_BUFFER : ObjectSizes.getSize(buffer);
+    }
+
     // for debugging
     public String contents()
     {
@@ -180,8 +238,8 @@ public class Memtable implements Comparable<Memtable>, IFlushable
 
     public String toString()
     {
-        return String.format("Memtable-%s@%s(%s bytes, %s operations)",
-                             cfs.getColumnFamilyName(), hashCode(), currentThroughput, currentOperations);
+        return String.format("Memtable-%s@%s(%s/%s serialized/live bytes, %s operations)",
+                             cfs.getColumnFamilyName(), hashCode(), currentThroughput, getLiveSize(), currentOperations);
     }
 
     /**
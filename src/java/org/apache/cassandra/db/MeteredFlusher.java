@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * Flushes memtables when, taken together, they use more heap than memtable_total_space_in_mb.
+ *
+ * Per-CF throughput and operations thresholds only bound each memtable separately, so a node with
+ * many column families can still run out of heap even when every one of them is under its limit.
+ * We run periodically, and when the live size of all memtables (including those still waiting to
+ * be written) exceeds the limit, flush the largest active memtables until the remainder fits next to
+ * the flushing ones.  If the flushing memtables alone fill the limit, we wait for them instead: their
+ * memory is about to be freed, and flushing more would only queue up small sstables.
+ */
+public class MeteredFlusher implements Runnable
+{
+    public static final MeteredFlusher instance = new MeteredFlusher();
+
+    private static final Logger logger = LoggerFactory.getLogger(MeteredFlusher.class);
+
+    public void run()
+    {
+        long allowed = DatabaseDescriptor.getTotalMemtableSpaceInMB() * 1048576L;
+
+        List<ColumnFamilyStore> stores = new ArrayList<ColumnFamilyStore>();
+        long total = 0;
+        long pending = 0;
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+        {
+            stores.add(cfs);
+            long size = cfs.getTotalMemtablesLiveSize();
+            total += size;
+            pending += size - cfs.getActiveMemtablesLiveSize();
+        }
+        if (total <= allowed)
+            return;
+
+        logger.info("estimated {} bytes used by all memtables, {} of them flushing; memtable_total_space_in_mb allows {}",
+                    new Object[] { total, pending, allowed });
+
+        long active = total - pending;
+        long allowedActive = allowed - pending;
+        if (allowedActive <= 0)
+            return;
+
+        // memory held by flushing memtables will be released soon, but not by us; flush the biggest
+        // active memtables until what remains fits next to it
+        final Map<ColumnFamilyStore, Long> sizes = new HashMap<ColumnFamilyStore, Long>();
+        for (ColumnFamilyStore cfs : stores)
+            sizes.put(cfs, cfs.getActiveMemtablesLiveSize());
+        Collections.sort(stores, new Comparator<ColumnFamilyStore>()
+        {
+            public int compare(ColumnFamilyStore o1, ColumnFamilyStore o2)
+            {
+                return sizes.get(o2).compareTo(sizes.get(o1));
+            }
+        });
+
+        long remaining = active;
+        for (ColumnFamilyStore cfs : stores)
+        {
+            if (remaining <= allowedActive)
+                break;
+            long size = sizes.get(cfs);
+            if (size == 0)
+                break;
+            logger.info("flushing high-traffic column family {} ({} bytes live)", cfs.getColumnFamilyName(), size);
+            cfs.forceFlush();
+            remaining -= size;
+        }
+    }
+
+    /**
+     * @return the estimated heap used by all memtables on this node, including those being flushed
+     */
+    public long getLiveSize()
+    {
+        long total = 0;
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+            total += cfs.getTotalMemtablesLiveSize();
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.cache.ConcurrentLinkedHashCache;
+import org.apache.cassandra.cache.InstrumentedCache;
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * Divides row_cache_size_in_mb between the row caches of the column families that cache rows.
+ *
+ * Every cache gets an even share of a quarter of the memory, so that one nobody has read from yet can
+ * still warm up, and the rest goes in proportion to the hits each has had recently.  A hit is a read
+ * that did not touch disk, so that is where the memory buys the most.  Caches whose capacity was set
+ * by hand over JMX keep it, and it comes out of the total.
+ */
+public class RowCacheBudget implements Runnable
+{
+    public static final RowCacheBudget instance = new RowCacheBudget();
+
+    private static final Logger logger = LoggerFactory.getLogger(RowCacheBudget.class);
+
+    public static final long INTERVAL_IN_MS = 60000;
+
+    private static final double EVEN_FRACTION = 0.25;
+    // weight of the latest interval's hits against those of the intervals before it
+    private static final double RECENT_WEIGHT = 0.5;
+
+    // keyed by cache rather than by column family, so a cache replaced by a schema change starts afresh
+    private Map<InstrumentedCache<?, ?>, Long> lastHits = new HashMap<InstrumentedCache<?, ?>, Long>();
+    private Map<InstrumentedCache<?, ?>, Double> recentHits = new HashMap<InstrumentedCache<?, ?>, Double>();
+
+    public synchronized void run()
+    {
+        // in the memory units row caches weighed by memory count
+        long budget = DatabaseDescriptor.getRowCacheSizeInMB() * (long) ConcurrentLinkedHashCache.UNITS_PER_MB;
+        if (budget <= 0)
+            return;
+
+        List<ColumnFamilyStore> stores = new ArrayList<ColumnFamilyStore>();
+        List<Double> scores = new ArrayList<Double>();
+        Map<InstrumentedCache<?, ?>, Long> newLastHits = new HashMap<InstrumentedCache<?, ?>, Long>();
+        Map<InstrumentedCache<?, ?>, Double> newRecentHits = new HashMap<InstrumentedCache<?, ?>, Double>();
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+        {
+            InstrumentedCache<DecoratedKey, ColumnFamily> cache = cfs.getRowCache();
+            if (cache.isCapacitySetManually())
+            {
+                budget -= cache.getCapacity();
+                continue;
+            }
+            if (cfs.metadata.getRowCacheSize() <= 0)
+            {
+                if (cache.getCapacity() > 0)
+                    cache.updateCapacity(0);
+                continue;
+            }
+
+            long hits = cache.getHits();
+            Long last = lastHits.get(cache);
+            // clearing the cache resets its hit count
+            long delta = last == null ? 0 : Math.max(0, hits - last);
+            Double recent = recentHits.get(cache);
+            double score = recent == null ? delta : RECENT_WEIGHT * delta + (1 - RECENT_WEIGHT) * recent;
+            newLastHits.put(cache, hits);
+            newRecentHits.put(cache, score);
+            stores.add(cfs);
+            scores.add(score);
+        }
+        lastHits = newLastHits;
+        recentHits = newRecentHits;
+
+        int[] capacities = divide(Math.max(0, budget), scores);
+        for (int i = 0; i < stores.size(); i++)
+        {
+            ColumnFamilyStore cfs = stores.get(i);
+            InstrumentedCache<DecoratedKey, ColumnFamily> cache = cfs.getRowCache();
+            if (cache.getCapacity() == capacities[i])
+                continue;
+            if (logger.isDebugEnabled())
+                logger.debug("row cache capacity for {} is {} bytes ({} bytes in use, {} recent hits)",
+                             new Object[] { cfs.getColumnFamilyName(), (long) capacities[i] * ConcurrentLinkedHashCache.MEMORY_UNIT, cache.getMemoryUsed(), scores.get(i) });
+            cache.updateCapacity(capacities[i]);
+        }
+    }
+
+    /**
+     * @return the memory units for each cache, given their recent hits; at most MAXIMUM_CAPACITY, or 64GB
+     */
+    static int[] divide(long budget, List<Double> scores)
+    {
+        int[] capacities = new int[scores.size()];
+        if (capacities.length == 0)
+            return capacities;
+
+        double total = 0;
+        for (double score : scores)
+            total += score;
+        double even = budget * EVEN_FRACTION / capacities.length;
+        double byHits = budget * (1 - EVEN_FRACTION);
+        for (int i = 0; i < capacities.length; i++)
+        {
+            double share = even + (total > 0 ? byHits * scores.get(i) / total : byHits / capacities.length);
+            capacities[i] = (int) Math.min(share, ConcurrentLinkedHashCache.MAXIMUM_CAPACITY);
+        }
+        return capacities;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.filter.NamesQueryFilter;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Describes the row cache entries of a column family that caches only the head of each row: its first
+ * size live columns (its last, if reversed), along with any tombstones among them.
+ *
+ * A head is a plain ColumnFamily, so what it covers follows from its contents.  A head of fewer than size
+ * columns is the whole row.  Any other head holds every column of the row from the row's edge up to its
+ * own last column, and nothing is known about the columns past that.  Writes only ever add columns to a
+ * head, and trimming keeps size live columns, so a partial head never looks like a whole row.
+ */
+public class RowCacheHead
+{
+    public final int size;
+    public final boolean reversed;
+
+    public RowCacheHead(int size, boolean reversed)
+    {
+        assert size > 0 : size;
+        this.size = size;
+        this.reversed = reversed;
+    }
+
+    /**
+     * @return how the column family caches the heads of rows, or null if it caches whole rows
+     */
+    public static RowCacheHead forMetadata(CFMetaData metadata)
+    {
+        // heads are counted in top-level columns, which says little about the size of supercolumns
+        if (metadata.getRowCacheHeadSize() == 0 || metadata.cfType == ColumnFamilyType.Super)
+            return null;
+        return new RowCacheHead(metadata.getRowCacheHeadSize(), metadata.isRowCacheHeadReversed());
+    }
+
+    /**
+     * @return the filter that reads the head of a row, to be cached
+     */
+    public QueryFilter getFilter(DecoratedKey key, String columnFamilyName)
+    {
+        return QueryFilter.getSliceFilter(key,
+                                          new QueryPath(columnFamilyName),
+                                          FBUtilities.EMPTY_BYTE_BUFFER,
+                                          FBUtilities.EMPTY_BYTE_BUFFER,
+                                          reversed,
+                                          size);
+    }
+
+    /**
+     * @param head the cached head that filter was applied to
+     * @param result what filter returned, which may be null
+     * @return true if the result is what the whole row would have given.  Call this after filtering, since
+     * concurrent writes may trim the head in the meantime.
+     */
+    public boolean covers(ColumnFamily head, QueryFilter filter, ColumnFamily result)
+    {
+        if (isComplete(head))
+            return true;
+        ByteBuffer last = last(head);
+        Comparator<ByteBuffer> order = order(head);
+
+        if (filter.filter instanceof NamesQueryFilter)
+        {
+            for (ByteBuffer name : ((NamesQueryFilter) filter.filter).columns)
+            {
+                if (order.compare(name, last) > 0)
+                    return false;
+            }
+            return true;
+        }
+
+        if (!(filter.filter instanceof SliceQueryFilter))
+            return false;
+        SliceQueryFilter slice = (SliceQueryFilter) filter.filter;
+        if (slice.reversed != reversed)
+        {
+            // reading towards the edge of the row, which is in the head as long as the start is
+            return slice.start.remaining() > 0 && order.compare(slice.start, last) <= 0;
+        }
+        // reading away from the edge, which is fine as long as the slice ends, or is filled, within the head
+        if (slice.start.remaining() > 0 && order.compare(slice.start, last) > 0)
+            return false;
+        if (slice.finish.remaining() > 0 && order.compare(slice.finish, last) <= 0)
+            return true;
+        return result != null && liveColumns(result) >= slice.count;
+    }
+
+    /**
+     * Merges a write into a cached head, leaving out the columns past a partial head, and trims the result.
+     */
+    public void apply(ColumnFamily head, ColumnFamily update)
+    {
+        if (isComplete(head))
+        {
+            head.addAll(update);
+        }
+        else
+        {
+            ByteBuffer last = last(head);
+            Comparator<ByteBuffer> order = order(head);
+            for (IColumn column : update.getSortedColumns())
+            {
+                if (order.compare(column.name(), last) <= 0)
+                    head.addColumn(column);
+            }
+            head.delete(update);
+        }
+        trim(head);
+    }
+
+    private void trim(ColumnFamily head)
+    {
+        int live = 0;
+        List<ByteBuffer> extra = new ArrayList<ByteBuffer>();
+        for (IColumn column : reversed ? head.getReverseSortedColumns() : head.getSortedColumns())
+        {
+            if (live >= size)
+                extra.add(column.name());
+            else if (isLive(column, head))
+                live++;
+        }
+        // from the far end inwards, so that readers never see a gap in the columns they are iterating over
+        for (int i = extra.size() - 1; i >= 0; i--)
+            head.remove(extra.get(i));
+    }
+
+    private boolean isComplete(ColumnFamily head)
+    {
+        return head.getColumnCount() < size;
+    }
+
+    private ByteBuffer last(ColumnFamily head)
+    {
+        SortedSet<ByteBuffer> names = head.getColumnNames();
+        return reversed ? names.first() : names.last();
+    }
+
+    private Comparator<ByteBuffer> order(ColumnFamily head)
+    {
+        return reversed ? head.getComparator().getReverseComparator() : head.getComparator();
+    }
+
+    private static int liveColumns(ColumnFamily cf)
+    {
+        int live = 0;
+        for (IColumn column : cf.getSortedColumns())
+        {
+            if (isLive(column, cf))
+                live++;
+        }
+        return live;
+    }
+
+    // as counted by SliceQueryFilter
+    private static boolean isLive(IColumn column, ColumnFamily cf)
+    {
+        return column.isLive() && (!cf.isMarkedForDelete() || column.mostRecentLiveChangeAt() > cf.getMarkedForDeleteAt());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof RowCacheHead))
+            return false;
+        RowCacheHead that = (RowCacheHead) o;
+        return size == that.size && reversed == that.reversed;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * size + (reversed ? 1 : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (reversed ? "last " : "first ") + size + " columns";
+    }
+}
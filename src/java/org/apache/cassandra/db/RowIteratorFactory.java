@@ -131,7 +131,8 @@ public class RowIteratorFactory
                 ColumnFamily returnCF = null;
                 
                 // First check if this row is in the rowCache. If it is we can skip the rest
-                ColumnFamily cached = cfs.getRawCachedRow(key);
+                // (unless only row heads are cached, which may not have the columns asked for)
+                ColumnFamily cached = cfs.isRowCacheHeadOnly() ? null : cfs.getRawCachedRow(key);
                 if (cached != null)
                 {
                     QueryFilter keyFilter = new QueryFilter(key, filter.path, filter.filter);
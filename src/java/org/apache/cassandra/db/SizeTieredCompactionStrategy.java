@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * The default strategy: compacts together sstables of similar size, once there are at least
+ * min_compaction_threshold of them.
+ */
+public class SizeTieredCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(SizeTieredCompactionStrategy.class);
+
+    // sstables smaller than this all go in the same bucket
+    static final long MIN_SSTABLE_SIZE = 50L * 1024L * 1024L;
+
+    private volatile int estimatedRemainingTasks;
+
+    public SizeTieredCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+    }
+
+    public List<SSTableReader> getBackgroundCompactionCandidates(int gcBefore)
+    {
+        int minThreshold = cfs.getMinimumCompactionThreshold();
+        int maxThreshold = cfs.getMaximumCompactionThreshold();
+
+        Set<List<SSTableReader>> buckets = CompactionManager.getBuckets(convertSSTablesToPairs(cfs.getSSTables()), MIN_SSTABLE_SIZE);
+        updateEstimatedRemainingTasks(buckets);
+
+        for (List<SSTableReader> sstables : buckets)
+        {
+            if (sstables.size() >= minThreshold)
+            {
+                // if we have too many to compact all at once, compact older ones first -- this avoids
+                // re-compacting files we just created.
+                Collections.sort(sstables);
+                return sstables.subList(0, Math.min(sstables.size(), maxThreshold));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        updateEstimatedRemainingTasks(CompactionManager.getBuckets(convertSSTablesToPairs(cfs.getSSTables()), MIN_SSTABLE_SIZE));
+        return estimatedRemainingTasks;
+    }
+
+    private void updateEstimatedRemainingTasks(Set<List<SSTableReader>> buckets)
+    {
+        int minThreshold = cfs.getMinimumCompactionThreshold();
+        int maxThreshold = cfs.getMaximumCompactionThreshold();
+
+        if (minThreshold > 0 && maxThreshold > 0)
+        {
+            int n = 0;
+            for (List<SSTableReader> sstables : buckets)
+            {
+                if (sstables.size() >= minThreshold)
+                {
+                    n += Math.ceil((double)sstables.size() / maxThreshold);
+                }
+            }
+            estimatedRemainingTasks = n;
+        }
+        else
+        {
+            logger.debug("Compaction is currently disabled.");
+        }
+    }
+
+    private static Collection<Pair<SSTableReader, Long>> convertSSTablesToPairs(Collection<SSTableReader> collection)
+    {
+        Collection<Pair<SSTableReader, Long>> tablePairs = new ArrayList<Pair<SSTableReader, Long>>();
+        for(SSTableReader table: collection)
+        {
+            tablePairs.add(new Pair<SSTableReader, Long>(table, table.length()));
+        }
+        return tablePairs;
+    }
+}
@@ -32,6 +32,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -303,6 +304,15 @@ public class SuperColumn implements IColumn, IColumnContainer
         return sc;
     }
 
+    public IColumn localCopy(Allocator allocator)
+    {
+        SuperColumn sc = new SuperColumn(allocator.clone(name_), getComparator());
+        sc.markForDeleteAt(localDeletionTime.get(), markedForDeleteAt.get());
+        for (IColumn c : columns_.values())
+            sc.addColumn(c.localCopy(allocator));
+        return sc;
+    }
+
     public IColumn reconcile(IColumn c)
     {
         throw new UnsupportedOperationException("This operation is unsupported on super columns.");
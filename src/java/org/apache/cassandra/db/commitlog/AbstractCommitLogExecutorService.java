@@ -22,15 +22,13 @@ package org.apache.cassandra.db.commitlog;
 
 
 import java.lang.management.ManagementFactory;
-import java.util.List;
-import java.util.concurrent.AbstractExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
-public abstract class AbstractCommitLogExecutorService extends AbstractExecutorService implements ICommitLogExecutorService
+public abstract class AbstractCommitLogExecutorService implements ICommitLogExecutorService
 {
-    protected volatile long completedTaskCount = 0;
+    protected final AtomicLong completedTaskCount = new AtomicLong();
 
     protected static void registerMBean(Object o)
     {
@@ -58,33 +56,6 @@ public abstract class AbstractCommitLogExecutorService extends AbstractExecutorS
      */
     public long getCompletedTasks()
     {
-        return completedTaskCount;
-    }
-
-    // cassandra is crash-only so there's no need to implement the shutdown methods
-
-    public boolean isShutdown()
-    {
-        return false;
-    }
-
-    public boolean isTerminated()
-    {
-        return false;
-    }
-
-    public void shutdown()
-    {
-        throw new UnsupportedOperationException();
-    }
-
-    public List<Runnable> shutdownNow()
-    {
-        throw new UnsupportedOperationException();
-    }
-
-    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
-    {
-        throw new UnsupportedOperationException();
+        return completedTaskCount.get();
     }
 }
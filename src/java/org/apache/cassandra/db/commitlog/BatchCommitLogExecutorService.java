@@ -21,33 +21,37 @@ package org.apache.cassandra.db.commitlog;
  */
 
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.utils.WrappedRunnable;
 
+/**
+ * Group commit: writers block until a sync that started after their write completes.  Writes that arrive
+ * while a sync is in progress all wait for the next one, so there is at most one sync in flight and the
+ * number of writes covered by each grows with the load.
+ */
 class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService implements ICommitLogExecutorService, BatchCommitLogExecutorServiceMBean
 {
-    private final BlockingQueue<CheaterFutureTask> queue;
+    private final Lock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+    private final Condition syncCompleted = lock.newCondition();
 
-    public BatchCommitLogExecutorService()
-    {
-        this(DatabaseDescriptor.getConcurrentWriters());
-    }
+    // guarded by lock
+    private long syncsStarted = 0;
+    private long syncsCompleted = 0;
+    private int waitingWriters = 0;
 
-    public BatchCommitLogExecutorService(int queueSize)
+    public BatchCommitLogExecutorService()
     {
-        queue = new LinkedBlockingQueue<CheaterFutureTask>(queueSize);
         Runnable runnable = new WrappedRunnable()
         {
             public void runMayThrow() throws Exception
             {
                 while (true)
                 {
-                    processWithSyncBatch();
-                    completedTaskCount++;
+                    syncBatch();
                 }
             }
         };
@@ -58,115 +62,65 @@ class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService imp
 
     public long getPendingTasks()
     {
-        return queue.size();
-    }
-
-    private final ArrayList<CheaterFutureTask> incompleteTasks = new ArrayList<CheaterFutureTask>();
-    private final ArrayList taskValues = new ArrayList(); // TODO not sure how to generify this
-    private void processWithSyncBatch() throws Exception
-    {
-        CheaterFutureTask firstTask = queue.take();
-        if (!(firstTask.getRawCallable() instanceof CommitLog.LogRecordAdder))
-        {
-            firstTask.run();
-            return;
-        }
-
-        // attempt to do a bunch of LogRecordAdder ops before syncing
-        // (this is a little clunky since there is no blocking peek method,
-        //  so we have to break it into firstTask / extra tasks)
-        incompleteTasks.clear();
-        taskValues.clear();
-        long end = System.nanoTime() + (long)(1000000 * DatabaseDescriptor.getCommitLogSyncBatchWindow());
-
-        // it doesn't seem worth bothering future-izing the exception
-        // since if a commitlog op throws, we're probably screwed anyway
-        incompleteTasks.add(firstTask);
-        taskValues.add(firstTask.getRawCallable().call());
-        while (!queue.isEmpty()
-               && queue.peek().getRawCallable() instanceof CommitLog.LogRecordAdder
-               && System.nanoTime() < end)
-        {
-            CheaterFutureTask task = queue.remove();
-            incompleteTasks.add(task);
-            taskValues.add(task.getRawCallable().call());
-        }
-
-        // now sync and set the tasks' values (which allows thread calling get() to proceed)
+        lock.lock();
         try
         {
-            CommitLog.instance.sync();
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
+            return waitingWriters;
         }
-        for (int i = 0; i < incompleteTasks.size(); i++)
+        finally
         {
-            incompleteTasks.get(i).set(taskValues.get(i));
+            lock.unlock();
         }
     }
 
-
-    @Override
-    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
-    {
-        return newTaskFor(Executors.callable(runnable, value));
-    }
-
-    @Override
-    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
-    {
-        return new CheaterFutureTask(callable);
-    }
-
-    public void execute(Runnable command)
+    private void syncBatch() throws Exception
     {
+        lock.lock();
         try
         {
-            queue.put((CheaterFutureTask)command);
+            while (waitingWriters == 0)
+                syncRequested.await();
+            // every writer waiting now finished its write before this sync starts
+            waitingWriters = 0;
+            syncsStarted++;
         }
-        catch (InterruptedException e)
+        finally
         {
-            throw new RuntimeException(e);
+            lock.unlock();
         }
-    }
 
-    public void add(CommitLog.LogRecordAdder adder)
-    {
+        CommitLog.instance.sync();
+
+        lock.lock();
         try
         {
-            submit((Callable)adder).get();
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
+            syncsCompleted = syncsStarted;
+            syncCompleted.signalAll();
         }
-        catch (ExecutionException e)
+        finally
         {
-            throw new RuntimeException(e);
+            lock.unlock();
         }
     }
 
-    private static class CheaterFutureTask<V> extends FutureTask<V>
+    public void add(CommitLog.LogRecordAdder adder)
     {
-        private final Callable rawCallable;
+        adder.run();
 
-        public CheaterFutureTask(Callable<V> callable)
-        {
-            super(callable);
-            rawCallable = callable;
-        }
-
-        public Callable getRawCallable()
+        lock.lock();
+        try
         {
-            return rawCallable;
+            // a sync already in progress may have started before our write finished, so wait for the next one
+            long needed = syncsStarted + 1;
+            waitingWriters++;
+            syncRequested.signal();
+            while (syncsCompleted < needed)
+                syncCompleted.awaitUninterruptibly();
         }
-
-        @Override
-        public void set(V v)
+        finally
         {
-            super.set(v);
+            lock.unlock();
         }
+        completedTaskCount.incrementAndGet();
     }
 }
@@ -18,32 +18,17 @@
 
 package org.apache.cassandra.db.commitlog;
 
-import org.apache.cassandra.concurrent.Stage;
-import org.apache.cassandra.config.CFMetaData;
-import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Config;
-import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.RowMutation;
-import org.apache.cassandra.db.Table;
-import org.apache.cassandra.db.UnserializableColumnFamilyException;
-import org.apache.cassandra.io.DeletionService;
-import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileUtils;
-import org.apache.cassandra.utils.FBUtilities;
-import org.apache.cassandra.utils.WrappedRunnable;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /*
  * Commit Log tracks every write operation into the system. The aim
@@ -63,7 +48,9 @@ import java.util.zip.Checksum;
  * to these offsets and start processing the commit log.
  *
  * Every Commit Log is rolled over everytime it reaches its threshold in size;
- * the new log inherits the "dirty" bits from the old.
+ * the new log inherits the "dirty" bits from the old.  Segments are pre-allocated
+ * at that size, and their files recycled once they are no longer needed, by the
+ * CommitLogAllocator.
  *
  * Over time there could be a number of commit logs that would be generated.
  * To allow cleaning up non-active commit logs, whenever we flush a column family and update its bit flag in
@@ -75,20 +62,26 @@ import java.util.zip.Checksum;
  */
 public class CommitLog
 {
-    private static final int MAX_OUTSTANDING_REPLAY_COUNT = 1024;
     private static volatile int SEGMENT_SIZE = 128*1024*1024; // roll after log gets this big
 
     static final Logger logger = LoggerFactory.getLogger(CommitLog.class);
 
     public static final CommitLog instance = new CommitLog();
 
-    private final Deque<CommitLogSegment> segments = new ArrayDeque<CommitLogSegment>();
+    // oldest first; the last one is being written to.  writers only read this, so copy-on-write is cheap
+    private final List<CommitLogSegment> segments = new CopyOnWriteArrayList<CommitLogSegment>();
 
     public static void setSegmentSize(int size)
     {
         SEGMENT_SIZE = size;
     }
 
+    static int getSegmentSize()
+    {
+        return SEGMENT_SIZE;
+    }
+
+    private final CommitLogAllocator allocator = new CommitLogAllocator();
     private final ICommitLogExecutorService executor;
 
     /**
@@ -102,71 +95,29 @@ public class CommitLog
         try
         {
             DatabaseDescriptor.createAllDirectories();
+            // all old segments are recovered and deleted before CommitLog is instantiated.
+            // All we need to do is create a new one.  (Directly, rather than from the allocator, so that no spare
+            // is created in the background until the log first rolls over.)
+            segments.add(CommitLogSegment.freshSegment(SEGMENT_SIZE));
         }
         catch (IOException e)
         {
             throw new IOError(e);
         }
 
-        // all old segments are recovered and deleted before CommitLog is instantiated.
-        // All we need to do is create a new one.
-        segments.add(new CommitLogSegment());
-
         if (DatabaseDescriptor.getCommitLogSync() == Config.CommitLogSync.batch)
-        {
             executor = new BatchCommitLogExecutorService();
-        }
         else
-        {
             executor = new PeriodicCommitLogExecutorService();
-            final Callable syncer = new Callable()
-            {
-                public Object call() throws Exception
-                {
-                    sync();
-                    return null;
-                }
-            };
-
-            new Thread(new Runnable()
-            {
-                public void run()
-                {
-                    while (true)
-                    {
-                        try
-                        {
-                            executor.submit(syncer).get();
-                            Thread.sleep(DatabaseDescriptor.getCommitLogSyncPeriod());
-                        }
-                        catch (InterruptedException e)
-                        {
-                            throw new AssertionError(e);
-                        }
-                        catch (ExecutionException e)
-                        {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-            }, "PERIODIC-COMMIT-LOG-SYNCER").start();
-        }
-    }
-
-    public void resetUnsafe()
-    {
-        segments.clear();
-        segments.add(new CommitLogSegment());
     }
 
-    private boolean manages(String name)
+    public synchronized void resetUnsafe()
     {
         for (CommitLogSegment segment : segments)
-        {
-            if (segment.getPath().endsWith(name))
-                return true;
-        }
-        return false;
+            segment.close();
+        segments.clear();
+        allocator.resetUnsafe();
+        segments.add(allocator.fetchSegment());
     }
 
     public static void recover() throws IOException
@@ -179,7 +130,7 @@ public class CommitLog
                 // we used to try to avoid instantiating commitlog (thus creating an empty segment ready for writes)
                 // until after recover was finished.  this turns out to be fragile; it is less error-prone to go
                 // ahead and allow writes before recover(), and just skip active segments when we do.
-                return CommitLogSegment.possibleCommitLogFile(name) && !instance.manages(name);
+                return CommitLogSegment.possibleCommitLogFile(name) && !CommitLogSegment.isManaged(name);
             }
         });
         if (files.length == 0)
@@ -188,7 +139,16 @@ public class CommitLog
             return;
         }
 
-        Arrays.sort(files, new FileUtils.FileComparator());
+        // recycled segment files keep the modification time of their previous life, so sort by segment id
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                long id1 = CommitLogSegment.idFromFilename(f1.getName());
+                long id2 = CommitLogSegment.idFromFilename(f2.getName());
+                return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+            }
+        });
         logger.info("Replaying " + StringUtils.join(files, ", "));
         recover(files);
         for (File f : files)
@@ -202,239 +162,64 @@ public class CommitLog
 
     public static void recover(File[] clogs) throws IOException
     {
-        Set<Table> tablesRecovered = new HashSet<Table>();
-        List<Future<?>> futures = new ArrayList<Future<?>>();
-        byte[] bytes = new byte[4096];
-        Map<Integer, AtomicInteger> invalidMutations = new HashMap<Integer, AtomicInteger>();
-
-        for (File file : clogs)
-        {
-            int bufferSize = (int)Math.min(file.length(), 32 * 1024 * 1024);
-            BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", bufferSize);
-
-            try
-            {
-                CommitLogHeader clHeader = null;
-                int replayPosition = 0;
-                String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
-                try
-                {
-                    clHeader = CommitLogHeader.readCommitLogHeader(headerPath);
-                    replayPosition = clHeader.getReplayPosition();
-                }
-                catch (IOException ioe)
-                {
-                    logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
-                    logger.debug("exception was", ioe);
-                }
-                if (replayPosition < 0)
-                {
-                    logger.debug("skipping replay of fully-flushed {}", file);
-                    continue;
-                }
-                reader.seek(replayPosition);
-
-                if (logger.isDebugEnabled())
-                    logger.debug("Replaying " + file + " starting at " + reader.getFilePointer());
-
-                /* read the logs populate RowMutation and apply */
-                while (!reader.isEOF())
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Reading mutation at " + reader.getFilePointer());
-
-                    long claimedCRC32;
-
-                    Checksum checksum = new CRC32();
-                    int serializedSize;
-                    try
-                    {
-                        // any of the reads may hit EOF
-                        serializedSize = reader.readInt();
-                        long claimedSizeChecksum = reader.readLong();
-                        checksum.update(serializedSize);
-                        if (checksum.getValue() != claimedSizeChecksum || serializedSize <= 0)
-                            break; // entry wasn't synced correctly/fully.  that's ok.
-
-                        if (serializedSize > bytes.length)
-                            bytes = new byte[(int) (1.2 * serializedSize)];
-                        reader.readFully(bytes, 0, serializedSize);
-                        claimedCRC32 = reader.readLong();
-                    }
-                    catch(EOFException eof)
-                    {
-                        break; // last CL entry didn't get completely written.  that's ok.
-                    }
-
-                    checksum.update(bytes, 0, serializedSize);
-                    if (claimedCRC32 != checksum.getValue())
-                    {
-                        // this entry must not have been fsynced.  probably the rest is bad too,
-                        // but just in case there is no harm in trying them (since we still read on an entry boundary)
-                        continue;
-                    }
-
-                    /* deserialize the commit log entry */
-                    ByteArrayInputStream bufIn = new ByteArrayInputStream(bytes, 0, serializedSize);
-                    RowMutation rm = null;
-                    try
-                    {
-                        rm = RowMutation.serializer().deserialize(new DataInputStream(bufIn));
-                    }
-                    catch (UnserializableColumnFamilyException ex)
-                    {
-                        AtomicInteger i = invalidMutations.get(ex.cfId);
-                        if (i == null)
-                        {
-                            i = new AtomicInteger(1);
-                            invalidMutations.put(ex.cfId, i);
-                        }
-                        else
-                            i.incrementAndGet();
-                        continue;
-                    }
-                    
-                    if (logger.isDebugEnabled())
-                        logger.debug(String.format("replaying mutation for %s.%s: %s",
-                                                    rm.getTable(),
-                                                    rm.key(),
-                                                    "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
-                    final Table table = Table.open(rm.getTable());
-                    tablesRecovered.add(table);
-                    final Collection<ColumnFamily> columnFamilies = new ArrayList<ColumnFamily>(rm.getColumnFamilies());
-                    final long entryLocation = reader.getFilePointer();
-                    final CommitLogHeader finalHeader = clHeader;
-                    final RowMutation frm = rm;
-                    Runnable runnable = new WrappedRunnable()
-                    {
-                        public void runMayThrow() throws IOException
-                        {
-                            RowMutation newRm = new RowMutation(frm.getTable(), frm.key());
-
-                            // Rebuild the row mutation, omitting column families that a) have already been flushed,
-                            // b) are part of a cf that was dropped. Keep in mind that the cf.name() is suspect. do every
-                            // thing based on the cfid instead.
-                            for (ColumnFamily columnFamily : columnFamilies)
-                            {
-                                if (CFMetaData.getCF(columnFamily.id()) == null)
-                                    // null means the cf has been dropped
-                                    continue;
-
-                                if (finalHeader == null || (finalHeader.isDirty(columnFamily.id()) && entryLocation > finalHeader.getPosition(columnFamily.id())))
-                                    newRm.add(columnFamily);
-                            }
-                            if (!newRm.isEmpty())
-                            {
-                                Table.open(newRm.getTable()).apply(newRm, false);
-                            }
-                        }
-                    };
-                    futures.add(StageManager.getStage(Stage.MUTATION).submit(runnable));
-                    if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
-                    {
-                        FBUtilities.waitOnFutures(futures);
-                        futures.clear();
-                    }
-                }
-            }
-            finally
-            {
-                reader.close();
-                logger.info("Finished reading " + file);
-            }
-        }
-        
-        for (Map.Entry<Integer, AtomicInteger> entry : invalidMutations.entrySet())
-            logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %d", entry.getValue().intValue(), entry.getKey()));
-
-        // wait for all the writes to finish on the mutation stage
-        FBUtilities.waitOnFutures(futures);
-        logger.debug("Finished waiting on mutations from recovery");
-
-        // flush replayed tables
-        futures.clear();
-        for (Table table : tablesRecovered)
-            futures.addAll(table.flush());
-        FBUtilities.waitOnFutures(futures);
+        CommitLogReplayer.instance.recover(clogs);
     }
 
     private CommitLogSegment currentSegment()
     {
-        return segments.getLast();
+        return segments.get(segments.size() - 1);
     }
-    
+
+    /**
+     * @return the position after every write that has been added so far.  (Writes are added before they are
+     * applied to a memtable, so this is after every write in memtables switched out before the call.)
+     */
     public CommitLogSegment.CommitLogContext getContext()
     {
-        Callable<CommitLogSegment.CommitLogContext> task = new Callable<CommitLogSegment.CommitLogContext>()
-        {
-            public CommitLogSegment.CommitLogContext call() throws Exception
-            {
-                return currentSegment().getContext();
-            }
-        };
-        try
-        {
-            return executor.submit(task).get();
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-        catch (ExecutionException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return currentSegment().getContext();
     }
 
     /*
-     * Adds the specified row to the commit log. This method will reset the
-     * file offset to what it is before the start of the operation in case
-     * of any problems. This way we can assume that the subsequent commit log
-     * entry will override the garbage left over by the previous write.
+     * Adds the specified row to the commit log, on the calling thread.  Depending on the sync mode,
+     * waits for it to be synced to disk.
     */
     public void add(RowMutation rowMutation) throws IOException
     {
         executor.add(new LogRecordAdder(rowMutation));
     }
 
+    /**
+     * Rolls the log over to a new segment, unless another writer already has.
+     * @return the segment to write to
+     */
+    private synchronized CommitLogSegment activateNextSegment(CommitLogSegment full)
+    {
+        if (currentSegment() == full)
+            segments.add(allocator.fetchSegment());
+        return currentSegment();
+    }
+
     /*
      * This is called on Memtable flush to add to the commit log
      * a token indicating that this column family has been flushed.
      * The bit flag associated with this column family is set in the
      * header and this is used to decide if the log file can be deleted.
     */
-    public void discardCompletedSegments(final Integer cfId, final CommitLogSegment.CommitLogContext context) throws IOException
+    public void discardCompletedSegments(Integer cfId, CommitLogSegment.CommitLogContext context) throws IOException
     {
-        Callable task = new Callable()
-        {
-            public Object call() throws IOException
-            {
-                discardCompletedSegmentsInternal(context, cfId);
-                return null;
-            }
-        };
-        try
-        {
-            executor.submit(task).get();
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-        catch (ExecutionException e)
-        {
-            throw new RuntimeException(e);
-        }
+        discardCompletedSegmentsInternal(context, cfId);
     }
 
     /**
-     * Delete log segments whose contents have been turned into SSTables. NOT threadsafe.
+     * Recycle log segments whose contents have been turned into SSTables.  Synchronized with rolling
+     * the log over; writers may be marking CFs dirty in the active segment at the same time, which
+     * the header synchronizes.
      *
      * param @ context The commitLog context .
      * param @ id id of the columnFamily being flushed to disk.
      *
     */
-    private void discardCompletedSegmentsInternal(CommitLogSegment.CommitLogContext context, Integer id) throws IOException
+    private synchronized void discardCompletedSegmentsInternal(CommitLogSegment.CommitLogContext context, Integer id) throws IOException
     {
         if (logger.isDebugEnabled())
             logger.debug("discard completed log segments for " + context + ", column family " + id + ".");
@@ -467,12 +252,11 @@ public class CommitLog
             if (header.isSafeToDelete() && iter.hasNext())
             {
                 logger.info("Discarding obsolete commit log:" + segment);
-                segment.close();
-                DeletionService.submitDelete(segment.getHeaderPath());
-                DeletionService.submitDelete(segment.getPath());
                 // usually this will be the first (remaining) segment, but not always, if segment A contains
                 // writes to a CF that is unflushed but is followed by segment B whose CFs are all flushed.
-                iter.remove();
+                // (removing from the copy-on-write list doesn't disturb the iteration.)
+                segments.remove(segment);
+                allocator.recycleSegment(segment);
             }
             else
             {
@@ -483,15 +267,17 @@ public class CommitLog
         }
     }
     
+    /**
+     * Forces everything written so far to disk.  Writes to a segment can still be completing after the log
+     * rolls over to the next one, so this syncs every segment with unsynced writes, not just the active one.
+     */
     void sync() throws IOException
     {
-        currentSegment().sync();
+        for (CommitLogSegment segment : segments)
+            segment.sync();
     }
 
-    // TODO this should be a Runnable since it doesn't actually return anything, but it's difficult to do that
-    // without breaking the fragile CheaterFutureTask in BatchCLES.
-    final static boolean flushEachWrite = DatabaseDescriptor.getCommitLogSync() == Config.CommitLogSync.periodic;
-    class LogRecordAdder implements Callable, Runnable
+    class LogRecordAdder implements Runnable
     {
         final RowMutation rowMutation;
 
@@ -504,28 +290,15 @@ public class CommitLog
         {
             try
             {
-                currentSegment().write(rowMutation);
+                CommitLogSegment segment = currentSegment();
                 // roll log if necessary
-                if (currentSegment().length() >= SEGMENT_SIZE)
-                {
-                    sync();
-                    segments.add(new CommitLogSegment());
-                }
-                else if (flushEachWrite)
-                {
-                    currentSegment().flush();
-                }
+                while (segment.write(rowMutation) == null)
+                    segment = activateNextSegment(segment);
             }
             catch (IOException e)
             {
                 throw new IOError(e);
             }
         }
-
-        public Object call() throws Exception
-        {
-            run();
-            return null;
-        }
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+package org.apache.cassandra.db.commitlog;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Keeps a spare segment ready, so that the log can roll over without creating a file on the write path,
+ * and turns the files of segments that are no longer needed into new spares instead of deleting them.
+ * All file work happens on the allocator's own thread.
+ */
+class CommitLogAllocator
+{
+    // recycled segments beyond this many spares are deleted
+    private static final int MAX_SPARE_SEGMENTS = 2;
+
+    private final BlockingQueue<CommitLogSegment> spareSegments = new LinkedBlockingQueue<CommitLogSegment>();
+    private final ExecutorService executor = new DebuggableThreadPoolExecutor("COMMIT-LOG-ALLOCATOR", Thread.NORM_PRIORITY);
+
+    private final Runnable createSpare = new WrappedRunnable()
+    {
+        public void runMayThrow() throws IOException
+        {
+            if (spareSegments.isEmpty())
+                spareSegments.add(CommitLogSegment.freshSegment(CommitLog.getSegmentSize()));
+        }
+    };
+
+    /**
+     * @return an empty segment, ready for writing
+     */
+    CommitLogSegment fetchSegment()
+    {
+        CommitLogSegment segment = spareSegments.poll();
+        if (segment == null)
+        {
+            // the allocator hasn't kept up (or this is the first segment); create one here
+            try
+            {
+                segment = CommitLogSegment.freshSegment(CommitLog.getSegmentSize());
+            }
+            catch (IOException e)
+            {
+                throw new IOError(e);
+            }
+        }
+        executor.execute(createSpare);
+        return segment;
+    }
+
+    /**
+     * Hands over a segment none of whose contents are needed any more, to be reused or deleted.
+     */
+    void recycleSegment(final CommitLogSegment segment)
+    {
+        executor.execute(new WrappedRunnable()
+        {
+            public void runMayThrow() throws IOException
+            {
+                if (spareSegments.size() < MAX_SPARE_SEGMENTS && segment.capacity() == CommitLog.getSegmentSize())
+                    spareSegments.add(segment.recycle());
+                else
+                    segment.discard();
+            }
+        });
+    }
+
+    /**
+     * Throws away the spare segments, for tests that delete the commitlog directory out from under us.
+     */
+    void resetUnsafe()
+    {
+        Runnable clear = new Runnable()
+        {
+            public void run()
+            {
+                for (CommitLogSegment segment : spareSegments)
+                    segment.close();
+                spareSegments.clear();
+            }
+        };
+        try
+        {
+            executor.submit(clear).get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -42,7 +42,9 @@ public class CommitLogHeader
 
     public static CommitLogHeaderSerializer serializer = new CommitLogHeaderSerializer();
 
-    private Map<Integer, Integer> cfDirtiedAt; // position at which each CF was last flushed
+    // position at which each CF was last flushed.  writers and flushes update the header of the active
+    // segment concurrently, so all access is synchronized
+    private Map<Integer, Integer> cfDirtiedAt;
 
     CommitLogHeader()
     {
@@ -59,35 +61,47 @@ public class CommitLogHeader
         this.cfDirtiedAt = cfDirtiedAt;
     }
         
-    boolean isDirty(Integer cfId)
+    synchronized boolean isDirty(Integer cfId)
     {
         return cfDirtiedAt.containsKey(cfId);
     } 
     
-    int getPosition(Integer cfId)
+    synchronized int getPosition(Integer cfId)
     {
         Integer x = cfDirtiedAt.get(cfId);
         return x == null ? 0 : x;
     }
     
-    void turnOn(Integer cfId, long position)
+    synchronized void turnOn(Integer cfId, long position)
     {
         assert position >= 0 && position <= Integer.MAX_VALUE;
         cfDirtiedAt.put(cfId, (int)position);
     }
 
-    void turnOff(Integer cfId)
+    /**
+     * Marks the CF dirty from the given position, unless it already is.
+     * @return true if the header changed
+     */
+    synchronized boolean turnOnIfClean(Integer cfId, long position)
+    {
+        if (isDirty(cfId))
+            return false;
+        turnOn(cfId, position);
+        return true;
+    }
+
+    synchronized void turnOff(Integer cfId)
     {
         cfDirtiedAt.remove(cfId);
     }
 
-    boolean isSafeToDelete() throws IOException
+    synchronized boolean isSafeToDelete() throws IOException
     {
         return cfDirtiedAt.isEmpty();
     }
     
     // we use cf ids. getting the cf names would be pretty pretty expensive.
-    public String toString()
+    public synchronized String toString()
     {
         StringBuilder sb = new StringBuilder("");
         sb.append("CLH(dirty+flushed={");
@@ -99,7 +113,7 @@ public class CommitLogHeader
         return sb.toString();
     }
 
-    public String dirtyString()
+    public synchronized String dirtyString()
     {
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<Integer, Integer> entry : cfDirtiedAt.entrySet())
@@ -142,7 +156,7 @@ public class CommitLogHeader
         }
     }
 
-    int getReplayPosition()
+    synchronized int getReplayPosition()
     {
         return cfDirtiedAt.isEmpty() ? -1 : Collections.min(cfDirtiedAt.values());
     }
@@ -150,6 +164,14 @@ public class CommitLogHeader
     static class CommitLogHeaderSerializer implements ICompactSerializer2<CommitLogHeader>
     {
         public void serialize(CommitLogHeader clHeader, DataOutput dos) throws IOException
+        {
+            synchronized (clHeader)
+            {
+                serializeInternal(clHeader, dos);
+            }
+        }
+
+        private void serializeInternal(CommitLogHeader clHeader, DataOutput dos) throws IOException
         {
             Checksum checksum = new CRC32();
 
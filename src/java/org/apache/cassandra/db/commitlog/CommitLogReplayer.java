@@ -0,0 +1,460 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db.commitlog;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.db.UnserializableColumnFamilyException;
+import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Replays commitlog segments.  Segments are read and deserialized in parallel, each by its own reader, but their
+ * mutations are handed out in log order to a fixed set of appliers, picked by the hash of the mutation's key,
+ * so that the mutations to any one key are still applied in the order they were logged.
+ *
+ * Mutations to a single column family that has been flushed since they were written are skipped without
+ * deserializing them.
+ */
+public class CommitLogReplayer implements CommitLogReplayerMBean
+{
+    private static final Logger logger = LoggerFactory.getLogger(CommitLogReplayer.class);
+
+    public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CommitLogReplayer";
+    public static final CommitLogReplayer instance = new CommitLogReplayer();
+
+    // bounds both the deserialized mutations read ahead by each reader, and those waiting to be applied
+    private static final int MAX_OUTSTANDING_REPLAY_COUNT = 1024;
+
+    static
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName(MBEAN_OBJECT_NAME));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private volatile boolean replaying;
+    private volatile int segmentsTotal;
+    private final AtomicInteger segmentsCompleted = new AtomicInteger();
+    private volatile long bytesTotal;
+    private final AtomicLong bytesCompleted = new AtomicLong();
+    private final AtomicLong mutationsReplayed = new AtomicLong();
+    private final AtomicLong mutationsSkipped = new AtomicLong();
+
+    private final ConcurrentMap<Integer, AtomicInteger> invalidMutations = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    private CommitLogReplayer() {}
+
+    /**
+     * Replays the given segments, which must be ordered oldest first, and flushes the tables they touched.
+     */
+    public synchronized void recover(File[] clogs) throws IOException
+    {
+        segmentsTotal = clogs.length;
+        segmentsCompleted.set(0);
+        long totalSize = 0;
+        for (File file : clogs)
+            totalSize += file.length();
+        bytesTotal = totalSize;
+        bytesCompleted.set(0);
+        mutationsReplayed.set(0);
+        mutationsSkipped.set(0);
+        invalidMutations.clear();
+        replaying = true;
+
+        int readers = Math.max(1, Math.min(clogs.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService readExecutor = new DebuggableThreadPoolExecutor(readers,
+                                                                        readers,
+                                                                        Integer.MAX_VALUE,
+                                                                        TimeUnit.SECONDS,
+                                                                        new LinkedBlockingQueue<Runnable>(),
+                                                                        new NamedThreadFactory("COMMIT-LOG-REPLAY-READER"));
+        ExecutorService[] appliers = new ExecutorService[DatabaseDescriptor.getConcurrentWriters()];
+        for (int i = 0; i < appliers.length; i++)
+            appliers[i] = new DebuggableThreadPoolExecutor("COMMIT-LOG-REPLAY-" + i, Thread.NORM_PRIORITY);
+
+        try
+        {
+            // readers start in log order, so the one the dispatch below is waiting on is always running or done
+            List<SegmentReader> segmentReaders = new ArrayList<SegmentReader>(clogs.length);
+            for (File file : clogs)
+            {
+                SegmentReader reader = new SegmentReader(file);
+                segmentReaders.add(reader);
+                readExecutor.execute(reader);
+            }
+
+            Set<Table> tablesRecovered = new HashSet<Table>();
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (SegmentReader reader : segmentReaders)
+            {
+                ReplayEntry entry;
+                while ((entry = reader.take()) != null)
+                {
+                    tablesRecovered.add(Table.open(entry.mutation.getTable()));
+                    int applier = Math.abs(entry.mutation.key().hashCode() % appliers.length);
+                    futures.add(appliers[applier].submit(entry));
+                    if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+                    {
+                        FBUtilities.waitOnFutures(futures);
+                        futures.clear();
+                    }
+                }
+            }
+
+            for (Map.Entry<Integer, AtomicInteger> entry : invalidMutations.entrySet())
+                logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %d", entry.getValue().intValue(), entry.getKey()));
+
+            // wait for all the writes to finish
+            FBUtilities.waitOnFutures(futures);
+            logger.debug("Finished waiting on mutations from recovery");
+            logger.info(String.format("Replayed %d mutations, skipped %d already flushed", mutationsReplayed.get(), mutationsSkipped.get()));
+
+            // flush replayed tables
+            futures.clear();
+            for (Table table : tablesRecovered)
+                futures.addAll(table.flush());
+            FBUtilities.waitOnFutures(futures);
+        }
+        finally
+        {
+            // interrupts any reader left waiting on a dispatch that failed
+            readExecutor.shutdownNow();
+            for (ExecutorService applier : appliers)
+                applier.shutdown();
+            replaying = false;
+        }
+    }
+
+    private static boolean shouldReplay(int cfId, CommitLogHeader header, long entryLocation)
+    {
+        return header == null || (header.isDirty(cfId) && entryLocation > header.getPosition(cfId));
+    }
+
+    private void countInvalid(int cfId)
+    {
+        AtomicInteger i = invalidMutations.get(cfId);
+        if (i == null)
+        {
+            i = invalidMutations.putIfAbsent(cfId, new AtomicInteger(1));
+            if (i == null)
+                return;
+        }
+        i.incrementAndGet();
+    }
+
+    /**
+     * Reads the start of a serialized RowMutation: if it is to a single column family, that is dropped or has been
+     * flushed past entryLocation, there is no need to deserialize the rest.  (Mutations to several column families
+     * are filtered once deserialized, when they are applied.)
+     */
+    private boolean needsReplay(byte[] bytes, int size, CommitLogHeader header, long entryLocation) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, size));
+        in.readUTF(); // table
+        FBUtilities.skipShortByteArray(in); // key
+        if (in.readInt() != 1)
+            return true;
+        int cfId = in.readInt();
+        if (CFMetaData.getCF(cfId) == null)
+        {
+            countInvalid(cfId);
+            return false;
+        }
+        return shouldReplay(cfId, header, entryLocation);
+    }
+
+    /**
+     * Reads one segment, queueing up its mutations for dispatch.  The queue ends with END.
+     */
+    private class SegmentReader implements Runnable
+    {
+        private final File file;
+        private final BlockingQueue<ReplayEntry> entries = new LinkedBlockingQueue<ReplayEntry>(MAX_OUTSTANDING_REPLAY_COUNT);
+        private volatile Throwable error;
+
+        SegmentReader(File file)
+        {
+            this.file = file;
+        }
+
+        public void run()
+        {
+            try
+            {
+                try
+                {
+                    read();
+                }
+                catch (InterruptedException e)
+                {
+                    // the replay was aborted
+                    return;
+                }
+                catch (Throwable t)
+                {
+                    error = t;
+                }
+                entries.put(ReplayEntry.END);
+            }
+            catch (InterruptedException e)
+            {
+                // aborted
+            }
+        }
+
+        /**
+         * @return the next mutation of the segment, or null once it has all been read
+         */
+        ReplayEntry take() throws IOException
+        {
+            ReplayEntry entry;
+            try
+            {
+                entry = entries.take();
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+            if (entry != ReplayEntry.END)
+                return entry;
+            if (error == null)
+                return null;
+            if (error instanceof IOException)
+                throw (IOException) error;
+            throw new RuntimeException(error);
+        }
+
+        private void read() throws IOException, InterruptedException
+        {
+            int bufferSize = (int)Math.min(file.length(), 32 * 1024 * 1024);
+            BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", bufferSize);
+            long bytesRead = 0;
+            byte[] bytes = new byte[4096];
+
+            try
+            {
+                CommitLogHeader clHeader = null;
+                int replayPosition = 0;
+                String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
+                try
+                {
+                    clHeader = CommitLogHeader.readCommitLogHeader(headerPath);
+                    replayPosition = clHeader.getReplayPosition();
+                }
+                catch (IOException ioe)
+                {
+                    logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
+                    logger.debug("exception was", ioe);
+                }
+                if (replayPosition < 0)
+                {
+                    logger.debug("skipping replay of fully-flushed {}", file);
+                    return;
+                }
+                reader.seek(replayPosition);
+                bytesRead = replayPosition;
+                bytesCompleted.addAndGet(bytesRead);
+
+                if (logger.isDebugEnabled())
+                    logger.debug("Replaying " + file + " starting at " + reader.getFilePointer());
+
+                /* read the logs populate RowMutation and apply */
+                while (!reader.isEOF())
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Reading mutation at " + reader.getFilePointer());
+
+                    long claimedCRC32;
+
+                    Checksum checksum = new CRC32();
+                    int serializedSize;
+                    try
+                    {
+                        // any of the reads may hit EOF
+                        serializedSize = reader.readInt();
+                        long claimedSizeChecksum = reader.readLong();
+                        checksum.update(serializedSize);
+                        if (checksum.getValue() != claimedSizeChecksum || serializedSize <= 0)
+                            break; // entry wasn't synced correctly/fully.  that's ok.
+
+                        if (serializedSize > bytes.length)
+                            bytes = new byte[(int) (1.2 * serializedSize)];
+                        reader.readFully(bytes, 0, serializedSize);
+                        claimedCRC32 = reader.readLong();
+                    }
+                    catch(EOFException eof)
+                    {
+                        break; // last CL entry didn't get completely written.  that's ok.
+                    }
+
+                    long entryLocation = reader.getFilePointer();
+                    bytesCompleted.addAndGet(entryLocation - bytesRead);
+                    bytesRead = entryLocation;
+
+                    checksum.update(bytes, 0, serializedSize);
+                    if (claimedCRC32 != checksum.getValue())
+                    {
+                        // this entry must not have been fsynced.  probably the rest is bad too,
+                        // but just in case there is no harm in trying them (since we still read on an entry boundary)
+                        continue;
+                    }
+
+                    if (!needsReplay(bytes, serializedSize, clHeader, entryLocation))
+                    {
+                        mutationsSkipped.incrementAndGet();
+                        continue;
+                    }
+
+                    /* deserialize the commit log entry */
+                    ByteArrayInputStream bufIn = new ByteArrayInputStream(bytes, 0, serializedSize);
+                    RowMutation rm;
+                    try
+                    {
+                        rm = RowMutation.serializer().deserialize(new DataInputStream(bufIn));
+                    }
+                    catch (UnserializableColumnFamilyException ex)
+                    {
+                        countInvalid(ex.cfId);
+                        continue;
+                    }
+
+                    if (logger.isDebugEnabled())
+                        logger.debug(String.format("replaying mutation for %s.%s: %s",
+                                                    rm.getTable(),
+                                                    rm.key(),
+                                                    "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
+                    entries.put(new ReplayEntry(rm, clHeader, entryLocation));
+                }
+            }
+            finally
+            {
+                reader.close();
+                bytesCompleted.addAndGet(file.length() - bytesRead);
+                segmentsCompleted.incrementAndGet();
+                logger.info("Finished reading " + file);
+            }
+        }
+    }
+
+    /**
+     * Applies a logged mutation, omitting the column families that do not need it.
+     */
+    private static class ReplayEntry extends WrappedRunnable
+    {
+        static final ReplayEntry END = new ReplayEntry(null, null, -1);
+
+        final RowMutation mutation;
+        final CommitLogHeader header;
+        final long entryLocation;
+
+        ReplayEntry(RowMutation mutation, CommitLogHeader header, long entryLocation)
+        {
+            this.mutation = mutation;
+            this.header = header;
+            this.entryLocation = entryLocation;
+        }
+
+        public void runMayThrow() throws IOException
+        {
+            RowMutation newRm = new RowMutation(mutation.getTable(), mutation.key());
+
+            // Rebuild the row mutation, omitting column families that a) have already been flushed,
+            // b) are part of a cf that was dropped. Keep in mind that the cf.name() is suspect. do every
+            // thing based on the cfid instead.
+            for (ColumnFamily columnFamily : mutation.getColumnFamilies())
+            {
+                if (CFMetaData.getCF(columnFamily.id()) == null)
+                    // null means the cf has been dropped
+                    continue;
+
+                if (shouldReplay(columnFamily.id(), header, entryLocation))
+                    newRm.add(columnFamily);
+            }
+            if (!newRm.isEmpty())
+            {
+                Table.open(newRm.getTable()).apply(newRm, false);
+                instance.mutationsReplayed.incrementAndGet();
+            }
+        }
+    }
+
+    public boolean isReplaying()
+    {
+        return replaying;
+    }
+
+    public int getSegmentsTotal()
+    {
+        return segmentsTotal;
+    }
+
+    public int getSegmentsCompleted()
+    {
+        return segmentsCompleted.get();
+    }
+
+    public long getBytesTotal()
+    {
+        return bytesTotal;
+    }
+
+    public long getBytesCompleted()
+    {
+        return bytesCompleted.get();
+    }
+
+    public long getMutationsReplayed()
+    {
+        return mutationsReplayed.get();
+    }
+
+    public long getMutationsSkipped()
+    {
+        return mutationsSkipped.get();
+    }
+}
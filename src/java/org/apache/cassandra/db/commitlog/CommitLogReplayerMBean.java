@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db.commitlog;
+
+/**
+ * Progress of the most recent (or current) commitlog replay.
+ */
+public interface CommitLogReplayerMBean
+{
+    /**
+     * @return true while a replay is in progress
+     */
+    public boolean isReplaying();
+
+    /**
+     * @return the number of segments being replayed
+     */
+    public int getSegmentsTotal();
+
+    /**
+     * @return the number of segments read to the end so far
+     */
+    public int getSegmentsCompleted();
+
+    /**
+     * @return the total size of the segments being replayed
+     */
+    public long getBytesTotal();
+
+    /**
+     * @return the bytes of the segments read so far, including those skipped as already flushed
+     */
+    public long getBytesCompleted();
+
+    /**
+     * @return the number of mutations applied so far
+     */
+    public long getMutationsReplayed();
+
+    /**
+     * @return the number of mutations skipped so far without being deserialized, because
+     * the column family they belong to had already been flushed past them, or was dropped
+     */
+    public long getMutationsSkipped();
+}
@@ -23,6 +23,14 @@ package org.apache.cassandra.db.commitlog;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -33,111 +41,234 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.RowMutation;
-import org.apache.cassandra.io.util.BufferedRandomAccessFile;
-import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.DeletionService;
+import org.apache.cassandra.io.util.FileUtils;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
 
+/**
+ * A fixed-size, memory-mapped commit log file.  Writers reserve space for their entry under a short lock
+ * and then copy it into the mapping concurrently; the file is only forced to disk by sync().  Since replay
+ * stops at the first entry that is not fully written, sync() waits for every write reserved before it to
+ * complete, so that no write it covers can be lost behind an earlier one still being copied.
+ *
+ * The file is sized up front, so appending never grows it, and when a segment is no longer needed its
+ * file can be recycled into a new segment (see CommitLogAllocator).  Replay stops at the first entry with
+ * a zero size, so the unused part of a segment must be zeroed: new files are (sparse files read as zeros),
+ * recycled ones are zeroed by recycle().
+ */
 public class CommitLogSegment
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogSegment.class);
 
-    private final BufferedRandomAccessFile logWriter;
+    private static final Pattern COMMIT_LOG_FILE_PATTERN = Pattern.compile("CommitLog-(\\d+).log");
+
+    // size, size checksum and data checksum
+    static final int ENTRY_OVERHEAD_SIZE = 4 + 8 + 8;
+
+    // ids only need to be unique and increasing; starting from the time keeps them increasing across restarts
+    private static final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+
+    // the files of segments in use or ready for use, which replay must leave alone
+    private static final Set<String> managedFiles = new NonBlockingHashSet<String>();
+
+    private final File logFile;
+    private final RandomAccessFile logFileAccessor;
+    private final MappedByteBuffer buffer;
     private final CommitLogHeader header;
 
-    public CommitLogSegment()
+    // the end of the space handed out to writers; guarded by this
+    private int allocatedPosition = 0;
+    // set when a write completes, cleared by sync
+    private volatile boolean needsSync = false;
+    // writes reserved but not yet complete, counted by the sync generation they started in; guarded by this
+    private final int[] writesInFlight = new int[2];
+    private int syncGeneration = 0;
+    // at most one sync waits for writes at a time, so only two generations are ever in flight
+    private final Object syncLock = new Object();
+    // set once the mapping is gone; guarded by syncLock
+    private boolean closed = false;
+
+    private CommitLogSegment(File logFile, RandomAccessFile logFileAccessor, MappedByteBuffer buffer)
     {
+        this.logFile = logFile;
+        this.logFileAccessor = logFileAccessor;
+        this.buffer = buffer;
         this.header = new CommitLogHeader();
-        String logFile = DatabaseDescriptor.getCommitLogLocation() + File.separator + "CommitLog-" + System.currentTimeMillis() + ".log";
+    }
+
+    /**
+     * @return a new, empty segment of the given size
+     */
+    static CommitLogSegment freshSegment(int size) throws IOException
+    {
+        File logFile = nextFile();
         logger.info("Creating new commitlog segment " + logFile);
+        managedFiles.add(logFile.getName());
+        RandomAccessFile accessor = new RandomAccessFile(logFile, "rw");
+        accessor.setLength(size);
+        MappedByteBuffer buffer = accessor.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new CommitLogSegment(logFile, accessor, buffer);
+    }
 
-        try
-        {
-            logWriter = createWriter(logFile);
-            writeHeader();
-        }
-        catch (IOException e)
-        {
-            throw new IOError(e);
-        }
+    private static File nextFile()
+    {
+        return new File(DatabaseDescriptor.getCommitLogLocation(), "CommitLog-" + nextId.getAndIncrement() + ".log");
     }
 
     public static boolean possibleCommitLogFile(String filename)
     {
-        return filename.matches("CommitLog-\\d+.log");
+        return COMMIT_LOG_FILE_PATTERN.matcher(filename).matches();
     }
 
-    public void writeHeader() throws IOException
+    /**
+     * @return the id of the segment the given file belongs to; ids increase with the age of segments
+     */
+    static long idFromFilename(String filename)
     {
-        CommitLogHeader.writeCommitLogHeader(header, getHeaderPath());
+        Matcher matcher = COMMIT_LOG_FILE_PATTERN.matcher(filename);
+        if (!matcher.matches())
+            throw new IllegalArgumentException(filename + " is not a commitlog segment");
+        return Long.parseLong(matcher.group(1));
     }
 
-    private static BufferedRandomAccessFile createWriter(String file) throws IOException
+    /**
+     * @return true if the named file belongs to a segment that is being written or is ready to be
+     */
+    static boolean isManaged(String filename)
     {
-        return new BufferedRandomAccessFile(file, "rw", 128 * 1024);
+        return managedFiles.contains(filename);
     }
 
+    public void writeHeader() throws IOException
+    {
+        synchronized (header)
+        {
+            CommitLogHeader.writeCommitLogHeader(header, getHeaderPath());
+        }
+    }
+
+    /**
+     * Appends the mutation to this segment.
+     * @return the context of the new entry, or null if the segment does not have room for it
+     */
     public CommitLogSegment.CommitLogContext write(RowMutation rowMutation) throws IOException
     {
-        long currentPosition = -1L;
-        try
+        // serialize before taking the lock, so writers only contend on reserving space
+        byte[] serializedRow = rowMutation.getSerializedBuffer();
+        int entrySize = serializedRow.length + ENTRY_OVERHEAD_SIZE;
+        if (entrySize > buffer.capacity())
+            throw new IllegalArgumentException(String.format("Mutation of %d bytes is too large for the maximum commitlog segment size of %d",
+                                                             serializedRow.length, buffer.capacity()));
+
+        int position;
+        int generation;
+        boolean headerChanged;
+        synchronized (this)
         {
-            currentPosition = logWriter.getFilePointer();
-            CommitLogSegment.CommitLogContext cLogCtx = new CommitLogSegment.CommitLogContext(currentPosition);
+            if (allocatedPosition + entrySize > buffer.capacity())
+                return null;
+            position = allocatedPosition;
+            allocatedPosition += entrySize;
+            // mark the CFs dirty in allocation order, so that the first position recorded for each CF really is
+            // the first entry for it in this segment
+            headerChanged = markDirty(rowMutation, position);
+            generation = syncGeneration;
+            writesInFlight[generation & 1]++;
+        }
 
-            // update header
-            for (ColumnFamily columnFamily : rowMutation.getColumnFamilies())
-            {
-                // we can ignore the serialized map in the header (and avoid deserializing it) since we know we are
-                // writing the cfs as they exist now.  check for null cfm in case a cl write goes through after the cf is 
-                // defined but before a new segment is created.
-                CFMetaData cfm = DatabaseDescriptor.getCFMetaData(columnFamily.id());
-                if (cfm == null)
-                {
-                    logger.error("Attempted to write commit log entry for unrecognized column family: " + columnFamily.id());
-                }
-                else
-                {
-                    Integer id = cfm.cfId;
-                    if (!header.isDirty(id))
-                    {
-                        header.turnOn(id, logWriter.getFilePointer());
-                        writeHeader();
-                    }
-                }
-            }
+        try
+        {
+            // still part of the write, so no sync can complete without it
+            if (headerChanged)
+                writeHeader();
 
             // write mutation, w/ checksum on the size and data
+            ByteBuffer out = buffer.duplicate();
+            out.position(position);
             Checksum checksum = new CRC32();
-            byte[] serializedRow = rowMutation.getSerializedBuffer();
             checksum.update(serializedRow.length);
-            logWriter.writeInt(serializedRow.length);
-            logWriter.writeLong(checksum.getValue());
-            logWriter.write(serializedRow);
+            out.putInt(serializedRow.length);
+            out.putLong(checksum.getValue());
+            out.put(serializedRow);
             checksum.update(serializedRow, 0, serializedRow.length);
-            logWriter.writeLong(checksum.getValue());
-
-            return cLogCtx;
+            out.putLong(checksum.getValue());
+            needsSync = true;
         }
-        catch (IOException e)
+        finally
         {
-            if (currentPosition != -1)
-                logWriter.seek(currentPosition);
-            throw e;
+            synchronized (this)
+            {
+                if (--writesInFlight[generation & 1] == 0)
+                    notifyAll();
+            }
         }
+
+        return new CommitLogContext(position);
     }
 
+    /**
+     * @return true if a column family became dirty, so that the header needs writing
+     */
+    private boolean markDirty(RowMutation rowMutation, int position)
+    {
+        boolean changed = false;
+        for (ColumnFamily columnFamily : rowMutation.getColumnFamilies())
+        {
+            // we can ignore the serialized map in the header (and avoid deserializing it) since we know we are
+            // writing the cfs as they exist now.  check for null cfm in case a cl write goes through after the cf is 
+            // defined but before a new segment is created.
+            CFMetaData cfm = DatabaseDescriptor.getCFMetaData(columnFamily.id());
+            if (cfm == null)
+            {
+                logger.error("Attempted to write commit log entry for unrecognized column family: " + columnFamily.id());
+            }
+            else if (header.turnOnIfClean(cfm.cfId, position))
+            {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Forces the writes completed so far to disk, along with any reserved before them.
+     */
     public void sync() throws IOException
     {
-        logWriter.sync();
+        synchronized (syncLock)
+        {
+            if (closed || !needsSync)
+                return;
+            // clear the flag first: a write completing during the force sets it again, so the next sync covers it
+            needsSync = false;
+            waitForWritesInFlight();
+            buffer.force();
+        }
     }
 
-    public void flush() throws IOException
+    /**
+     * Waits for the writes reserved so far to complete.  Writes reserved meanwhile count towards the next
+     * generation, so a steady stream of them cannot hold up the sync.
+     */
+    private synchronized void waitForWritesInFlight()
     {
-        logWriter.flush();
+        int previous = syncGeneration++;
+        while (writesInFlight[previous & 1] > 0)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
     }
 
-    public CommitLogContext getContext()
+    public synchronized CommitLogContext getContext()
     {
-        return new CommitLogContext(logWriter.getFilePointer());
+        return new CommitLogContext(allocatedPosition);
     }
 
     public CommitLogHeader getHeader()
@@ -147,7 +278,7 @@ public class CommitLogSegment
 
     public String getPath()
     {
-        return logWriter.getPath();
+        return logFile.getPath();
     }
 
     public String getHeaderPath()
@@ -155,23 +286,75 @@ public class CommitLogSegment
         return CommitLogHeader.getHeaderPathFromSegment(this);
     }
 
-    public long length()
+    public int capacity()
     {
-        try
+        return buffer.capacity();
+    }
+
+    /**
+     * Zeroes the used part of this segment and renames its file, for reuse as a new, empty segment.
+     * Nothing may be written to this segment afterwards.
+     */
+    CommitLogSegment recycle() throws IOException
+    {
+        int end;
+        synchronized (this)
         {
-            return logWriter.length();
+            end = allocatedPosition;
+            // make any straggling write fail to find room
+            allocatedPosition = buffer.capacity();
         }
-        catch (IOException e)
+
+        ByteBuffer out = buffer.duplicate();
+        byte[] zeros = new byte[64 * 1024];
+        while (out.position() < end)
+            out.put(zeros, 0, Math.min(zeros.length, end - out.position()));
+        buffer.force();
+
+        new File(getHeaderPath()).delete(); // may not exist
+        File newFile = nextFile();
+        logger.info("Recycling commitlog segment " + logFile + " as " + newFile);
+        managedFiles.add(newFile.getName());
+        if (!logFile.renameTo(newFile))
         {
-            throw new IOError(e);
+            managedFiles.remove(newFile.getName());
+            throw new IOException("Unable to rename " + logFile + " to " + newFile);
         }
+        managedFiles.remove(logFile.getName());
+        return new CommitLogSegment(newFile, logFileAccessor, buffer);
+    }
+
+    /**
+     * Deletes this segment's files.
+     */
+    void discard()
+    {
+        close();
+        DeletionService.submitDelete(getHeaderPath());
+        DeletionService.submitDelete(getPath());
     }
 
+    /**
+     * Stops managing this segment, leaving its files for replay.  The mapping is released right away
+     * rather than whenever the buffer is collected, once the writes already reserved have completed.
+     */
     public void close()
     {
+        managedFiles.remove(logFile.getName());
+        synchronized (syncLock)
+        {
+            synchronized (this)
+            {
+                // make any straggling write fail to find room
+                allocatedPosition = buffer.capacity();
+            }
+            waitForWritesInFlight();
+            closed = true;
+            FileUtils.clean(buffer);
+        }
         try
         {
-            logWriter.close();
+            logFileAccessor.close();
         }
         catch (IOException e)
         {
@@ -182,7 +365,7 @@ public class CommitLogSegment
     @Override
     public String toString()
     {
-        return "CommitLogSegment(" + logWriter.getPath() + ')';
+        return "CommitLogSegment(" + logFile.getPath() + ')';
     }
 
     public class CommitLogContext
@@ -204,7 +387,7 @@ public class CommitLogSegment
         public String toString()
         {
             return "CommitLogContext(" +
-                   "file='" + logWriter.getPath() + '\'' +
+                   "file='" + logFile.getPath() + '\'' +
                    ", position=" + position +
                    ')';
         }
@@ -21,21 +21,16 @@ package org.apache.cassandra.db.commitlog;
  */
 
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-
 import org.apache.cassandra.concurrent.IExecutorMBean;
 
 /**
- * Like ExecutorService, but customized for batch and periodic commitlog execution.
+ * Decides when the commitlog is synced, and whether writers wait for it.  Writers append to the log
+ * on their own threads; only syncing happens elsewhere.
  */
 public interface ICommitLogExecutorService extends IExecutorMBean
 {
-    public <T> Future<T> submit(Callable<T> task);
-
     /**
-     * submits the adder for execution and blocks for it to be synced, if necessary
+     * runs the adder on the calling thread and blocks for it to be synced, if necessary
      */
     public void add(CommitLog.LogRecordAdder adder);
-
 }
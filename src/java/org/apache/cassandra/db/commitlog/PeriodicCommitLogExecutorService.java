@@ -21,82 +21,40 @@ package org.apache.cassandra.db.commitlog;
  */
 
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.concurrent.*;
-
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.utils.WrappedRunnable;
 
-class PeriodicCommitLogExecutorService implements ICommitLogExecutorService, PeriodicCommitLogExecutorServiceMBean
+/**
+ * Writers return as soon as their entry is in the log; the log is synced every commitlog_sync_period_in_ms.
+ */
+class PeriodicCommitLogExecutorService extends AbstractCommitLogExecutorService implements ICommitLogExecutorService, PeriodicCommitLogExecutorServiceMBean
 {
-    private final BlockingQueue<Runnable> queue;
-    protected volatile long completedTaskCount = 0;
-
     public PeriodicCommitLogExecutorService()
     {
-        this(1024 * Runtime.getRuntime().availableProcessors());
-    }
-
-    public PeriodicCommitLogExecutorService(int queueSize)
-    {
-        queue = new LinkedBlockingQueue<Runnable>(queueSize);
         Runnable runnable = new WrappedRunnable()
         {
             public void runMayThrow() throws Exception
             {
                 while (true)
                 {
-                    queue.take().run();
-                    completedTaskCount++;
+                    CommitLog.instance.sync();
+                    Thread.sleep(DatabaseDescriptor.getCommitLogSyncPeriod());
                 }
             }
         };
-        new Thread(runnable, "COMMIT-LOG-WRITER").start();
+        new Thread(runnable, "PERIODIC-COMMIT-LOG-SYNCER").start();
 
-        AbstractCommitLogExecutorService.registerMBean(this);
+        registerMBean(this);
     }
 
     public void add(CommitLog.LogRecordAdder adder)
     {
-        try
-        {
-            queue.put(adder);
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public <T> Future<T> submit(Callable<T> task)
-    {
-        FutureTask<T> ft = new FutureTask<T>(task);
-        try
-        {
-            queue.put(ft);
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-        return ft;
+        adder.run();
+        completedTaskCount.incrementAndGet();
     }
 
     public long getPendingTasks()
     {
-        return queue.size();
-    }
-
-    public int getActiveCount()
-    {
-        return 1;
-    }
-
-    public long getCompletedTasks()
-    {
-        return completedTaskCount;
+        return 0;
     }
-}
\ No newline at end of file
+}
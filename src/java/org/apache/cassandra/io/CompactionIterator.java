@@ -29,6 +29,7 @@ import java.util.Iterator;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.CompactionManager;
 import org.apache.cassandra.io.sstable.SSTableIdentityIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +37,7 @@ import org.apache.commons.collections.iterators.CollatingIterator;
 
 import org.apache.cassandra.utils.ReducingIterator;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Throttle;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableScanner;
 
@@ -55,6 +57,8 @@ implements Closeable, ICompactionInfo
     private long bytesRead;
     private long row;
 
+    private final Throttle throttle;
+
     public CompactionIterator(ColumnFamilyStore cfs, Iterable<SSTableReader> sstables, int gcBefore, boolean major) throws IOException
     {
         this(cfs, getCollatingIterator(sstables), gcBefore, major);
@@ -73,6 +77,18 @@ implements Closeable, ICompactionInfo
         this.cfs = cfs;
         this.gcBefore = gcBefore;
         this.major = major;
+        throttle = new Throttle(cfs.getColumnFamilyName() + " compaction", new Throttle.ThroughputFunction()
+        {
+            public int targetThroughput()
+            {
+                int mbPerSec = DatabaseDescriptor.getCompactionThroughputMbPerSec();
+                if (mbPerSec < 1)
+                    return 0;
+                // the limit is node-wide, so share it among the compactions in progress
+                int totalBytesPerMS = mbPerSec * 1024 * 1024 / 1000;
+                return Math.max(1, totalBytesPerMS / Math.max(1, CompactionManager.instance.getActiveCompactions()));
+            }
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -110,13 +126,15 @@ implements Closeable, ICompactionInfo
         finally
         {
             rows.clear();
-            if ((row++ % 1000) == 0)
+            // when throttled, check every row, since a single row may be large
+            if ((row++ % 1000) == 0 || DatabaseDescriptor.getCompactionThroughputMbPerSec() > 0)
             {
                 bytesRead = 0;
                 for (SSTableScanner scanner : getScanners())
                 {
                     bytesRead += scanner.getFilePointer();
                 }
+                throttle.throttle(bytesRead);
             }
         }
     }
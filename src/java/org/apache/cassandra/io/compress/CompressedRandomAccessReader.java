@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.io.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+
+/**
+ * A read-only BufferedRandomAccessFile over the uncompressed contents of a compressed data file.
+ * Positions are uncompressed positions; seeking is free, and a read outside the current chunk
+ * inflates the chunk holding it into the buffer.
+ */
+public class CompressedRandomAccessReader extends BufferedRandomAccessFile
+{
+    private final CompressionMetadata metadata;
+    private final FileChannel channel;
+    private final Inflater inflater = new Inflater();
+
+    private final byte[] buffer;
+    private long bufferOffset = -1; // uncompressed position of buffer[0]
+    private int validBufferBytes;
+    private long current;
+
+    private byte[] compressed;
+
+    public CompressedRandomAccessReader(String dataFilePath, CompressionMetadata metadata) throws IOException
+    {
+        super(dataFilePath, "r");
+        this.metadata = metadata;
+        channel = getChannel();
+        buffer = new byte[metadata.chunkLength];
+        compressed = new byte[metadata.chunkLength];
+    }
+
+    private void decompressChunk() throws IOException
+    {
+        CompressionMetadata.Chunk chunk = metadata.chunkFor(current);
+        if (compressed.length < chunk.length)
+            compressed = new byte[chunk.length];
+
+        ByteBuffer source = ByteBuffer.wrap(compressed, 0, chunk.length);
+        while (source.hasRemaining())
+        {
+            if (channel.read(source, chunk.offset + source.position()) < 0)
+                throw new EOFException(String.format("%s ends within %s", getPath(), chunk));
+        }
+
+        try
+        {
+            validBufferBytes = uncompress(inflater, compressed, chunk.length, buffer);
+        }
+        catch (IOException e)
+        {
+            throw new IOException(String.format("Corrupt %s in %s", chunk, getPath()), e);
+        }
+        bufferOffset = current - current % metadata.chunkLength;
+    }
+
+    /**
+     * Inflates one chunk written by CompressedSequentialWriter.
+     * @return the number of uncompressed bytes written to output
+     */
+    public static int uncompress(Inflater inflater, byte[] input, int inputLength, byte[] output) throws IOException
+    {
+        inflater.reset();
+        inflater.setInput(input, 0, inputLength);
+        int length = 0;
+        try
+        {
+            while (!inflater.finished())
+            {
+                int n = inflater.inflate(output, length, output.length - length);
+                if (n == 0 && (inflater.needsInput() || length == output.length))
+                    throw new IOException("chunk does not inflate to at most " + output.length + " bytes");
+                length += n;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException(e);
+        }
+        return length;
+    }
+
+    private boolean isBuffered()
+    {
+        return bufferOffset <= current && current < bufferOffset + validBufferBytes;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (current >= metadata.dataLength)
+            return -1;
+        if (!isBuffered())
+            decompressChunk();
+        return buffer[(int) (current++ - bufferOffset)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        if (current >= metadata.dataLength)
+            return -1;
+        if (!isBuffered())
+            decompressChunk();
+        int bufferPosition = (int) (current - bufferOffset);
+        len = Math.min(len, validBufferBytes - bufferPosition);
+        System.arraycopy(buffer, bufferPosition, b, off, len);
+        current += len;
+        return len;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException
+    {
+        if (pos < 0 || pos > metadata.dataLength)
+            throw new IOException(String.format("Cannot seek to %d in %s of length %d", pos, getPath(), metadata.dataLength));
+        current = pos;
+    }
+
+    @Override
+    public long getFilePointer()
+    {
+        return current;
+    }
+
+    @Override
+    public long length()
+    {
+        return metadata.dataLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inflater.end();
+        super.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%s, %d chunks of %d bytes)", getClass().getSimpleName(), getPath(), metadata.chunkCount(), metadata.chunkLength);
+    }
+}
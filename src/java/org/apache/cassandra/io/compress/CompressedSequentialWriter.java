@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.io.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+
+/**
+ * Writes a data file as a sequence of independently deflated chunks, and its CompressionInfo
+ * component on close.
+ *
+ * getFilePointer, length and seek work in uncompressed positions, so callers can treat this as any
+ * other BufferedRandomAccessFile, with one restriction: once a chunk has been compressed it cannot be
+ * rewritten, so seek only accepts positions within the chunk currently being filled.
+ */
+public class CompressedSequentialWriter extends BufferedRandomAccessFile
+{
+    private final String indexFilePath;
+    private final int chunkLength;
+    private final Deflater deflater = new Deflater();
+
+    // uncompressed contents of the current chunk
+    private final byte[] buffer;
+    private int bufferPosition;
+    private int validBufferBytes;
+    private long chunkOffset; // uncompressed position of buffer[0]
+
+    private byte[] compressed;
+    private long[] chunkOffsets = new long[16];
+    private int chunkCount;
+
+    public CompressedSequentialWriter(File file, String indexFilePath, int chunkLength) throws IOException
+    {
+        super(file, "rw");
+        // this is a fresh file, not one we are appending to
+        setLength(0);
+        this.indexFilePath = indexFilePath;
+        this.chunkLength = chunkLength;
+        buffer = new byte[chunkLength];
+        compressed = new byte[chunkLength + chunkLength / 16 + 64];
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (bufferPosition == chunkLength)
+            compressChunk();
+        buffer[bufferPosition++] = (byte) b;
+        if (bufferPosition > validBufferBytes)
+            validBufferBytes = bufferPosition;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (bufferPosition == chunkLength)
+                compressChunk();
+            int n = Math.min(len, chunkLength - bufferPosition);
+            System.arraycopy(b, off, buffer, bufferPosition, n);
+            bufferPosition += n;
+            if (bufferPosition > validBufferBytes)
+                validBufferBytes = bufferPosition;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Deflates the current chunk to the underlying file, and starts a new one after it.
+     */
+    private void compressChunk() throws IOException
+    {
+        deflater.reset();
+        deflater.setInput(buffer, 0, validBufferBytes);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished())
+        {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        if (chunkCount == chunkOffsets.length)
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunkOffsets.length * 2);
+        chunkOffsets[chunkCount++] = super.getFilePointer();
+        super.write(compressed, 0, length);
+
+        chunkOffset += validBufferBytes;
+        bufferPosition = 0;
+        validBufferBytes = 0;
+    }
+
+    @Override
+    public long getFilePointer()
+    {
+        return chunkOffset + bufferPosition;
+    }
+
+    @Override
+    public long length()
+    {
+        return chunkOffset + validBufferBytes;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException
+    {
+        if (pos < chunkOffset || pos > chunkOffset + validBufferBytes)
+            throw new IOException(String.format("Cannot seek to %d: only positions in the current chunk (%d to %d) can be rewritten",
+                                                pos, chunkOffset, chunkOffset + validBufferBytes));
+        bufferPosition = (int) (pos - chunkOffset);
+    }
+
+    /**
+     * Compresses what is left, syncs and closes the data file, and writes the CompressionInfo component.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (validBufferBytes > 0)
+            compressChunk();
+        super.close();
+        deflater.end();
+        CompressionMetadata.write(indexFilePath, chunkLength, chunkOffset, chunkOffsets, chunkCount);
+    }
+}
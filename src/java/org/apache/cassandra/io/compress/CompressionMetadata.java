@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.io.compress;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Describes a compressed data file: the data is cut into chunks of chunkLength uncompressed bytes,
+ * each compressed on its own, so that any position can be read by inflating a single chunk.
+ * The CompressionInfo component holds the chunk length, the uncompressed length and the offset
+ * of every chunk in the compressed file.
+ */
+public class CompressionMetadata
+{
+    public final int chunkLength;
+    public final long dataLength;
+    public final long compressedFileLength;
+    private final long[] chunkOffsets;
+
+    CompressionMetadata(int chunkLength, long dataLength, long[] chunkOffsets, long compressedFileLength)
+    {
+        assert chunkLength > 0;
+        assert chunkOffsets.length == (dataLength + chunkLength - 1) / chunkLength : chunkOffsets.length;
+        this.chunkLength = chunkLength;
+        this.dataLength = dataLength;
+        this.chunkOffsets = chunkOffsets;
+        this.compressedFileLength = compressedFileLength;
+    }
+
+    /**
+     * @return the metadata for the given compressed data file, read from its CompressionInfo component
+     */
+    public static CompressionMetadata create(String dataFilePath) throws IOException
+    {
+        Descriptor desc = Descriptor.fromFilename(dataFilePath);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(desc.filenameFor(Component.COMPRESSION_INFO))));
+        try
+        {
+            int chunkLength = in.readInt();
+            long dataLength = in.readLong();
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = in.readLong();
+            return new CompressionMetadata(chunkLength, dataLength, offsets, new File(dataFilePath).length());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    static void write(String path, int chunkLength, long dataLength, long[] offsets, int count) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(path);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try
+        {
+            out.writeInt(chunkLength);
+            out.writeLong(dataLength);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+                out.writeLong(offsets[i]);
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    public int chunkCount()
+    {
+        return chunkOffsets.length;
+    }
+
+    /**
+     * @return the compressed chunk holding the given uncompressed position
+     */
+    public Chunk chunkFor(long position)
+    {
+        assert position >= 0 && position < dataLength : position;
+        int index = (int) (position / chunkLength);
+        long offset = chunkOffsets[index];
+        long end = index + 1 < chunkOffsets.length ? chunkOffsets[index + 1] : compressedFileLength;
+        return new Chunk(offset, (int) (end - offset));
+    }
+
+    /**
+     * @param sections Sorted, non-overlapping (start, end) uncompressed positions.
+     * @return the chunks covering each section in turn; a chunk shared by two sections is listed for both
+     */
+    public List<Chunk> getChunksForSections(List<Pair<Long, Long>> sections)
+    {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (Pair<Long, Long> section : sections)
+        {
+            for (long position = section.left - section.left % chunkLength; position < section.right; position += chunkLength)
+                chunks.add(chunkFor(position));
+        }
+        return chunks;
+    }
+
+    /**
+     * The position and length of one compressed chunk in the compressed file.
+     */
+    public static class Chunk
+    {
+        public final long offset;
+        public final int length;
+
+        public Chunk(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Chunk<offset: %d, length: %d>", offset, length);
+        }
+    }
+}
@@ -50,7 +50,12 @@ public class Component
         // statistical metadata about the content of the sstable
         STATS("Statistics.db"),
         // a bitmap secondary index: many of these may exist per sstable
-        BITMAP_INDEX("Bitidx.db");
+        BITMAP_INDEX("Bitidx.db"),
+        // chunk size and offsets of the compressed chunks in the data file, if the data file is compressed
+        COMPRESSION_INFO("CompressionInfo.db"),
+        // the sampled index summary and segment boundaries of the index and data files, saving a scan of the index
+        // at load time; rebuilt from the index when missing
+        SUMMARY("Summary.db");
 
         final String repr;
         Type(String repr)
@@ -73,6 +78,8 @@ public class Component
     public final static Component FILTER = new Component(Type.FILTER, -1);
     public final static Component COMPACTED_MARKER = new Component(Type.COMPACTED_MARKER, -1);
     public final static Component STATS = new Component(Type.STATS, -1);
+    public final static Component COMPRESSION_INFO = new Component(Type.COMPRESSION_INFO, -1);
+    public final static Component SUMMARY = new Component(Type.SUMMARY, -1);
 
     public final Type type;
     public final int id;
@@ -102,6 +109,8 @@ public class Component
             case FILTER:
             case COMPACTED_MARKER:
             case STATS:
+            case COMPRESSION_INFO:
+            case SUMMARY:
                 return type.repr;
             case BITMAP_INDEX:
                 return String.format("%d-%s", id, type.repr);
@@ -138,6 +147,8 @@ public class Component
             case FILTER:            component = Component.FILTER;           break;
             case COMPACTED_MARKER:  component = Component.COMPACTED_MARKER; break;
             case STATS:             component = Component.STATS;            break;
+            case COMPRESSION_INFO:  component = Component.COMPRESSION_INFO; break;
+            case SUMMARY:           component = Component.SUMMARY;          break;
             case BITMAP_INDEX:
                  component = new Component(type, id);
                  break;
@@ -21,6 +21,9 @@ package org.apache.cassandra.io.sstable;
  */
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +32,8 @@ import java.util.Map;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Config;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.utils.FBUtilities;
 
 /**
  * Two approaches to building an IndexSummary:
@@ -39,6 +44,7 @@ public class IndexSummary
 {
     private ArrayList<KeyPosition> indexPositions;
     private long keysWritten = 0;
+    private DecoratedKey lastKey;
 
     public IndexSummary(long expectedKeys)
     {
@@ -49,6 +55,12 @@ public class IndexSummary
         indexPositions = new ArrayList<KeyPosition>((int)expectedEntries);
     }
 
+    private IndexSummary(ArrayList<KeyPosition> indexPositions, DecoratedKey lastKey)
+    {
+        this.indexPositions = indexPositions;
+        this.lastKey = lastKey;
+    }
+
     public void incrementRowid()
     {
         keysWritten++;
@@ -69,6 +81,28 @@ public class IndexSummary
         if (shouldAddEntry())
             addEntry(decoratedKey, indexPosition);
         incrementRowid();
+        lastKey = decoratedKey;
+    }
+
+    /**
+     * Records the last key of the sstable, which is only sampled by chance; maybeAddEntry does this itself.
+     */
+    public void setLastKey(DecoratedKey decoratedKey)
+    {
+        lastKey = decoratedKey;
+    }
+
+    /**
+     * @return the first key of the sstable, which is always sampled
+     */
+    public DecoratedKey getFirstKey()
+    {
+        return indexPositions.get(0).key;
+    }
+
+    public DecoratedKey getLastKey()
+    {
+        return lastKey;
     }
 
     public List<KeyPosition> getIndexPositions()
@@ -81,6 +115,43 @@ public class IndexSummary
         indexPositions.trimToSize();
     }
 
+    /**
+     * Writes the completed summary, for SSTableReader to load instead of sampling the index file again.
+     */
+    public void serialize(DataOutput out) throws IOException
+    {
+        out.writeInt(DatabaseDescriptor.getIndexInterval());
+        out.writeInt(indexPositions.size());
+        for (KeyPosition kp : indexPositions)
+        {
+            FBUtilities.writeShortByteArray(kp.key.key, out);
+            out.writeLong(kp.indexPosition);
+        }
+        out.writeBoolean(lastKey != null);
+        if (lastKey != null)
+            FBUtilities.writeShortByteArray(lastKey.key, out);
+    }
+
+    /**
+     * @return the summary serialized by serialize(), or null if it was sampled at a different index_interval
+     */
+    public static IndexSummary deserialize(DataInput in, IPartitioner partitioner, Descriptor desc) throws IOException
+    {
+        if (in.readInt() != DatabaseDescriptor.getIndexInterval())
+            return null;
+        int size = in.readInt();
+        ArrayList<KeyPosition> indexPositions = new ArrayList<KeyPosition>(size);
+        for (int i = 0; i < size; i++)
+        {
+            DecoratedKey key = SSTableReader.decodeKey(partitioner, desc, FBUtilities.readShortByteArray(in));
+            indexPositions.add(new KeyPosition(key, in.readLong()));
+        }
+        DecoratedKey lastKey = in.readBoolean()
+                               ? SSTableReader.decodeKey(partitioner, desc, FBUtilities.readShortByteArray(in))
+                               : null;
+        return new IndexSummary(indexPositions, lastKey);
+    }
+
     /**
      * This is a simple container for the index Key and its corresponding position
      * in the index file. Binary search is performed on a list of these objects
@@ -168,6 +168,9 @@ public abstract class SSTable
      */
     public static Pair<Descriptor,Component> tryComponentFromFilename(File dir, String name)
     {
+        // leveled compaction manifests live alongside the sstables
+        if (name.endsWith(".json"))
+            return null;
         try
         {
             return Component.fromFilename(dir, name);
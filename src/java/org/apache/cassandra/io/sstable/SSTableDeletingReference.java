@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.io.DeletionService;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.Filter;
 
 public class SSTableDeletingReference extends PhantomReference<SSTableReader>
 {
@@ -43,6 +44,8 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
     public final Set<Component> components;
     private final long size;
     private boolean deleteOnCleanup;
+    // the reader's current filter, freed once the reader is gone
+    private volatile Filter bloomFilter;
 
     SSTableDeletingReference(SSTableTracker tracker, SSTableReader referent, ReferenceQueue<? super SSTableReader> q)
     {
@@ -58,8 +61,15 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
         deleteOnCleanup = true;
     }
 
+    void setBloomFilter(Filter bloomFilter)
+    {
+        this.bloomFilter = bloomFilter;
+    }
+
     public void cleanup() throws IOException
     {
+        if (bloomFilter != null)
+            bloomFilter.close();
         if (deleteOnCleanup)
         {
             // this is tricky because the mmapping might not have been finalized yet,
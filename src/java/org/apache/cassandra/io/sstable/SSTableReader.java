@@ -19,10 +19,12 @@
 
 package org.apache.cassandra.io.sstable;
 
+import java.io.BufferedInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOError;
 import java.io.IOException;
 import java.lang.ref.Reference;
@@ -31,12 +33,19 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.cassandra.cache.InstrumentedCache;
+import org.apache.cassandra.cache.JMXInstrumentedKeyCache;
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.Column;
@@ -51,6 +60,9 @@ import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.ICompactSerializer2;
+import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
+import org.apache.cassandra.io.compress.CompressedSegmentedFile;
+import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.SegmentedFile;
@@ -74,9 +86,13 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     // guesstimated size of INDEX_INTERVAL index entries
     private static final int INDEX_FILE_BUFFER_BYTES = 16 * DatabaseDescriptor.getIndexInterval();
 
+    // rebuild filters of sstables older than version 'f' from their index at load time, instead of
+    // reading the on-heap BitSet filters they were written with; compaction replaces them eventually
+    private static final boolean REBUILD_LEGACY_FILTERS = Boolean.valueOf(System.getProperty("cassandra.rebuild_legacy_bloom_filters", "false"));
+
     // `finalizers` is required to keep the PhantomReferences alive after the enclosing SSTR is itself
     // unreferenced.  otherwise they will never get enqueued.
-    private static final Set<Reference<SSTableReader>> finalizers = new HashSet<Reference<SSTableReader>>();
+    private static final Set<Reference<SSTableReader>> finalizers = Collections.synchronizedSet(new HashSet<Reference<SSTableReader>>());
     private static final ReferenceQueue<SSTableReader> finalizerQueue = new ReferenceQueue<SSTableReader>()
     {{
         Runnable runnable = new Runnable()
@@ -128,9 +144,9 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     private SegmentedFile dfile;
 
     private IndexSummary indexSummary;
-    private BloomFilter bf;
+    private Filter bf;
 
-    private InstrumentedCache<Pair<Descriptor,DecoratedKey>, Long> keyCache;
+    private JMXInstrumentedKeyCache keyCache;
 
     private BloomFilterTracker bloomFilterTracker = new BloomFilterTracker();
 
@@ -159,10 +175,10 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
 
     public static SSTableReader open(Descriptor descriptor, Set<Component> components, CFMetaData metadata, IPartitioner partitioner) throws IOException
     {
-        return open(descriptor, components, Collections.<DecoratedKey>emptySet(), null, metadata, partitioner);
+        return open(descriptor, components, null, metadata, partitioner);
     }
 
-    public static SSTableReader open(Descriptor descriptor, Set<Component> components, Set<DecoratedKey> savedKeys, SSTableTracker tracker, CFMetaData metadata, IPartitioner partitioner) throws IOException
+    public static SSTableReader open(Descriptor descriptor, Set<Component> components, SSTableTracker tracker, CFMetaData metadata, IPartitioner partitioner) throws IOException
     {
         assert partitioner != null;
 
@@ -191,14 +207,14 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         sstable.setTrackedBy(tracker);
 
         // versions before 'c' encoded keys as utf-16 before hashing to the filter
-        if (descriptor.hasStringsInBloomFilter)
+        if (descriptor.hasStringsInBloomFilter || (!descriptor.hasBlockedBloomFilter && REBUILD_LEGACY_FILTERS))
         {
-            sstable.load(true, savedKeys);
+            sstable.load(true);
         }
         else
         {
-            sstable.load(false, savedKeys);
             sstable.loadBloomFilter();
+            sstable.load(false);
         }
         if (logger.isDebugEnabled())
             logger.debug("INDEX LOAD TIME for " + descriptor + ": " + (System.currentTimeMillis() - start) + " ms.");
@@ -209,10 +225,64 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         return sstable;
     }
 
+    /**
+     * Opens the given sstables in parallel, skipping (and logging) any that are missing components or are corrupt.
+     */
+    public static Collection<SSTableReader> batchOpen(Set<Map.Entry<Descriptor, Set<Component>>> entries,
+                                                      final SSTableTracker tracker,
+                                                      final CFMetaData metadata,
+                                                      final IPartitioner partitioner)
+    {
+        final Collection<SSTableReader> sstables = new LinkedBlockingQueue<SSTableReader>();
+        if (entries.isEmpty())
+            return sstables;
+
+        int threads = Math.min(entries.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = new DebuggableThreadPoolExecutor(threads,
+                                                                    threads,
+                                                                    Integer.MAX_VALUE,
+                                                                    TimeUnit.SECONDS,
+                                                                    new LinkedBlockingQueue<Runnable>(),
+                                                                    new NamedThreadFactory("SSTableBatchOpen"));
+        for (final Map.Entry<Descriptor, Set<Component>> entry : entries)
+        {
+            Runnable runnable = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        sstables.add(open(entry.getKey(), entry.getValue(), tracker, metadata, partitioner));
+                    }
+                    catch (FileNotFoundException ex)
+                    {
+                        logger.error("Missing sstable component in " + entry + "; skipped because of " + ex.getMessage());
+                    }
+                    catch (IOException ex)
+                    {
+                        logger.error("Corrupt sstable " + entry + "; skipped", ex);
+                    }
+                }
+            };
+            executor.execute(runnable);
+        }
+
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        return sstables;
+    }
+
     /**
      * Open a RowIndexedReader which already has its state initialized (by SSTableWriter).
      */
-    static SSTableReader internalOpen(Descriptor desc, Set<Component> components, CFMetaData metadata, IPartitioner partitioner, SegmentedFile ifile, SegmentedFile dfile, IndexSummary isummary, BloomFilter bf, long maxDataAge, EstimatedHistogram rowsize,
+    static SSTableReader internalOpen(Descriptor desc, Set<Component> components, CFMetaData metadata, IPartitioner partitioner, SegmentedFile ifile, SegmentedFile dfile, IndexSummary isummary, Filter bf, long maxDataAge, EstimatedHistogram rowsize,
                                       EstimatedHistogram columncount) throws IOException
     {
         assert desc != null && partitioner != null && ifile != null && dfile != null && isummary != null && bf != null;
@@ -226,7 +296,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                           SegmentedFile ifile,
                           SegmentedFile dfile,
                           IndexSummary indexSummary,
-                          BloomFilter bloomFilter,
+                          Filter bloomFilter,
                           long maxDataAge,
                           EstimatedHistogram rowSizes,
                           EstimatedHistogram columnCounts)
@@ -246,17 +316,32 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         if (tracker != null)
         {
             phantomReference = new SSTableDeletingReference(tracker, this, finalizerQueue);
+            phantomReference.setBloomFilter(bf);
             finalizers.add(phantomReference);
             keyCache = tracker.getKeyCache();
         }
     }
 
+    /**
+     * The filter is freed when this reader is collected, if it is tracked, or else when the collector finds it.
+     */
+    private void setBloomFilter(Filter bloomFilter)
+    {
+        bf = bloomFilter;
+        if (phantomReference != null)
+            phantomReference.setBloomFilter(bloomFilter);
+    }
+
     void loadBloomFilter() throws IOException
     {
         DataInputStream stream = new DataInputStream(new FileInputStream(descriptor.filenameFor(Component.FILTER)));
         try
         {
-            bf = BloomFilter.serializer().deserialize(stream);
+            // versions before 'f' used a BitSet-based filter, written with Java serialization
+            if (descriptor.hasBlockedBloomFilter)
+                setBloomFilter(BlockedBloomFilter.serializer().deserialize(stream));
+            else
+                setBloomFilter(BloomFilter.serializer().deserialize(stream));
         }
         finally
         {
@@ -265,35 +350,103 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     }
 
     /**
-     * Loads ifile, dfile and indexSummary, and optionally recreates the bloom filter.
+     * Loads ifile, dfile and indexSummary, and optionally recreates the bloom filter.  The summary and segment
+     * boundaries come from the SUMMARY component if possible; otherwise they are rebuilt by scanning the index.
+     * Saved keys are loaded into the key cache afterwards, by CacheWarmer.
      */
-    private void load(boolean recreatebloom, Set<DecoratedKey> keysToLoadInCache) throws IOException
+    private void load(boolean recreatebloom) throws IOException
+    {
+        SegmentedFile.Builder ibuilder = indexBuilder();
+        SegmentedFile.Builder dbuilder = dataBuilder();
+        boolean summaryLoaded = !recreatebloom && loadSummary(ibuilder, dbuilder);
+        if (!summaryLoaded)
+        {
+            // start over, in case the summary was partly read
+            ibuilder = indexBuilder();
+            dbuilder = dataBuilder();
+            buildSummary(recreatebloom, ibuilder, dbuilder);
+        }
+
+        // finalize the state of the reader
+        ifile = ibuilder.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
+        dfile = dbuilder.complete(descriptor.filenameFor(Component.DATA));
+    }
+
+    private SegmentedFile.Builder indexBuilder()
     {
-        boolean cacheLoading = keyCache != null && !keysToLoadInCache.isEmpty();
-        SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
-        SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
+        return SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
+    }
+
+    private SegmentedFile.Builder dataBuilder()
+    {
+        return components.contains(Component.COMPRESSION_INFO)
+               ? new CompressedSegmentedFile.Builder()
+               : SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
+    }
 
+    /**
+     * Loads indexSummary and the segment boundaries from the SUMMARY component.
+     * @return false if there is no usable summary, in which case the builders may have been partly restored
+     */
+    private boolean loadSummary(SegmentedFile.Builder ibuilder, SegmentedFile.Builder dbuilder)
+    {
+        if (!components.contains(Component.SUMMARY))
+            return false;
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(descriptor.filenameFor(Component.SUMMARY))));
+            IndexSummary summary = IndexSummary.deserialize(in, partitioner, descriptor);
+            if (summary == null || !ibuilder.deserializeBounds(in) || !dbuilder.deserializeBounds(in))
+            {
+                logger.debug("Summary of {} was saved with a different index_interval or disk access mode; rebuilding it", descriptor);
+                return false;
+            }
+            indexSummary = summary;
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read the summary of " + descriptor + "; rebuilding it from the index", e);
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("error closing file", e);
+            }
+        }
+    }
+
+    private void buildSummary(boolean recreatebloom, SegmentedFile.Builder ibuilder, SegmentedFile.Builder dbuilder) throws IOException
+    {
         // we read the positions in a BRAF so we don't have to worry about an entry spanning a mmap boundary.
         BufferedRandomAccessFile input = new BufferedRandomAccessFile(descriptor.filenameFor(Component.PRIMARY_INDEX), "r");
         try
         {
-            if (keyCache != null && keyCache.getCapacity() - keyCache.getSize() < keysToLoadInCache.size())
-                keyCache.updateCapacity(keyCache.getSize() + keysToLoadInCache.size());
-
             long indexSize = input.length();
             long estimatedKeys = SSTable.estimateRowsFromIndex(input);
             indexSummary = new IndexSummary(estimatedKeys);
             if (recreatebloom)
                 // estimate key count based on index length
-                bf = BloomFilter.getFilter(estimatedKeys, 15);
+                setBloomFilter(BlockedBloomFilter.getFilter(estimatedKeys, 15));
+            long lastIndexPosition = -1;
             while (true)
             {
                 long indexPosition = input.getFilePointer();
                 if (indexPosition == indexSize)
                     break;
+                lastIndexPosition = indexPosition;
 
                 boolean shouldAddEntry = indexSummary.shouldAddEntry();
-                ByteBuffer key = (ByteBuffer) ((shouldAddEntry || cacheLoading || recreatebloom)
+                ByteBuffer key = (ByteBuffer) ((shouldAddEntry || recreatebloom)
                              ? FBUtilities.readShortByteArray(input)
                              : FBUtilities.skipShortByteArray(input));
                 long dataPosition = input.readLong();
@@ -304,8 +457,6 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                         bf.add(decoratedKey.key);
                     if (shouldAddEntry)
                         indexSummary.addEntry(decoratedKey, indexPosition);
-                    if (cacheLoading && keysToLoadInCache.contains(decoratedKey))
-                        keyCache.put(new Pair(descriptor, decoratedKey), dataPosition);
                 }
 
                 indexSummary.incrementRowid();
@@ -313,15 +464,17 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                 dbuilder.addPotentialBoundary(dataPosition);
             }
             indexSummary.complete();
+
+            if (lastIndexPosition >= 0)
+            {
+                input.seek(lastIndexPosition);
+                indexSummary.setLastKey(decodeKey(partitioner, descriptor, FBUtilities.readShortByteArray(input)));
+            }
         }
         finally
         {
             input.close();
         }
-
-        // finalize the state of the reader
-        ifile = ibuilder.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
-        dfile = dbuilder.complete(descriptor.filenameFor(Component.DATA));
     }
 
     /** get the position in the index file to start scanning to find the given key (at most indexInterval keys away) */
@@ -349,10 +502,10 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
      */
     public void forceFilterFailures()
     {
-        bf = BloomFilter.alwaysMatchingBloomFilter();
+        setBloomFilter(BlockedBloomFilter.alwaysMatchingBloomFilter());
     }
 
-    public BloomFilter getBloomFilter()
+    public Filter getBloomFilter()
     {
       return bf;
     }
@@ -360,7 +513,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     /**
      * @return The key cache: for monitoring purposes.
      */
-    public InstrumentedCache getKeyCache()
+    public JMXInstrumentedKeyCache getKeyCache()
     {
         return keyCache;
     }
@@ -373,6 +526,22 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         return indexSummary.getIndexPositions().size() * DatabaseDescriptor.getIndexInterval();
     }
 
+    /**
+     * @return the smallest key in this SSTable.
+     */
+    public DecoratedKey getFirstKey()
+    {
+        return indexSummary.getFirstKey();
+    }
+
+    /**
+     * @return the largest key in this SSTable.
+     */
+    public DecoratedKey getLastKey()
+    {
+        return indexSummary.getLastKey();
+    }
+
     /**
      * @return Approximately 1/INDEX_INTERVALth of the keys in this SSTable.
      */
@@ -419,27 +588,36 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
      * @return The position in the data file to find the key, or -1 if the key is not present
      */
     public long getPosition(DecoratedKey decoratedKey, Operator op)
+    {
+        return getPosition(decoratedKey, op, true);
+    }
+
+    /**
+     * @param updateStats false to leave the key cache and bloom filter statistics alone, for lookups that are
+     * not reads, such as warming the key cache
+     */
+    public long getPosition(DecoratedKey decoratedKey, Operator op, boolean updateStats)
     {
         // first, check bloom filter
         if (op == Operator.EQ && !bf.isPresent(decoratedKey.key))
             return -1;
 
         // next, the key cache
-        Pair<Descriptor, DecoratedKey> unifiedKey = new Pair<Descriptor, DecoratedKey>(descriptor, decoratedKey);
-        if (keyCache != null && keyCache.getCapacity() > 0)
+        boolean caching = keyCache != null && decoratedKey.key != null && keyCache.getCapacity() > 0;
+        if (caching)
         {
-            Long cachedPosition = keyCache.get(unifiedKey);
-            if (cachedPosition != null)
-            {
+            long cachedPosition = updateStats
+                                ? keyCache.get(descriptor.generation, decoratedKey.key)
+                                : keyCache.getInternal(descriptor.generation, decoratedKey.key);
+            if (cachedPosition >= 0)
                 return cachedPosition;
-            }
         }
 
         // next, see if the sampled index says it's impossible for the key to be present
         IndexSummary.KeyPosition sampledPosition = getIndexScanPosition(decoratedKey);
         if (sampledPosition == null)
         {
-            if (op == Operator.EQ)
+            if (op == Operator.EQ && updateStats)
                 bloomFilterTracker.addFalsePositive();
             // we matched the -1th position: if the operator might match forward, return the 0th position
             return op.apply(1) >= 0 ? 0 : -1;
@@ -462,18 +640,18 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                     int v = op.apply(comparison);
                     if (v == 0)
                     {
-                        if (comparison == 0 && keyCache != null && keyCache.getCapacity() > 0)
+                        if (comparison == 0 && caching)
                         {
-                            if (op == Operator.EQ)
+                            if (op == Operator.EQ && updateStats)
                                 bloomFilterTracker.addTruePositive();
                             // store exact match for the key
-                            keyCache.put(unifiedKey, Long.valueOf(dataPosition));
+                            keyCache.put(descriptor.generation, decoratedKey.key, dataPosition);
                         }
                         return dataPosition;
                     }
                     if (v < 0)
                     {
-                        if (op == Operator.EQ)
+                        if (op == Operator.EQ && updateStats)
                             bloomFilterTracker.addFalsePositive();
                         return -1;
                     }
@@ -496,19 +674,38 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             }
         }
 
-        if (op == Operator.EQ)
+        if (op == Operator.EQ && updateStats)
             bloomFilterTracker.addFalsePositive();
         return -1;
     }
 
     /**
-     * @return The length in bytes of the data file for this SSTable.
+     * @return The length in bytes of the data file for this SSTable (uncompressed, if it is compressed).
      */
     public long length()
     {
         return dfile.length;
     }
 
+    /**
+     * @return the chunk layout of the data file, or null if it is not compressed
+     */
+    public CompressionMetadata getCompressionMetadata()
+    {
+        return dfile instanceof CompressedSegmentedFile ? ((CompressedSegmentedFile) dfile).metadata : null;
+    }
+
+    /**
+     * @return a new sequential reader over the rows of the data file, which decompresses it if need be
+     */
+    public BufferedRandomAccessFile openDataReader(int bufferSize) throws IOException
+    {
+        CompressionMetadata compression = getCompressionMetadata();
+        return compression == null
+               ? new BufferedRandomAccessFile(getFilename(), "r", bufferSize)
+               : new CompressedRandomAccessReader(getFilename(), compression);
+    }
+
     public void markCompacted()
     {
         if (logger.isDebugEnabled())
@@ -553,6 +750,21 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         return dfile.getSegment(position, bufferSize);
     }
 
+    public static final Comparator<SSTableReader> firstKeyComparator = new Comparator<SSTableReader>()
+    {
+        public int compare(SSTableReader o1, SSTableReader o2)
+        {
+            return o1.getFirstKey().compareTo(o2.getFirstKey());
+        }
+    };
+
+    public static final Comparator<SSTableReader> lastKeyComparator = new Comparator<SSTableReader>()
+    {
+        public int compare(SSTableReader o1, SSTableReader o2)
+        {
+            return o1.getLastKey().compareTo(o2.getLastKey());
+        }
+    };
 
     public int compareTo(SSTableReader o)
     {
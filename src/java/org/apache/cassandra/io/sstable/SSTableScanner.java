@@ -53,7 +53,7 @@ public class SSTableScanner implements Iterator<IColumnIterator>, Closeable
     {
         try
         {
-            this.file = new BufferedRandomAccessFile(sstable.getFilename(), "r", bufferSize);
+            this.file = sstable.openDataReader(bufferSize);
         }
         catch (IOException e)
         {
@@ -70,7 +70,7 @@ public class SSTableScanner implements Iterator<IColumnIterator>, Closeable
     {
         try
         {
-            this.file = new BufferedRandomAccessFile(sstable.getFilename(), "r", bufferSize);
+            this.file = sstable.openDataReader(bufferSize);
         }
         catch (IOException e)
         {
@@ -33,15 +33,19 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.cassandra.cache.IRowCacheProvider;
 import org.apache.cassandra.cache.JMXInstrumentedCache;
+import org.apache.cassandra.cache.JMXInstrumentedKeyCache;
+import org.apache.cassandra.cache.KeyPositionCache;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.AbstractCompactionStrategy;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DecoratedKey;
-import org.apache.cassandra.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 
 public class SSTableTracker implements Iterable<SSTableReader>
 {
@@ -54,21 +58,72 @@ public class SSTableTracker implements Iterable<SSTableReader>
     private final String ksname;
     private final String cfname;
 
-    private final JMXInstrumentedCache<Pair<Descriptor,DecoratedKey>,Long> keyCache;
-    private final JMXInstrumentedCache<DecoratedKey, ColumnFamily> rowCache;
+    private static KeyPositionCache sharedKeyCache;
 
-    public SSTableTracker(String ksname, String cfname)
+    private final JMXInstrumentedKeyCache keyCache;
+    private volatile JMXInstrumentedCache<DecoratedKey, ColumnFamily> rowCache;
+    private IRowCacheProvider rowCacheProvider;
+
+    private AbstractCompactionStrategy compactionStrategy;
+
+    public SSTableTracker(String ksname, String cfname, int cfId, IRowCacheProvider rowCacheProvider)
     {
         this.ksname = ksname;
         this.cfname = cfname;
         sstables = Collections.emptySet();
-        keyCache = new JMXInstrumentedCache<Pair<Descriptor,DecoratedKey>,Long>(ksname, cfname + "KeyCache", 0);
-        rowCache = new JMXInstrumentedCache<DecoratedKey, ColumnFamily>(ksname, cfname + "RowCache", 3);
+        keyCache = DatabaseDescriptor.getKeyCacheSizeInMB() > 0
+                   ? new JMXInstrumentedKeyCache(ksname, cfname + "KeyCache", cfId, getSharedKeyCache())
+                   : new JMXInstrumentedKeyCache(ksname, cfname + "KeyCache", cfId, 0);
+        this.rowCacheProvider = rowCacheProvider;
+        rowCache = createRowCache(rowCacheProvider, isRowCacheWeighedByMemory() ? DatabaseDescriptor.getRowCacheShareFor(ksname, cfname) : 3);
+    }
+
+    /**
+     * With a node-wide key_cache_size_in_mb, every column family caches keys in the same cache, sized in bytes.
+     */
+    private static synchronized KeyPositionCache getSharedKeyCache()
+    {
+        if (sharedKeyCache == null)
+            sharedKeyCache = new KeyPositionCache(DatabaseDescriptor.getKeyCacheSizeInMB() * 1048576L, true);
+        return sharedKeyCache;
+    }
+
+    private JMXInstrumentedCache<DecoratedKey, ColumnFamily> createRowCache(IRowCacheProvider provider, int capacity)
+    {
+        return new JMXInstrumentedCache<DecoratedKey, ColumnFamily>(ksname, cfname + "RowCache", provider.create(capacity, isRowCacheWeighedByMemory()));
+    }
+
+    /**
+     * With a node-wide row_cache_size_in_mb, row caches are sized in bytes, and RowCacheBudget sizes them rather than
+     * updateCacheSizes.
+     */
+    private static boolean isRowCacheWeighedByMemory()
+    {
+        return DatabaseDescriptor.getRowCacheSizeInMB() > 0;
+    }
+
+    public synchronized IRowCacheProvider getRowCacheProvider()
+    {
+        return rowCacheProvider;
+    }
+
+    /**
+     * Replaces the row cache with an empty one of the same capacity from the given provider, and frees the old one.
+     */
+    public synchronized void setRowCacheProvider(IRowCacheProvider provider)
+    {
+        JMXInstrumentedCache<DecoratedKey, ColumnFamily> oldCache = rowCache;
+        JMXInstrumentedCache<DecoratedKey, ColumnFamily> newCache = createRowCache(provider, oldCache.getCapacity());
+        if (oldCache.isCapacitySetManually())
+            newCache.setCapacity(oldCache.getCapacity());
+        rowCacheProvider = provider;
+        rowCache = newCache;
+        oldCache.clear();
     }
 
     protected class CacheWriter<K, V>
     {
-        public void saveCache(JMXInstrumentedCache<K, V> cache, File savedCachePath, Function<K, ByteBuffer> converter) throws IOException
+        public void saveCache(Set<K> keys, File savedCachePath, Function<K, ByteBuffer> converter) throws IOException
         {
             long start = System.currentTimeMillis();
             String msgSuffix = savedCachePath.getName() + " for " + cfname + " of " + ksname;
@@ -78,7 +133,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
             FileOutputStream fout = new FileOutputStream(tmpFile);
             ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fout));
             FileDescriptor fd = fout.getFD();
-            for (K key : cache.getKeySet())
+            for (K key : keys)
             {
                 ByteBuffer bytes = converter.apply(key);
                 out.writeInt(bytes.remaining());
@@ -97,15 +152,8 @@ public class SSTableTracker implements Iterable<SSTableReader>
 
     public void saveKeyCache() throws IOException
     {
-        Function<Pair<Descriptor, DecoratedKey>, ByteBuffer> function = new Function<Pair<Descriptor, DecoratedKey>, ByteBuffer>()
-        {
-            public ByteBuffer apply(Pair<Descriptor, DecoratedKey> key)
-            {
-                return key.right.key;
-            }
-        };
-        CacheWriter<Pair<Descriptor, DecoratedKey>, Long> writer = new CacheWriter<Pair<Descriptor, DecoratedKey>, Long>();
-        writer.saveCache(keyCache, DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname), function);
+        CacheWriter<ByteBuffer, Long> writer = new CacheWriter<ByteBuffer, Long>();
+        writer.saveCache(keyCache.getKeySet(), DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname), Functions.<ByteBuffer>identity());
     }
 
     public void saveRowCache() throws IOException
@@ -118,7 +166,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
             }
         };
         CacheWriter<DecoratedKey, ColumnFamily> writer = new CacheWriter<DecoratedKey, ColumnFamily>();
-        writer.saveCache(rowCache, DatabaseDescriptor.getSerializedRowCachePath(ksname, cfname), function);
+        writer.saveCache(rowCache.getKeySet(), DatabaseDescriptor.getSerializedRowCachePath(ksname, cfname), function);
     }
 
     public synchronized void replace(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
@@ -146,9 +194,21 @@ public class SSTableTracker implements Iterable<SSTableReader>
         }
 
         sstables = Collections.unmodifiableSet(sstablesNew);
+        if (compactionStrategy != null)
+            compactionStrategy.replace(oldSSTables, replacements);
         updateCacheSizes();
     }
 
+    /**
+     * Sets the strategy to tell about every change to the set of sstables, starting with the current ones,
+     * which it may already know of.
+     */
+    public synchronized void setCompactionStrategy(AbstractCompactionStrategy strategy)
+    {
+        compactionStrategy = strategy;
+        strategy.replace(Collections.<SSTableReader>emptyList(), sstables);
+    }
+
     public synchronized void add(Iterable<SSTableReader> sstables)
     {
         assert sstables != null;
@@ -170,7 +230,12 @@ public class SSTableTracker implements Iterable<SSTableReader>
         if (!keyCache.isCapacitySetManually())
         {
             int keyCacheSize = DatabaseDescriptor.getKeysCachedFor(ksname, cfname, keys);
-            if (keyCacheSize != keyCache.getCapacity())
+            if (keyCache.isShared())
+            {
+                // the shared capacity is fixed; keys_cached just enables the column family
+                keyCache.updateCapacity(keyCacheSize);
+            }
+            else if (keyCacheSize != keyCache.getCapacity())
             {
                 // update cache size for the new key volume
                 if (logger.isDebugEnabled())
@@ -179,7 +244,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
             }
         }
 
-        if (!rowCache.isCapacitySetManually())
+        if (!rowCache.isCapacitySetManually() && !isRowCacheWeighedByMemory())
         {
             int rowCacheSize = DatabaseDescriptor.getRowsCachedFor(ksname, cfname, keys);
             if (rowCacheSize != rowCache.getCapacity())
@@ -210,6 +275,8 @@ public class SSTableTracker implements Iterable<SSTableReader>
 
     public synchronized void clearUnsafe()
     {
+        if (compactionStrategy != null)
+            compactionStrategy.replace(sstables, Collections.<SSTableReader>emptyList());
         sstables = Collections.emptySet();
     }
 
@@ -243,7 +310,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
         totalSize.addAndGet(-size);
     }
 
-    public JMXInstrumentedCache<Pair<Descriptor, DecoratedKey>, Long> getKeyCache()
+    public JMXInstrumentedKeyCache getKeyCache()
     {
         return keyCache;
     }
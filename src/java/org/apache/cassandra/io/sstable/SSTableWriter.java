@@ -19,6 +19,7 @@
 
 package org.apache.cassandra.io.sstable;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -38,12 +39,17 @@ import org.apache.cassandra.db.Table;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.AbstractCompactedRow;
 import org.apache.cassandra.io.ICompactionInfo;
+import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
+import org.apache.cassandra.io.compress.CompressedSegmentedFile;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
+import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.FileMark;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.SegmentedFile;
 import org.apache.cassandra.service.StorageService;
-import org.apache.cassandra.utils.BloomFilter;
+import org.apache.cassandra.utils.BlockedBloomFilter;
 import org.apache.cassandra.utils.EstimatedHistogram;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -56,6 +62,7 @@ public class SSTableWriter extends SSTable
     private IndexWriter iwriter;
     private SegmentedFile.Builder dbuilder;
     private final BufferedRandomAccessFile dataFile;
+    private final boolean compressed;
     private DecoratedKey lastWrittenKey;
     private FileMark dataMark;
 
@@ -67,14 +74,33 @@ public class SSTableWriter extends SSTable
     public SSTableWriter(String filename, long keyCount, CFMetaData metadata, IPartitioner partitioner) throws IOException
     {
         super(Descriptor.fromFilename(filename),
-              new HashSet<Component>(Arrays.asList(Component.DATA, Component.FILTER, Component.PRIMARY_INDEX, Component.STATS)),
+              components(metadata),
               metadata,
               partitioner,
               SSTable.defaultRowHistogram(),
               SSTable.defaultColumnHistogram());
         iwriter = new IndexWriter(descriptor, partitioner, keyCount);
-        dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
-        dataFile = new BufferedRandomAccessFile(getFilename(), "rw", DatabaseDescriptor.getInMemoryCompactionLimit());
+        compressed = components.contains(Component.COMPRESSION_INFO);
+        if (compressed)
+        {
+            dbuilder = new CompressedSegmentedFile.Builder();
+            dataFile = new CompressedSequentialWriter(new File(getFilename()),
+                                                      descriptor.filenameFor(Component.COMPRESSION_INFO),
+                                                      metadata.getCompressionChunkSizeInKb() * 1024);
+        }
+        else
+        {
+            dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
+            dataFile = new BufferedRandomAccessFile(getFilename(), "rw", DatabaseDescriptor.getInMemoryCompactionLimit());
+        }
+    }
+
+    private static Set<Component> components(CFMetaData metadata)
+    {
+        Set<Component> components = new HashSet<Component>(Arrays.asList(Component.DATA, Component.FILTER, Component.PRIMARY_INDEX, Component.STATS, Component.SUMMARY));
+        if (metadata.getCompressionChunkSizeInKb() > 0)
+            components.add(Component.COMPRESSION_INFO);
+        return components;
     }
     
     public void mark()
@@ -136,17 +162,30 @@ public class SSTableWriter extends SSTable
     {
         long startPosition = beforeAppend(decoratedKey);
         FBUtilities.writeShortByteArray(decoratedKey.key, dataFile);
-        // write placeholder for the row size, since we don't know it yet
-        long sizePosition = dataFile.getFilePointer();
-        dataFile.writeLong(-1);
-        // write out row data
-        int columnCount = ColumnFamily.serializer().serializeWithIndexes(cf, dataFile);
-        // seek back and write the row size (not including the size Long itself)
+        int columnCount;
+        if (compressed)
+        {
+            // chunks that have been compressed can't be rewritten, so serialize the row first to learn its size
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            columnCount = ColumnFamily.serializer().serializeWithIndexes(cf, buffer);
+            dataFile.writeLong(buffer.getLength());
+            dataFile.write(buffer.getData(), 0, buffer.getLength());
+        }
+        else
+        {
+            // write placeholder for the row size, since we don't know it yet
+            long sizePosition = dataFile.getFilePointer();
+            dataFile.writeLong(-1);
+            // write out row data
+            columnCount = ColumnFamily.serializer().serializeWithIndexes(cf, dataFile);
+            // seek back and write the row size (not including the size Long itself)
+            long endPosition = dataFile.getFilePointer();
+            dataFile.seek(sizePosition);
+            dataFile.writeLong(endPosition - (sizePosition + 8));
+            // finally, reset for next row
+            dataFile.seek(endPosition);
+        }
         long endPosition = dataFile.getFilePointer();
-        dataFile.seek(sizePosition);
-        dataFile.writeLong(endPosition - (sizePosition + 8));
-        // finally, reset for next row
-        dataFile.seek(endPosition);
         afterAppend(decoratedKey, startPosition);
         estimatedRowSize.add(endPosition - startPosition);
         estimatedColumnCount.add(columnCount);
@@ -175,10 +214,13 @@ public class SSTableWriter extends SSTable
         // main data
         long position = dataFile.getFilePointer();
         dataFile.close(); // calls force
-        FileUtils.truncate(dataFile.getPath(), position);
+        // (compressed data is never rewritten, so there is nothing past the end to trim)
+        if (!compressed)
+            FileUtils.truncate(dataFile.getPath(), position);
 
         // write sstable statistics
         writeStatistics(descriptor, estimatedRowSize, estimatedColumnCount);
+        writeSummary(descriptor, iwriter.summary, iwriter.builder, dbuilder);
 
         // remove the 'tmp' marker from all components
         final Descriptor newdesc = rename(descriptor, components);
@@ -200,6 +242,22 @@ public class SSTableWriter extends SSTable
         out.close();
     }
 
+    /**
+     * Saves the index summary and the boundaries of the index and data segments, which SSTableReader would otherwise
+     * have to recreate by scanning the whole index.  (So this must happen before the builders are completed.)
+     */
+    private static void writeSummary(Descriptor desc, IndexSummary summary, SegmentedFile.Builder ibuilder, SegmentedFile.Builder dbuilder) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(desc.filenameFor(Component.SUMMARY));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        summary.serialize(out);
+        ibuilder.serializeBounds(out);
+        dbuilder.serializeBounds(out);
+        out.flush();
+        fos.getFD().sync();
+        out.close();
+    }
+
     static Descriptor rename(Descriptor tmpdesc, Set<Component> components)
     {
         Descriptor newdesc = tmpdesc.asTemporary(false);
@@ -248,7 +306,10 @@ public class SSTableWriter extends SSTable
             cfs = Table.open(desc.ksname).getColumnFamilyStore(desc.cfname);
             try
             {
-                dfile = new BufferedRandomAccessFile(desc.filenameFor(SSTable.COMPONENT_DATA), "r", 8 * 1024 * 1024);
+                String path = desc.filenameFor(SSTable.COMPONENT_DATA);
+                dfile = new File(desc.filenameFor(Component.COMPRESSION_INFO)).exists()
+                        ? new CompressedRandomAccessReader(path, CompressionMetadata.create(path))
+                        : new BufferedRandomAccessFile(path, "r", 8 * 1024 * 1024);
             }
             catch (IOException e)
             {
@@ -357,7 +418,7 @@ public class SSTableWriter extends SSTable
         public final IPartitioner partitioner;
         public final SegmentedFile.Builder builder;
         public final IndexSummary summary;
-        public final BloomFilter bf;
+        public final BlockedBloomFilter bf;
         private FileMark mark;
 
         IndexWriter(Descriptor desc, IPartitioner part, long keyCount) throws IOException
@@ -367,7 +428,7 @@ public class SSTableWriter extends SSTable
             indexFile = new BufferedRandomAccessFile(desc.filenameFor(SSTable.COMPONENT_INDEX), "rw", 8 * 1024 * 1024);
             builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
             summary = new IndexSummary(keyCount);
-            bf = BloomFilter.getFilter(keyCount, 15);
+            bf = BlockedBloomFilter.getFilter(keyCount, 15);
         }
 
         public void afterAppend(DecoratedKey key, long dataPosition) throws IOException
@@ -391,7 +452,7 @@ public class SSTableWriter extends SSTable
             // bloom filter
             FileOutputStream fos = new FileOutputStream(desc.filenameFor(SSTable.COMPONENT_FILTER));
             DataOutputStream stream = new DataOutputStream(fos);
-            BloomFilter.serializer().serialize(bf, stream);
+            BlockedBloomFilter.serializer().serialize(bf, stream);
             stream.flush();
             fos.getFD().sync();
             stream.close();
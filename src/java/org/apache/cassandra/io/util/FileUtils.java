@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.Comparator;
 import java.util.List;
@@ -33,12 +35,52 @@ import org.slf4j.LoggerFactory;
 public class FileUtils
 {
     private static Logger logger_ = LoggerFactory.getLogger(FileUtils.class);
+
     private static final DecimalFormat df_ = new DecimalFormat("#.##");
     private static final double kb_ = 1024d;
     private static final double mb_ = 1024*1024d;
     private static final double gb_ = 1024*1024*1024d;
     private static final double tb_ = 1024*1024*1024*1024d;
 
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+    static
+    {
+        Method cleaner = null;
+        Method clean = null;
+        try
+        {
+            cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        }
+        catch (Exception e)
+        {
+            // not a Sun JVM; direct and mapped buffers are released when they are collected
+        }
+        cleanerMethod = cleaner;
+        cleanMethod = clean;
+    }
+
+    /**
+     * Frees the memory of a direct buffer, or unmaps a mapped one, without waiting for it to be collected.
+     * The buffer, and any view of it, must not be used afterwards.
+     */
+    public static void clean(ByteBuffer buffer)
+    {
+        if (cleanerMethod == null || !buffer.isDirect())
+            return;
+        try
+        {
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+                cleanMethod.invoke(cleaner);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static void deleteWithConfirm(String file) throws IOException
     {
         deleteWithConfirm(new File(file));
@@ -21,6 +21,8 @@ package org.apache.cassandra.io.util;
  */
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
@@ -139,6 +141,27 @@ public class MmappedSegmentedFile extends SegmentedFile
             }
         }
 
+        @Override
+        public void serializeBounds(DataOutput out) throws IOException
+        {
+            super.serializeBounds(out);
+            out.writeInt(boundaries.size());
+            for (long boundary : boundaries)
+                out.writeLong(boundary);
+        }
+
+        @Override
+        public boolean deserializeBounds(DataInput in) throws IOException
+        {
+            if (!super.deserializeBounds(in))
+                return false;
+            boundaries.clear();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+                boundaries.add(in.readLong());
+            return true;
+        }
+
         @Override
         public SegmentedFile complete(String path)
         {
@@ -44,7 +44,7 @@ public abstract class SegmentedFile
     /**
      * Use getBuilder to get a Builder to construct a SegmentedFile.
      */
-    SegmentedFile(String path, long length)
+    protected SegmentedFile(String path, long length)
     {
         this.path = path;
         this.length = length;
@@ -87,6 +87,25 @@ public abstract class SegmentedFile
          * @param path The file on disk.
          */
         public abstract SegmentedFile complete(String path);
+
+        /**
+         * Writes the boundaries added so far, so that a Builder of the same kind can be restored from them by
+         * deserializeBounds, without adding them again.  Must be called before complete().
+         */
+        public void serializeBounds(DataOutput out) throws IOException
+        {
+            out.writeUTF(getClass().getName());
+        }
+
+        /**
+         * Restores boundaries written by serializeBounds.
+         * @return false if they were written by a different kind of Builder (the disk access mode has changed),
+         * in which case nothing more can be read from the input, and the boundaries need to be added again.
+         */
+        public boolean deserializeBounds(DataInput in) throws IOException
+        {
+            return in.readUTF().equals(getClass().getName());
+        }
     }
 
     static final class Segment extends Pair<Long, MappedByteBuffer> implements Comparable<Segment>
@@ -209,6 +209,16 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
     {
         return scores;
     }
+
+    /**
+     * @return the latency, in ms, below which the given fraction of the host's recent responses arrived,
+     * or NaN if we have no recent responses from it
+     */
+    public double getLatencyPercentile(InetAddress host, double fraction)
+    {
+        AdaptiveLatencyTracker tracker = windows.get(host);
+        return tracker == null ? Double.NaN : tracker.percentile(fraction);
+    }
 }
 
 /** a threadsafe version of BoundedStatsDeque+ArrivalWindow with modification for arbitrary times **/
@@ -246,6 +256,15 @@ class AdaptiveLatencyTracker extends AbstractStatsDeque
         return latencies.size();
     }
 
+    double percentile(double fraction)
+    {
+        Double[] sorted = latencies.toArray(new Double[0]);
+        if (sorted.length == 0)
+            return Double.NaN;
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
     double p(double t)
     {
         double mean = mean();
@@ -25,13 +25,12 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.net.InetAddress;
 
-import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.io.ICompactSerializer;
 import org.apache.cassandra.service.StorageService;
 
 public class Header
 {
-    private static ICompactSerializer<Header> serializer_;
+    private static HeaderSerializer serializer_;
     private static AtomicInteger idGen_ = new AtomicInteger(0);
     
     static
@@ -39,20 +38,26 @@ public class Header
         serializer_ = new HeaderSerializer();        
     }
     
-    static ICompactSerializer<Header> serializer()
+    static HeaderSerializer serializer()
     {
         return serializer_;
     }
 
+    static int nextId()
+    {
+        return idGen_.incrementAndGet();
+    }
+
     private InetAddress from_;
     // TODO STAGE can be determined from verb
     private StorageService.Verb verb_;
-    private String messageId_;
-    protected Map<String, byte[]> details_ = new Hashtable<String, byte[]>();
+    private int messageId_;
+    // almost always empty, so only allocated by the first setDetail.  Not thread-safe: details are set
+    // before the message is sent
+    protected Map<String, byte[]> details_ = Collections.emptyMap();
     
-    Header(String id, InetAddress from, StorageService.Verb verb)
+    Header(int id, InetAddress from, StorageService.Verb verb)
     {
-        assert id != null;
         assert from != null;
         assert verb != null;
 
@@ -61,7 +66,7 @@ public class Header
         verb_ = verb;
     }
     
-    Header(String id, InetAddress from, StorageService.Verb verb, Map<String, byte[]> details)
+    Header(int id, InetAddress from, StorageService.Verb verb, Map<String, byte[]> details)
     {
         this(id, from, verb);
         details_ = details;
@@ -69,7 +74,7 @@ public class Header
 
     Header(InetAddress from, StorageService.Verb verb)
     {
-        this(Integer.toString(idGen_.incrementAndGet()), from, verb);
+        this(nextId(), from, verb);
     }        
 
     InetAddress getFrom()
@@ -82,12 +87,12 @@ public class Header
         return verb_;
     }
 
-    String getMessageId()
+    int getMessageId()
     {
         return messageId_;
     }
 
-    void setMessageId(String id)
+    void setMessageId(int id)
     {
         messageId_ = id;
     }
@@ -99,6 +104,8 @@ public class Header
 
     void setDetail(String key, byte[] value)
     {
+        if (details_.isEmpty())
+            details_ = new HashMap<String, byte[]>(4);
         details_.put(key, value);
     }
 }
@@ -107,33 +114,58 @@ class HeaderSerializer implements ICompactSerializer<Header>
 {
     public void serialize(Header t, DataOutputStream dos) throws IOException
     {           
-        dos.writeUTF(t.getMessageId());
+        dos.writeInt(t.getMessageId());
         CompactEndpointSerializationHelper.serialize(t.getFrom(), dos);
         dos.writeInt(t.getVerb().ordinal());
         
         /* Serialize the message header */
-        int size = t.details_.size();
-        dos.writeInt(size);
-        Set<String> keys = t.details_.keySet();
-        
-        for( String key : keys )
+        dos.writeInt(t.details_.size());
+        for (Map.Entry<String, byte[]> entry : t.details_.entrySet())
         {
-            dos.writeUTF(key);
-            byte[] value = t.details_.get(key);
+            dos.writeUTF(entry.getKey());
+            byte[] value = entry.getValue();
             dos.writeInt(value.length);
             dos.write(value);
         }
     }
 
+    /**
+     * @return the number of bytes serialize() will write for t
+     */
+    public int serializedSize(Header t)
+    {
+        int size = 4 + 1 + t.getFrom().getAddress().length + 4 + 4;
+        for (Map.Entry<String, byte[]> entry : t.details_.entrySet())
+            size += utfLength(entry.getKey()) + 4 + entry.getValue().length;
+        return size;
+    }
+
+    /** the length of s as written by DataOutput.writeUTF */
+    private static int utfLength(String s)
+    {
+        int length = 2;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length += 1;
+            else if (c > 0x07FF)
+                length += 3;
+            else
+                length += 2;
+        }
+        return length;
+    }
+
     public Header deserialize(DataInputStream dis) throws IOException
     {
-        String id = dis.readUTF();
+        int id = dis.readInt();
         InetAddress from = CompactEndpointSerializationHelper.deserialize(dis);
         int verbOrdinal = dis.readInt();
         
         /* Deserializing the message header */
         int size = dis.readInt();
-        Map<String, byte[]> details = new Hashtable<String, byte[]>(size);
+        Map<String, byte[]> details = size == 0 ? Collections.<String, byte[]>emptyMap() : new HashMap<String, byte[]>(size);
         for ( int i = 0; i < size; ++i )
         {
             String key = dis.readUTF();
@@ -146,5 +178,3 @@ class HeaderSerializer implements ICompactSerializer<Header>
         return new Header(id, from, StorageService.VERBS[verbOrdinal], details);
     }
 }
-
-
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.streaming.StreamHeader;
+
+/**
+ * Reads the frames written by packIt from a non-blocking connection, and hands each complete message to its stage.
+ *
+ * A connection whose first frame is a stream header is a streaming connection: the rest of it is file content,
+ * which is read by a blocking IncomingTcpConnection thread of its own.
+ */
+class IncomingMessageConnection implements MessagingEventLoop.Handler
+{
+    private static final Logger logger = LoggerFactory.getLogger(IncomingMessageConnection.class);
+
+    // magic, header and size
+    static final int PREFIX_SIZE = 12;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final MessagingEventLoop loop;
+    // standard-sized read buffers, shared by all the connections: a connection only holds on to one while
+    // it has part of a frame in it, so idle connections cost no buffer space
+    private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private SelectionKey key;
+    private ByteBuffer buffer = allocateBuffer();
+    // until the first frame is complete, we must not read past it: if it is a stream header, what follows belongs
+    // to the stream
+    private boolean first = true;
+    private final Inflater inflater = new Inflater();
+
+    IncomingMessageConnection(SocketChannel channel, MessagingEventLoop loop)
+    {
+        this.channel = channel;
+        this.loop = loop;
+        buffer.limit(PREFIX_SIZE);
+    }
+
+    void start()
+    {
+        loop.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    key = loop.register(channel, SelectionKey.OP_READ, IncomingMessageConnection.this);
+                }
+                catch (ClosedChannelException e)
+                {
+                    close();
+                }
+            }
+        });
+    }
+
+    public void handle(SelectionKey key)
+    {
+        if (buffer == null)
+            buffer = allocateBuffer();
+        try
+        {
+            while (true)
+            {
+                if (channel.read(buffer) < 0)
+                    throw new EOFException();
+                boolean drained = buffer.hasRemaining();
+                if (!processFrames())
+                    return;
+                if (drained)
+                    break;
+            }
+            if (!first && buffer.position() == 0)
+                releaseBuffer();
+        }
+        catch (EOFException e)
+        {
+            if (logger.isTraceEnabled())
+                logger.trace("eof reading from socket; closing", e);
+            close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error reading from socket; closing", e);
+            close();
+        }
+    }
+
+    /**
+     * Delivers the complete frames in the buffer, and leaves it ready to read the rest.
+     * @return false if the connection has been handed off to a stream reader
+     */
+    private boolean processFrames() throws IOException
+    {
+        buffer.flip();
+        int needed = PREFIX_SIZE;
+        while (buffer.remaining() >= PREFIX_SIZE)
+        {
+            int position = buffer.position();
+            MessagingService.validateMagic(buffer.getInt(position));
+            int header = buffer.getInt(position + 4);
+            boolean isStream = MessagingService.getBits(header, 3, 1) == 1;
+            int size = buffer.getInt(position + 8);
+            if (isStream && !first)
+                throw new IOException("stream header after the first frame");
+
+            needed = PREFIX_SIZE + size;
+            if (buffer.remaining() < needed)
+                break;
+
+            int offset = buffer.arrayOffset() + position + PREFIX_SIZE;
+            buffer.position(position + needed);
+            if (isStream)
+            {
+                MessagingService.validateStreamVersion(header);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), offset, size));
+                startStream(StreamHeader.serializer().deserialize(in));
+                return false;
+            }
+            first = false;
+            DataInputStream in = MessagingService.getMessageInput(header, buffer.array(), offset, size, inflater);
+            MessagingService.receive(Message.serializer().deserialize(in));
+            needed = PREFIX_SIZE;
+        }
+
+        buffer.compact();
+        if (needed > buffer.capacity() || (buffer.capacity() > BUFFER_SIZE && needed <= BUFFER_SIZE))
+        {
+            // grow for a large message, or shrink back once it has been delivered
+            ByteBuffer resized = needed > BUFFER_SIZE ? ByteBuffer.allocate(needed) : allocateBuffer();
+            buffer.flip();
+            resized.put(buffer);
+            releaseBuffer();
+            buffer = resized;
+        }
+        if (first)
+            buffer.limit(needed);
+        return true;
+    }
+
+    private void startStream(final StreamHeader streamHeader)
+    {
+        inflater.end();
+        releaseBuffer();
+        loop.deregister(key, new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    channel.configureBlocking(true);
+                }
+                catch (IOException e)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("error reading from socket; closing", e);
+                    close();
+                    return;
+                }
+                new IncomingTcpConnection(channel.socket(), streamHeader).start();
+            }
+        });
+    }
+
+    private void close()
+    {
+        inflater.end();
+        releaseBuffer();
+        if (key != null)
+            key.cancel();
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error closing socket", e);
+        }
+    }
+
+    private static ByteBuffer allocateBuffer()
+    {
+        ByteBuffer pooled = bufferPool.poll();
+        return pooled == null ? ByteBuffer.allocate(BUFFER_SIZE) : pooled;
+    }
+
+    private void releaseBuffer()
+    {
+        if (buffer == null)
+            return;
+        // buffers grown for a large message are left to the GC
+        if (buffer.capacity() == BUFFER_SIZE)
+        {
+            buffer.clear();
+            bufferPool.add(buffer);
+        }
+        buffer = null;
+    }
+}
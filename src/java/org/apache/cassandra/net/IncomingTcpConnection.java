@@ -23,6 +23,7 @@ package org.apache.cassandra.net;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,11 +38,19 @@ public class IncomingTcpConnection extends Thread
 
     private final DataInputStream input;
     private Socket socket;
+    private StreamHeader firstStreamHeader;
+    private final Inflater inflater = new Inflater();
+    private byte[] contentBytes = new byte[0];
 
-    public IncomingTcpConnection(Socket socket)
+    /**
+     * @param firstStreamHeader the header of the stream the socket is positioned at, already read from it
+     * by IncomingMessageConnection; the socket must be in blocking mode.
+     */
+    public IncomingTcpConnection(Socket socket, StreamHeader firstStreamHeader)
     {
         assert socket != null;
         this.socket = socket;
+        this.firstStreamHeader = firstStreamHeader;
         try
         {
             input = new DataInputStream(socket.getInputStream());
@@ -60,6 +69,14 @@ public class IncomingTcpConnection extends Thread
         {
             try
             {
+                if (firstStreamHeader != null)
+                {
+                    StreamHeader streamHeader = firstStreamHeader;
+                    firstStreamHeader = null;
+                    new IncomingStreamReader(streamHeader, socket.getChannel()).read();
+                    continue;
+                }
+
                 MessagingService.validateMagic(input.readInt());
                 int header = input.readInt();
                 int type = MessagingService.getBits(header, 1, 2);
@@ -68,6 +85,7 @@ public class IncomingTcpConnection extends Thread
 
                 if (isStream)
                 {
+                    MessagingService.validateStreamVersion(header);
                     int size = input.readInt();
                     byte[] headerBytes = new byte[size];
                     input.readFully(headerBytes);
@@ -77,10 +95,12 @@ public class IncomingTcpConnection extends Thread
                 else
                 {
                     int size = input.readInt();
-                    byte[] contentBytes = new byte[size];
-                    input.readFully(contentBytes);
-                    
-                    Message message = Message.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(contentBytes)));
+                    // reused from one message to the next
+                    if (contentBytes.length < size)
+                        contentBytes = new byte[size];
+                    input.readFully(contentBytes, 0, size);
+
+                    Message message = Message.serializer().deserialize(MessagingService.getMessageInput(header, contentBytes, 0, size, inflater));
                     MessagingService.receive(message);
                 }
             }
@@ -103,6 +123,7 @@ public class IncomingTcpConnection extends Thread
 
     private void close()
     {
+        inflater.end();
         try
         {
             socket.close();
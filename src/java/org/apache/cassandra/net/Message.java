@@ -30,6 +30,9 @@ import org.apache.cassandra.utils.FBUtilities;
 
 public class Message
 {
+    // set on the empty reply to a request that the replica was too overloaded to run
+    public static final String OVERLOADED = "OVERLOADED";
+
     private static MessageSerializer serializer_;
 
     static
@@ -89,12 +92,12 @@ public class Message
         return header_.getVerb();
     }
 
-    public String getMessageId()
+    public int getMessageId()
     {
         return header_.getMessageId();
     }
 
-    void setMessageId(String id)
+    void setMessageId(int id)
     {
         header_.setMessageId(id);
     }    
@@ -106,6 +109,21 @@ public class Message
         return new Message(header, args);
     }
 
+    /**
+     * @return an empty reply saying that this request was shed, unrun, because we were overloaded
+     */
+    public Message getOverloadedReply(InetAddress from)
+    {
+        Message reply = getReply(from, new byte[0]);
+        reply.setHeader(OVERLOADED, new byte[0]);
+        return reply;
+    }
+
+    public boolean isOverloadedReply()
+    {
+        return getHeader(OVERLOADED) != null;
+    }
+
     public Message getInternalReply(byte[] body)
     {
         Header header = new Header(getMessageId(), FBUtilities.getLocalAddress(), StorageService.Verb.INTERNAL_RESPONSE);
@@ -138,6 +156,15 @@ class MessageSerializer implements ICompactSerializer<Message>
         dos.write(bytes);
     }
 
+    /**
+     * @return the number of bytes serialize() will write for t, so that it can be written straight into
+     * a buffer of the right size
+     */
+    public int serializedSize(Message t)
+    {
+        return Header.serializer().serializedSize(t.header_) + 4 + t.getMessageBody().length;
+    }
+
     public Message deserialize(DataInputStream dis) throws IOException
     {
         Header header = Header.serializer().deserialize(dis);
@@ -18,16 +18,28 @@
 
 package org.apache.cassandra.net;
 
+import java.util.EnumSet;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.ISheddable;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
 
-public class MessageDeliveryTask implements Runnable
+public class MessageDeliveryTask implements ISheddable
 {
     private static final Logger logger_ = LoggerFactory.getLogger(MessageDeliveryTask.class);    
 
+    // messages that are useless once their sender has timed out, and so may be dropped
+    private static final EnumSet<StorageService.Verb> DROPPABLE_VERBS = EnumSet.of(StorageService.Verb.BINARY,
+                                                                                    StorageService.Verb.MUTATION,
+                                                                                    StorageService.Verb.READ,
+                                                                                    StorageService.Verb.RANGE_SLICE,
+                                                                                    StorageService.Verb.READ_REPAIR,
+                                                                                    StorageService.Verb.REQUEST_RESPONSE);
+
     private Message message_;
     private final long constructionTime_ = System.currentTimeMillis();
 
@@ -40,26 +52,28 @@ public class MessageDeliveryTask implements Runnable
     public void run()
     { 
         StorageService.Verb verb = message_.getVerb();
-        switch (verb)
+        if (DROPPABLE_VERBS.contains(verb) && System.currentTimeMillis() > constructionTime_ + DatabaseDescriptor.getRpcTimeout())
         {
-            case BINARY:
-            case MUTATION:
-            case READ:
-            case RANGE_SLICE:
-            case READ_REPAIR:
-            case REQUEST_RESPONSE:
-                if (System.currentTimeMillis() > constructionTime_ + DatabaseDescriptor.getRpcTimeout())
-                {
-                    MessagingService.incrementDroppedMessages(verb);
-                    return;
-                }
-                break;
-            default:
-                break;
+            MessagingService.incrementDroppedMessages(verb);
+            return;
         }
 
         IVerbHandler verbHandler = MessagingService.instance.getVerbHandler(verb);
         assert verbHandler != null : "unknown verb " + verb;
         verbHandler.doVerb(message_);
     }
+
+    public boolean isSheddable()
+    {
+        return DROPPABLE_VERBS.contains(message_.getVerb());
+    }
+
+    public void shed()
+    {
+        StorageService.Verb verb = message_.getVerb();
+        MessagingService.incrementDroppedMessages(verb);
+        // the coordinator can ask another replica for the data, rather than wait for us
+        if (verb == StorageService.Verb.READ || verb == StorageService.Verb.RANGE_SLICE)
+            MessagingService.instance.sendOneWay(message_.getOverloadedReply(FBUtilities.getLocalAddress()), message_.getFrom());
+    }
 }
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread driving the non-blocking connections registered with its Selector.  Connections are only ever touched
+ * by their loop's thread: other threads hand it work through execute().
+ */
+class MessagingEventLoop extends Thread
+{
+    private static final Logger logger = LoggerFactory.getLogger(MessagingEventLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // run once the keys cancelled by deregister() have actually been deregistered
+    private final List<Runnable> afterDeregistration = new ArrayList<Runnable>();
+
+    MessagingEventLoop(String name)
+    {
+        super(name);
+        try
+        {
+            selector = Selector.open();
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Called on the loop's thread when a channel registered with a Handler is ready.  Must deal with
+     * its own i/o errors.
+     */
+    interface Handler
+    {
+        public void handle(SelectionKey key);
+    }
+
+    /**
+     * Runs task on the loop's thread.
+     */
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        if (Thread.currentThread() != this)
+            selector.wakeup();
+    }
+
+    /**
+     * Registers a channel, which must be in non-blocking mode.  Loop thread only.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException
+    {
+        assert Thread.currentThread() == this;
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Cancels the key, and runs then once its channel is no longer registered with the selector (and so
+     * can be put back in blocking mode).  Loop thread only.
+     */
+    void deregister(SelectionKey key, Runnable then)
+    {
+        assert Thread.currentThread() == this;
+        key.cancel();
+        afterDeregistration.add(then);
+    }
+
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                selector.select();
+                runTasks();
+                processSelectedKeys();
+                while (!afterDeregistration.isEmpty())
+                {
+                    // cancelled keys are only deregistered by the next selection
+                    selector.selectNow();
+                    List<Runnable> ready = new ArrayList<Runnable>(afterDeregistration);
+                    afterDeregistration.clear();
+                    for (Runnable runnable : ready)
+                        runnable.run();
+                    processSelectedKeys();
+                }
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error in " + getName(), t);
+            }
+        }
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error in " + getName(), t);
+            }
+        }
+    }
+
+    private void processSelectedKeys()
+    {
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext())
+        {
+            SelectionKey key = iter.next();
+            iter.remove();
+            if (key.isValid())
+                ((Handler) key.attachment()).handle(key);
+        }
+    }
+}
@@ -18,31 +18,42 @@
 
 package org.apache.cassandra.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import com.google.common.base.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.locator.IEndpointSnitch;
 import org.apache.cassandra.net.io.SerializerType;
 import org.apache.cassandra.net.sink.SinkManager;
 import org.apache.cassandra.service.GCInspector;
@@ -50,13 +61,15 @@ import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.FileStreamTask;
 import org.apache.cassandra.streaming.StreamHeader;
 import org.apache.cassandra.utils.ExpiringMap;
-import org.apache.cassandra.utils.GuidGenerator;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.SimpleCondition;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
 public class MessagingService implements MessagingServiceMBean
 {
-    private static int version_ = 1;
+    // 3: streams are sent in checksummed blocks and can resume part way through a file
+    private static int version_ = 3;
     //TODO: make this parameter dynamic somehow.  Not sure if config is appropriate.
     private static SerializerType serializerType_ = SerializerType.BINARY;
 
@@ -64,8 +77,8 @@ public class MessagingService implements MessagingServiceMBean
     public static final int PROTOCOL_MAGIC = 0xCA552DFA;
 
     /* This records all the results mapped by message Id */
-    private static ExpiringMap<String, IAsyncCallback> callbackMap_;
-    private static ExpiringMap<String, IAsyncResult> taskCompletionMap_;
+    private static ExpiringMap<Integer, CallbackInfo> callbackMap_;
+    private static ExpiringMap<Integer, IAsyncResult> taskCompletionMap_;
     
     /* Lookup table for registering message handlers based on the verb. */
     private static Map<StorageService.Verb, IVerbHandler> verbHandlers_;
@@ -73,6 +86,33 @@ public class MessagingService implements MessagingServiceMBean
     /* Thread pool to handle messaging write activities */
     private static ExecutorService streamExecutor_;
     
+    /* a few threads multiplex all the connections to and from other nodes */
+    private static final MessagingEventLoop[] eventLoops_;
+    private static final AtomicInteger nextEventLoop_ = new AtomicInteger();
+    static
+    {
+        eventLoops_ = new MessagingEventLoop[Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2))];
+        for (int i = 0; i < eventLoops_.length; i++)
+        {
+            eventLoops_[i] = new MessagingEventLoop("MESSAGING-LOOP-" + i);
+            eventLoops_[i].setDaemon(true);
+            eventLoops_[i].start();
+        }
+    }
+
+    /* fast, rather than thorough, compression of the messages internode_compression applies to */
+    private static final ThreadLocal<Deflater> deflater_ = new ThreadLocal<Deflater>()
+    {
+        protected Deflater initialValue()
+        {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+    private static final AtomicLong uncompressedBytes_ = new AtomicLong();
+    private static final AtomicLong compressedBytes_ = new AtomicLong();
+    private final AtomicLong lastUncompressedBytes_ = new AtomicLong();
+    private final AtomicLong lastCompressedBytes_ = new AtomicLong();
+
     private static NonBlockingHashMap<InetAddress, OutboundTcpConnectionPool> connectionManagers_ = new NonBlockingHashMap<InetAddress, OutboundTcpConnectionPool>();
     
     private static Logger logger_ = LoggerFactory.getLogger(MessagingService.class);
@@ -83,10 +123,20 @@ public class MessagingService implements MessagingServiceMBean
     private SocketThread socketThread;
     private SimpleCondition listenGate;
     private static final Map<StorageService.Verb, AtomicInteger> droppedMessages = new EnumMap<StorageService.Verb, AtomicInteger>(StorageService.Verb.class);
+    // per request verb: the callbacks that expired before their request completed, and the responses and their
+    // total latency in ms
+    private static final Map<StorageService.Verb, AtomicLong> callbackTimeouts_ = new EnumMap<StorageService.Verb, AtomicLong>(StorageService.Verb.class);
+    private static final Map<StorageService.Verb, AtomicLong> callbackResponses_ = new EnumMap<StorageService.Verb, AtomicLong>(StorageService.Verb.class);
+    private static final Map<StorageService.Verb, AtomicLong> callbackLatency_ = new EnumMap<StorageService.Verb, AtomicLong>(StorageService.Verb.class);
     static
     {
         for (StorageService.Verb verb : StorageService.Verb.values())
+        {
             droppedMessages.put(verb, new AtomicInteger());
+            callbackTimeouts_.put(verb, new AtomicLong());
+            callbackResponses_.put(verb, new AtomicLong());
+            callbackLatency_.put(verb, new AtomicLong());
+        }
     }
 
     public Object clone() throws CloneNotSupportedException
@@ -105,10 +155,26 @@ public class MessagingService implements MessagingServiceMBean
          * which is the sum of the threads in the pool that adds shit into the table and the 
          * pool that retrives the callback from here.
         */
-        callbackMap_ = new ExpiringMap<String, IAsyncCallback>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()));
-        taskCompletionMap_ = new ExpiringMap<String, IAsyncResult>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()));
-
-        streamExecutor_ = new DebuggableThreadPoolExecutor("Streaming", DatabaseDescriptor.getCompactionThreadPriority());
+        Function<Pair<Integer, CallbackInfo>, ?> timeoutReporter = new Function<Pair<Integer, CallbackInfo>, Object>()
+        {
+            public Object apply(Pair<Integer, CallbackInfo> pair)
+            {
+                CallbackInfo info = pair.right;
+                if (info.callback instanceof IExpiringCallback && ((IExpiringCallback) info.callback).expired())
+                    callbackTimeouts_.get(info.verb).incrementAndGet();
+                return null;
+            }
+        };
+        callbackMap_ = new ExpiringMap<Integer, CallbackInfo>(DatabaseDescriptor.getRpcTimeout(), timeoutReporter);
+        taskCompletionMap_ = new ExpiringMap<Integer, IAsyncResult>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()));
+
+        // a thread per file being sent: each session limits itself to concurrent_streams_per_session
+        streamExecutor_ = new DebuggableThreadPoolExecutor(0,
+                                                           Integer.MAX_VALUE,
+                                                           60,
+                                                           TimeUnit.SECONDS,
+                                                           new SynchronousQueue<Runnable>(),
+                                                           new NamedThreadFactory("Streaming", DatabaseDescriptor.getCompactionThreadPriority()));
         Runnable logDropped = new Runnable()
         {
             public void run()
@@ -161,7 +227,7 @@ public class MessagingService implements MessagingServiceMBean
         final ServerSocket ss = serverChannel.socket();
         ss.setReuseAddress(true);
         ss.bind(new InetSocketAddress(localEp, DatabaseDescriptor.getStoragePort()));
-        socketThread = new SocketThread(ss, "ACCEPT-" + localEp);
+        socketThread = new SocketThread(serverChannel, "ACCEPT-" + localEp);
         socketThread.start();
         listenGate.signalAll();
     }
@@ -193,6 +259,12 @@ public class MessagingService implements MessagingServiceMBean
     {
         return getConnectionPool(to).getConnection(msg);
     }
+
+    /** spreads connections across the event loops, round-robin */
+    static MessagingEventLoop nextEventLoop()
+    {
+        return eventLoops_[Math.abs(nextEventLoop_.getAndIncrement() % eventLoops_.length)];
+    }
         
     /**
      * Register a verb and the corresponding verb handler with the
@@ -224,10 +296,10 @@ public class MessagingService implements MessagingServiceMBean
      * @return an reference to an IAsyncResult which can be queried for the
      * response
      */
-    public String sendRR(Message message, Collection<InetAddress> to, IAsyncCallback cb)
+    public int sendRR(Message message, Collection<InetAddress> to, IAsyncCallback cb)
     {
-        String messageId = message.getMessageId();
-        addCallback(cb, messageId);
+        int messageId = message.getMessageId();
+        addCallback(cb, message);
         for (InetAddress endpoint : to)
         {
             sendOneWay(message, endpoint);
@@ -235,9 +307,17 @@ public class MessagingService implements MessagingServiceMBean
         return messageId;
     }
 
-    public void addCallback(IAsyncCallback cb, String messageId)
+    /**
+     * Registers cb for the responses to message, until they are all in or rpc_timeout has passed.
+     */
+    public void addCallback(IAsyncCallback cb, Message message)
+    {
+        addCallback(cb, message.getMessageId(), message.getVerb());
+    }
+
+    private void addCallback(IAsyncCallback cb, int messageId, StorageService.Verb verb)
     {
-        callbackMap_.put(messageId, cb);
+        callbackMap_.put(messageId, new CallbackInfo(cb, verb));
     }
 
     /**
@@ -250,10 +330,10 @@ public class MessagingService implements MessagingServiceMBean
      *           suggest that a timeout occurred to the invoker of the send().
      * @return an reference to message id used to match with the result
      */
-    public String sendRR(Message message, InetAddress to, IAsyncCallback cb)
+    public int sendRR(Message message, InetAddress to, IAsyncCallback cb)
     {        
-        String messageId = message.getMessageId();
-        addCallback(cb, messageId);
+        int messageId = message.getMessageId();
+        addCallback(cb, message);
         sendOneWay(message, to);
         return messageId;
     }
@@ -271,12 +351,12 @@ public class MessagingService implements MessagingServiceMBean
      *           suggest that a timeout occured to the invoker of the send().
      * @return an reference to message id used to match with the result
      */
-    public String sendRR(Message[] messages, List<InetAddress> to, IAsyncCallback cb)
+    public int sendRR(Message[] messages, List<InetAddress> to, IAsyncCallback cb)
     {
         if (messages.length != to.size())
             throw new IllegalArgumentException("Number of messages and the number of endpoints need to be same.");
-        String groupId = GuidGenerator.guid();
-        addCallback(cb, groupId);
+        int groupId = Header.nextId();
+        addCallback(cb, groupId, messages[0].getVerb());
         for ( int i = 0; i < messages.length; ++i )
         {
             messages[i].setMessageId(groupId);
@@ -311,19 +391,8 @@ public class MessagingService implements MessagingServiceMBean
         OutboundTcpConnection connection = getConnection(to, message);
 
         // pack message with header in a bytebuffer
-        byte[] data;
-        try
-        {
-            DataOutputBuffer buffer = new DataOutputBuffer();
-            Message.serializer().serialize(message, buffer);
-            data = buffer.getData();
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
-        }
-        assert data.length > 0;
-        ByteBuffer buffer = packIt(data , false);
+        int size = Message.serializer().serializedSize(message);
+        ByteBuffer buffer = packIt(message, size, shouldCompress(to, size));
 
         // write it
         connection.write(buffer);
@@ -391,27 +460,34 @@ public class MessagingService implements MessagingServiceMBean
         stage.execute(runnable);
     }
 
-    public static IAsyncCallback getRegisteredCallback(String key)
+    static CallbackInfo getRegisteredCallback(int key)
     {
         return callbackMap_.get(key);
     }
+
+    /** records the latency of a response to a request of the given verb */
+    static void addCallbackLatency(StorageService.Verb verb, long latency)
+    {
+        callbackResponses_.get(verb).incrementAndGet();
+        callbackLatency_.get(verb).addAndGet(latency);
+    }
     
-    public static void removeRegisteredCallback(String key)
+    public static void removeRegisteredCallback(int key)
     {
         callbackMap_.remove(key);
     }
     
-    public static IAsyncResult getAsyncResult(String key)
+    public static IAsyncResult getAsyncResult(int key)
     {
         return taskCompletionMap_.remove(key);
     }
 
-    public static long getRegisteredCallbackAge(String key)
+    public static long getRegisteredCallbackAge(int key)
     {
         return callbackMap_.getAge(key);
     }
 
-    public static long getAsyncResultAge(String key)
+    public static long getAsyncResultAge(int key)
     {
         return taskCompletionMap_.getAge(key);
     }
@@ -422,12 +498,127 @@ public class MessagingService implements MessagingServiceMBean
             throw new IOException("invalid protocol header");
     }
 
+    /**
+     * Streams are read straight off the socket, so one in another version's format cannot be understood.
+     */
+    public static void validateStreamVersion(int header) throws IOException
+    {
+        int version = getBits(header, 15, 8);
+        if (version != version_)
+        {
+            // the connection is dropped quietly, so say why here
+            String message = String.format("Refusing a stream of messaging version %d; this node is at %d", version, version_);
+            logger_.warn(message);
+            throw new IOException(message);
+        }
+    }
+
     public static int getBits(int x, int p, int n)
     {
         return x >>> (p + 1) - n & ~(-1 << n);
     }
         
+    /**
+     * @return true if a message of the given size to the given endpoint should be compressed, according to
+     * internode_compression
+     */
+    static boolean shouldCompress(InetAddress to, int size)
+    {
+        if (size < DatabaseDescriptor.getInternodeCompressionThreshold())
+            return false;
+        switch (DatabaseDescriptor.getInternodeCompression())
+        {
+            case all:
+                return true;
+            case dc:
+                IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+                return !snitch.getDatacenter(to).equals(snitch.getDatacenter(FBUtilities.getLocalAddress()));
+            default:
+                return false;
+        }
+    }
+
     public static ByteBuffer packIt(byte[] bytes, boolean compress)
+    {
+        return packIt(bytes, bytes.length, compress);
+    }
+
+    /**
+     * Frames the first length bytes of a serialized message.  If compress is true they are deflated, unless
+     * that fails to make them any smaller.
+     */
+    public static ByteBuffer packIt(byte[] bytes, int length, boolean compress)
+    {
+        if (compress)
+        {
+            ByteBuffer compressed = packCompressed(bytes, 0, length);
+            if (compressed != null)
+                return compressed;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + length);
+        buffer.putInt(PROTOCOL_MAGIC);
+        buffer.putInt(makeHeader(false));
+        buffer.putInt(length);
+        buffer.put(bytes, 0, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Frames a message by serializing it straight into the buffer the connection will write, without
+     * an intermediate copy.
+     * @param size the serialized size of the message
+     */
+    static ByteBuffer packIt(Message message, int size, boolean compress)
+    {
+        DataOutputBuffer out = new DataOutputBuffer(4 + 4 + 4 + size);
+        try
+        {
+            out.writeInt(PROTOCOL_MAGIC);
+            out.writeInt(makeHeader(false));
+            out.writeInt(size);
+            Message.serializer().serialize(message, out);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        assert out.getLength() == 4 + 4 + 4 + size && out.getData().length == out.getLength();
+
+        if (compress)
+        {
+            ByteBuffer compressed = packCompressed(out.getData(), 4 + 4 + 4, size);
+            if (compressed != null)
+                return compressed;
+        }
+        return ByteBuffer.wrap(out.getData());
+    }
+
+    /**
+     * @return a frame of the deflated bytes, or null if deflating does not make them any smaller
+     */
+    private static ByteBuffer packCompressed(byte[] bytes, int offset, int length)
+    {
+        Deflater deflater = deflater_.get();
+        deflater.reset();
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        byte[] compressed = new byte[4 + 4 + 4 + length];
+        int compressedLength = deflater.deflate(compressed, 4 + 4 + 4, length);
+        if (!deflater.finished())
+            return null;
+
+        uncompressedBytes_.addAndGet(length);
+        compressedBytes_.addAndGet(compressedLength);
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, 4 + 4 + 4 + compressedLength);
+        buffer.putInt(0, PROTOCOL_MAGIC);
+        buffer.putInt(4, makeHeader(true));
+        buffer.putInt(8, compressedLength);
+        return buffer;
+    }
+
+    private static int makeHeader(boolean compress)
     {
         /*
              Setting up the protocol header. This is 4 bytes long
@@ -447,14 +638,22 @@ public class MessagingService implements MessagingServiceMBean
             header |= 4;
         // Setting up the version bit
         header |= (version_ << 8);
+        return header;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + bytes.length);
-        buffer.putInt(PROTOCOL_MAGIC);
-        buffer.putInt(header);
-        buffer.putInt(bytes.length);
-        buffer.put(bytes);
-        buffer.flip();
-        return buffer;
+    /**
+     * @return a stream over the body of a message frame, inflating it if the frame header says it is compressed
+     * @param inflater the inflater to use for that; reset before use
+     */
+    public static DataInputStream getMessageInput(int header, byte[] bytes, int offset, int length, Inflater inflater)
+    {
+        InputStream in = new ByteArrayInputStream(bytes, offset, length);
+        if (getBits(header, 2, 1) == 1)
+        {
+            inflater.reset();
+            in = new InflaterInputStream(in, inflater);
+        }
+        return new DataInputStream(in);
     }
         
     public static ByteBuffer constructStreamHeader(StreamHeader streamHeader, boolean compress)
@@ -532,11 +731,24 @@ public class MessagingService implements MessagingServiceMBean
             GCInspector.instance.logStats();
     }
 
+    /** a registered callback, and the verb of the request it is for */
+    static class CallbackInfo
+    {
+        final IAsyncCallback callback;
+        final StorageService.Verb verb;
+
+        CallbackInfo(IAsyncCallback callback, StorageService.Verb verb)
+        {
+            this.callback = callback;
+            this.verb = verb;
+        }
+    }
+
     private class SocketThread extends Thread
     {
-        private final ServerSocket server;
+        private final ServerSocketChannel server;
         
-        SocketThread(ServerSocket server, String name)
+        SocketThread(ServerSocketChannel server, String name)
         {
             super(name);
             this.server = server;
@@ -548,8 +760,9 @@ public class MessagingService implements MessagingServiceMBean
             {
                 try
                 {
-                    Socket socket = server.accept();
-                    new IncomingTcpConnection(socket).start();
+                    SocketChannel channel = server.accept();
+                    channel.configureBlocking(false);
+                    new IncomingMessageConnection(channel, nextEventLoop()).start();
                 }
                 catch (AsynchronousCloseException e)
                 {
@@ -570,6 +783,60 @@ public class MessagingService implements MessagingServiceMBean
         }
     }
 
+    public Map<String, Long> getCallbackTimeouts()
+    {
+        Map<String, Long> timeouts = new HashMap<String, Long>();
+        for (Map.Entry<StorageService.Verb, AtomicLong> entry : callbackTimeouts_.entrySet())
+        {
+            if (entry.getValue().get() > 0)
+                timeouts.put(entry.getKey().name(), entry.getValue().get());
+        }
+        return timeouts;
+    }
+
+    public Map<String, Double> getCallbackLatencyMillis()
+    {
+        Map<String, Double> latencies = new HashMap<String, Double>();
+        for (StorageService.Verb verb : callbackResponses_.keySet())
+        {
+            long responses = callbackResponses_.get(verb).get();
+            if (responses > 0)
+                latencies.put(verb.name(), ((double) callbackLatency_.get(verb).get()) / responses);
+        }
+        return latencies;
+    }
+
+    public long getCompressedMessageBytes()
+    {
+        return uncompressedBytes_.get();
+    }
+
+    public double getCompressionRatio()
+    {
+        return compressionRatio(compressedBytes_.get(), uncompressedBytes_.get());
+    }
+
+    public double getRecentCompressionRatio()
+    {
+        long u = uncompressedBytes_.get();
+        long c = compressedBytes_.get();
+        try
+        {
+            return compressionRatio(c - lastCompressedBytes_.get(), u - lastUncompressedBytes_.get());
+        }
+        finally
+        {
+            lastUncompressedBytes_.set(u);
+            lastCompressedBytes_.set(c);
+        }
+    }
+
+    /** nothing compressed counts as no compression, rather than NaN */
+    private static double compressionRatio(long compressed, long uncompressed)
+    {
+        return uncompressed == 0 ? 1.0 : ((double) compressed) / uncompressed;
+    }
+
     public Map<String, Integer> getCommandPendingTasks()
     {
         Map<String, Integer> pendingTasks = new HashMap<String, Integer>();
@@ -49,4 +49,29 @@ public interface MessagingServiceMBean
      * Completed tasks for Response(GOSSIP & RESPONSE) TCP Connections
      */
     public Map<String, Long> getResponseCompletedTasks();
+
+    /**
+     * Requests that timed out waiting for responses, by verb
+     */
+    public Map<String, Long> getCallbackTimeouts();
+
+    /**
+     * Mean time between sending a request and receiving a response to it, by verb of the request
+     */
+    public Map<String, Double> getCallbackLatencyMillis();
+
+    /**
+     * Bytes of messages sent compressed, before compression (see internode_compression)
+     */
+    public long getCompressedMessageBytes();
+
+    /**
+     * Compressed / uncompressed size of the messages sent compressed, 1.0 while none have been
+     */
+    public double getCompressionRatio();
+
+    /**
+     * Compression ratio since the last time this was called, 1.0 if no messages have been compressed since
+     */
+    public double getRecentCompressionRatio();
 }
@@ -1,6 +1,6 @@
 package org.apache.cassandra.net;
 /*
- * 
+ *
  * Licensed to the Apache Software Foundation (ASF) under one
  * or more contributor license agreements.  See the NOTICE file
  * distributed with this work for additional information
@@ -8,91 +8,108 @@ package org.apache.cassandra.net;
  * to you under the Apache License, Version 2.0 (the
  * "License"); you may not use this file except in compliance
  * with the License.  You may obtain a copy of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing,
  * software distributed under the License is distributed on an
  * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
  * KIND, either express or implied.  See the License for the
  * specific language governing permissions and limitations
  * under the License.
- * 
+ *
  */
 
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 
-public class OutboundTcpConnection extends Thread
+/**
+ * A non-blocking connection to a peer, driven by a MessagingEventLoop.  Messages queued by write() are
+ * sent with gathering writes, so that a backlog of small messages goes out in a few syscalls.
+ */
+public class OutboundTcpConnection implements MessagingEventLoop.Handler
 {
     private static final Logger logger = LoggerFactory.getLogger(OutboundTcpConnection.class);
 
-    private static final ByteBuffer CLOSE_SENTINEL = ByteBuffer.allocate(0);
     private static final int OPEN_RETRY_DELAY = 100; // ms between retries
+    private static final int MAX_GATHERED_BUFFERS = 64;
 
     private final InetAddress endpoint;
-    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<ByteBuffer>();
-    private DataOutputStream output;
-    private Socket socket;
-    private long completedCount;
+    private final MessagingEventLoop loop;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile long completedCount;
+    // true while the loop is connecting or writing, and so will notice anything added to the queue
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
 
-    public OutboundTcpConnection(InetAddress remoteEp)
-    {
-        super("WRITE-" + remoteEp);
-        this.endpoint = remoteEp;
-    }
+    // only accessed from the loop thread
+    private final ArrayDeque<ByteBuffer> backlog = new ArrayDeque<ByteBuffer>();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private long connectDeadline;
 
-    public void write(ByteBuffer buffer)
+    private final Runnable startWriting = new Runnable()
     {
-        try
-        {
-            queue.put(buffer);
-        }
-        catch (InterruptedException e)
+        public void run()
         {
-            throw new AssertionError(e);
+            if (channel == null)
+                connect();
+            else if (channel.isConnected())
+                flush();
+            // else, the pending connect will flush when it completes
         }
+    };
+
+    public OutboundTcpConnection(InetAddress remoteEp, MessagingEventLoop loop)
+    {
+        this.endpoint = remoteEp;
+        this.loop = loop;
     }
 
-    void closeSocket()
+    public void write(ByteBuffer buffer)
     {
-        queue.clear();
-        write(CLOSE_SENTINEL);
+        // the gathering write consumes the buffer's position, so don't share it with whoever else holds it
+        queue.add(buffer.duplicate());
+        pendingCount.incrementAndGet();
+        if (writeScheduled.compareAndSet(false, true))
+            loop.execute(startWriting);
     }
 
-    public void run()
+    void closeSocket()
     {
-        while (true)
+        loop.execute(new Runnable()
         {
-            ByteBuffer bb = take();
-            if (bb == CLOSE_SENTINEL)
+            public void run()
             {
+                drop();
                 disconnect();
-                continue;
+                connectDeadline = 0;
+                idle();
             }
-            if (socket != null || connect())
-                writeConnected(bb);
-            else
-                // clear out the queue, else gossip messages back up.
-                queue.clear();            
-        }
+        });
     }
 
     public int getPendingMessages()
     {
-        return queue.size();
+        return pendingCount.get();
     }
 
     public long getCompletedMesssages()
@@ -100,87 +117,171 @@ public class OutboundTcpConnection extends Thread
         return completedCount;
     }
 
-    private void writeConnected(ByteBuffer bb)
+    public void handle(SelectionKey key)
+    {
+        if (key.isConnectable())
+        {
+            try
+            {
+                channel.finishConnect();
+            }
+            catch (IOException e)
+            {
+                if (logger.isTraceEnabled())
+                    logger.trace("unable to connect to " + endpoint, e);
+                disconnect();
+                connectFailed();
+                return;
+            }
+            connectDeadline = 0;
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        if (key.isWritable())
+            flush();
+    }
+
+    private void flush()
     {
         try
         {
-            output.write(bb.array(), bb.position()+bb.arrayOffset(), bb.limit()+bb.arrayOffset());
-            if (queue.peek() == null)
+            while (true)
             {
-                output.flush();
+                ByteBuffer bb;
+                while (backlog.size() < MAX_GATHERED_BUFFERS && (bb = queue.poll()) != null)
+                    backlog.add(bb);
+                if (backlog.isEmpty())
+                {
+                    key.interestOps(0);
+                    idle();
+                    return;
+                }
+
+                channel.write(backlog.toArray(new ByteBuffer[backlog.size()]));
+                while (!backlog.isEmpty() && !backlog.peek().hasRemaining())
+                {
+                    backlog.poll();
+                    pendingCount.decrementAndGet();
+                    completedCount++;
+                }
+                if (!backlog.isEmpty())
+                {
+                    // socket buffer is full; wait until it drains
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
             }
         }
         catch (IOException e)
         {
             logger.info("error writing to " + endpoint);
             logger.debug("error was ", e);
+            // like a failed blocking write, this loses the messages in flight; the rest go out on a new connection
+            pendingCount.addAndGet(-backlog.size());
+            backlog.clear();
             disconnect();
+            idle();
         }
     }
 
+    /**
+     * Called when there is nothing left to write: anything queued since we last looked gets written
+     * by whichever of us and write() wins the race to schedule it.
+     */
+    private void idle()
+    {
+        writeScheduled.set(false);
+        if (!queue.isEmpty() && writeScheduled.compareAndSet(false, true))
+            startWriting.run();
+    }
+
+    private void drop()
+    {
+        int dropped = backlog.size();
+        backlog.clear();
+        while (queue.poll() != null)
+            dropped++;
+        pendingCount.addAndGet(-dropped);
+    }
+
     private void disconnect()
     {
-        if (socket != null)
+        if (channel != null)
         {
+            if (key != null)
+                key.cancel();
             try
             {
-                socket.close();
+                channel.close();
             }
             catch (IOException e)
             {
                 if (logger.isDebugEnabled())
                     logger.debug("exception closing connection to " + endpoint, e);
             }
-            output = null;
-            socket = null;
+            key = null;
+            channel = null;
         }
     }
 
-    private ByteBuffer take()
+    private void connect()
     {
-        ByteBuffer bb;
+        if (logger.isDebugEnabled())
+            logger.debug("attempting to connect to " + endpoint);
+        if (connectDeadline == 0)
+            connectDeadline = System.currentTimeMillis() + DatabaseDescriptor.getRpcTimeout();
         try
         {
-            bb = queue.take();
-            completedCount++;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            // zero means 'bind on any available port.'
+            channel.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), 0));
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(new InetSocketAddress(endpoint, DatabaseDescriptor.getStoragePort())))
+            {
+                connectDeadline = 0;
+                key = loop.register(channel, SelectionKey.OP_WRITE, this);
+            }
+            else
+            {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+            }
         }
-        catch (InterruptedException e)
+        catch (IOException e)
         {
-            throw new AssertionError(e);
+            if (logger.isTraceEnabled())
+                logger.trace("unable to connect to " + endpoint, e);
+            disconnect();
+            connectFailed();
         }
-        return bb;
     }
 
-    private boolean connect()
+    private void connectFailed()
     {
-        if (logger.isDebugEnabled())
-            logger.debug("attempting to connect to " + endpoint);
-        long start = System.currentTimeMillis();
-        while (System.currentTimeMillis() < start + DatabaseDescriptor.getRpcTimeout())
+        if (System.currentTimeMillis() < connectDeadline)
         {
-            try
-            {
-                // zero means 'bind on any available port.'
-                socket = new Socket(endpoint, DatabaseDescriptor.getStoragePort(), FBUtilities.getLocalAddress(), 0);
-                socket.setTcpNoDelay(true);
-                output = new DataOutputStream(socket.getOutputStream());
-                return true;
-            }
-            catch (IOException e)
+            final Runnable retry = new Runnable()
             {
-                socket = null;
-                if (logger.isTraceEnabled())
-                    logger.trace("unable to connect to " + endpoint, e);
-                try
+                public void run()
                 {
-                    Thread.sleep(OPEN_RETRY_DELAY);
+                    // a reset in the meantime may have abandoned this attempt, or started another
+                    if (channel == null && connectDeadline != 0)
+                        connect();
                 }
-                catch (InterruptedException e1)
+            };
+            StorageService.scheduledTasks.schedule(new Runnable()
+            {
+                public void run()
                 {
-                    throw new AssertionError(e1);
+                    loop.execute(retry);
                 }
-            }
+            }, OPEN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            // clear out the queue, else gossip messages back up.
+            connectDeadline = 0;
+            drop();
+            idle();
         }
-        return false;
     }
 }
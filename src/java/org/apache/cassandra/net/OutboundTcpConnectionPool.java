@@ -29,10 +29,8 @@ class OutboundTcpConnectionPool
 
     OutboundTcpConnectionPool(InetAddress remoteEp)
     {
-        cmdCon = new OutboundTcpConnection(remoteEp);
-        cmdCon.start();
-        ackCon = new OutboundTcpConnection(remoteEp);
-        ackCon.start();
+        cmdCon = new OutboundTcpConnection(remoteEp, MessagingService.nextEventLoop());
+        ackCon = new OutboundTcpConnection(remoteEp, MessagingService.nextEventLoop());
     }
 
     /**
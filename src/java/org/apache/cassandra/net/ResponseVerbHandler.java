@@ -23,6 +23,7 @@ import java.util.*;
 import java.net.InetAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.locator.ILatencyPublisher;
 import org.apache.cassandra.locator.ILatencySubscriber;
 
@@ -34,15 +35,27 @@ public class ResponseVerbHandler implements IVerbHandler, ILatencyPublisher
 
     public void doVerb(Message message)
     {     
-        String messageId = message.getMessageId();        
-        IAsyncCallback cb = MessagingService.getRegisteredCallback(messageId);
+        int messageId = message.getMessageId();
+        MessagingService.CallbackInfo info = MessagingService.getRegisteredCallback(messageId);
+        if (message.isOverloadedReply())
+        {
+            if (logger_.isDebugEnabled())
+                logger_.debug(message.getFrom() + " was too overloaded to answer " + messageId);
+            // only callbacks that ask hear about it; anything else gets no response from this replica, as if it had timed out
+            if (info != null && info.callback instanceof IOverloadAwareCallback)
+                ((IOverloadAwareCallback) info.callback).overloaded(message);
+            // a quick answer it may be, but the snitch should send reads elsewhere
+            notifySubscribers(message.getFrom(), DatabaseDescriptor.getRpcTimeout());
+            return;
+        }
         double age = 0;
-        if (cb != null)
+        if (info != null)
         {
             if (logger_.isDebugEnabled())
                 logger_.debug("Processing response on a callback from " + message.getMessageId() + "@" + message.getFrom());
             age = System.currentTimeMillis() - MessagingService.getRegisteredCallbackAge(messageId);
-            cb.response(message);
+            MessagingService.addCallbackLatency(info.verb, (long) age);
+            info.callback.response(message);
         }
         else
         {
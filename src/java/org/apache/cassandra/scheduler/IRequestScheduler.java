@@ -1,4 +1,7 @@
 package org.apache.cassandra.scheduler;
+
+import java.util.concurrent.TimeoutException;
+
 /*
  * 
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -30,12 +33,15 @@ public interface IRequestScheduler
      * 
      * @param t Thread handing the request
      * @param id    Scheduling parameter, an id to distinguish profiles (users/keyspace)
+     * @param cost  Estimated cost of the request, in columns; schedulers may ignore it
+     * @param timeoutMS Maximum time to wait for the request to be scheduled
+     * @throws TimeoutException if the request was not scheduled within the timeout
      */
-    public void queue(Thread t, String id);
+    public void queue(Thread t, String id, int cost, long timeoutMS) throws TimeoutException;
 
     /**
      * A convenience method for indicating when a particular request has completed
-     * processing, and before a return to the client
+     * processing, and before a return to the client.  Called whether or not queue() succeeded.
      */
     public void release();
 }
@@ -34,7 +34,7 @@ public class NoScheduler implements IRequestScheduler
 
     public NoScheduler() {}
 
-    public void queue(Thread t, String id) {}
+    public void queue(Thread t, String id, int cost, long timeoutMS) {}
 
     public void release() {}
 }
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.scheduler;
+
+import java.util.List;
+
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.RangeSliceCommand;
+import org.apache.cassandra.db.ReadCommand;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.SliceByNamesReadCommand;
+import org.apache.cassandra.db.SliceFromReadCommand;
+
+/**
+ * Estimates the cost of client requests for the request scheduler, in columns read or written.
+ *
+ * Slices are charged for the columns they ask for rather than those they return, which are not
+ * known until the request has run; the charge for each row is capped, so a client asking for
+ * "all" columns of rows that turn out to be small is not starved.
+ */
+public class RequestCost
+{
+    public static final int MAX_ROW_COST = 10000;
+
+    public static int forReads(List<ReadCommand> commands)
+    {
+        long cost = 0;
+        for (ReadCommand command : commands)
+        {
+            if (command instanceof SliceFromReadCommand)
+                cost += rowCost(((SliceFromReadCommand) command).count);
+            else if (command instanceof SliceByNamesReadCommand)
+                cost += rowCost(((SliceByNamesReadCommand) command).columnNames.size());
+            else
+                cost += 1;
+        }
+        return clamp(cost);
+    }
+
+    public static int forRangeSlice(RangeSliceCommand command)
+    {
+        int columns = command.predicate.column_names == null
+                    ? command.predicate.slice_range.count
+                    : command.predicate.column_names.size();
+        return clamp((long) command.max_keys * rowCost(columns));
+    }
+
+    public static int forMutations(List<RowMutation> mutations)
+    {
+        long cost = 0;
+        for (RowMutation rm : mutations)
+        {
+            for (ColumnFamily cf : rm.getColumnFamilies())
+                cost += rowCost(cf.getEstimatedColumnCount());
+        }
+        return clamp(cost);
+    }
+
+    private static int rowCost(int columns)
+    {
+        // deletions of a whole row or super column carry no columns, but still cost something
+        return Math.max(1, Math.min(columns, MAX_ROW_COST));
+    }
+
+    private static int clamp(long cost)
+    {
+        return (int) Math.max(1, Math.min(cost, Integer.MAX_VALUE));
+    }
+}
@@ -35,7 +35,7 @@ import org.slf4j.LoggerFactory;
  * A very basic Round Robin implementation of the RequestScheduler. It handles 
  * request groups identified on user/keyspace by placing them in separate 
  * queues and servicing a request from each queue in a RoundRobin fashion.
- * It optionally adds weights for each round.
+ * It optionally adds weights for each round.  Request cost and timeout are ignored.
  */
 public class RoundRobinScheduler implements IRequestScheduler
 {
@@ -78,7 +78,7 @@ public class RoundRobinScheduler implements IRequestScheduler
         started = true;
     }
 
-    public void queue(Thread t, String id)
+    public void queue(Thread t, String id, int cost, long timeoutMS)
     {
         Pair<Integer, SynchronousQueue<Thread>> weightedQueue = getWeightedQueue(id);
 
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.RequestSchedulerOptions;
+
+/**
+ * Schedules requests by start-time fair queuing: each request_scheduler_id is served in proportion to its
+ * weight, measured by the estimated cost of its requests rather than their number, so a tenant issuing
+ * large slices cannot crowd out one issuing small ones.
+ *
+ * Each request is tagged, on arrival, with a start tag -- the later of the scheduler's virtual time and the
+ * finish tag of the id's previous request -- and a finish tag, its start tag plus cost / weight.  Whenever
+ * fewer than throttle_limit requests are in flight, the waiting request with the lowest start tag is
+ * dispatched, and the virtual time advances to that tag; ids already at their concurrency limit are skipped.
+ * A request that waits longer than its id's queue timeout is abandoned with a TimeoutException, so
+ * clients see a timeout rather than a request that is served after they have given up on it.
+ */
+public class WeightedFairScheduler implements IRequestScheduler
+{
+    private static final Logger logger = LoggerFactory.getLogger(WeightedFairScheduler.class);
+
+    private final RequestSchedulerOptions options;
+    private final int throttleLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // all guarded by lock
+    private final Map<String, WeightedQueue> queues = new HashMap<String, WeightedQueue>();
+    private int active;
+    private double virtualTime;
+
+    // the queue the current thread's request was dispatched from, until it is released
+    private final ThreadLocal<WeightedQueue> current = new ThreadLocal<WeightedQueue>();
+
+    public WeightedFairScheduler(RequestSchedulerOptions options)
+    {
+        if (options.throttle_limit == null || options.throttle_limit < 1)
+            throw new IllegalArgumentException("throttle_limit must be at least 1");
+        if (options.default_weight == null || options.default_weight < 1)
+            throw new IllegalArgumentException("default_weight must be at least 1");
+        if (options.default_concurrency_limit == null || options.default_concurrency_limit < 1)
+            throw new IllegalArgumentException("default_concurrency_limit must be at least 1");
+        if (options.default_queue_timeout_in_ms != null && options.default_queue_timeout_in_ms < 0)
+            throw new IllegalArgumentException("default_queue_timeout_in_ms must not be negative");
+
+        this.options = options;
+        this.throttleLimit = options.throttle_limit;
+        logger.info("Started the WeightedFair Request Scheduler");
+    }
+
+    public void queue(Thread t, String id, int cost, long timeoutMS) throws TimeoutException
+    {
+        assert current.get() == null : "request already scheduled";
+        long start = System.nanoTime();
+        WeightedQueue queue;
+
+        lock.lock();
+        try
+        {
+            queue = getQueue(id);
+            WeightedQueue.Request request = queue.enqueue(virtualTime, Math.max(cost, 1), lock.newCondition());
+            dispatch();
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMS, queue.getQueueTimeoutMillis()));
+            while (!request.dispatched)
+            {
+                if (remaining <= 0)
+                {
+                    queue.timeout(request);
+                    throw new TimeoutException("Request waited more than " + queue.getQueueTimeoutMillis() + "ms to be scheduled");
+                }
+                remaining = request.condition.awaitNanos(remaining);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException("Interrupted while queueing requests", e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        queue.addWaitLatency(System.nanoTime() - start);
+        current.set(queue);
+    }
+
+    public void release()
+    {
+        WeightedQueue queue = current.get();
+        // the request timed out, or was never queued
+        if (queue == null)
+            return;
+        current.remove();
+
+        lock.lock();
+        try
+        {
+            active--;
+            queue.release();
+            dispatch();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dispatches waiting requests, lowest start tag first, until throttle_limit are active or none may go.
+     * Must hold lock.
+     */
+    private void dispatch()
+    {
+        while (active < throttleLimit)
+        {
+            WeightedQueue next = null;
+            for (WeightedQueue queue : queues.values())
+            {
+                if (queue.isDispatchable() && (next == null || queue.headStartTag() < next.headStartTag()))
+                    next = queue;
+            }
+            if (next == null)
+                return;
+
+            virtualTime = next.dispatch().startTag;
+            active++;
+        }
+    }
+
+    // must hold lock
+    private WeightedQueue getQueue(String id)
+    {
+        WeightedQueue queue = queues.get(id);
+        if (queue == null)
+        {
+            queue = new WeightedQueue(id,
+                                      getOption(options.weights, id, options.default_weight),
+                                      getOption(options.concurrency_limits, id, options.default_concurrency_limit),
+                                      getOption(options.queue_timeouts_in_ms, id, options.default_queue_timeout_in_ms == null
+                                                                                  ? (int) DatabaseDescriptor.getRpcTimeout()
+                                                                                  : options.default_queue_timeout_in_ms));
+            queue.register();
+            queues.put(id, queue);
+        }
+        return queue;
+    }
+
+    private static int getOption(Map<String, Integer> values, String id, int defaultValue)
+    {
+        return values != null && values.containsKey(id) ? values.get(id) : defaultValue;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.utils.LatencyTracker;
+
+/**
+ * The requests of one request_scheduler_id, in arrival order, with their start-time fair queuing tags.
+ *
+ * Only modified while holding the scheduler's lock; the counters are volatile so JMX may read them without it.
+ */
+public class WeightedQueue implements WeightedQueueMBean
+{
+    public final String id;
+    private final int weight;
+    private final int concurrencyLimit;
+    private final long queueTimeout;
+
+    private final LinkedList<Request> requests = new LinkedList<Request>();
+    // finish tag of the last request queued; the next one may not start before it
+    private double lastFinishTag;
+
+    private volatile int pending;
+    private volatile int active;
+    private volatile long dispatched;
+    private volatile long timedOut;
+    private volatile long dispatchedCost;
+    private final LatencyTracker waitLatency = new LatencyTracker();
+
+    WeightedQueue(String id, int weight, int concurrencyLimit, long queueTimeout)
+    {
+        this.id = id;
+        this.weight = weight;
+        this.concurrencyLimit = concurrencyLimit;
+        this.queueTimeout = queueTimeout;
+    }
+
+    void register()
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName name = new ObjectName("org.apache.cassandra.scheduler:type=WeightedQueue,id=" + ObjectName.quote(id));
+            // a scheduler constructed again in the same JVM (as by tests) replaces the old one's queues
+            if (mbs.isRegistered(name))
+                mbs.unregisterMBean(name);
+            mbs.registerMBean(this, name);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    Request enqueue(double virtualTime, int cost, Condition condition)
+    {
+        double startTag = Math.max(virtualTime, lastFinishTag);
+        lastFinishTag = startTag + (double) cost / weight;
+        Request request = new Request(startTag, cost, condition);
+        requests.add(request);
+        pending++;
+        return request;
+    }
+
+    /**
+     * @return true if the queue has a request waiting and is under its concurrency limit
+     */
+    boolean isDispatchable()
+    {
+        return !requests.isEmpty() && active < concurrencyLimit;
+    }
+
+    double headStartTag()
+    {
+        return requests.getFirst().startTag;
+    }
+
+    Request dispatch()
+    {
+        Request request = requests.removeFirst();
+        pending--;
+        active++;
+        dispatched++;
+        dispatchedCost += request.cost;
+        request.dispatched = true;
+        request.condition.signal();
+        return request;
+    }
+
+    void timeout(Request request)
+    {
+        requests.remove(request);
+        pending--;
+        timedOut++;
+    }
+
+    void release()
+    {
+        active--;
+    }
+
+    void addWaitLatency(long nanos)
+    {
+        waitLatency.addNano(nanos);
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    public int getConcurrencyLimit()
+    {
+        return concurrencyLimit;
+    }
+
+    public long getQueueTimeoutMillis()
+    {
+        return queueTimeout;
+    }
+
+    public int getPendingRequests()
+    {
+        return pending;
+    }
+
+    public int getActiveRequests()
+    {
+        return active;
+    }
+
+    public long getDispatchedRequests()
+    {
+        return dispatched;
+    }
+
+    public long getTimedOutRequests()
+    {
+        return timedOut;
+    }
+
+    public long getDispatchedCost()
+    {
+        return dispatchedCost;
+    }
+
+    public double getRecentWaitLatencyMicros()
+    {
+        return waitLatency.getRecentLatencyMicros();
+    }
+
+    public long[] getTotalWaitLatencyHistogramMicros()
+    {
+        return waitLatency.getTotalLatencyHistogramMicros();
+    }
+
+    public long[] getRecentWaitLatencyHistogramMicros()
+    {
+        return waitLatency.getRecentLatencyHistogramMicros();
+    }
+
+    static class Request
+    {
+        final double startTag;
+        final int cost;
+        final Condition condition;
+        boolean dispatched;
+
+        Request(double startTag, int cost, Condition condition)
+        {
+            this.startTag = startTag;
+            this.cost = cost;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.scheduler;
+
+/**
+ * Exposes the state of one request_scheduler_id's queue in the WeightedFairScheduler.
+ */
+public interface WeightedQueueMBean
+{
+    public int getWeight();
+
+    public int getConcurrencyLimit();
+
+    /**
+     * @return the longest time, in ms, a request may wait to be scheduled
+     */
+    public long getQueueTimeoutMillis();
+
+    /**
+     * @return the number of requests waiting to be scheduled
+     */
+    public int getPendingRequests();
+
+    /**
+     * @return the number of scheduled requests that have not been released yet
+     */
+    public int getActiveRequests();
+
+    public long getDispatchedRequests();
+
+    /**
+     * @return the number of requests that gave up waiting to be scheduled
+     */
+    public long getTimedOutRequests();
+
+    /**
+     * @return the summed estimated cost, in columns, of the dispatched requests
+     */
+    public long getDispatchedCost();
+
+    /**
+     * @return the mean time dispatched requests waited to be scheduled since the last call, in microseconds
+     */
+    public double getRecentWaitLatencyMicros();
+
+    public long[] getTotalWaitLatencyHistogramMicros();
+
+    public long[] getRecentWaitLatencyHistogramMicros();
+}
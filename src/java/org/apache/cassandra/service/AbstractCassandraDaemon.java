@@ -28,6 +28,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.CacheWarmer;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,8 @@ import org.slf4j.LoggerFactory;
 import org.apache.cassandra.config.ConfigurationException;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.CompactionManager;
+import org.apache.cassandra.db.MeteredFlusher;
+import org.apache.cassandra.db.RowCacheBudget;
 import org.apache.cassandra.db.SystemTable;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.db.commitlog.CommitLog;
@@ -141,6 +144,9 @@ public abstract class AbstractCassandraDaemon implements CassandraDaemon
         // replay the log if necessary and check for compaction candidates
         CommitLog.recover();
         CompactionManager.instance.checkAllColumnFamilies();
+
+        // fill the saved caches in the background, while we join the ring and serve reads
+        CacheWarmer.instance.start();
         
         // check to see if CL.recovery modified the lastMigrationId. if it did, we need to re apply migrations. this isn't
         // the same as merely reloading the schema (which wouldn't perform file deletion after a DROP). The solution
@@ -154,6 +160,13 @@ public abstract class AbstractCassandraDaemon implements CassandraDaemon
         
         SystemTable.purgeIncompatibleHints();
 
+        // flush the largest memtables whenever all of them together outgrow memtable_total_space_in_mb
+        StorageService.scheduledTasks.scheduleWithFixedDelay(MeteredFlusher.instance, 1000, 1000, TimeUnit.MILLISECONDS);
+
+        // move row_cache_size_in_mb towards the row caches that are getting the hits
+        if (DatabaseDescriptor.getRowCacheSizeInMB() > 0)
+            StorageService.scheduledTasks.scheduleWithFixedDelay(RowCacheBudget.instance, RowCacheBudget.INTERVAL_IN_MS, RowCacheBudget.INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+
         // start server internals
         try
         {
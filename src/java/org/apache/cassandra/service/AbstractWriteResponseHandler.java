@@ -28,19 +28,22 @@ import java.util.concurrent.TimeoutException;
 
 import com.google.common.collect.Multimap;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.net.IExpiringCallback;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.apache.cassandra.thrift.UnavailableException;
 import org.apache.cassandra.utils.SimpleCondition;
 
-public abstract class AbstractWriteResponseHandler implements IWriteResponseHandler
+public abstract class AbstractWriteResponseHandler implements IWriteResponseHandler, IExpiringCallback
 {
     protected final SimpleCondition condition = new SimpleCondition();
     protected final long startTime;
     protected final Collection<InetAddress> writeEndpoints;
     protected final Multimap<InetAddress, InetAddress> hintedEndpoints;
     protected final ConsistencyLevel consistencyLevel;
+    // set when MessagingService gives up on the responses
+    private volatile boolean expired;
 
     protected AbstractWriteResponseHandler(Collection<InetAddress> writeEndpoints, Multimap<InetAddress, InetAddress> hintedEndpoints, ConsistencyLevel consistencyLevel)
     {
@@ -63,17 +66,26 @@ public abstract class AbstractWriteResponseHandler implements IWriteResponseHand
             throw new AssertionError(ex);
         }
 
-        if (!success)
+        if (!success || expired)
         {
             throw new TimeoutException();
         }
     }
 
+    public boolean expired()
+    {
+        if (condition.isSignaled())
+            return false;
+        expired = true;
+        condition.signal();
+        return true;
+    }
+
     public void addHintCallback(Message hintedMessage, InetAddress destination)
     {
         // (non-destination hints are part of the callback and count towards consistency only under CL.ANY)
         if (writeEndpoints.contains(destination) || consistencyLevel == ConsistencyLevel.ANY)
-            MessagingService.instance.addCallback(this, hintedMessage.getMessageId());
+            MessagingService.instance.addCallback(this, hintedMessage);
     }
 
     /** null message means "response from local write" */
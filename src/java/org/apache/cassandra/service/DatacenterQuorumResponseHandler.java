@@ -56,13 +56,13 @@ public class DatacenterQuorumResponseHandler<T> extends QuorumResponseHandler<T>
         resolver.preprocess(message);
 
         int n;
-        n = localdc.equals(snitch.getDatacenter(message.getFrom())) 
+        n = isFirstResponse(message) && localdc.equals(snitch.getDatacenter(message.getFrom()))
                 ? localResponses.decrementAndGet()
                 : localResponses.get();
 
         if (n == 0 && resolver.isDataPresent())
         {
-            condition.signal();
+            signal();
         }
     }
     
@@ -21,27 +21,39 @@ package org.apache.cassandra.service;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.Table;
-import org.apache.cassandra.net.IAsyncCallback;
+import org.apache.cassandra.net.IExpiringCallback;
+import org.apache.cassandra.net.IOverloadAwareCallback;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.apache.cassandra.thrift.UnavailableException;
 import org.apache.cassandra.utils.SimpleCondition;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class QuorumResponseHandler<T> implements IAsyncCallback
+public class QuorumResponseHandler<T> implements IExpiringCallback, IOverloadAwareCallback
 {
     protected static final Logger logger = LoggerFactory.getLogger( QuorumResponseHandler.class );
     protected final SimpleCondition condition = new SimpleCondition();
     protected final IResponseResolver<T> resolver;
     private final long startTime;
     protected final int blockfor;
+    // set when MessagingService gives up on the responses
+    private volatile boolean expired;
+    // a replica asked for data after its digest (a speculative retry) answers twice, but only counts once
+    private final Set<InetAddress> responders = new NonBlockingHashSet<InetAddress>();
+    // replicas that shed the request
+    private final Set<InetAddress> overloaded = new NonBlockingHashSet<InetAddress>();
+    // notified when the responses are in, or a replica is overloaded
+    private final Object progress = new Object();
     
     /**
      * Constructor when response count has to be calculated and blocked for.
@@ -70,7 +82,7 @@ public class QuorumResponseHandler<T> implements IAsyncCallback
                 throw new AssertionError(ex);
             }
 
-            if (!success)
+            if (!success || expired)
             {
                 StringBuilder sb = new StringBuilder("");
                 for (Message message : resolver.getMessages())
@@ -90,16 +102,91 @@ public class QuorumResponseHandler<T> implements IAsyncCallback
 
         return resolver.resolve();
     }
+
+    /**
+     * Waits until the responses are in, until more than overloadsSeen replicas have said they are overloaded,
+     * or until millis have passed since the request was sent.
+     * @return true if the responses are in
+     */
+    public boolean await(long millis, int overloadsSeen)
+    {
+        long end = startTime + millis;
+        synchronized (progress)
+        {
+            long remaining;
+            while (!condition.isSignaled() && overloaded.size() <= overloadsSeen && (remaining = end - System.currentTimeMillis()) > 0)
+            {
+                try
+                {
+                    progress.wait(remaining);
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new AssertionError(ex);
+                }
+            }
+        }
+        return condition.isSignaled();
+    }
+
+    /**
+     * @return the replicas that have shed the request because they were overloaded
+     */
+    public Set<InetAddress> getOverloadedEndpoints()
+    {
+        return Collections.unmodifiableSet(overloaded);
+    }
+
+    public boolean isDataPresent()
+    {
+        return resolver.isDataPresent();
+    }
     
     public void response(Message message)
     {
         resolver.preprocess(message);
-        if (resolver.getMessageCount() < blockfor)
+        responders.add(message.getFrom());
+        if (responders.size() < blockfor)
             return;
         if (resolver.isDataPresent())
-            condition.signal();
+            signal();
+    }
+
+    public void overloaded(Message reply)
+    {
+        overloaded.add(reply.getFrom());
+        synchronized (progress)
+        {
+            progress.notifyAll();
+        }
+    }
+
+    protected void signal()
+    {
+        condition.signal();
+        synchronized (progress)
+        {
+            progress.notifyAll();
+        }
+    }
+
+    /**
+     * @return true if this is the first response from the message's sender
+     */
+    protected boolean isFirstResponse(Message message)
+    {
+        return responders.add(message.getFrom());
     }
     
+    public boolean expired()
+    {
+        if (condition.isSignaled())
+            return false;
+        expired = true;
+        signal();
+        return true;
+    }
+
     public int determineBlockFor(ConsistencyLevel consistencyLevel, String table)
     {
         switch (consistencyLevel)
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+
+import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.locator.DynamicEndpointSnitch;
+import org.apache.cassandra.locator.IEndpointSnitch;
+
+/**
+ * How long a strong read waits for its data replica before sending the same data request to another replica.
+ * Written "NONE", "&lt;n&gt;ms" for a fixed delay, or "&lt;p&gt;percentile" for the p-th percentile of the
+ * data replica's recent latencies, as seen by the dynamic snitch.
+ */
+public class SpeculativeRetry
+{
+    public enum Type
+    {
+        NONE, FIXED, PERCENTILE
+    }
+
+    public static final SpeculativeRetry NONE = new SpeculativeRetry(Type.NONE, 0);
+
+    private static final String MS = "MS";
+    private static final String PERCENTILE = "PERCENTILE";
+
+    public final Type type;
+    // milliseconds, or a percentile
+    public final double value;
+
+    private SpeculativeRetry(Type type, double value)
+    {
+        this.type = type;
+        this.value = value;
+    }
+
+    public static SpeculativeRetry fromString(String retry) throws ConfigurationException
+    {
+        String upper = retry.trim().toUpperCase();
+        if (upper.equals(Type.NONE.name()))
+            return NONE;
+
+        Type type;
+        String number;
+        if (upper.endsWith(PERCENTILE))
+        {
+            type = Type.PERCENTILE;
+            number = upper.substring(0, upper.length() - PERCENTILE.length());
+        }
+        else if (upper.endsWith(MS))
+        {
+            type = Type.FIXED;
+            number = upper.substring(0, upper.length() - MS.length());
+        }
+        else
+        {
+            throw new ConfigurationException(String.format("Invalid speculative_retry '%s': expected NONE, <n>ms or <p>percentile", retry));
+        }
+
+        double value;
+        try
+        {
+            value = Double.parseDouble(number.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("Invalid speculative_retry '%s': %s is not a number", retry, number));
+        }
+        if (value < 0 || (type == Type.PERCENTILE && (value <= 0 || value >= 100)))
+            throw new ConfigurationException(String.format("Invalid speculative_retry '%s': out of range", retry));
+        return new SpeculativeRetry(type, value);
+    }
+
+    /**
+     * @return how many ms after sending a data request to endpoint it is worth asking another replica,
+     * or -1 if we should not (or do not yet know enough about endpoint to tell)
+     */
+    public long getDelay(InetAddress endpoint)
+    {
+        switch (type)
+        {
+            case FIXED:
+                return (long) value;
+            case PERCENTILE:
+                IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+                if (!(snitch instanceof DynamicEndpointSnitch))
+                    return -1;
+                double latency = ((DynamicEndpointSnitch) snitch).getLatencyPercentile(endpoint, value / 100);
+                return Double.isNaN(latency) ? -1 : (long) Math.ceil(latency);
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof SpeculativeRetry))
+            return false;
+        SpeculativeRetry that = (SpeculativeRetry) obj;
+        return type == that.type && value == that.value;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return type.hashCode() * 31 + (int) Double.doubleToLongBits(value);
+    }
+
+    @Override
+    public String toString()
+    {
+        String number = value == Math.floor(value) ? Long.toString((long) value) : Double.toString(value);
+        switch (type)
+        {
+            case FIXED:
+                return number + "ms";
+            case PERCENTILE:
+                return number + "percentile";
+            default:
+                return Type.NONE.name();
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -63,9 +64,12 @@ public class StorageProxy implements StorageProxyMBean
     private static final Random random = new Random();
     // mbean stuff
     private static final LatencyTracker readStats = new LatencyTracker();
+    private static final LatencyTracker fastPathReadStats = new LatencyTracker();
     private static final LatencyTracker rangeStats = new LatencyTracker();
     private static final LatencyTracker writeStats = new LatencyTracker();
+    private static final AtomicLong speculativeRetries = new AtomicLong();
     private static boolean hintedHandoffEnabled = DatabaseDescriptor.hintedHandoffEnabled();
+    private static int rangeRequestConcurrency = DatabaseDescriptor.getRangeRequestConcurrency();
     private static final String UNREACHABLE = "UNREACHABLE";
 
     private StorageProxy() {}
@@ -135,7 +139,7 @@ public class StorageProxy implements StorageProxyMBean
                             if (unhintedMessage == null)
                             {
                                 unhintedMessage = rm.makeRowMutationMessage();
-                                MessagingService.instance.addCallback(responseHandler, unhintedMessage.getMessageId());
+                                MessagingService.instance.addCallback(responseHandler, unhintedMessage);
                             }
                             if (logger.isDebugEnabled())
                                 logger.debug("insert writing key " + FBUtilities.bytesToHex(rm.key()) + " to " + unhintedMessage.getMessageId() + "@" + destination);
@@ -249,6 +253,17 @@ public class StorageProxy implements StorageProxyMBean
                 if (logger.isDebugEnabled())
                     logger.debug("weakread reading " + command + " locally");
 
+                // The snitch ranks us first, so the read needs no other node.  A lone row is read on this
+                // thread rather than handed to the read stage and waited for; rows of a multiget still go
+                // to the stage, where they are read in parallel.
+                if (commands.size() == 1)
+                {
+                    long start = System.nanoTime();
+                    rows.add((Row) new weakReadLocalCallable(command).call());
+                    fastPathReadStats.addNano(System.nanoTime() - start);
+                    return rows;
+                }
+
                 if (localFutures == null)
                     localFutures = new ArrayList<Future<Object>>();
                 Callable<Object> callable = new weakReadLocalCallable(command);
@@ -316,6 +331,8 @@ public class StorageProxy implements StorageProxyMBean
     {
         List<QuorumResponseHandler<Row>> quorumResponseHandlers = new ArrayList<QuorumResponseHandler<Row>>();
         List<List<InetAddress>> commandEndpoints = new ArrayList<List<InetAddress>>();
+        List<Message> dataMessages = new ArrayList<Message>();
+        List<InetAddress> dataPoints = new ArrayList<InetAddress>();
         List<Row> rows = new ArrayList<Row>();
 
         // send out read requests
@@ -348,6 +365,8 @@ public class StorageProxy implements StorageProxyMBean
             MessagingService.instance.sendRR(messages, endpoints, handler);
             quorumResponseHandlers.add(handler);
             commandEndpoints.add(endpoints);
+            dataMessages.add(message);
+            dataPoints.add(dataPoint);
         }
 
         // read results and make a second pass for any digest mismatches
@@ -360,6 +379,7 @@ public class StorageProxy implements StorageProxyMBean
             try
             {
                 long startTime2 = System.currentTimeMillis();
+                maybeSpeculate(command, quorumResponseHandler, dataMessages.get(i), dataPoints.get(i), commandEndpoints.get(i));
                 row = quorumResponseHandler.get();
                 if (row != null)
                     rows.add(row);
@@ -402,6 +422,48 @@ public class StorageProxy implements StorageProxyMBean
         return rows;
     }
 
+    /**
+     * If the data replica is overloaded, or takes longer to answer than the column family's speculative_retry
+     * allows, sends the same data request to the closest of the other replicas: the handler completes on
+     * whichever data response arrives first.
+     */
+    private static void maybeSpeculate(ReadCommand command, QuorumResponseHandler<Row> handler, Message dataMessage, InetAddress dataPoint, List<InetAddress> endpoints)
+    {
+        if (endpoints.size() < 2)
+            return;
+        CFMetaData cfmd = DatabaseDescriptor.getCFMetaData(command.table, command.getColumnFamilyName());
+        long delay = cfmd.getSpeculativeRetry().getDelay(dataPoint);
+        boolean speculate = delay >= 0 && delay < DatabaseDescriptor.getRpcTimeout();
+        // otherwise, only an overloaded data replica makes us ask another
+        long wait = speculate ? delay : DatabaseDescriptor.getRpcTimeout();
+
+        Set<InetAddress> overloaded = Collections.emptySet();
+        while (true)
+        {
+            if (handler.await(wait, overloaded.size()) || handler.isDataPresent())
+                return;
+            Set<InetAddress> nowOverloaded = new HashSet<InetAddress>(handler.getOverloadedEndpoints());
+            boolean timedOut = nowOverloaded.size() == overloaded.size();
+            overloaded = nowOverloaded;
+            if (timedOut && !speculate)
+                return;
+            if (timedOut || overloaded.contains(dataPoint))
+                break;
+        }
+
+        for (InetAddress endpoint : DatabaseDescriptor.getEndpointSnitch().getSortedListByProximity(FBUtilities.getLocalAddress(), endpoints))
+        {
+            if (endpoint.equals(dataPoint) || overloaded.contains(endpoint))
+                continue;
+            if (logger.isDebugEnabled())
+                logger.debug("no data from " + dataPoint + (overloaded.contains(dataPoint) ? " (overloaded)" : " after " + delay + "ms") + "; reading data for " + command + " from " + dataMessage.getMessageId() + "@" + endpoint);
+            // same id as the original requests, so the response goes to the same handler
+            MessagingService.instance.sendOneWay(dataMessage, endpoint);
+            speculativeRetries.incrementAndGet();
+            return;
+        }
+    }
+
     /*
     * This function executes the read protocol locally.  Consistency checks are performed in the background.
     */
@@ -416,74 +478,155 @@ public class StorageProxy implements StorageProxyMBean
         List<AbstractBounds> ranges = getRestrictedRanges(command.range);
         // now scan until we have enough results
         List<Row> rows = new ArrayList<Row>(command.max_keys);
-        for (AbstractBounds range : ranges)
+        int i = 0;
+        while (i < ranges.size() && rows.size() < command.max_keys)
         {
-            List<InetAddress> liveEndpoints = StorageService.instance.getLiveNaturalEndpoints(command.keyspace, range.right);
+            // query as many consecutive ranges at once as we expect to need to fill max_keys, up to
+            // rangeRequestConcurrency; results are still added in token order, so we only have to
+            // throw away what the last ranges return past max_keys
+            int concurrency = Math.min(ranges.size() - i, estimateRangesNeeded(command, rows.size(), i));
+            List<RangeSliceRequest> requests = new ArrayList<RangeSliceRequest>(concurrency);
+            for (AbstractBounds range : ranges.subList(i, i + concurrency))
+                requests.add(new RangeSliceRequest(command, range, command.max_keys - rows.size(), consistency_level));
+            // contact the remote replicas for every range before doing any local reads, so they overlap
+            for (RangeSliceRequest request : requests)
+                request.send();
+
+            for (RangeSliceRequest request : requests)
+            {
+                rows.addAll(request.get());
+                i++;
+                if (rows.size() >= command.max_keys)
+                    break;
+            }
+        }
+
+        rangeStats.addNano(System.nanoTime() - startTime);
+        return rows.size() > command.max_keys ? rows.subList(0, command.max_keys) : rows;
+    }
 
-            if (consistency_level == ConsistencyLevel.ONE && liveEndpoints.contains(FBUtilities.getLocalAddress())) 
+    /**
+     * @return how many of the ranges following the first rangesQueried we expect to have to read to
+     * fill command.max_keys, based on the rows per range seen so far or, before we have seen any,
+     * on the number of rows stored locally.  Never more than rangeRequestConcurrency, never less than one.
+     */
+    private static int estimateRangesNeeded(RangeSliceCommand command, int rowsFetched, int rangesQueried)
+    {
+        if (rangeRequestConcurrency <= 1)
+            return 1;
+
+        double rowsPerRange;
+        if (rangesQueried > 0)
+        {
+            rowsPerRange = (double) rowsFetched / rangesQueried;
+        }
+        else
+        {
+            ColumnFamilyStore cfs = Table.open(command.keyspace).getColumnFamilyStore(command.column_family);
+            int localRanges = StorageService.instance.getLocalRanges(command.keyspace).size();
+            rowsPerRange = (double) cfs.estimateKeys() / Math.max(1, localRanges);
+        }
+
+        // with nothing to go on, an empty range is as likely as a full one: read as widely as allowed
+        if (rowsPerRange <= 0)
+            return rangeRequestConcurrency;
+        int needed = (int) Math.ceil((command.max_keys - rowsFetched) / rowsPerRange);
+        return Math.max(1, Math.min(rangeRequestConcurrency, needed));
+    }
+
+    /**
+     * The read of a single range for getRangeSlice: from the local node if it is a replica and
+     * the consistency level is ONE, otherwise from all the live replicas.
+     */
+    private static class RangeSliceRequest
+    {
+        private final RangeSliceCommand command;
+        private final AbstractBounds range;
+        private final int maxKeys;
+        private final ConsistencyLevel consistency_level;
+        private final List<InetAddress> liveEndpoints;
+        private QuorumResponseHandler<List<Row>> handler;
+
+        RangeSliceRequest(RangeSliceCommand command, AbstractBounds range, int maxKeys, ConsistencyLevel consistency_level)
+        {
+            this.command = command;
+            this.range = range;
+            this.maxKeys = maxKeys;
+            this.consistency_level = consistency_level;
+            liveEndpoints = StorageService.instance.getLiveNaturalEndpoints(command.keyspace, range.right);
+        }
+
+        private boolean isLocal()
+        {
+            return consistency_level == ConsistencyLevel.ONE && liveEndpoints.contains(FBUtilities.getLocalAddress());
+        }
+
+        /** send the request to the replicas, unless we are going to read locally */
+        void send() throws IOException, UnavailableException
+        {
+            if (isLocal())
+                return;
+
+            DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getLocalAddress(), liveEndpoints);
+            RangeSliceCommand c2 = new RangeSliceCommand(command.keyspace, command.column_family, command.super_column, command.predicate, range, maxKeys);
+            Message message = c2.getMessage();
+
+            // collect replies and resolve according to consistency level
+            RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(command.keyspace, liveEndpoints);
+            AbstractReplicationStrategy rs = Table.open(command.keyspace).getReplicationStrategy();
+            handler = rs.getQuorumResponseHandler(resolver, consistency_level);
+            // TODO bail early if live endpoints can't satisfy requested consistency level
+            for (InetAddress endpoint : liveEndpoints)
+            {
+                MessagingService.instance.sendRR(message, endpoint, handler);
+                if (logger.isDebugEnabled())
+                    logger.debug("reading " + c2 + " from " + message.getMessageId() + "@" + endpoint);
+            }
+            // TODO read repair on remaining replicas?
+        }
+
+        /** wait for the replies to a request made with send(), or read locally */
+        List<Row> get() throws IOException, TimeoutException
+        {
+            if (handler == null)
             {
                 if (logger.isDebugEnabled())
                     logger.debug("local range slice");
                 ColumnFamilyStore cfs = Table.open(command.keyspace).getColumnFamilyStore(command.column_family);
-                try 
+                try
                 {
-                    rows.addAll(cfs.getRangeSlice(command.super_column,
-                                                  range,
-                                                  command.max_keys,
-                                                  QueryFilter.getFilter(command.predicate, cfs.getComparator())));
-                } 
-                catch (ExecutionException e) 
+                    return cfs.getRangeSlice(command.super_column,
+                                             range,
+                                             maxKeys,
+                                             QueryFilter.getFilter(command.predicate, cfs.getComparator()));
+                }
+                catch (ExecutionException e)
                 {
                     throw new RuntimeException(e.getCause());
-                } 
-                catch (InterruptedException e) 
+                }
+                catch (InterruptedException e)
                 {
                     throw new AssertionError(e);
-                }           
-            }
-            else 
-            {
-                DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getLocalAddress(), liveEndpoints);
-                RangeSliceCommand c2 = new RangeSliceCommand(command.keyspace, command.column_family, command.super_column, command.predicate, range, command.max_keys);
-                Message message = c2.getMessage();
-
-                // collect replies and resolve according to consistency level
-                RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(command.keyspace, liveEndpoints);
-                AbstractReplicationStrategy rs = Table.open(command.keyspace).getReplicationStrategy();
-                QuorumResponseHandler<List<Row>> handler = rs.getQuorumResponseHandler(resolver, consistency_level);
-                // TODO bail early if live endpoints can't satisfy requested consistency level
-                for (InetAddress endpoint : liveEndpoints) 
-                {
-                    MessagingService.instance.sendRR(message, endpoint, handler);
-                    if (logger.isDebugEnabled())
-                        logger.debug("reading " + c2 + " from " + message.getMessageId() + "@" + endpoint);
                 }
-                // TODO read repair on remaining replicas?
+            }
 
-                // if we're done, great, otherwise, move to the next range
-                try 
+            try
+            {
+                List<Row> rows = handler.get();
+                if (logger.isDebugEnabled())
                 {
-                    if (logger.isDebugEnabled()) 
+                    for (Row row : rows)
                     {
-                        for (Row row : handler.get()) 
-                        {
-                            logger.debug("range slices read " + row.key);
-                        }
+                        logger.debug("range slices read " + row.key);
                     }
-                    rows.addAll(handler.get());
-                } 
-                catch (DigestMismatchException e) 
-                {
-                    throw new AssertionError(e); // no digests in range slices yet
                 }
+                return rows;
+            }
+            catch (DigestMismatchException e)
+            {
+                throw new AssertionError(e); // no digests in range slices yet
             }
-          
-            if (rows.size() >= command.max_keys)
-                break;
         }
-
-        rangeStats.addNano(System.nanoTime() - startTime);
-        return rows.size() > command.max_keys ? rows.subList(0, command.max_keys) : rows;
     }
 
     /**
@@ -615,6 +758,21 @@ public class StorageProxy implements StorageProxyMBean
         return readStats.getRecentLatencyMicros();
     }
 
+    public long getFastPathReadOperations()
+    {
+        return fastPathReadStats.getOpCount();
+    }
+
+    public long getTotalFastPathReadLatencyMicros()
+    {
+        return fastPathReadStats.getTotalLatencyMicros();
+    }
+
+    public double getRecentFastPathReadLatencyMicros()
+    {
+        return fastPathReadStats.getRecentLatencyMicros();
+    }
+
     public long getRangeOperations()
     {
         return rangeStats.getOpCount();
@@ -645,6 +803,11 @@ public class StorageProxy implements StorageProxyMBean
         return writeStats.getRecentLatencyMicros();
     }
 
+    public long getSpeculativeReadRetries()
+    {
+        return speculativeRetries.get();
+    }
+
     public static List<Row> scan(String keyspace, String column_family, IndexClause index_clause, SlicePredicate column_predicate, ConsistencyLevel consistency_level)
     throws IOException, TimeoutException, UnavailableException
     {
@@ -711,6 +874,18 @@ public class StorageProxy implements StorageProxyMBean
         hintedHandoffEnabled = b;
     }
 
+    public int getRangeRequestConcurrency()
+    {
+        return rangeRequestConcurrency;
+    }
+
+    public void setRangeRequestConcurrency(int concurrency)
+    {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("range_request_concurrency must be at least 1");
+        rangeRequestConcurrency = concurrency;
+    }
+
     public static boolean isHintedHandoffEnabled()
     {
         return hintedHandoffEnabled;
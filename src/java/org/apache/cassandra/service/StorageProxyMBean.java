@@ -24,6 +24,14 @@ public interface StorageProxyMBean
     public long getTotalReadLatencyMicros();
     public double getRecentReadLatencyMicros();
 
+    /**
+     * reads at ONE of a single row that this node replicates, served on the client's thread without going
+     * through the read stage; they are also counted by the read operations above
+     */
+    public long getFastPathReadOperations();
+    public long getTotalFastPathReadLatencyMicros();
+    public double getRecentFastPathReadLatencyMicros();
+
     public long getRangeOperations();
     public long getTotalRangeLatencyMicros();
     public double getRecentRangeLatencyMicros();
@@ -32,6 +40,16 @@ public interface StorageProxyMBean
     public long getTotalWriteLatencyMicros();
     public double getRecentWriteLatencyMicros();
 
+    /**
+     * the number of strong reads that sent their data request to a second replica, after a speculative_retry
+     * delay or because the first was overloaded
+     */
+    public long getSpeculativeReadRetries();
+
     public boolean getHintedHandoffEnabled();
     public void setHintedHandoffEnabled(boolean b);
+
+    /** the maximum number of consecutive ranges a range slice queries at once */
+    public int getRangeRequestConcurrency();
+    public void setRangeRequestConcurrency(int concurrency);
 }
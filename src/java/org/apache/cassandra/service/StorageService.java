@@ -66,6 +66,7 @@ import org.apache.cassandra.db.DefinitionsAnnounceVerbHandler;
 import org.apache.cassandra.db.DefinitionsUpdateResponseVerbHandler;
 import org.apache.cassandra.db.DefsTable;
 import org.apache.cassandra.db.HintedHandOffManager;
+import org.apache.cassandra.db.MeteredFlusher;
 import org.apache.cassandra.db.ReadCommand;
 import org.apache.cassandra.db.ReadRepairVerbHandler;
 import org.apache.cassandra.db.ReadVerbHandler;
@@ -2065,4 +2066,21 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         return Collections.unmodifiableList(tableslist);
     }
 
+    public long getMemtablesLiveSize()
+    {
+        return MeteredFlusher.instance.getLiveSize();
+    }
+
+    public int getMemtableTotalSpaceInMB()
+    {
+        return DatabaseDescriptor.getTotalMemtableSpaceInMB();
+    }
+
+    public void setMemtableTotalSpaceInMB(int size)
+    {
+        if (size < 1)
+            throw new IllegalArgumentException("memtable_total_space_in_mb must be at least 1");
+        DatabaseDescriptor.setTotalMemtableSpaceInMB(size);
+    }
+
 }
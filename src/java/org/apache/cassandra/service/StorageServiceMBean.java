@@ -262,4 +262,11 @@ public interface StorageServiceMBean
     public Map<Token, Float> getOwnership();
 
     public List<String> getKeyspaces();
+
+    /** estimated heap used by all memtables, including those waiting to be flushed */
+    public long getMemtablesLiveSize();
+
+    /** the point at which the largest memtables are flushed to bring getMemtablesLiveSize back under it */
+    public int getMemtableTotalSpaceInMB();
+    public void setMemtableTotalSpaceInMB(int size);
 }
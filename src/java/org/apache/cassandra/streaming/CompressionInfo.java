@@ -0,0 +1,86 @@
+package org.apache.cassandra.streaming;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.io.compress.CompressionMetadata;
+
+/**
+ * The compressed chunks to send for the sections of a PendingFile whose data file is compressed:
+ * the chunks covering each section in turn, as listed by CompressionMetadata.getChunksForSections.
+ */
+public class CompressionInfo
+{
+    private static CompressionInfoSerializer serializer_ = new CompressionInfoSerializer();
+
+    public static CompressionInfoSerializer serializer()
+    {
+        return serializer_;
+    }
+
+    public final int chunkLength;
+    public final List<CompressionMetadata.Chunk> chunks;
+
+    public CompressionInfo(int chunkLength, List<CompressionMetadata.Chunk> chunks)
+    {
+        this.chunkLength = chunkLength;
+        this.chunks = chunks;
+    }
+
+    /** @return the number of bytes that will be sent */
+    public long compressedSize()
+    {
+        long size = 0;
+        for (CompressionMetadata.Chunk chunk : chunks)
+            size += chunk.length;
+        return size;
+    }
+
+    public static class CompressionInfoSerializer implements ICompactSerializer<CompressionInfo>
+    {
+        public void serialize(CompressionInfo info, DataOutputStream dos) throws IOException
+        {
+            dos.writeInt(info.chunkLength);
+            dos.writeInt(info.chunks.size());
+            for (CompressionMetadata.Chunk chunk : info.chunks)
+            {
+                dos.writeLong(chunk.offset); dos.writeInt(chunk.length);
+            }
+        }
+
+        public CompressionInfo deserialize(DataInputStream dis) throws IOException
+        {
+            int chunkLength = dis.readInt();
+            int count = dis.readInt();
+            List<CompressionMetadata.Chunk> chunks = new ArrayList<CompressionMetadata.Chunk>(count);
+            for (int i = 0; i < count; i++)
+                chunks.add(new CompressionMetadata.Chunk(dis.readLong(), dis.readInt()));
+            return new CompressionInfo(chunkLength, chunks);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cassandra.streaming.StreamHeader;
 import org.apache.cassandra.utils.FBUtilities;
@@ -33,24 +34,47 @@ import org.slf4j.LoggerFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.Throttle;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 public class FileStreamTask extends WrappedRunnable
 {
     private static Logger logger = LoggerFactory.getLogger( FileStreamTask.class );
     
-    // 10MB chunks
-    public static final int CHUNK_SIZE = 10*1024*1024;
     // around 10 minutes at the default rpctimeout
     public static final int MAX_CONNECT_ATTEMPTS = 8;
 
+    // files being sent, among which stream_throughput_outbound_megabits_per_sec is shared
+    private static final AtomicInteger activeStreams = new AtomicInteger();
+
     private final StreamHeader header;
     private final InetAddress to;
+    private final Throttle throttle;
     
     public FileStreamTask(StreamHeader header, InetAddress to)
     {
         this.header = header;
         this.to = to;
+        this.throttle = new Throttle("streaming to " + to, new Throttle.ThroughputFunction()
+        {
+            public int targetThroughput()
+            {
+                return targetBytesPerMS(DatabaseDescriptor.getStreamThroughputOutboundMegabitsPerSec(), activeStreams.get());
+            }
+        });
+    }
+
+    /**
+     * @return the throughput each of the given number of streams may use, in bytes per millisecond, or 0 if
+     * streaming is not throttled
+     */
+    static int targetBytesPerMS(int megabitsPerSec, int streams)
+    {
+        if (megabitsPerSec < 1)
+            return 0;
+        // the limit is node-wide, so share it among the files being sent
+        long totalBytesPerMS = megabitsPerSec * 1024L * 1024 / 8 / 1000;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, totalBytesPerMS / Math.max(1, streams)));
     }
     
     public void runMayThrow() throws IOException
@@ -88,27 +112,39 @@ public class FileStreamTask extends WrappedRunnable
             return;
 
         RandomAccessFile raf = new RandomAccessFile(new File(header.file.getFilename()), "r");
+        activeStreams.incrementAndGet();
         try
         {
             FileChannel fc = raf.getChannel();
-            // stream sections of the file as returned by PendingFile.currentSection
-            for (Pair<Long, Long> section : header.file.sections)
+            StreamBlockWriter writer = new StreamBlockWriter(channel);
+            // when resuming, skip what the receiver already has
+            long skip = header.offset;
+            header.file.progress = header.offset;
+            long bytesSent = 0;
+            // send the compressed chunks covering the sections as they are on disk if the file is compressed,
+            // for the receiver to inflate, or else the sections themselves
+            for (Pair<Long, Long> range : header.file.getTransferRanges())
             {
-                long length = section.right - section.left;
-                long bytesTransferred = 0;
-                while (bytesTransferred < length)
+                long position = range.left + Math.min(skip, range.right);
+                long length = range.right - Math.min(skip, range.right);
+                skip -= Math.min(skip, range.right);
+                while (length > 0)
                 {
-                    long toTransfer = Math.min(CHUNK_SIZE, length - bytesTransferred);
-                    long lastWrite = fc.transferTo(section.left + bytesTransferred, toTransfer, channel);
-                    bytesTransferred += lastWrite;
-                    header.file.progress += lastWrite;
+                    int n = writer.write(fc, position, length);
+                    position += n;
+                    length -= n;
+                    header.file.progress += n;
+                    bytesSent += n;
+                    throttle.throttle(bytesSent);
                 }
-                if (logger.isDebugEnabled())
-                    logger.debug("Bytes transferred " + bytesTransferred + "/" + header.file.size);
             }
+            writer.flush();
+            if (logger.isDebugEnabled())
+                logger.debug("Bytes transferred " + header.file.progress + "/" + header.file.size);
         }
         finally
         {
+            activeStreams.decrementAndGet();
             try
             {
                 raf.close();
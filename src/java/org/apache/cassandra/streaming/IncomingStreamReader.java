@@ -19,17 +19,23 @@
 package org.apache.cassandra.streaming;
 
 import java.net.InetSocketAddress;
-import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.io.*;
+import java.util.Iterator;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.db.Table;
+import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
+import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableWriter;
+import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.Pair;
@@ -42,6 +48,9 @@ public class IncomingStreamReader
     private final PendingFile remoteFile;
     private final SocketChannel socketChannel;
     private final StreamInSession session;
+    // bytes of the file's stream the local file already had before this stream (when resuming), and has now
+    private final long offset;
+    private long written;
 
     public IncomingStreamReader(StreamHeader header, SocketChannel socketChannel) throws IOException
     {
@@ -51,11 +60,27 @@ public class IncomingStreamReader
         session = StreamInSession.get(remoteAddress.getAddress(), header.sessionId);
         session.addFiles(header.pendingFiles);
         // set the current file we are streaming so progress shows up in jmx
-        session.setCurrentFile(header.file);
+        session.startFile(header.file);
         session.setTable(header.table);
-        // pendingFile gets the new context for the local node.
+        // pendingFile gets the new context for the local node, unless we are resuming a partial one
         remoteFile = header.file;
-        localFile = remoteFile != null ? StreamIn.getContextMapping(remoteFile) : null;
+        offset = header.offset;
+        if (remoteFile == null)
+        {
+            localFile = null;
+        }
+        else if (offset > 0)
+        {
+            localFile = session.resume(remoteFile);
+            if (localFile == null)
+                throw new IOException(String.format("No partial copy of %s to resume from %d", remoteFile, offset));
+            remoteFile.progress = offset;
+        }
+        else
+        {
+            localFile = StreamIn.getContextMapping(remoteFile);
+        }
+        written = offset;
     }
 
     public void read() throws IOException
@@ -73,40 +98,143 @@ public class IncomingStreamReader
             logger.debug("Receiving stream");
             logger.debug("Creating file for {}", localFile.getFilename());
         }
-        FileOutputStream fos = new FileOutputStream(localFile.getFilename(), true);
-        FileChannel fc = fos.getChannel();
-
-        long offset = 0;
+        StreamBlockReader reader = new StreamBlockReader(socketChannel, remoteFile.size - offset, remoteFile.getFilename());
+        // the local sstable is compressed according to the local schema, whatever the remote one was
+        int chunkSizeInKb = Table.open(localFile.desc.ksname).getColumnFamilyStore(localFile.desc.cfname).metadata.getCompressionChunkSizeInKb();
+        // raw sections are written to the local file as they are, so a partial copy of them can be resumed
+        boolean resumable = remoteFile.compressionInfo == null && chunkSizeInKb == 0;
         try
         {
-            for (Pair<Long, Long> section : localFile.sections)
+            if (resumable)
+            {
+                transferSections(reader);
+            }
+            else
             {
-                long length = section.right - section.left;
-                long bytesRead = 0;
-                while (bytesRead < length)
+                assert offset == 0;
+                BufferedRandomAccessFile out = chunkSizeInKb > 0
+                                             ? new CompressedSequentialWriter(new File(localFile.getFilename()),
+                                                                              localFile.desc.filenameFor(Component.COMPRESSION_INFO),
+                                                                              chunkSizeInKb * 1024)
+                                             : new BufferedRandomAccessFile(localFile.getFilename(), "rw");
+                try
+                {
+                    if (remoteFile.compressionInfo == null)
+                        copySections(reader, out);
+                    else
+                        inflateChunks(reader, out);
+                }
+                finally
                 {
-                    long toRead = Math.min(FileStreamTask.CHUNK_SIZE, length - bytesRead);
-                    long lastRead = fc.transferFrom(socketChannel, offset + bytesRead, toRead);
-                    bytesRead += lastRead;
-                    remoteFile.progress += lastRead;
+                    out.close();
                 }
-                offset += length;
             }
         }
         catch (IOException ex)
         {
+            if (resumable)
+            {
+                /* Keep what was verified, and ask the source node to send the rest. */
+                session.retry(remoteFile, localFile, written);
+                throw ex;
+            }
+
             /* Ask the source node to re-stream this file. */
-            session.retry(remoteFile);
+            session.retry(remoteFile, null, 0);
 
             /* Delete the orphaned file. */
             FileUtils.deleteWithConfirm(new File(localFile.getFilename()));
+            File compressionInfo = new File(localFile.desc.filenameFor(Component.COMPRESSION_INFO));
+            if (compressionInfo.exists())
+                FileUtils.deleteWithConfirm(compressionInfo);
             throw ex;
         }
+
+        session.finished(remoteFile, localFile);
+    }
+
+    /**
+     * Writes the raw sections straight to the data file, after whatever a previous attempt left in it.
+     */
+    private void transferSections(StreamBlockReader reader) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(localFile.getFilename(), "rw");
+        try
+        {
+            // anything past the offset was not asked to be resent, so is not to be trusted
+            raf.setLength(offset);
+            raf.seek(offset);
+            byte[] buffer = new byte[BufferedRandomAccessFile.BuffSz_];
+            while (written < remoteFile.size)
+            {
+                int toRead = (int) Math.min(buffer.length, remoteFile.size - written);
+                reader.readFully(buffer, 0, toRead);
+                raf.write(buffer, 0, toRead);
+                written += toRead;
+                remoteFile.progress += toRead;
+            }
+        }
         finally
         {
-            fc.close();
+            raf.close();
         }
+    }
 
-        session.finished(remoteFile, localFile);
+    /**
+     * Copies the raw sections through out, to compress them.
+     */
+    private void copySections(StreamBlockReader reader, BufferedRandomAccessFile out) throws IOException
+    {
+        byte[] buffer = new byte[BufferedRandomAccessFile.BuffSz_];
+        for (Pair<Long, Long> section : localFile.sections)
+        {
+            long length = section.right - section.left;
+            long bytesRead = 0;
+            while (bytesRead < length)
+            {
+                int toRead = (int) Math.min(buffer.length, length - bytesRead);
+                reader.readFully(buffer, 0, toRead);
+                out.write(buffer, 0, toRead);
+                bytesRead += toRead;
+                remoteFile.progress += toRead;
+            }
+        }
+    }
+
+    /**
+     * Inflates the chunks covering each section, and writes the part of them that falls in the section to out.
+     */
+    private void inflateChunks(StreamBlockReader reader, BufferedRandomAccessFile out) throws IOException
+    {
+        int chunkLength = remoteFile.compressionInfo.chunkLength;
+        Iterator<CompressionMetadata.Chunk> chunks = remoteFile.compressionInfo.chunks.iterator();
+        byte[] compressed = new byte[chunkLength];
+        byte[] buffer = new byte[chunkLength];
+        Inflater inflater = new Inflater();
+        try
+        {
+            for (Pair<Long, Long> section : localFile.sections)
+            {
+                for (long position = section.left - section.left % chunkLength; position < section.right; position += chunkLength)
+                {
+                    CompressionMetadata.Chunk chunk = chunks.next();
+                    if (compressed.length < chunk.length)
+                        compressed = new byte[chunk.length];
+                    reader.readFully(compressed, 0, chunk.length);
+                    remoteFile.progress += chunk.length;
+
+                    int length = CompressedRandomAccessReader.uncompress(inflater, compressed, chunk.length, buffer);
+                    long start = Math.max(section.left, position);
+                    long end = Math.min(section.right, position + chunkLength);
+                    if (position + length < end)
+                        throw new IOException(String.format("%s of %s is shorter than expected", chunk, remoteFile));
+                    out.write(buffer, (int) (start - position), (int) (end - start));
+                }
+            }
+        }
+        finally
+        {
+            inflater.end();
+        }
     }
 }
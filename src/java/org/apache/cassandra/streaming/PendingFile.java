@@ -30,6 +30,7 @@ import java.util.List;
 import org.apache.commons.lang.StringUtils;
 
 import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.utils.Pair;
@@ -52,24 +53,39 @@ public class PendingFile
     public final Descriptor desc;
     public final String component;
     public final List<Pair<Long,Long>> sections;
+    // if the file is compressed, the chunks that are sent instead of the raw sections
+    public final CompressionInfo compressionInfo;
     public final long size;
     public long progress;
 
     public PendingFile(Descriptor desc, PendingFile pf)
     {
-        this(null, desc, pf.component, pf.sections);
+        this(null, desc, pf.component, pf.sections, pf.compressionInfo);
     }
 
     public PendingFile(SSTable sstable, Descriptor desc, String component, List<Pair<Long,Long>> sections)
+    {
+        this(sstable, desc, component, sections, null);
+    }
+
+    public PendingFile(SSTable sstable, Descriptor desc, String component, List<Pair<Long,Long>> sections, CompressionInfo compressionInfo)
     {
         this.sstable = sstable;
         this.desc = desc;
         this.component = component;
         this.sections = sections;
+        this.compressionInfo = compressionInfo;
         long tempSize = 0;
-        for(Pair<Long,Long> section : sections)
+        if (compressionInfo != null)
         {
-            tempSize += section.right - section.left;
+            tempSize = compressionInfo.compressedSize();
+        }
+        else
+        {
+            for(Pair<Long,Long> section : sections)
+            {
+                tempSize += section.right - section.left;
+            }
         }
         size = tempSize;
     }
@@ -78,6 +94,26 @@ public class PendingFile
     {
         return desc.filenameFor(component);
     }
+
+    /**
+     * @return the (position, length) ranges of the source file that make up this file's stream, in order:
+     * the compressed chunks if there are any, or the sections
+     */
+    public List<Pair<Long, Long>> getTransferRanges()
+    {
+        List<Pair<Long, Long>> ranges = new ArrayList<Pair<Long, Long>>();
+        if (compressionInfo != null)
+        {
+            for (CompressionMetadata.Chunk chunk : compressionInfo.chunks)
+                ranges.add(new Pair<Long, Long>(chunk.offset, (long) chunk.length));
+        }
+        else
+        {
+            for (Pair<Long, Long> section : sections)
+                ranges.add(new Pair<Long, Long>(section.left, section.right - section.left));
+        }
+        return ranges;
+    }
     
     public boolean equals(Object o)
     {
@@ -115,6 +151,9 @@ public class PendingFile
             {
                 dos.writeLong(section.left); dos.writeLong(section.right);
             }
+            dos.writeBoolean(sc.compressionInfo != null);
+            if (sc.compressionInfo != null)
+                CompressionInfo.serializer().serialize(sc.compressionInfo, dos);
         }
 
         public PendingFile deserialize(DataInputStream dis) throws IOException
@@ -129,7 +168,8 @@ public class PendingFile
             List<Pair<Long,Long>> sections = new ArrayList<Pair<Long,Long>>(count);
             for (int i = 0; i < count; i++)
                 sections.add(new Pair<Long,Long>(Long.valueOf(dis.readLong()), Long.valueOf(dis.readLong())));
-            return new PendingFile(null, desc, component, sections);
+            CompressionInfo compressionInfo = dis.readBoolean() ? CompressionInfo.serializer().deserialize(dis) : null;
+            return new PendingFile(null, desc, component, sections, compressionInfo);
         }
     }
 }
@@ -0,0 +1,88 @@
+package org.apache.cassandra.streaming;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a stream's payload from the checksummed blocks StreamBlockWriter sends it in.  Each block is
+ * verified before any of it is handed out, so everything read has been verified.  Not threadsafe.
+ */
+class StreamBlockReader
+{
+    private final ReadableByteChannel channel;
+    private final String description;
+    private final ByteBuffer block = ByteBuffer.allocate(StreamBlockWriter.BLOCK_SIZE + 4);
+    private final CRC32 crc = new CRC32();
+    // payload bytes not yet read from the channel
+    private long remaining;
+
+    /**
+     * @param length the number of payload bytes that will be sent
+     * @param description what is being streamed, for error messages
+     */
+    StreamBlockReader(ReadableByteChannel channel, long length, String description)
+    {
+        this.channel = channel;
+        this.remaining = length;
+        this.description = description;
+        block.limit(0);
+    }
+
+    void readFully(byte[] bytes, int offset, int length) throws IOException
+    {
+        while (length > 0)
+        {
+            if (!block.hasRemaining())
+                nextBlock();
+            int n = Math.min(length, block.remaining());
+            block.get(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void nextBlock() throws IOException
+    {
+        if (remaining == 0)
+            throw new EOFException(String.format("Read past the end of %s", description));
+        int length = (int) Math.min(StreamBlockWriter.BLOCK_SIZE, remaining);
+        block.clear();
+        block.limit(length + 4);
+        while (block.hasRemaining())
+        {
+            if (channel.read(block) < 0)
+                throw new EOFException(String.format("Stream of %s ended early", description));
+        }
+        crc.reset();
+        crc.update(block.array(), 0, length);
+        if ((int) crc.getValue() != block.getInt(length))
+            throw new IOException(String.format("Checksum mismatch in %s, %d bytes before its end", description, remaining));
+        remaining -= length;
+        block.position(0);
+        block.limit(length);
+    }
+}
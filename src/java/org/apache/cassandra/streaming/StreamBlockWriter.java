@@ -0,0 +1,86 @@
+package org.apache.cassandra.streaming;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Sends a stream's payload in blocks of BLOCK_SIZE bytes (the last one may be shorter), each followed by
+ * the CRC32 of its bytes, so the receiver can verify each block before using it, and ask to resume from
+ * the end of the last good one.  Not threadsafe.
+ */
+class StreamBlockWriter
+{
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    // a block's bytes, and room for its checksum
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE + 4);
+    private final CRC32 crc = new CRC32();
+
+    StreamBlockWriter(WritableByteChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Reads bytes of fc starting at position into the current block, up to length bytes or the end of
+     * the block, whichever comes first, and sends the block if it is full.
+     * @return the number of bytes consumed
+     */
+    int write(FileChannel fc, long position, long length) throws IOException
+    {
+        int n = (int) Math.min(length, BLOCK_SIZE - block.position());
+        block.limit(block.position() + n);
+        while (block.hasRemaining())
+        {
+            if (fc.read(block, position + n - block.remaining()) < 0)
+                throw new EOFException(String.format("Reached the end of the file at %d", position + n - block.remaining()));
+        }
+        if (block.position() == BLOCK_SIZE)
+            flush();
+        return n;
+    }
+
+    /**
+     * Sends the current block, if it has anything in it.
+     */
+    void flush() throws IOException
+    {
+        int length = block.position();
+        if (length == 0)
+            return;
+        crc.reset();
+        crc.update(block.array(), 0, length);
+        block.limit(length + 4);
+        block.putInt((int) crc.getValue());
+        block.flip();
+        while (block.hasRemaining())
+            channel.write(block);
+        block.clear();
+    }
+}
@@ -56,17 +56,26 @@ public class StreamHeader
     /** files to add to the session */
     public final Collection<PendingFile> pendingFiles;
 
-    public StreamHeader(String table, long sessionId, PendingFile file)
+    /** when resuming, the number of bytes of file's stream the receiver already has */
+    public final long offset;
+
+    public StreamHeader(String table, long sessionId, PendingFile file, long offset)
     {
-        this(table, sessionId, file, Collections.<PendingFile>emptyList());
+        this(table, sessionId, file, Collections.<PendingFile>emptyList(), offset);
     }
 
     public StreamHeader(String table, long sessionId, PendingFile first, Collection<PendingFile> pendingFiles)
+    {
+        this(table, sessionId, first, pendingFiles, 0);
+    }
+
+    public StreamHeader(String table, long sessionId, PendingFile first, Collection<PendingFile> pendingFiles, long offset)
     {
         this.table = table;
         this.sessionId  = sessionId;
         this.file = first;
         this.pendingFiles = pendingFiles;
+        this.offset = offset;
     }
 
     private static class StreamHeaderSerializer implements ICompactSerializer<StreamHeader>
@@ -76,6 +85,7 @@ public class StreamHeader
             dos.writeUTF(sh.table);
             dos.writeLong(sh.sessionId);
             PendingFile.serializer().serialize(sh.file, dos);
+            dos.writeLong(sh.offset);
             dos.writeInt(sh.pendingFiles.size());
             for(PendingFile file : sh.pendingFiles)
             {
@@ -88,6 +98,7 @@ public class StreamHeader
             String table = dis.readUTF();
             long sessionId = dis.readLong();
             PendingFile file = PendingFile.serializer().deserialize(dis);
+            long offset = dis.readLong();
             int size = dis.readInt();
 
             List<PendingFile> pendingFiles = new ArrayList<PendingFile>(size);
@@ -96,7 +107,7 @@ public class StreamHeader
                 pendingFiles.add(PendingFile.serializer().deserialize(dis));
             }
 
-            return new StreamHeader(table, sessionId, file, pendingFiles);
+            return new StreamHeader(table, sessionId, file, pendingFiles, offset);
         }
     }
 }
\ No newline at end of file
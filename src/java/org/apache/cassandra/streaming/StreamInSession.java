@@ -43,13 +43,19 @@ public class StreamInSession
 
     private static ConcurrentMap<Pair<InetAddress, Long>, StreamInSession> sessions = new NonBlockingHashMap<Pair<InetAddress, Long>, StreamInSession>();
 
-    private final List<PendingFile> files = new ArrayList<PendingFile>();
+    // several files may be streamed at once, each by its own thread, so the following are guarded by this
+    private final Set<PendingFile> files = new LinkedHashSet<PendingFile>();
+    private final Set<PendingFile> finishedFiles = new HashSet<PendingFile>();
+    // files being received
+    private final Set<PendingFile> current = new HashSet<PendingFile>();
+    // the local copies of files that failed part way, that the source was asked to resume
+    private final Map<PendingFile, PendingFile> partialFiles = new HashMap<PendingFile, PendingFile>();
     private final Pair<InetAddress, Long> context;
     private final Runnable callback;
     private String table;
     private final List<Future<SSTableReader>> buildFutures = new ArrayList<Future<SSTableReader>>();
     private ColumnFamilyStore cfs;
-    private PendingFile current;
+    private boolean closed;
 
     private StreamInSession(Pair<InetAddress, Long> context, Runnable callback)
     {
@@ -80,9 +86,10 @@ public class StreamInSession
         return session;
     }
 
-    public void setCurrentFile(PendingFile file)
+    public synchronized void startFile(PendingFile file)
     {
-        this.current = file;
+        if (file != null)
+            current.add(file);
     }
 
     public void setTable(String table)
@@ -90,10 +97,13 @@ public class StreamInSession
         this.table = table;
     }
 
-    public void addFiles(Collection<PendingFile> files)
+    public synchronized void addFiles(Collection<PendingFile> files)
     {
         for(PendingFile file : files)
         {
+            // every stream of the session lists all its files, and may arrive after some of them are done
+            if (finishedFiles.contains(file))
+                continue;
             if(logger.isDebugEnabled())
                 logger.debug("Adding file {} to Stream Request queue", file.getFilename());
             this.files.add(file);
@@ -108,27 +118,51 @@ public class StreamInSession
             logger.debug("Finished {}. Sending ack to {}", remoteFile, this);
 
         Future future = CompactionManager.instance.submitSSTableBuild(localFile.desc);
-        buildFutures.add(future);
-
-        files.remove(remoteFile);
-        if (remoteFile.equals(current))
-            current = null;
+        synchronized (this)
+        {
+            buildFutures.add(future);
+            files.remove(remoteFile);
+            finishedFiles.add(remoteFile);
+            current.remove(remoteFile);
+        }
         StreamReply reply = new StreamReply(remoteFile.getFilename(), getSessionId(), StreamReply.Status.FILE_FINISHED);
         // send a StreamStatus message telling the source node it can delete this file
         MessagingService.instance.sendOneWay(reply.createMessage(), getHost());
     }
 
-    public void retry(PendingFile remoteFile) throws IOException
+    /**
+     * Asks the source to send remoteFile again.
+     * @param localFile if not null, the local copy to keep, holding the first offset bytes of remoteFile's stream
+     * @param offset the number of verified bytes to keep
+     */
+    public void retry(PendingFile remoteFile, PendingFile localFile, long offset) throws IOException
     {
-        StreamReply reply = new StreamReply(remoteFile.getFilename(), getSessionId(), StreamReply.Status.FILE_RETRY);
-        logger.info("Streaming of file {} from {} failed: requesting a retry.", remoteFile, this);
+        synchronized (this)
+        {
+            current.remove(remoteFile);
+            if (localFile == null)
+                offset = 0;
+            else
+                partialFiles.put(remoteFile, localFile);
+        }
+        StreamReply reply = new StreamReply(remoteFile.getFilename(), getSessionId(), StreamReply.Status.FILE_RETRY, offset);
+        logger.info("Streaming of file {} from {} failed: requesting a retry from byte {}.", new Object[]{ remoteFile, this, offset });
         MessagingService.instance.sendOneWay(reply.createMessage(), getHost());
     }
 
-    public void closeIfFinished() throws IOException
+    /**
+     * @return the local copy kept by retry() for remoteFile, or null if there isn't one
+     */
+    public synchronized PendingFile resume(PendingFile remoteFile)
     {
-        if (files.isEmpty())
+        return partialFiles.remove(remoteFile);
+    }
+
+    public synchronized void closeIfFinished() throws IOException
+    {
+        if (files.isEmpty() && current.isEmpty() && !closed)
         {
+            closed = true;
             // wait for bloom filters and row indexes to finish building
             List<SSTableReader> sstables = new ArrayList<SSTableReader>(buildFutures.size());
             for (Future<SSTableReader> future : buildFutures)
@@ -196,9 +230,10 @@ public class StreamInSession
             if (entry.getKey().left.equals(host))
             {
                 StreamInSession session = entry.getValue();
-                set.addAll(session.files);
-                if(session.current != null) {
-                    set.add(session.current);
+                synchronized (session)
+                {
+                    set.addAll(session.files);
+                    set.addAll(session.current);
                 }
             }
         }
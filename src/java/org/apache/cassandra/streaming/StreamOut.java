@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.db.Table;
+import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.io.sstable.SSTableReader;
@@ -166,7 +167,11 @@ public class StreamOut
             List<Pair<Long,Long>> sections = sstable.getPositionsForRanges(ranges);
             if (sections.isEmpty())
                 continue;
-            pending.add(new PendingFile(sstable, desc, SSTable.COMPONENT_DATA, sections));
+            CompressionMetadata compression = sstable.getCompressionMetadata();
+            CompressionInfo compressionInfo = compression == null
+                                              ? null
+                                              : new CompressionInfo(compression.chunkLength, compression.getChunksForSections(sections));
+            pending.add(new PendingFile(sstable, desc, SSTable.COMPONENT_DATA, sections, compressionInfo));
         }
         logger.info("Stream context metadata {}, {} sstables.", pending, sstables.size());
         return pending;
@@ -27,13 +27,14 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.SimpleCondition;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
 /**
- * This class manages the streaming of multiple files one after the other.
+ * This class manages the streaming of multiple files, concurrent_streams_per_session at a time.
 */
 public class StreamOutSession
 {
@@ -65,12 +66,14 @@ public class StreamOutSession
         return streams.get(new Pair<InetAddress, Long>(host, sessionId));
     }
 
+    // files are sent concurrent_streams_per_session at a time, so the following are guarded by this
     private final Map<String, PendingFile> files = new LinkedHashMap<String, PendingFile>();
+    // the files being sent
+    private final Set<String> currentFiles = new HashSet<String>();
 
     public final String table;
     private final Pair<InetAddress, Long> context;
     private final Runnable callback;
-    private String currentFile;
 
     private StreamOutSession(String table, Pair<InetAddress, Long> context, Runnable callback)
     {
@@ -89,7 +92,7 @@ public class StreamOutSession
         return context.right;
     }
     
-    public void addFilesToStream(List<PendingFile> pendingFiles)
+    public synchronized void addFilesToStream(List<PendingFile> pendingFiles)
     {
         for (PendingFile pendingFile : pendingFiles)
         {
@@ -99,26 +102,39 @@ public class StreamOutSession
         }
     }
     
-    public void retry()
+    /**
+     * Sends file again, skipping the first offset bytes of its stream, which the target already has.
+     */
+    public synchronized void retry(String file, long offset)
     {
-        streamFile(files.get(currentFile));
+        streamFile(new StreamHeader(table, getSessionId(), files.get(file), offset));
     }
 
-    private void streamFile(PendingFile pf)
+    private void streamFile(StreamHeader header)
     {
         if (logger.isDebugEnabled())
-            logger.debug("Streaming {} ...", pf);
-        currentFile = pf.getFilename();
-        MessagingService.instance.stream(new StreamHeader(table, getSessionId(), pf), getHost());
+            logger.debug("Streaming {} ...", header.file);
+        if (header.file != null)
+            currentFiles.add(header.file.getFilename());
+        MessagingService.instance.stream(header, getHost());
     }
 
-    public void startNext() throws IOException
+    /**
+     * Marks file done, and starts sending the next file that isn't already being sent, if any.
+     */
+    public synchronized void startNext(String file) throws IOException
     {
-        assert files.containsKey(currentFile);
-        files.remove(currentFile);
-        Iterator<PendingFile> iter = files.values().iterator();
-        if (iter.hasNext())
-            streamFile(iter.next());
+        assert files.containsKey(file);
+        files.remove(file);
+        currentFiles.remove(file);
+        for (PendingFile pf : files.values())
+        {
+            if (!currentFiles.contains(pf.getFilename()))
+            {
+                streamFile(new StreamHeader(table, getSessionId(), pf, 0));
+                break;
+            }
+        }
     }
 
     public void close()
@@ -135,9 +151,9 @@ public class StreamOutSession
             Thread.sleep(10);
     }
 
-    Collection<PendingFile> getFiles()
+    synchronized Collection<PendingFile> getFiles()
     {
-        return files.values();
+        return new ArrayList<PendingFile>(files.values());
     }
 
     public static Set<InetAddress> getDestinations()
@@ -161,19 +177,27 @@ public class StreamOutSession
         return list;
     }
 
-    public void validateCurrentFile(String file)
+    public synchronized void validateCurrentFile(String file)
     {
-        if (!file.equals(currentFile))
-            throw new IllegalStateException(String.format("target reports current file is %s but is %s", file, currentFile));
+        if (!currentFiles.contains(file))
+            throw new IllegalStateException(String.format("target reports current file is %s but %s are being sent", file, currentFiles));
     }
 
-    public void begin()
+    /**
+     * Starts sending the first concurrent_streams_per_session files, each on its own connection.  Every one
+     * of them tells the target about all the files, since it may be the first to arrive.
+     */
+    public synchronized void begin()
     {
-        PendingFile first = files.isEmpty() ? null : files.values().iterator().next();
-        currentFile = first == null ? null : first.getFilename();
-        StreamHeader header = new StreamHeader(table, getSessionId(), first, files.values());
         logger.info("Streaming to {}", getHost());
         logger.debug("Files are {}", StringUtils.join(files.values(), ","));
-        MessagingService.instance.stream(header, getHost());
+        List<PendingFile> allFiles = new ArrayList<PendingFile>(files.values());
+        if (allFiles.isEmpty())
+        {
+            streamFile(new StreamHeader(table, getSessionId(), null, allFiles));
+            return;
+        }
+        for (PendingFile pf : allFiles.subList(0, Math.min(allFiles.size(), DatabaseDescriptor.getConcurrentStreamsPerSession())))
+            streamFile(new StreamHeader(table, getSessionId(), pf, allFiles));
     }
 }
@@ -45,12 +45,20 @@ class StreamReply
     public final long sessionId;
     public final String file;
     public final Status action;
+    /** for FILE_RETRY, the number of verified bytes of the file's stream the receiver kept */
+    public final long offset;
 
     public StreamReply(String file, long sessionId, Status action)
+    {
+        this(file, sessionId, action, 0);
+    }
+
+    public StreamReply(String file, long sessionId, Status action, long offset)
     {
         this.file = file;
         this.action = action;
         this.sessionId = sessionId;
+        this.offset = offset;
     }
 
     public Message createMessage() throws IOException
@@ -68,6 +76,7 @@ class StreamReply
                "sessionId=" + sessionId +
                ", file='" + file + '\'' +
                ", action=" + action +
+               ", offset=" + offset +
                ')';
     }
 
@@ -78,6 +87,7 @@ class StreamReply
             dos.writeLong(reply.sessionId);
             dos.writeUTF(reply.file);
             dos.writeInt(reply.action.ordinal());
+            dos.writeLong(reply.offset);
         }
 
         public StreamReply deserialize(DataInputStream dis) throws IOException
@@ -85,7 +95,9 @@ class StreamReply
             long sessionId = dis.readLong();
             String targetFile = dis.readUTF();
             Status action = Status.values()[dis.readInt()];
-            return new StreamReply(targetFile, sessionId, action);
+            // replies from nodes at an earlier messaging version have no offset
+            long offset = dis.available() >= 8 ? dis.readLong() : 0;
+            return new StreamReply(targetFile, sessionId, action, offset);
         }
     }
 }
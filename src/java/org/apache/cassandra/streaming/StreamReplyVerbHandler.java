@@ -51,12 +51,12 @@ public class StreamReplyVerbHandler implements IVerbHandler
             {
                 case FILE_FINISHED:
                     session.validateCurrentFile(reply.file);
-                    session.startNext();
+                    session.startNext(reply.file);
                     break;
                 case FILE_RETRY:
                     session.validateCurrentFile(reply.file);
-                    logger.info("Need to re-stream file {} to {}", reply.file, message.getFrom());
-                    session.retry();
+                    logger.info("Need to re-stream file {} to {} from byte {}", new Object[]{ reply.file, message.getFrom(), reply.offset });
+                    session.retry(reply.file, reply.offset);
                     break;
                 case SESSION_FINISHED:
                     session.close();
@@ -21,6 +21,8 @@ package org.apache.cassandra.streaming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
+
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.io.IOException;
@@ -112,4 +114,16 @@ public class StreamingService implements StreamingServiceMBean
         }
         return files;
     }
+
+    public int getStreamThroughputOutboundMegabitsPerSec()
+    {
+        return DatabaseDescriptor.getStreamThroughputOutboundMegabitsPerSec();
+    }
+
+    public void setStreamThroughputOutboundMegabitsPerSec(int value)
+    {
+        if (value < 0)
+            throw new IllegalArgumentException("stream_throughput_outbound_megabits_per_sec must be 0 (unthrottled) or more");
+        DatabaseDescriptor.setStreamThroughputOutboundMegabitsPerSec(value);
+    }
 }
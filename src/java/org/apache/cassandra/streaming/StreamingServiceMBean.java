@@ -39,4 +39,8 @@ public interface StreamingServiceMBean
     
     /** What's currently happening wrt streaming. */
     public String getStatus();
+
+    /** node-wide limit on outbound streaming throughput; 0 means unthrottled */
+    public int getStreamThroughputOutboundMegabitsPerSec();
+    public void setStreamThroughputOutboundMegabitsPerSec(int value);
 }
@@ -21,10 +21,15 @@ package org.apache.cassandra.thrift;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.ConfigurationException;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.thrift.TProcessorFactory;
@@ -32,6 +37,7 @@ import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.apache.thrift.transport.TTransportFactory;
@@ -58,12 +64,32 @@ public class CassandraDaemon extends org.apache.cassandra.service.AbstractCassan
         final CassandraServer cassandraServer = new CassandraServer();
         Cassandra.Processor processor = new Cassandra.Processor(cassandraServer);
 
+        InetSocketAddress addr = new InetSocketAddress(listenAddr, listenPort);
+        logger.info(String.format("Binding thrift service to %s:%s", listenAddr, listenPort));
+
+        // Protocol factory
+        TProtocolFactory tProtocolFactory = new TBinaryProtocol.Factory(true, 
+                                                                        true, 
+                                                                        DatabaseDescriptor.getThriftMaxMessageLength());
+
+        if (DatabaseDescriptor.getRpcServerType() == Config.RpcServerType.hsha)
+            serverEngine = hshaServer(cassandraServer, processor, addr, tProtocolFactory);
+        else
+            serverEngine = syncServer(cassandraServer, processor, addr, tProtocolFactory);
+    }
+
+    /**
+     * One thread per client connection.
+     */
+    private TServer syncServer(CassandraServer cassandraServer, Cassandra.Processor processor, InetSocketAddress addr, TProtocolFactory tProtocolFactory)
+    throws IOException
+    {
         // Transport
         TServerSocket tServerSocket = null;
 
         try
         {
-            tServerSocket = new TCustomServerSocket(new InetSocketAddress(listenAddr, listenPort),
+            tServerSocket = new TCustomServerSocket(addr,
                                                     DatabaseDescriptor.getRpcKeepAlive(),
                                                     DatabaseDescriptor.getRpcSendBufferSize(),
                                                     DatabaseDescriptor.getRpcRecvBufferSize());
@@ -74,13 +100,6 @@ public class CassandraDaemon extends org.apache.cassandra.service.AbstractCassan
                                                 listenAddr, listenPort), e);
         }
         
-        logger.info(String.format("Binding thrift service to %s:%s", listenAddr, listenPort));
-
-        // Protocol factory
-        TProtocolFactory tProtocolFactory = new TBinaryProtocol.Factory(true, 
-                                                                        true, 
-                                                                        DatabaseDescriptor.getThriftMaxMessageLength());
-        
         // Transport factory
         TTransportFactory inTransportFactory, outTransportFactory;
         if (DatabaseDescriptor.isThriftFramed())
@@ -99,18 +118,64 @@ public class CassandraDaemon extends org.apache.cassandra.service.AbstractCassan
         // ThreadPool Server
         CustomTThreadPoolServer.Options options = new CustomTThreadPoolServer.Options();
         options.minWorkerThreads = MIN_WORKER_THREADS;
+        if (DatabaseDescriptor.getRpcMaxThreads() != null)
+        {
+            options.maxWorkerThreads = DatabaseDescriptor.getRpcMaxThreads();
+            options.minWorkerThreads = Math.min(options.minWorkerThreads, options.maxWorkerThreads);
+        }
 
         ExecutorService executorService = new CleaningThreadPool(cassandraServer.clientState,
                                                                  options.minWorkerThreads,
                                                                  options.maxWorkerThreads);
-        serverEngine = new CustomTThreadPoolServer(new TProcessorFactory(processor),
-                                             tServerSocket,
-                                             inTransportFactory,
-                                             outTransportFactory,
-                                             tProtocolFactory,
-                                             tProtocolFactory,
-                                             options,
-                                             executorService);
+        return new CustomTThreadPoolServer(new TProcessorFactory(processor),
+                                           tServerSocket,
+                                           inTransportFactory,
+                                           outTransportFactory,
+                                           tProtocolFactory,
+                                           tProtocolFactory,
+                                           options,
+                                           executorService);
+    }
+
+    /**
+     * A selector thread for all connections, handing requests to a bounded worker pool.
+     */
+    private TServer hshaServer(CassandraServer cassandraServer, Cassandra.Processor processor, InetSocketAddress addr, TProtocolFactory tProtocolFactory)
+    throws IOException
+    {
+        int tFramedTransportSize = DatabaseDescriptor.getThriftFramedTransportSize();
+        TNonblockingServerTransport serverTransport;
+        try
+        {
+            serverTransport = new TCustomNonblockingServerSocket(addr,
+                                                                 DatabaseDescriptor.getRpcKeepAlive(),
+                                                                 DatabaseDescriptor.getRpcSendBufferSize(),
+                                                                 DatabaseDescriptor.getRpcRecvBufferSize(),
+                                                                 tFramedTransportSize);
+        }
+        catch (TTransportException e)
+        {
+            throw new IOException(String.format("Unable to create thrift socket to %s:%s",
+                                                listenAddr, listenPort), e);
+        }
+
+        int workers = DatabaseDescriptor.getRpcMaxThreads() == null ? MIN_WORKER_THREADS : DatabaseDescriptor.getRpcMaxThreads();
+        logger.info("Using the hsha server with {} worker threads and a max frame size of {} bytes.", workers, tFramedTransportSize);
+        ExecutorService invoker = new JMXEnabledThreadPoolExecutor(workers,
+                                                                   workers,
+                                                                   60,
+                                                                   TimeUnit.SECONDS,
+                                                                   new LinkedBlockingQueue<Runnable>(),
+                                                                   new NamedThreadFactory("RPC-Thread"),
+                                                                   "request");
+        return new CustomTHsHaServer(new TProcessorFactory(processor),
+                                     serverTransport,
+                                     new TFramedTransport.Factory(tFramedTransportSize),
+                                     tProtocolFactory,
+                                     invoker,
+                                     cassandraServer.clientState,
+                                     // frames read ahead of a free worker wait for one to free their buffer
+                                     (long) workers * tFramedTransportSize);
     }
 
     /** hook for JSVC */
@@ -69,6 +69,7 @@ import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.locator.DynamicEndpointSnitch;
 import org.apache.cassandra.scheduler.IRequestScheduler;
+import org.apache.cassandra.scheduler.RequestCost;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.StorageProxy;
 import org.apache.cassandra.service.StorageService;
@@ -83,7 +84,8 @@ public class CassandraServer implements Cassandra.Iface
     private final static List<ColumnOrSuperColumn> EMPTY_COLUMNS = Collections.emptyList();
     private final static List<Column> EMPTY_SUBCOLUMNS = Collections.emptyList();
 
-    // thread local state containing session information
+    // session information for the connection whose request this thread is serving: the sync server keeps it
+    // for the connection's lifetime, CustomTHsHaServer installs the connection's state around each request
     public final ThreadLocal<ClientState> clientState = new ThreadLocal<ClientState>()
     {
         @Override
@@ -124,7 +126,7 @@ public class CassandraServer implements Cassandra.Iface
         {
             try
             {
-                schedule();
+                schedule(RequestCost.forReads(commands));
                 rows = StorageProxy.readProtocol(commands, consistency_level);
             }
             finally
@@ -435,10 +437,9 @@ public class CassandraServer implements Cassandra.Iface
     {
         try
         {
-            schedule();
-
             try
             {
+                schedule(RequestCost.forMutations(mutations));
                 StorageProxy.mutate(mutations, consistency_level);
             }
             catch (TimeoutException e)
@@ -499,8 +500,9 @@ public class CassandraServer implements Cassandra.Iface
             }
             try
             {
-                schedule();
-                rows = StorageProxy.getRangeSlice(new RangeSliceCommand(keyspace, column_parent, predicate, bounds, range.count), consistency_level);
+                RangeSliceCommand command = new RangeSliceCommand(keyspace, column_parent, predicate, bounds, range.count);
+                schedule(RequestCost.forRangeSlice(command));
+                rows = StorageProxy.getRangeSlice(command, consistency_level);
             }
             finally
             {
@@ -639,9 +641,9 @@ public class CassandraServer implements Cassandra.Iface
     /**
      * Schedule the current thread for access to the required services
      */
-    private void schedule()
+    private void schedule(int cost) throws TimeoutException
     {
-        requestScheduler.queue(Thread.currentThread(), state().getSchedulingValue());
+        requestScheduler.queue(Thread.currentThread(), state().getSchedulingValue(), cost, DatabaseDescriptor.getRpcTimeout());
     }
 
     /**
@@ -907,6 +909,14 @@ public class CassandraServer implements Cassandra.Iface
                               cf_def.isSetMemtable_flush_after_mins() ? cf_def.memtable_flush_after_mins : CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               cf_def.isSetMemtable_throughput_in_mb() ? cf_def.memtable_throughput_in_mb : CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               cf_def.isSetMemtable_operations_in_millions() ? cf_def.memtable_operations_in_millions : CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR,
+                              CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                              CFMetaData.DEFAULT_COMPACTION_STRATEGY,
+                              null,
+                              CFMetaData.DEFAULT_SPECULATIVE_RETRY,
+                              CFMetaData.DEFAULT_ROW_CACHE_PROVIDER,
+                              CFMetaData.DEFAULT_ROW_CACHE_HEAD_SIZE,
+                              CFMetaData.DEFAULT_ROW_CACHE_HEAD_REVERSED,
                               ColumnDefinition.fromColumnDef(cf_def.column_metadata));
     }
 
@@ -916,7 +926,7 @@ public class CassandraServer implements Cassandra.Iface
         state().hasColumnFamilyAccess(cfname, Permission.WRITE);
         try
         {
-            schedule();
+            schedule(1);
             StorageProxy.truncateBlocking(state().getKeyspace(), cfname);
         }
         catch (TimeoutException e)
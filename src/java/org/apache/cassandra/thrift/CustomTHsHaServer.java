@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.thrift;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.base.Function;
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.service.ClientState;
+import org.apache.thrift.TProcessorFactory;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerTransport;
+
+/**
+ * Thrift's half-sync/half-async server, with each connection's ClientState attached to the
+ * connection rather than to a thread: any worker may serve any connection's next request,
+ * so the connection's state is installed in the thread-local for the duration of each invocation.
+ *
+ * A connection only has one request in flight at a time, so its state is never used concurrently.
+ */
+public class CustomTHsHaServer extends THsHaServer
+{
+    private static final Logger logger = LoggerFactory.getLogger(CustomTHsHaServer.class);
+
+    private final ExecutorService invoker;
+    private final ThreadLocal<ClientState> clientState;
+    // weak keys, so a connection's state goes away with its closed frame buffer
+    private final ConcurrentMap<FrameBuffer, ClientState> connectionStates = new MapMaker().weakKeys().makeComputingMap(new Function<FrameBuffer, ClientState>()
+    {
+        public ClientState apply(FrameBuffer frameBuffer)
+        {
+            return new ClientState();
+        }
+    });
+
+    public CustomTHsHaServer(TProcessorFactory processorFactory,
+                             TNonblockingServerTransport serverTransport,
+                             TFramedTransport.Factory outputTransportFactory,
+                             TProtocolFactory protocolFactory,
+                             ExecutorService invoker,
+                             ThreadLocal<ClientState> clientState,
+                             long maxReadBufferBytes)
+    {
+        super(processorFactory, serverTransport, outputTransportFactory, protocolFactory, protocolFactory, invoker, options(maxReadBufferBytes));
+        this.invoker = invoker;
+        this.clientState = clientState;
+    }
+
+    /**
+     * @param maxReadBufferBytes the most memory to hold incoming frames in, across all connections.  (Thrift's
+     * default is unbounded.)
+     */
+    private static Options options(long maxReadBufferBytes)
+    {
+        Options options = new Options();
+        options.maxReadBufferBytes = maxReadBufferBytes;
+        options.validate();
+        return options;
+    }
+
+    @Override
+    protected boolean requestInvoke(final FrameBuffer frameBuffer)
+    {
+        try
+        {
+            invoker.execute(new Runnable()
+            {
+                public void run()
+                {
+                    clientState.set(connectionStates.get(frameBuffer));
+                    try
+                    {
+                        frameBuffer.invoke();
+                    }
+                    finally
+                    {
+                        clientState.remove();
+                    }
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("Thrift worker pool rejected a request", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.thrift;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * The non-blocking counterpart of TCustomServerSocket: applies the rpc keep-alive and
+ * socket buffer settings to each accepted connection, and closes connections that announce
+ * a frame larger than the framed transport allows, as TFramedTransport does for the sync server.
+ */
+public class TCustomNonblockingServerSocket extends TNonblockingServerSocket
+{
+    private static final Logger logger = LoggerFactory.getLogger(TCustomNonblockingServerSocket.class);
+
+    private final boolean keepAlive;
+    private final Integer sendBufferSize;
+    private final Integer recvBufferSize;
+    private final int maxFrameSize;
+
+    public TCustomNonblockingServerSocket(InetSocketAddress bindAddr, boolean keepAlive, Integer sendBufferSize, Integer recvBufferSize, int maxFrameSize)
+    throws TTransportException
+    {
+        super(bindAddr);
+        this.keepAlive = keepAlive;
+        this.sendBufferSize = sendBufferSize;
+        this.recvBufferSize = recvBufferSize;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    protected TNonblockingSocket acceptImpl() throws TTransportException
+    {
+        TNonblockingSocket accepted = super.acceptImpl();
+        if (accepted == null)
+            return null;
+        TNonblockingSocket tsocket;
+        try
+        {
+            tsocket = new FrameLimitedSocket(accepted.getSocketChannel(), maxFrameSize);
+        }
+        catch (IOException e)
+        {
+            accepted.close();
+            throw new TTransportException(e);
+        }
+        Socket socket = tsocket.getSocketChannel().socket();
+
+        try
+        {
+            socket.setKeepAlive(keepAlive);
+        }
+        catch (SocketException se)
+        {
+            logger.warn("Failed to set keep-alive on Thrift socket.", se);
+        }
+
+        if (sendBufferSize != null)
+        {
+            try
+            {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+            catch (SocketException se)
+            {
+                logger.warn("Failed to set send buffer size on Thrift socket.", se);
+            }
+        }
+
+        if (recvBufferSize != null)
+        {
+            try
+            {
+                socket.setReceiveBufferSize(recvBufferSize);
+            }
+            catch (SocketException se)
+            {
+                logger.warn("Failed to set receive buffer size on Thrift socket.", se);
+            }
+        }
+
+        return tsocket;
+    }
+
+    /**
+     * Follows the framing of what the server reads: it reads each frame's 4 byte length and then the frame, each
+     * into a buffer of exactly that size.  A length over the limit fails the read, so the server closes the
+     * connection before allocating a buffer for the frame.
+     */
+    private static class FrameLimitedSocket extends TNonblockingSocket
+    {
+        private final int maxFrameSize;
+        private int lengthBytesRead;
+        private long frameBytesLeft;
+
+        FrameLimitedSocket(SocketChannel socketChannel, int maxFrameSize) throws IOException
+        {
+            super(socketChannel);
+            this.maxFrameSize = maxFrameSize;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException
+        {
+            int read = super.read(buffer);
+            if (read <= 0)
+                return read;
+
+            if (frameBytesLeft > 0)
+            {
+                frameBytesLeft -= read;
+                return read;
+            }
+
+            lengthBytesRead += read;
+            if (lengthBytesRead < 4)
+                return read;
+            lengthBytesRead = 0;
+            int frameSize = buffer.getInt(0);
+            if (frameSize > maxFrameSize)
+            {
+                logger.error("Frame size ({}) larger than max length ({}), closing the connection from {}",
+                             new Object[]{ frameSize, maxFrameSize, getSocketChannel().socket().getRemoteSocketAddress() });
+                return -1;
+            }
+            frameBytesLeft = frameSize;
+            return read;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.commons.cli.*;
 import org.apache.cassandra.cache.JMXInstrumentedCacheMBean;
 import org.apache.cassandra.concurrent.IExecutorMBean;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.CacheWarmerMBean;
 import org.apache.cassandra.db.ColumnFamilyStoreMBean;
 import org.apache.cassandra.db.CompactionManagerMBean;
 import org.apache.cassandra.dht.Token;
@@ -198,6 +199,15 @@ public class NodeCmd {
         double memUsed = (double)heapUsage.getUsed() / (1024 * 1024);
         double memMax = (double)heapUsage.getMax() / (1024 * 1024);
         outs.printf("%-17s: %.2f / %.2f%n", "Heap Memory (MB)", memUsed, memMax);
+
+        // Cache warming, while the saved caches are still being loaded
+        CacheWarmerMBean warmer = probe.getCacheWarmerProxy();
+        if (warmer.getPendingKeys() > 0)
+        {
+            long remaining = warmer.getEstimatedSecondsRemaining();
+            outs.printf("%-17s: %.1f%% (%s)%n", "Cache warming", warmer.getProgress() * 100,
+                        remaining < 0 ? "starting" : remaining + " seconds left");
+        }
     }
 
     public void printReleaseVersion(PrintStream outs)
@@ -287,11 +297,15 @@ public class NodeCmd {
     public void printCompactionStats(PrintStream outs)
     {
         CompactionManagerMBean cm = probe.getCompactionManagerProxy();
-        outs.println("compaction type: " + (cm.getCompactionType() == null ? "n/a" : cm.getCompactionType()));
-        outs.println("column family: " + (cm.getColumnFamilyInProgress() == null ? "n/a" : cm.getColumnFamilyInProgress()));
-        outs.println("bytes compacted: " + (cm.getBytesCompacted() == null ? "n/a" : cm.getBytesCompacted()));
-        outs.println("bytes total in progress: " + (cm.getBytesTotalInProgress() == null ? "n/a" : cm.getBytesTotalInProgress() ));
         outs.println("pending tasks: " + cm.getPendingTasks());
+        for (Map<String, String> c : cm.getCompactions())
+        {
+            outs.println("compaction type: " + c.get("type"));
+            outs.println("  keyspace: " + c.get("keyspace"));
+            outs.println("  column family: " + c.get("columnfamily"));
+            outs.println("  bytes compacted: " + c.get("bytesCompacted"));
+            outs.println("  bytes total in progress: " + c.get("bytesTotal"));
+        }
     }
  
     public void printColumnFamilyStats(PrintStream outs)
@@ -367,6 +381,7 @@ public class NodeCmd {
                 outs.println("\t\tSpace used (total): " + cfstore.getTotalDiskSpaceUsed());
                 outs.println("\t\tMemtable Columns Count: " + cfstore.getMemtableColumnsCount());
                 outs.println("\t\tMemtable Data Size: " + cfstore.getMemtableDataSize());
+                outs.println("\t\tMemtable Live Size: " + cfstore.getMemtableLiveSize());
                 outs.println("\t\tMemtable Switch Count: " + cfstore.getMemtableSwitchCount());
                 outs.println("\t\tRead Count: " + cfstore.getReadCount());
                 outs.println("\t\tRead Latency: " + String.format("%01.3f", cfstore.getRecentReadLatencyMicros() / 1000) + " ms.");
@@ -379,6 +394,7 @@ public class NodeCmd {
                 {
                     outs.println("\t\tKey cache capacity: " + keyCacheMBean.getCapacity());
                     outs.println("\t\tKey cache size: " + keyCacheMBean.getSize());
+                    outs.println("\t\tKey cache memory used: " + keyCacheMBean.getMemoryUsed());
                     outs.println("\t\tKey cache hit rate: " + keyCacheMBean.getRecentHitRate());
                 }
                 else
@@ -391,6 +407,8 @@ public class NodeCmd {
                 {
                     outs.println("\t\tRow cache capacity: " + rowCacheMBean.getCapacity());
                     outs.println("\t\tRow cache size: " + rowCacheMBean.getSize());
+                    if (rowCacheMBean.getMemoryUsed() >= 0)
+                        outs.println("\t\tRow cache memory used: " + rowCacheMBean.getMemoryUsed());
                     outs.println("\t\tRow cache hit rate: " + rowCacheMBean.getRecentHitRate());
                 }
                 else
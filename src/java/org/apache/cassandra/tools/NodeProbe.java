@@ -45,6 +45,8 @@ import org.apache.cassandra.cache.JMXInstrumentedCacheMBean;
 import org.apache.cassandra.concurrent.IExecutorMBean;
 import org.apache.cassandra.config.ConfigurationException;
 import org.apache.cassandra.db.ColumnFamilyStoreMBean;
+import org.apache.cassandra.db.CacheWarmer;
+import org.apache.cassandra.db.CacheWarmerMBean;
 import org.apache.cassandra.db.CompactionManager;
 import org.apache.cassandra.db.CompactionManagerMBean;
 import org.apache.cassandra.dht.IPartitioner;
@@ -75,6 +77,7 @@ public class NodeProbe
     private JMXConnector jmxc;
     private MBeanServerConnection mbeanServerConn;
     private CompactionManagerMBean compactionProxy;
+    private CacheWarmerMBean cacheWarmerProxy;
     private StorageServiceMBean ssProxy;
     private MemoryMXBean memProxy;
     private RuntimeMXBean runtimeProxy;
@@ -126,6 +129,8 @@ public class NodeProbe
             streamProxy = JMX.newMBeanProxy(mbeanServerConn, name, StreamingServiceMBean.class);
             name = new ObjectName(CompactionManager.MBEAN_OBJECT_NAME);
             compactionProxy = JMX.newMBeanProxy(mbeanServerConn, name, CompactionManagerMBean.class);
+            name = new ObjectName(CacheWarmer.MBEAN_OBJECT_NAME);
+            cacheWarmerProxy = JMX.newMBeanProxy(mbeanServerConn, name, CacheWarmerMBean.class);
         } catch (MalformedObjectNameException e)
         {
             throw new RuntimeException(
@@ -224,6 +229,11 @@ public class NodeProbe
       return compactionProxy;
     }
 
+    public CacheWarmerMBean getCacheWarmerProxy()
+    {
+        return cacheWarmerProxy;
+    }
+
     public JMXInstrumentedCacheMBean getKeyCacheMBean(String tableName, String cfName)
     {
         String keyCachePath = "org.apache.cassandra.db:type=Caches,keyspace=" + tableName + ",cache=" + cfName + "KeyCache";
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the ByteBuffers a Memtable copies column names, values and row keys into.
+ * Implementations must have a public no-arg constructor; Memtable creates a fresh
+ * allocator for each memtable, so all the memory it hands out can be released
+ * together once that memtable has been flushed.
+ */
+public abstract class Allocator
+{
+    /**
+     * Allocate a slice of the given buffer's size and copy its remaining bytes into it.
+     * The position of the given buffer is not modified.
+     */
+    public ByteBuffer clone(ByteBuffer buffer)
+    {
+        assert buffer != null;
+        if (buffer.remaining() == 0)
+            return FBUtilities.EMPTY_BYTE_BUFFER;
+
+        ByteBuffer cloned = allocate(buffer.remaining());
+        cloned.mark();
+        cloned.put(buffer.duplicate());
+        cloned.reset();
+        return cloned;
+    }
+
+    /**
+     * @return a heap ByteBuffer with exactly size bytes remaining
+     */
+    public abstract ByteBuffer allocate(int size);
+}
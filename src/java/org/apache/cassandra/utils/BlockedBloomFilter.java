@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.io.ICompactSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Bloom filter whose hashes for a given key all fall within one 512-bit block, i.e. one cache
+ * line, so a lookup costs a single cache miss instead of one per hash.  Since keys do not spread
+ * evenly over blocks, this has a higher false positive rate than BloomFilter for the same number
+ * of bits, so we allocate a couple more bits per element than the BloomSpecification asks for.
+ *
+ * The bits are kept off-heap in an OffHeapBitSet, so there is no practical limit on the number
+ * of elements, and the filter is serialized as raw words rather than through Java serialization.
+ * The owner of a filter should close() it once it is done with it, to free those bits promptly.
+ */
+public class BlockedBloomFilter extends Filter
+{
+    private static final Logger logger = LoggerFactory.getLogger(BlockedBloomFilter.class);
+    private static final ICompactSerializer<BlockedBloomFilter> serializer_ = new BlockedBloomFilterSerializer();
+
+    static final int BLOCK_BITS = OffHeapBitSet.CACHE_LINE * 8;
+    private static final int BLOCK_SHIFT = 64 - Integer.numberOfTrailingZeros(BLOCK_BITS);
+    private static final long LCG_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final long LCG_INCREMENT = 0x632BE59BD9B4E019L;
+    private static final int EXCESS = 20;
+    // blocking costs false positives; at 15 buckets per element, two more make up for it
+    private static final int EXTRA_BUCKETS_PER_ELEMENT = 2;
+
+    private static final MurmurHash hasher = new MurmurHash();
+
+    public static ICompactSerializer<BlockedBloomFilter> serializer()
+    {
+        return serializer_;
+    }
+
+    private final OffHeapBitSet bitset;
+    private final long blocks;
+
+    BlockedBloomFilter(int hashes, OffHeapBitSet bitset)
+    {
+        assert bitset.capacity() % BLOCK_BITS == 0 : bitset.capacity();
+        hashCount = hashes;
+        this.bitset = bitset;
+        blocks = bitset.capacity() / BLOCK_BITS;
+        // the block is picked with a 32-bit hash
+        assert blocks <= 1L << 32 : blocks;
+    }
+
+    private static OffHeapBitSet bucketsFor(long numElements, int bucketsPer)
+    {
+        long numBits = Math.max(1, numElements) * (bucketsPer + EXTRA_BUCKETS_PER_ELEMENT) + EXCESS;
+        long numBlocks = (numBits + BLOCK_BITS - 1) / BLOCK_BITS;
+        return new OffHeapBitSet(numBlocks * BLOCK_BITS);
+    }
+
+    /**
+     * @return A BlockedBloomFilter with the lowest practical false positive probability
+     * for the given number of elements.
+     */
+    public static BlockedBloomFilter getFilter(long numElements, int targetBucketsPerElem)
+    {
+        int maxBucketsPerElement = BloomCalculations.probs.length - 1;
+        int bucketsPerElement = Math.min(targetBucketsPerElem, maxBucketsPerElement);
+        if (bucketsPerElement < targetBucketsPerElem)
+        {
+            logger.warn(String.format("Cannot provide an optimal BloomFilter for %d elements (%d/%d buckets per element).",
+                                      numElements, bucketsPerElement, targetBucketsPerElem));
+        }
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement);
+        return new BlockedBloomFilter(spec.K, bucketsFor(numElements, spec.bucketsPerElement));
+    }
+
+    /**
+     * @return A BlockedBloomFilter sized for the given false positive probability for the given
+     * number of elements; see the class comment.
+     */
+    public static BlockedBloomFilter getFilter(long numElements, double maxFalsePosProbability)
+    {
+        assert maxFalsePosProbability <= 1.0 : "Invalid probability";
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(BloomCalculations.probs.length - 1, maxFalsePosProbability);
+        return new BlockedBloomFilter(spec.K, bucketsFor(numElements, spec.bucketsPerElement));
+    }
+
+    public void clear()
+    {
+        bitset.clear();
+    }
+
+    public void close()
+    {
+        bitset.close();
+    }
+
+    long blocks()
+    {
+        return blocks;
+    }
+
+    OffHeapBitSet bitset()
+    {
+        return bitset;
+    }
+
+    /**
+     * The first hash picks the block.  Positions within it are the top bits of successive
+     * steps of a 64-bit LCG seeded with both hashes: deriving them from the low bits of the hashes
+     * directly, as Filter.getHashBuckets does, leaves too few distinct patterns for a 512-bit block.
+     */
+    public boolean isPresent(ByteBuffer key)
+    {
+        int hash1 = hasher.hash(key.array(), key.position() + key.arrayOffset(), key.remaining(), 0);
+        int hash2 = hasher.hash(key.array(), key.position() + key.arrayOffset(), key.remaining(), hash1);
+        long base = ((hash1 & 0xFFFFFFFFL) % blocks) * BLOCK_BITS;
+        long h = ((long) hash1 << 32) | (hash2 & 0xFFFFFFFFL);
+        for (int i = 0; i < hashCount; i++)
+        {
+            h = h * LCG_MULTIPLIER + LCG_INCREMENT;
+            if (!bitset.get(base + (h >>> BLOCK_SHIFT)))
+                return false;
+        }
+        return true;
+    }
+
+    public void add(ByteBuffer key)
+    {
+        int hash1 = hasher.hash(key.array(), key.position() + key.arrayOffset(), key.remaining(), 0);
+        int hash2 = hasher.hash(key.array(), key.position() + key.arrayOffset(), key.remaining(), hash1);
+        long base = ((hash1 & 0xFFFFFFFFL) % blocks) * BLOCK_BITS;
+        long h = ((long) hash1 << 32) | (hash2 & 0xFFFFFFFFL);
+        for (int i = 0; i < hashCount; i++)
+        {
+            h = h * LCG_MULTIPLIER + LCG_INCREMENT;
+            bitset.set(base + (h >>> BLOCK_SHIFT));
+        }
+    }
+
+    public String toString()
+    {
+        return String.format("BlockedBloomFilter(%d hashes, %d blocks)", hashCount, blocks);
+    }
+
+    /** @return a BlockedBloomFilter that always returns a positive match, for testing */
+    public static BlockedBloomFilter alwaysMatchingBloomFilter()
+    {
+        OffHeapBitSet set = new OffHeapBitSet(BLOCK_BITS);
+        for (int i = 0; i < BLOCK_BITS; i++)
+            set.set(i);
+        return new BlockedBloomFilter(1, set);
+    }
+}
+
+class BlockedBloomFilterSerializer implements ICompactSerializer<BlockedBloomFilter>
+{
+    public void serialize(BlockedBloomFilter bf, DataOutputStream dos) throws IOException
+    {
+        dos.writeInt(bf.getHashCount());
+        bf.bitset().serialize(dos);
+    }
+
+    public BlockedBloomFilter deserialize(DataInputStream dis) throws IOException
+    {
+        int hashes = dis.readInt();
+        OffHeapBitSet bitset = OffHeapBitSet.deserialize(dis);
+        return new BlockedBloomFilter(hashes, bitset);
+    }
+}
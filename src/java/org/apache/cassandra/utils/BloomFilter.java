@@ -106,6 +106,11 @@ public class BloomFilter extends Filter
         filter_.clear();
     }
 
+    public int[] getHashBuckets(ByteBuffer key)
+    {
+        return Filter.getHashBuckets(key, hashCount, buckets());
+    }
+
     int buckets()
     {
         return filter_.size();
@@ -151,6 +156,7 @@ public class BloomFilter extends Filter
         return serializer_;
     }
 
+    // for testing
     int emptyBuckets()
     {
         int n = 0;
@@ -19,22 +19,35 @@
 package org.apache.cassandra.utils;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import com.google.common.base.Function;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A map whose entries expire a fixed time after they are put.  Expiry is tracked with a hashed timing wheel:
+ * putting an entry adds it to the bucket of the tick it expires at, and each tick only visits its own bucket,
+ * so neither costs more than O(1) per entry however large the map is.
+ */
 public class ExpiringMap<K, V>
 {
     private static final Logger logger = LoggerFactory.getLogger(ExpiringMap.class);
 
-    private static class CacheableObject<T>
+    // finest resolution of the wheel, and the number of ticks it aims for per expiration period
+    private static final long MIN_TICK = 10;
+    private static final int TICKS_PER_EXPIRATION = 256;
+
+    private static class CacheableObject<K, T>
     {
+        private final K key;
         private final T value;
         private final long age;
 
-        CacheableObject(T o)
+        CacheableObject(K key, T o)
         {
+            this.key = key;
             value = o;
             age = System.currentTimeMillis();
         }
@@ -43,58 +56,74 @@ public class ExpiringMap<K, V>
         {
             return value;
         }
-
-        boolean isReadyToDie(long expiration)
-        {
-            return ((System.currentTimeMillis() - age) > expiration);
-        }
     }
 
     private class CacheMonitor extends TimerTask
     {
-        private final long expiration;
-
-        CacheMonitor(long expiration)
-        {
-            this.expiration = expiration;
-        }
-
         @Override
         public void run()
         {
-            synchronized (cache)
+            int slot = (int) (++tick % wheel.size());
+            CacheableObject<K, V> co;
+            while ((co = wheel.get(slot).poll()) != null)
             {
-                Enumeration<K> e = cache.keys();
-                while (e.hasMoreElements())
+                // entries removed since they were put are skipped here, rather than searched for in their bucket
+                if (cache.remove(co.key, co) && postExpireHook != null)
                 {
-                    K key = e.nextElement();
-                    CacheableObject co = cache.get(key);
-                    if (co != null && co.isReadyToDie(expiration))
+                    try
+                    {
+                        postExpireHook.apply(new Pair<K, V>(co.key, co.value));
+                    }
+                    catch (Throwable t)
                     {
-                        cache.remove(key);
+                        logger.error("Error expiring " + co.key, t);
                     }
                 }
             }
         }
     }
 
-    private final NonBlockingHashMap<K, CacheableObject> cache = new NonBlockingHashMap<K, CacheableObject>();
+    private final NonBlockingHashMap<K, CacheableObject<K, V>> cache = new NonBlockingHashMap<K, CacheableObject<K, V>>();
+    private final Function<Pair<K, V>, ?> postExpireHook;
     private final Timer timer;
     private static int counter = 0;
 
+    // bucket i holds the entries expiring at the ticks congruent to i
+    private final List<Queue<CacheableObject<K, V>>> wheel;
+    // the number of ticks from a put to the expiry of the entry: one more than the expiration period, since a put
+    // can happen at any time during a tick
+    private final int expirationTicks;
+    private volatile long tick;
+
     /*
     * Specify the TTL for objects in the cache
     * in milliseconds.
     */
     public ExpiringMap(long expiration)
+    {
+        this(expiration, null);
+    }
+
+    /**
+     * @param expiration TTL of the entries, in milliseconds
+     * @param postExpireHook if not null, called with each entry that expires, rather than being removed
+     */
+    public ExpiringMap(long expiration, Function<Pair<K, V>, ?> postExpireHook)
     {
         if (expiration <= 0)
         {
             throw new IllegalArgumentException("Argument specified must be a positive number");
         }
 
+        this.postExpireHook = postExpireHook;
+        long tickMillis = Math.max(MIN_TICK, expiration / TICKS_PER_EXPIRATION);
+        expirationTicks = (int) ((expiration + tickMillis - 1) / tickMillis) + 1;
+        wheel = new ArrayList<Queue<CacheableObject<K, V>>>(expirationTicks + 1);
+        for (int i = 0; i <= expirationTicks; i++)
+            wheel.add(new ConcurrentLinkedQueue<CacheableObject<K, V>>());
+
         timer = new Timer("EXPIRING-MAP-TIMER-" + (++counter), true);
-        timer.schedule(new CacheMonitor(expiration), expiration / 2, expiration / 2);
+        timer.scheduleAtFixedRate(new CacheMonitor(), tickMillis, tickMillis);
     }
 
     public void shutdown()
@@ -104,13 +133,16 @@ public class ExpiringMap<K, V>
 
     public void put(K key, V value)
     {
-        cache.put(key, new CacheableObject<V>(value));
+        CacheableObject<K, V> co = new CacheableObject<K, V>(key, value);
+        // (an entry replaced before it expires stays in its bucket, where it will be recognized as stale)
+        cache.put(key, co);
+        wheel.get((int) ((tick + expirationTicks) % wheel.size())).add(co);
     }
 
     public V get(K key)
     {
         V result = null;
-        CacheableObject<V> co = cache.get(key);
+        CacheableObject<K, V> co = cache.get(key);
         if (co != null)
         {
             result = co.getValue();
@@ -120,7 +152,7 @@ public class ExpiringMap<K, V>
 
     public V remove(K key)
     {
-        CacheableObject<V> co = cache.remove(key);
+        CacheableObject<K, V> co = cache.remove(key);
         V result = null;
         if (co != null)
         {
@@ -132,7 +164,7 @@ public class ExpiringMap<K, V>
     public long getAge(K key)
     {
         long age = 0;
-        CacheableObject<V> co = cache.get(key);
+        CacheableObject<K, V> co = cache.get(key);
         if (co != null)
         {
             age = co.age;
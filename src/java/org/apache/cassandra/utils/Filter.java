@@ -34,19 +34,18 @@ public abstract class Filter
         return hashCount;
     }
 
-    public int[] getHashBuckets(ByteBuffer key)
-    {
-        return Filter.getHashBuckets(key, hashCount, buckets());
-    }
-
-    abstract int buckets();
-
     public abstract void add(ByteBuffer key);
 
     public abstract boolean isPresent(ByteBuffer key);
 
-    // for testing
-    abstract int emptyBuckets();
+    public abstract void clear();
+
+    /**
+     * Frees any memory the filter keeps outside the heap.  The filter must not be used afterwards.
+     */
+    public void close()
+    {
+    }
 
     ICompactSerializer<Filter> getSerializer()
     {
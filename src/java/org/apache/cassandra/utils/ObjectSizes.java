@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rough estimates of how much heap the objects a memtable is built from really cost.
+ *
+ * Serialized size (what Memtable "throughput" counts) ignores object headers, references and
+ * the skip list nodes holding each row and column, which for small columns is most of the heap
+ * actually used.  The numbers below assume a 64-bit JVM; with compressed oops they overestimate,
+ * which is the safe direction when deciding when to flush.
+ */
+public class ObjectSizes
+{
+    public static final int REFERENCE = 8;
+    public static final int OBJECT_HEADER = 16;
+    public static final int ARRAY_HEADER = 24;
+
+    // position, limit, capacity, mark, offset, hb, address, bigEndian/readOnly/nativeByteOrder
+    public static final long BYTE_BUFFER = align(OBJECT_HEADER + 5 * 4 + 8 + REFERENCE + 3);
+
+    // ConcurrentSkipListMap.Node (key, value, next) plus, on average, half an Index (node, down, right)
+    public static final long SKIP_LIST_ENTRY = align(OBJECT_HEADER + 3 * REFERENCE) + align(OBJECT_HEADER + 3 * REFERENCE) / 2;
+
+    // an empty ConcurrentSkipListMap: the map itself, its head index and base header node
+    public static final long SKIP_LIST = align(OBJECT_HEADER + 9 * REFERENCE + 4) + align(OBJECT_HEADER + 3 * REFERENCE + 4) + align(OBJECT_HEADER + 3 * REFERENCE);
+
+    // name, value, timestamp (plus ttl/localExpirationTime for expiring columns, which we ignore)
+    public static final long COLUMN = align(OBJECT_HEADER + 2 * REFERENCE + 8);
+
+    // name, columns, markedForDeleteAt, localDeletionTime
+    public static final long SUPER_COLUMN = align(OBJECT_HEADER + 2 * REFERENCE + 2 * 8);
+
+    // cfid, type, comparators, columns, deletion markers
+    public static final long COLUMN_FAMILY = align(OBJECT_HEADER + 5 * REFERENCE + 2 * 8);
+
+    // token, key, and the token object wrapping the partitioner's value
+    public static final long DECORATED_KEY = align(OBJECT_HEADER + 2 * REFERENCE) + align(OBJECT_HEADER + REFERENCE) + align(OBJECT_HEADER + 3 * 8);
+
+    public static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+
+    public static long getArraySize(int length)
+    {
+        return align(ARRAY_HEADER + length);
+    }
+
+    /**
+     * @return the heap cost of a buffer holding its contents in an array of its own
+     */
+    public static long getSize(ByteBuffer buffer)
+    {
+        return BYTE_BUFFER + getArraySize(buffer.remaining());
+    }
+}
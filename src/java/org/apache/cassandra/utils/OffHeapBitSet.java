@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * A fixed-size bitset indexed by long, kept in direct ByteBuffers outside the Java heap.
+ *
+ * java.util.BitSet is limited to Integer.MAX_VALUE bits, and a filter covering a few billion keys
+ * makes for a multi-gigabyte long[] the collector has to copy or scan.  Here the bits live in
+ * pages of direct memory, each starting on a cache line boundary, so that a 64-byte block of the
+ * set never straddles two cache lines.
+ *
+ * Pages are big-endian, which makes their raw bytes the same as writing each word with
+ * DataOutput.writeLong; serialize and deserialize copy them in bulk.
+ *
+ * The pages are freed by close(), or failing that when the collector finds them.
+ */
+public class OffHeapBitSet
+{
+    public static final int CACHE_LINE = 64;
+
+    static final int DEFAULT_PAGE_SIZE = 1 << 28; // bytes; a multiple of CACHE_LINE
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final Field addressField = getAddressField();
+
+    // the aligned views the bits are kept in, and the buffers they were sliced from, which own the memory
+    private final ByteBuffer[] pages;
+    private final ByteBuffer[] allocations;
+    private final int pageShift;
+    private final int pageMask;
+    private final long words;
+    private boolean closed = false;
+
+    public OffHeapBitSet(long numBits)
+    {
+        this(numBits, DEFAULT_PAGE_SIZE);
+    }
+
+    OffHeapBitSet(long numBits, int pageSize)
+    {
+        assert numBits > 0;
+        assert Integer.bitCount(pageSize) == 1 && pageSize >= CACHE_LINE : pageSize;
+        words = (numBits + 63) >>> 6;
+        long bytes = words * 8;
+        pageShift = Integer.numberOfTrailingZeros(pageSize);
+        pageMask = pageSize - 1;
+
+        int pageCount = (int) ((bytes + pageSize - 1) >>> pageShift);
+        pages = new ByteBuffer[pageCount];
+        allocations = new ByteBuffer[pageCount];
+        for (int i = 0; i < pageCount; i++)
+        {
+            allocations[i] = allocateAligned((int) Math.min(pageSize, bytes - ((long) i << pageShift)));
+            pages[i] = allocations[i].slice();
+        }
+    }
+
+    private static Field getAddressField()
+    {
+        try
+        {
+            Field field = Buffer.class.getDeclaredField("address");
+            field.setAccessible(true);
+            return field;
+        }
+        catch (Exception e)
+        {
+            return null; // blocks may straddle cache lines, but everything still works
+        }
+    }
+
+    /**
+     * @return a direct buffer whose position and limit bound size bytes starting on a cache line
+     */
+    private static ByteBuffer allocateAligned(int size)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + CACHE_LINE);
+        int offset = 0;
+        if (addressField != null)
+        {
+            try
+            {
+                long address = addressField.getLong(buffer);
+                offset = (int) ((CACHE_LINE - (address & (CACHE_LINE - 1))) & (CACHE_LINE - 1));
+            }
+            catch (IllegalAccessException e)
+            {
+                // unaligned is fine too
+            }
+        }
+        buffer.position(offset);
+        buffer.limit(offset + size);
+        return buffer;
+    }
+
+    /** @return the number of bits in the set, a multiple of 64 */
+    public long capacity()
+    {
+        return words * 64;
+    }
+
+    public long getWord(long wordIndex)
+    {
+        long byteIndex = wordIndex << 3;
+        return pages[(int) (byteIndex >>> pageShift)].getLong((int) (byteIndex & pageMask));
+    }
+
+    public void setWord(long wordIndex, long value)
+    {
+        long byteIndex = wordIndex << 3;
+        pages[(int) (byteIndex >>> pageShift)].putLong((int) (byteIndex & pageMask), value);
+    }
+
+    public boolean get(long index)
+    {
+        return (getWord(index >>> 6) & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Not thread-safe: concurrent sets to the same word may lose bits.  Filters are built by
+     * a single writer before they are published.
+     */
+    public void set(long index)
+    {
+        long wordIndex = index >>> 6;
+        setWord(wordIndex, getWord(wordIndex) | (1L << (index & 63)));
+    }
+
+    public void clear()
+    {
+        for (ByteBuffer page : pages)
+        {
+            for (int i = 0; i < page.capacity(); i += 8)
+                page.putLong(i, 0);
+        }
+    }
+
+    /**
+     * Frees the pages without waiting for the collector.  The set must not be used afterwards.
+     */
+    public synchronized void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        for (ByteBuffer buffer : allocations)
+            FileUtils.clean(buffer);
+    }
+
+    public void serialize(DataOutput out) throws IOException
+    {
+        out.writeLong(words);
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        for (ByteBuffer page : pages)
+        {
+            ByteBuffer source = page.duplicate();
+            source.clear();
+            while (source.hasRemaining())
+            {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+
+    public static OffHeapBitSet deserialize(DataInput in) throws IOException
+    {
+        long words = in.readLong();
+        OffHeapBitSet bits = new OffHeapBitSet(words * 64);
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        for (ByteBuffer page : bits.pages)
+        {
+            ByteBuffer dest = page.duplicate();
+            dest.clear();
+            while (dest.hasRemaining())
+            {
+                int length = Math.min(chunk.length, dest.remaining());
+                in.readFully(chunk, 0, length);
+                dest.put(chunk, 0, length);
+            }
+        }
+        return bits;
+    }
+
+    public long serializedSize()
+    {
+        return 8 + words * 8;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Slows a single caller down to a target throughput, given the running total of bytes it has processed.
+ * The target is re-read from the ThroughputFunction on every call, so it may change (or be disabled) at any time.
+ *
+ * Not threadsafe.
+ */
+public class Throttle
+{
+    private static final Logger logger = LoggerFactory.getLogger(Throttle.class);
+
+    // credit for time spent below the target is only kept this long, so a stalled caller can't burst afterwards
+    private static final long MAX_WINDOW_MS = 1000;
+
+    private final String name;
+    private final ThroughputFunction fun;
+
+    // the byte count and time at the start of the current window
+    private long bytesAtLastDelay;
+    private long timeAtLastDelay;
+
+    // the last target, in bytes per millisecond
+    private int targetBytesPerMS = -1;
+
+    public Throttle(String name, ThroughputFunction fun)
+    {
+        this.name = name;
+        this.fun = fun;
+        this.timeAtLastDelay = System.currentTimeMillis();
+    }
+
+    /**
+     * Sleeps for as long as it takes for currentBytes to be back under the target throughput.
+     * @param currentBytes total bytes processed so far
+     */
+    public void throttle(long currentBytes)
+    {
+        int newTargetBytesPerMS = fun.targetThroughput();
+        if (newTargetBytesPerMS < 1)
+        {
+            // throttling disabled
+            bytesAtLastDelay = currentBytes;
+            timeAtLastDelay = System.currentTimeMillis();
+            return;
+        }
+
+        if (newTargetBytesPerMS != targetBytesPerMS && logger.isDebugEnabled())
+            logger.debug("{} target throughput now {} bytes/ms", name, newTargetBytesPerMS);
+        targetBytesPerMS = newTargetBytesPerMS;
+
+        long msSinceLast = System.currentTimeMillis() - timeAtLastDelay;
+        long excessBytes = (currentBytes - bytesAtLastDelay) - msSinceLast * targetBytesPerMS;
+        long timeToDelay = excessBytes / targetBytesPerMS;
+        if (timeToDelay > 0)
+        {
+            if (logger.isTraceEnabled())
+                logger.trace(String.format("%s: %d bytes over target, sleeping %dms", name, excessBytes, timeToDelay));
+            try
+            {
+                Thread.sleep(timeToDelay);
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+        else if (msSinceLast < MAX_WINDOW_MS)
+        {
+            // under target, but the window is still short enough to keep accumulating in
+            return;
+        }
+
+        bytesAtLastDelay = currentBytes;
+        timeAtLastDelay = System.currentTimeMillis();
+    }
+
+    public interface ThroughputFunction
+    {
+        /**
+         * @return the instantaneous target throughput in bytes per millisecond; values less than 1 disable throttling
+         */
+        public int targetThroughput();
+    }
+}
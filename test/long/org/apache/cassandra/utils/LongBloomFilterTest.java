@@ -19,6 +19,9 @@
 package org.apache.cassandra.utils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
@@ -59,4 +62,60 @@ public class LongBloomFilterTest
             bf.clear();
         }
     }
+
+    @Test
+    public void testBigIntBlocked() {
+        int size = 10 * 1000 * 1000;
+        BlockedBloomFilter blocked = BlockedBloomFilter.getFilter(size, FilterTest.spec.bucketsPerElement);
+        FilterTest.testFalsePositives(blocked,
+                                      new KeyGenerator.IntGenerator(size),
+                                      new KeyGenerator.IntGenerator(size, size * 2),
+                                      BlockedBloomFilterTest.MAX_FP_RATIO);
+    }
+
+    @Test
+    public void testBigRandomBlocked() {
+        int size = 10 * 1000 * 1000;
+        BlockedBloomFilter blocked = BlockedBloomFilter.getFilter(size, FilterTest.spec.bucketsPerElement);
+        FilterTest.testFalsePositives(blocked,
+                                      new KeyGenerator.RandomStringGenerator(new Random().nextInt(), size),
+                                      new KeyGenerator.RandomStringGenerator(new Random().nextInt(), size),
+                                      BlockedBloomFilterTest.MAX_FP_RATIO);
+    }
+
+    /**
+     * Compares false positive rate and probe throughput of the two filter implementations at
+     * the bucket count SSTableWriter uses, with more keys than fit in cache.
+     */
+    @Test
+    public void compareBlocked() {
+        int size = 10 * 1000 * 1000;
+        bf = BloomFilter.getFilter(size, 15);
+        BlockedBloomFilter blocked = BlockedBloomFilter.getFilter(size, 15);
+        for (Filter filter : new Filter[]{ bf, blocked })
+        {
+            int seed = new Random().nextInt();
+            KeyGenerator.RandomStringGenerator keys = new KeyGenerator.RandomStringGenerator(seed, size);
+            while (keys.hasNext())
+                filter.add(keys.next());
+
+            // generate the probes up front, so we time the filter and not the key generator
+            int probeCount = size / 10;
+            List<ByteBuffer> probes = new ArrayList<ByteBuffer>(probeCount);
+            KeyGenerator.RandomStringGenerator others = new KeyGenerator.RandomStringGenerator(seed + 1, probeCount);
+            while (others.hasNext())
+                probes.add(others.next());
+
+            int fp = 0;
+            long start = System.nanoTime();
+            for (ByteBuffer probe : probes)
+            {
+                if (filter.isPresent(probe))
+                    fp++;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%s: %.5f%% false positives, %d ns per negative probe",
+                                             filter.getClass().getSimpleName(), 100.0 * fp / probeCount, elapsed / probeCount));
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.*;
+
+public class JMXInstrumentedKeyCacheTest
+{
+    @Test
+    public void testSharedCacheThroughMBean() throws Exception
+    {
+        KeyPositionCache shared = new KeyPositionCache(1024 * 1024, true);
+        JMXInstrumentedKeyCache cache1 = new JMXInstrumentedKeyCache("SharedKeyCacheTest", "Standard1KeyCache", 1000, shared);
+        JMXInstrumentedKeyCache cache2 = new JMXInstrumentedKeyCache("SharedKeyCacheTest", "Standard2KeyCache", 1001, shared);
+        JMXInstrumentedCacheMBean mbean1 = proxy("Standard1KeyCache");
+        JMXInstrumentedCacheMBean mbean2 = proxy("Standard2KeyCache");
+
+        for (int i = 0; i < 10; i++)
+            cache1.put(1, ByteBufferUtil.bytes("key" + i), i);
+        for (int i = 0; i < 5; i++)
+            cache2.put(1, ByteBufferUtil.bytes("key" + i), i);
+
+        // sizes are per column family, the capacity is that of the whole cache
+        assertEquals(10, mbean1.getSize());
+        assertEquals(5, mbean2.getSize());
+        assertEquals(2 * mbean2.getMemoryUsed(), mbean1.getMemoryUsed());
+        assertEquals(shared.memorySize(), mbean1.getMemoryUsed() + mbean2.getMemoryUsed());
+        assertEquals(1024 * 1024, mbean1.getCapacity());
+
+        // setting a column family's capacity leaves the shared capacity and the other column family alone
+        mbean1.setCapacity(200);
+        assertEquals(1024 * 1024, shared.capacity());
+        assertEquals(10, mbean1.getSize());
+        assertEquals(5, mbean2.getSize());
+
+        // but 0 stops caching for the column family
+        mbean2.setCapacity(0);
+        assertEquals(0, mbean2.getCapacity());
+        cache2.put(1, ByteBufferUtil.bytes("key5"), 5);
+        assertEquals(5, mbean2.getSize());
+        assertEquals(1024 * 1024, mbean1.getCapacity());
+        mbean2.setCapacity(1);
+        cache2.put(1, ByteBufferUtil.bytes("key5"), 5);
+        assertEquals(6, mbean2.getSize());
+
+        shared.clear();
+        assertEquals(0, mbean1.getSize());
+        assertEquals(0, mbean2.getMemoryUsed());
+    }
+
+    private static JMXInstrumentedCacheMBean proxy(String name) throws Exception
+    {
+        ObjectName objectName = new ObjectName("org.apache.cassandra.db:type=Caches,keyspace=SharedKeyCacheTest,cache=" + name);
+        return JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(), objectName, JMXInstrumentedCacheMBean.class);
+    }
+}
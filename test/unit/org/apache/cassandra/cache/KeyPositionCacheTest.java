@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+
+import static org.junit.Assert.*;
+
+public class KeyPositionCacheTest
+{
+    @Test
+    public void testGetAndPut()
+    {
+        KeyPositionCache cache = new KeyPositionCache(100, false);
+        cache.put(1000, 1, ByteBufferUtil.bytes("k1"), 10);
+        cache.put(1000, 2, ByteBufferUtil.bytes("k1"), 20);
+        cache.put(1001, 1, ByteBufferUtil.bytes("k1"), 30);
+        assertEquals(3, cache.size());
+
+        // each sstable of each column family has its own entry
+        assertEquals(10, cache.get(1000, 1, ByteBufferUtil.bytes("k1")));
+        assertEquals(20, cache.get(1000, 2, ByteBufferUtil.bytes("k1")));
+        assertEquals(30, cache.get(1001, 1, ByteBufferUtil.bytes("k1")));
+        assertEquals(-1, cache.get(1000, 3, ByteBufferUtil.bytes("k1")));
+        assertEquals(-1, cache.get(1000, 1, ByteBufferUtil.bytes("k2")));
+
+        // keys compare by content, wherever they sit in their buffer
+        ByteBuffer key = ByteBuffer.wrap("xxk1".getBytes());
+        key.position(2);
+        assertEquals(10, cache.get(1000, 1, key));
+
+        cache.put(1000, 1, ByteBufferUtil.bytes("k1"), 11);
+        assertEquals(11, cache.get(1000, 1, ByteBufferUtil.bytes("k1")));
+        assertEquals(3, cache.size());
+
+        assertEquals(1, cache.getKeys(1000).size());
+        assertTrue(cache.getKeys(1000).contains(ByteBufferUtil.bytes("k1")));
+        assertTrue(cache.getKeys(1002).isEmpty());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.memorySize());
+        assertEquals(-1, cache.get(1000, 1, ByteBufferUtil.bytes("k1")));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        KeyPositionCache cache = new KeyPositionCache(100, false, 1);
+        for (int i = 0; i < 100; i++)
+            cache.put(1000, 1, key(i), i);
+        assertEquals(100, cache.size());
+
+        // a key read since the clock hand last passed it gets a second chance
+        assertEquals(0, cache.get(1000, 1, key(0)));
+        cache.put(1000, 1, key(100), 100);
+        assertEquals(100, cache.size());
+        assertEquals(0, cache.get(1000, 1, key(0)));
+        assertEquals(-1, cache.get(1000, 1, key(1)));
+
+        for (int i = 101; i < 1000; i++)
+            cache.put(1000, 1, key(i), i);
+        assertEquals(100, cache.size());
+        assertEquals(999, cache.get(1000, 1, key(999)));
+
+        cache.setCapacity(10);
+        assertEquals(10, cache.size());
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+        cache.put(1000, 1, key(0), 0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeighedByMemory()
+    {
+        long entrySize = KeyPositionCache.ENTRY_OVERHEAD + ObjectSizes.getArraySize(key(0).remaining());
+        KeyPositionCache cache = new KeyPositionCache(10 * entrySize, true, 1);
+        for (int i = 0; i < 20; i++)
+            cache.put(1000, 1, key(i), i);
+        assertEquals(10, cache.size());
+        assertEquals(10 * entrySize, cache.memorySize());
+
+        // segments share the capacity, overshooting by at most an entry each
+        cache = new KeyPositionCache(10 * entrySize, true, 4);
+        for (int i = 0; i < 1000; i++)
+            cache.put(1000, 1, key(i), i);
+        assertTrue(cache.size() >= 10 - 4 && cache.size() <= 10 + 4);
+    }
+
+    private static ByteBuffer key(int i)
+    {
+        return ByteBufferUtil.bytes(String.format("key%05d", i));
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.apache.cassandra.Util.column;
+import static org.junit.Assert.*;
+
+public class SerializingCacheTest extends CleanupHelper
+{
+    private static final String TABLE = "Keyspace1";
+    private static final String CF = "StandardSerializedCache";
+
+    @Test
+    public void testCopying()
+    {
+        SerializingCache<DecoratedKey, ColumnFamily> cache = new SerializingCache<DecoratedKey, ColumnFamily>(2, ColumnFamily.serializer());
+        ColumnFamily cf = ColumnFamily.create(TABLE, CF);
+        cf.addColumn(column("c1", "v1", 1));
+        cache.put(Util.dk("k1"), cf);
+
+        // changes on either side of the cache are not seen by the other
+        cf.addColumn(column("c2", "v2", 1));
+        ColumnFamily cached = cache.get(Util.dk("k1"));
+        assertEquals(1, cached.getSortedColumns().size());
+        assertEquals(ByteBufferUtil.bytes("v1"), cached.getColumn(ByteBufferUtil.bytes("c1")).value());
+        cached.addColumn(column("c3", "v3", 1));
+        assertEquals(1, cache.get(Util.dk("k1")).getSortedColumns().size());
+
+        // the least recently used entry is evicted and freed
+        cache.put(Util.dk("k2"), cf);
+        cache.put(Util.dk("k3"), cf);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(Util.dk("k1")));
+        assertEquals(2, cache.get(Util.dk("k3")).getSortedColumns().size());
+
+        cache.remove(Util.dk("k3"));
+        assertNull(cache.get(Util.dk("k3")));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeighedByMemory()
+    {
+        ColumnFamily cf = ColumnFamily.create(TABLE, CF);
+        cf.addColumn(column("c1", "v1", 1));
+        SerializingCache<DecoratedKey, ColumnFamily> counting = new SerializingCache<DecoratedKey, ColumnFamily>(1, ColumnFamily.serializer());
+        counting.put(Util.dk("k1"), cf);
+        int rowSize = (int) counting.memorySize();
+        assertTrue(rowSize > 0);
+
+        // room for two rows, however many memory units that is
+        int rowWeight = ConcurrentLinkedHashCache.weightInUnits(rowSize);
+        SerializingCache<DecoratedKey, ColumnFamily> cache = new SerializingCache<DecoratedKey, ColumnFamily>(2 * rowWeight, ColumnFamily.serializer(), true);
+        cache.put(Util.dk("k1"), cf);
+        cache.put(Util.dk("k2"), cf);
+        assertEquals(2, cache.size());
+        assertEquals(2 * rowSize, cache.memorySize());
+        cache.put(Util.dk("k3"), cf);
+        assertEquals(2, cache.size());
+        assertEquals(2 * rowSize, cache.memorySize());
+
+        cache.remove(Util.dk("k3"));
+        assertEquals(rowSize, cache.memorySize());
+        cache.clear();
+        assertEquals(0, cache.memorySize());
+
+        // on the heap, rows count for their size in bytes rather than their weight in units
+        ICache<DecoratedKey, ColumnFamily> onHeap = new ConcurrentLinkedHashCacheProvider().create(10, true);
+        onHeap.put(Util.dk("k1"), cf);
+        assertEquals(cf.size(), onHeap.memorySize());
+        onHeap.put(Util.dk("k1"), cf);
+        assertEquals(cf.size(), onHeap.memorySize());
+        onHeap.clear();
+        assertEquals(0, onHeap.memorySize());
+        assertEquals(-1, new ConcurrentLinkedHashCacheProvider().create(10, false).memorySize());
+    }
+
+    @Test
+    public void testOnHeapRowsReweighed()
+    {
+        assertEquals(1, ConcurrentLinkedHashCache.weightInUnits(0));
+        assertEquals(1, ConcurrentLinkedHashCache.weightInUnits(64));
+        assertEquals(2, ConcurrentLinkedHashCache.weightInUnits(65));
+        assertEquals(ConcurrentLinkedHashCache.MAXIMUM_WEIGHT, ConcurrentLinkedHashCache.weightInUnits(Long.MAX_VALUE));
+
+        ColumnFamily cf = ColumnFamily.create(TABLE, CF);
+        cf.addColumn(column("c1", new String(new byte[1024]), 1));
+        ICache<DecoratedKey, ColumnFamily> cache = new ConcurrentLinkedHashCacheProvider().create(1000, true);
+        cache.put(Util.dk("k1"), cf);
+        int size = cf.size();
+        assertEquals(size, cache.memorySize());
+
+        // a row grown in place by less than an eighth of its size is not weighed again yet
+        ColumnFamily write = ColumnFamily.create(TABLE, CF);
+        write.addColumn(column("c2", "v2", 1));
+        cf.addAll(write);
+        cache.reweigh(Util.dk("k1"), cf, write.size());
+        assertEquals(size, cache.memorySize());
+
+        // but once writes add up to that, it counts for its new size
+        write = ColumnFamily.create(TABLE, CF);
+        write.addColumn(column("c3", new String(new byte[256]), 1));
+        cf.addAll(write);
+        cache.reweigh(Util.dk("k1"), cf, write.size());
+        assertEquals(cf.size(), cache.memorySize());
+
+        // and a row no longer cached is not put back
+        cache.remove(Util.dk("k1"));
+        cache.reweigh(Util.dk("k1"), cf, 1 << 20);
+        assertNull(cache.get(Util.dk("k1")));
+        assertEquals(0, cache.memorySize());
+    }
+
+    @Test
+    public void testFreedMemory()
+    {
+        FreeableMemory memory = new FreeableMemory(16);
+        assertTrue(memory.reference());
+        memory.unreference();
+        memory.unreference();
+        assertFalse(memory.reference());
+    }
+
+    @Test
+    public void testWritesInvalidateCachedRows() throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        assertTrue(cfs.getRawCachedRow(Util.dk("key1")) == null);
+
+        insert("key1", "c1");
+        assertEquals(1, Util.getColumnFamily(Table.open(TABLE), Util.dk("key1"), CF).getSortedColumns().size());
+        assertEquals(1, cfs.getRowCacheSize());
+
+        // the write drops the cached copy, so the next read sees both columns
+        insert("key1", "c2");
+        assertTrue(cfs.getRawCachedRow(Util.dk("key1")) == null);
+        assertEquals(2, Util.getColumnFamily(Table.open(TABLE), Util.dk("key1"), CF).getSortedColumns().size());
+        assertEquals(2, cfs.getRawCachedRow(Util.dk("key1")).getSortedColumns().size());
+    }
+
+    @Test
+    public void testWritesToOtherRowsDoNotPreventCaching() throws Exception
+    {
+        final ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        insert("key2", "c1");
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                for (int i = 0; !stop.get(); i++)
+                    insert("other" + (i % 100), "c1");
+            }
+        };
+        writer.start();
+        try
+        {
+            for (int i = 0; i < 20; i++)
+            {
+                cfs.getRowCache().remove(Util.dk("key2"));
+                Util.getColumnFamily(Table.open(TABLE), Util.dk("key2"), CF);
+                assertNotNull(cfs.getRawCachedRow(Util.dk("key2")));
+            }
+        }
+        finally
+        {
+            stop.set(true);
+            writer.join();
+            cfs.invalidateRowCache();
+        }
+    }
+
+    private static void insert(String key, String column)
+    {
+        RowMutation rm = new RowMutation(TABLE, ByteBufferUtil.bytes(key));
+        rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes(column)), ByteBuffer.wrap(new byte[0]), 0);
+        try
+        {
+            rm.apply();
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
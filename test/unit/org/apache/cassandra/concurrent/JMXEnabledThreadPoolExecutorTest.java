@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JMXEnabledThreadPoolExecutorTest
+{
+    @Test
+    public void testLoadShedding() throws InterruptedException
+    {
+        JMXEnabledThreadPoolExecutor executor = new JMXEnabledThreadPoolExecutor(2,
+                                                                                 2,
+                                                                                 60,
+                                                                                 TimeUnit.SECONDS,
+                                                                                 new LinkedBlockingQueue<Runnable>(),
+                                                                                 new NamedThreadFactory("SHEDDING-TEST"),
+                                                                                 "internal");
+        executor.setLoadShedding(10, 100);
+        try
+        {
+            // keep both threads busy for longer than the queue timeout
+            final CountDownLatch blocked = new CountDownLatch(1);
+            for (int i = 0; i < 2; i++)
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            blocked.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new AssertionError(e);
+                        }
+                    }
+                });
+            }
+
+            Task queued = new Task(true);
+            Task unsheddable = new Task(false);
+            executor.execute(queued);
+            executor.execute(unsheddable);
+            Thread.sleep(200);
+
+            // the oldest queued task has waited too long, so new sheddable ones are shed at once
+            Task late = new Task(true);
+            executor.execute(late);
+            assertEquals(1, late.shed.get());
+            assertEquals(1, executor.getShedTasks());
+
+            // and the queued one is shed when it is dequeued, but the unsheddable one still runs
+            blocked.countDown();
+            unsheddable.done.await(10, TimeUnit.SECONDS);
+            queued.done.await(10, TimeUnit.SECONDS);
+            assertEquals(1, queued.shed.get());
+            assertEquals(0, queued.ran.get());
+            assertEquals(1, unsheddable.ran.get());
+            assertEquals(2, executor.getShedTasks());
+            assertTrue(executor.getLifetimeQueueLatencyHistogramMicros().length > 0);
+
+            // past the queue size limit, everything sheddable is shed
+            executor.setLoadShedding(0, 100);
+            Task full = new Task(true);
+            executor.execute(full);
+            assertEquals(1, full.shed.get());
+            executor.setLoadShedding(10, 100);
+            Task fresh = new Task(true);
+            executor.execute(fresh);
+            fresh.done.await(10, TimeUnit.SECONDS);
+            assertEquals(1, fresh.ran.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Task implements ISheddable
+    {
+        final boolean sheddable;
+        final AtomicInteger ran = new AtomicInteger();
+        final AtomicInteger shed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Task(boolean sheddable)
+        {
+            this.sheddable = sheddable;
+        }
+
+        public boolean isSheddable()
+        {
+            return sheddable;
+        }
+
+        public void run()
+        {
+            ran.incrementAndGet();
+            done.countDown();
+        }
+
+        public void shed()
+        {
+            shed.incrementAndGet();
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.cache.JMXInstrumentedKeyCache;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class CacheWarmerTest extends CleanupHelper
+{
+    private static final String TABLE = "Keyspace1";
+    private static final String CF = "StandardSerializedCache";
+
+    @Test
+    public void testWarmSavedCaches() throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        CompactionManager.instance.disableAutoCompaction();
+        for (int i = 0; i < 5; i++)
+        {
+            insert("key" + i);
+            if (i % 2 == 0)
+                cfs.forceBlockingFlush();
+        }
+        cfs.forceBlockingFlush();
+        for (int i = 0; i < 5; i++)
+            Util.getColumnFamily(Table.open(TABLE), Util.dk("key" + i), CF);
+        assertEquals(5, cfs.getRowCacheSize());
+        cfs.submitKeyCacheWrite().get();
+        cfs.submitRowCacheWrite().get();
+
+        // a new sstable has no keys cached, and the rows are gone
+        CompactionManager.instance.performMajor(cfs);
+        cfs.invalidateRowCache();
+        assertEquals(0, cfs.getRowCacheSize());
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+
+        // keys first, with the saved rows out of the way
+        File savedRows = DatabaseDescriptor.getSerializedRowCachePath(TABLE, CF);
+        File movedRows = new File(savedRows.getPath() + ".moved");
+        assertTrue(savedRows.renameTo(movedRows));
+        CacheWarmer.instance.start();
+        warm(cfs);
+        assertEquals(0, cfs.getRowCacheSize());
+        JMXInstrumentedKeyCache keyCache = sstable.getKeyCache();
+        long hits = keyCache.getHits();
+        for (int i = 0; i < 5; i++)
+            assertTrue(sstable.getPosition(Util.dk("key" + i), SSTableReader.Operator.EQ) >= 0);
+        assertEquals(hits + 5, keyCache.getHits());
+
+        assertTrue(movedRows.renameTo(savedRows));
+        warm(cfs);
+        assertEquals(5, cfs.getRowCacheSize());
+    }
+
+    private static void warm(ColumnFamilyStore cfs) throws InterruptedException
+    {
+        CacheWarmer.instance.warm(cfs);
+        long timeout = System.currentTimeMillis() + 10000;
+        while (CacheWarmer.instance.getProgress() < 1 && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        assertEquals(0, CacheWarmer.instance.getPendingKeys());
+        assertEquals(1, CacheWarmer.instance.getProgress(), 0);
+    }
+
+    private static void insert(String key) throws Exception
+    {
+        RowMutation rm = new RowMutation(TABLE, ByteBufferUtil.bytes(key));
+        rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes("c")), FBUtilities.EMPTY_BYTE_BUFFER, 0);
+        rm.apply();
+    }
+}
@@ -34,6 +34,7 @@ import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
 import org.apache.cassandra.db.filter.*;
 import org.apache.cassandra.dht.IPartitioner;
@@ -83,6 +84,44 @@ public class ColumnFamilyStoreTest extends CleanupHelper
         assertNull(cf);
     }
 
+    @Test
+    public void testMeteredFlush() throws Exception
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard4");
+        store.forceBlockingFlush();
+        assertEquals(0, store.getMemtableLiveSize());
+
+        // 2000 1KB columns: comfortably over a 1MB limit once overhead is counted
+        for (int i = 0; i < 20; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("key" + i));
+            for (int j = 0; j < 100; j++)
+                rm.add(new QueryPath("Standard4", null, ByteBufferUtil.bytes("Column" + j)), ByteBuffer.wrap(bytes1), 0);
+            rm.apply();
+        }
+        assert store.getMemtableLiveSize() > store.getMemtableDataSize();
+
+        // a small memtable that fits once the big one is flushing
+        ColumnFamilyStore small = table.getColumnFamilyStore("Standard2");
+        RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("key"));
+        rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("Column")), ByteBufferUtil.bytes("value"), 0);
+        rm.apply();
+
+        int oldLimit = DatabaseDescriptor.getTotalMemtableSpaceInMB();
+        DatabaseDescriptor.setTotalMemtableSpaceInMB(1);
+        try
+        {
+            MeteredFlusher.instance.run();
+            assertEquals(0, store.getMemtableLiveSize());
+            assert small.getMemtableLiveSize() > 0;
+        }
+        finally
+        {
+            DatabaseDescriptor.setTotalMemtableSpaceInMB(oldLimit);
+        }
+    }
+
     @Test
     public void testEmptyRow() throws Exception
     {
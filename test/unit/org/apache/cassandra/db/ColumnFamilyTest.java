@@ -32,6 +32,7 @@ import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.db.filter.QueryPath;
 import static org.apache.cassandra.Util.column;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.SlabAllocator;
 
 
 public class ColumnFamilyTest extends SchemaLoader
@@ -146,4 +147,24 @@ public class ColumnFamilyTest extends SchemaLoader
         cf_result.addColumn(QueryPath.column(ByteBufferUtil.bytes("col3")), ByteBufferUtil.bytes("z"), 2);
         assert cf_result.getColumn(ByteBufferUtil.bytes("col3")).value().equals(ByteBufferUtil.bytes("z"));
     }
+
+    @Test
+    public void testLocalCopy()
+    {
+        ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard1");
+        cf.addColumn(column("col1", "val1", 1));
+        cf.addColumn(column("col2", "val2", 2));
+        cf.addTombstone(ByteBufferUtil.bytes("col3"), 0, 3);
+
+        ColumnFamily copy = cf.localCopy(new SlabAllocator());
+        assert copy.getColumnCount() == 3;
+        for (IColumn column : cf.getSortedColumns())
+        {
+            IColumn copied = copy.getColumn(column.name());
+            assert copied.equals(column) : copied.getString(cf.getComparator());
+            assert copied.getClass() == column.getClass();
+            // the copy must not share storage with the original
+            assert copied.value().array() != column.value().array();
+        }
+    }
 }
@@ -20,17 +20,23 @@
 package org.apache.cassandra.db;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.junit.Test;
 
 import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogHeader;
 import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.Pair;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
 public class CommitLogTest extends CleanupHelper
 {
     @Test
@@ -108,6 +114,59 @@ public class CommitLogTest extends CleanupHelper
         testRecoveryWithBadSizeArgument(-10, 10); // negative size, but no EOF
     }
 
+    @Test
+    public void testRecoveryAcrossSegments() throws Exception
+    {
+        CommitLog.setSegmentSize(1024 * 1024);
+        CommitLog.instance.resetUnsafe();
+        try
+        {
+            // ~3MB of writes, so the log rolls over onto freshly allocated segments twice
+            ByteBuffer value = ByteBuffer.wrap(new byte[64 * 1024]);
+            for (int i = 0; i < 48; i++)
+            {
+                RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("segmentkey" + i));
+                rm.add(new QueryPath("Standard1", null, ByteBufferUtil.bytes("c")), value, 0);
+                rm.apply();
+            }
+
+            ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard1");
+            store.clearUnsafe();
+            CommitLog.instance.resetUnsafe(); // disassociate segments from live CL
+            CommitLog.recover();
+
+            for (int i = 0; i < 48; i++)
+            {
+                ColumnFamily cf = Util.getColumnFamily(Table.open("Keyspace1"), Util.dk("segmentkey" + i), "Standard1");
+                assertNotNull(cf);
+                assertEquals(1, cf.getColumnCount());
+            }
+        }
+        finally
+        {
+            CommitLog.setSegmentSize(128 * 1024 * 1024);
+            CommitLog.instance.resetUnsafe();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMutationLargerThanSegment() throws Exception
+    {
+        CommitLog.setSegmentSize(1024 * 1024);
+        CommitLog.instance.resetUnsafe();
+        try
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("bigkey"));
+            rm.add(new QueryPath("Standard1", null, ByteBufferUtil.bytes("c")), ByteBuffer.wrap(new byte[2 * 1024 * 1024]), 0);
+            CommitLog.instance.add(rm);
+        }
+        finally
+        {
+            CommitLog.setSegmentSize(128 * 1024 * 1024);
+            CommitLog.instance.resetUnsafe();
+        }
+    }
+
     protected void testRecoveryWithBadSizeArgument(int size, int dataSize) throws Exception
     {
         Checksum checksum = new CRC32();
@@ -103,6 +103,14 @@ public class DefsTest extends CleanupHelper
                 500,
                 500,
                 500.0,
+                CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR,
+                CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                CFMetaData.DEFAULT_COMPACTION_STRATEGY,
+                null,
+                CFMetaData.DEFAULT_SPECULATIVE_RETRY,
+                CFMetaData.DEFAULT_ROW_CACHE_PROVIDER,
+                CFMetaData.DEFAULT_ROW_CACHE_HEAD_SIZE,
+                CFMetaData.DEFAULT_ROW_CACHE_HEAD_REVERSED,
                 indexes);
         
         // we'll be adding this one later. make sure it's not already there.
@@ -754,6 +762,14 @@ public class DefsTest extends CleanupHelper
                               CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR,
+                              CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                              CFMetaData.DEFAULT_COMPACTION_STRATEGY,
+                              null,
+                              CFMetaData.DEFAULT_SPECULATIVE_RETRY,
+                              CFMetaData.DEFAULT_ROW_CACHE_PROVIDER,
+                              CFMetaData.DEFAULT_ROW_CACHE_HEAD_SIZE,
+                              CFMetaData.DEFAULT_ROW_CACHE_HEAD_REVERSED,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
 }
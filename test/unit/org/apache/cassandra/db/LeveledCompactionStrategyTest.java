@@ -0,0 +1,107 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.avro.CfDef;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LeveledCompactionStrategyTest extends CleanupHelper
+{
+    private static final String TABLE1 = "Keyspace1";
+    private static final String CF = "StandardLeveled";
+
+    @Test
+    public void testLevels() throws Exception
+    {
+        ColumnFamilyStore store = Table.open(TABLE1).getColumnFamilyStore(CF);
+        store.setMaximumCompactionThreshold(32);
+        store.setMinimumCompactionThreshold(4);
+
+        // use 1MB sstables, as a schema update would
+        CfDef cfDef = CFMetaData.convertToAvro(store.metadata);
+        cfDef.compaction_strategy_options = new HashMap<CharSequence, CharSequence>();
+        cfDef.compaction_strategy_options.put(LeveledCompactionStrategy.SSTABLE_SIZE_OPTION, "1");
+        store.metadata.apply(cfDef);
+        store.reload();
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) store.getCompactionStrategy();
+        assertEquals(1024 * 1024, strategy.getMaxSSTableSize());
+
+        // 4 flushes of ~2MB each, over the same keys
+        ByteBuffer value = ByteBuffer.wrap(new byte[10 * 1024]);
+        int rows = 20;
+        for (int flush = 0; flush < 4; flush++)
+        {
+            for (int r = 0; r < rows; r++)
+            {
+                RowMutation rm = new RowMutation(TABLE1, ByteBufferUtil.bytes("key" + r));
+                for (int c = 0; c < 10; c++)
+                    rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes("column" + c)), value, flush);
+                rm.apply();
+            }
+            store.forceBlockingFlush();
+        }
+
+        // a submission finds nothing to do if another compaction of the CF is already running,
+        // so keep going until one finds nothing with no other compaction left
+        while (true)
+        {
+            Future<Integer> ft = CompactionManager.instance.submitMinorIfNeeded(store);
+            if (ft.get() == 0 && CompactionManager.instance.getPendingTasks() == 0)
+                break;
+            Thread.sleep(10);
+        }
+
+        // L0 has been compacted into 1MB sstables in L1
+        int[] counts = strategy.getSSTableCountPerLevel();
+        assertEquals(0, counts[0]);
+        assertTrue(counts[1] > 1);
+        assertEquals(store.getSSTables().size(), counts[1]);
+        assertNoOverlap(new ArrayList<SSTableReader>(store.getSSTables()));
+        assertEquals(rows, Util.getRangeSlice(store).size());
+
+        // the levels survive a restart
+        LeveledCompactionStrategy restored = new LeveledCompactionStrategy(store, store.metadata.getCompactionStrategyOptions());
+        for (SSTableReader sstable : store.getSSTables())
+            assertEquals(strategy.getLevel(sstable), restored.getLevel(sstable));
+    }
+
+    private static void assertNoOverlap(List<SSTableReader> sstables)
+    {
+        Collections.sort(sstables, SSTableReader.firstKeyComparator);
+        for (int i = 1; i < sstables.size(); i++)
+            assertTrue(sstables.get(i - 1).getLastKey().compareTo(sstables.get(i).getFirstKey()) < 0);
+    }
+}
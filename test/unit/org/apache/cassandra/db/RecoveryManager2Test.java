@@ -33,6 +33,11 @@ import static org.apache.cassandra.Util.column;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogReplayer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 public class RecoveryManager2Test extends CleanupHelper
 {
@@ -69,6 +74,15 @@ public class RecoveryManager2Test extends CleanupHelper
         // since everything that was flushed was removed (i.e. clearUnsafe)
         // and the commit shouldn't have replayed anything, there should be no data
         assert Util.getRangeSlice(cfs).isEmpty();
+
+        // the flushed mutations were skipped without being deserialized; the one to Standard2 was replayed
+        CommitLogReplayer replayer = CommitLogReplayer.instance;
+        assertFalse(replayer.isReplaying());
+        assertTrue(replayer.getMutationsSkipped() >= 100);
+        assertTrue(replayer.getMutationsReplayed() >= 1);
+        assertEquals(replayer.getSegmentsTotal(), replayer.getSegmentsCompleted());
+        assertEquals(replayer.getBytesTotal(), replayer.getBytesCompleted());
+        assertEquals(1, Util.getRangeSlice(table1.getColumnFamilyStore("Standard2")).size());
     }
 
     private void insertRow(String cfname, String key) throws IOException
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.apache.cassandra.cache.ConcurrentLinkedHashCache;
+
+import static org.junit.Assert.assertEquals;
+
+public class RowCacheBudgetTest
+{
+    @Test
+    public void testEvenWithoutHits()
+    {
+        int[] capacities = RowCacheBudget.divide(4000, Arrays.asList(0.0, 0.0, 0.0, 0.0));
+        for (int capacity : capacities)
+            assertEquals(1000, capacity);
+    }
+
+    @Test
+    public void testHitsAttractMemory()
+    {
+        // a quarter is split evenly, the rest by hits
+        int[] capacities = RowCacheBudget.divide(8000, Arrays.asList(300.0, 100.0, 0.0, 0.0));
+        assertEquals(500 + 4500, capacities[0]);
+        assertEquals(500 + 1500, capacities[1]);
+        assertEquals(500, capacities[2]);
+        assertEquals(500, capacities[3]);
+    }
+
+    @Test
+    public void testCapacityLimit()
+    {
+        int[] capacities = RowCacheBudget.divide(8L * ConcurrentLinkedHashCache.MAXIMUM_CAPACITY, Collections.singletonList(1.0));
+        assertEquals(ConcurrentLinkedHashCache.MAXIMUM_CAPACITY, capacities[0]);
+        assertEquals(0, RowCacheBudget.divide(1000, Collections.<Double>emptyList()).length);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertEquals;
+
+public class RowCacheHeadTest extends CleanupHelper
+{
+    private static final String TABLE = "Keyspace1";
+    // caches the last 3 columns of each row
+    private static final String CF = "StandardHeadCache";
+
+    @Test
+    public void testHeadServesAndFallsThrough() throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        DecoratedKey key = Util.dk("key1");
+        for (int i = 1; i <= 9; i++)
+            insert(key, "c0" + i);
+        cfs.forceBlockingFlush();
+
+        // inside the head
+        assertColumns(slice(cfs, key, "", "", true, 2), "c09", "c08");
+        assertColumns(cfs.getRawCachedRow(key), "c07", "c08", "c09");
+        long reads = sstableReads(cfs);
+        assertColumns(slice(cfs, key, "c08", "", true, 2), "c08", "c07");
+        assertColumns(slice(cfs, key, "c07", "c09", false, 10), "c07", "c08", "c09");
+        assertColumns(names(cfs, key, "c08", "c09"), "c08", "c09");
+        assertEquals(reads, sstableReads(cfs));
+
+        // outside it
+        assertColumns(slice(cfs, key, "", "", true, 4), "c09", "c08", "c07", "c06");
+        assertColumns(slice(cfs, key, "c05", "", true, 2), "c05", "c04");
+        assertColumns(slice(cfs, key, "", "", false, 2), "c01", "c02");
+        assertColumns(names(cfs, key, "c01", "c09"), "c01", "c09");
+        assertEquals(reads + 4, sstableReads(cfs));
+        assertColumns(cfs.getRawCachedRow(key), "c07", "c08", "c09");
+    }
+
+    @Test
+    public void testWritesKeepHeadCorrect() throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        DecoratedKey key = Util.dk("key2");
+        for (int i = 1; i <= 5; i++)
+            insert(key, "c0" + i);
+        assertColumns(slice(cfs, key, "", "", true, 1), "c05");
+        assertColumns(cfs.getRawCachedRow(key), "c03", "c04", "c05");
+
+        // a newer column enters the head and pushes the oldest out; an older one is left to the memtable
+        insert(key, "c06");
+        insert(key, "c00");
+        assertColumns(cfs.getRawCachedRow(key), "c04", "c05", "c06");
+        assertColumns(slice(cfs, key, "", "", true, 3), "c06", "c05", "c04");
+        assertColumns(slice(cfs, key, "", "", false, 2), "c00", "c01");
+
+        // a deletion inside the head leaves it short of live columns, so the rest come from the sstables
+        RowMutation rm = new RowMutation(TABLE, key.key);
+        rm.delete(new QueryPath(CF, null, ByteBufferUtil.bytes("c05")), 2);
+        rm.apply();
+        assertEquals(3, cfs.getRawCachedRow(key).getSortedColumns().size());
+        assertColumns(slice(cfs, key, "", "", true, 3), "c06", "c04", "c03");
+    }
+
+    @Test
+    public void testShortRowIsComplete() throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(TABLE).getColumnFamilyStore(CF);
+        DecoratedKey key = Util.dk("key3");
+        insert(key, "c01");
+        insert(key, "c02");
+        assertColumns(slice(cfs, key, "", "", false, 10), "c01", "c02");
+        assertColumns(cfs.getRawCachedRow(key), "c01", "c02");
+
+        // the whole row is cached, so writes anywhere are kept until it outgrows the head
+        insert(key, "c00");
+        assertColumns(cfs.getRawCachedRow(key), "c00", "c01", "c02");
+        insert(key, "c03");
+        assertColumns(cfs.getRawCachedRow(key), "c01", "c02", "c03");
+        assertColumns(slice(cfs, key, "", "", false, 10), "c00", "c01", "c02", "c03");
+    }
+
+    private static long sstableReads(ColumnFamilyStore cfs)
+    {
+        long reads = 0;
+        for (long count : cfs.getSSTablesPerReadHistogram())
+            reads += count;
+        return reads;
+    }
+
+    private static void insert(DecoratedKey key, String column) throws Exception
+    {
+        RowMutation rm = new RowMutation(TABLE, key.key);
+        rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes(column)), ByteBufferUtil.bytes(column), 1);
+        rm.apply();
+    }
+
+    private static ColumnFamily slice(ColumnFamilyStore cfs, DecoratedKey key, String start, String finish, boolean reversed, int count)
+    {
+        return cfs.getColumnFamily(QueryFilter.getSliceFilter(key,
+                                                              new QueryPath(CF),
+                                                              start.isEmpty() ? FBUtilities.EMPTY_BYTE_BUFFER : ByteBufferUtil.bytes(start),
+                                                              finish.isEmpty() ? FBUtilities.EMPTY_BYTE_BUFFER : ByteBufferUtil.bytes(finish),
+                                                              reversed,
+                                                              count));
+    }
+
+    private static ColumnFamily names(ColumnFamilyStore cfs, DecoratedKey key, String... names)
+    {
+        SortedSet<ByteBuffer> columns = new TreeSet<ByteBuffer>();
+        for (String name : names)
+            columns.add(ByteBufferUtil.bytes(name));
+        return cfs.getColumnFamily(QueryFilter.getNamesFilter(key, new QueryPath(CF), columns));
+    }
+
+    private static void assertColumns(ColumnFamily cf, String... expected) throws CharacterCodingException
+    {
+        List<String> actual = new ArrayList<String>();
+        for (IColumn column : cf.getSortedColumns())
+        {
+            if (!column.isMarkedForDelete())
+                actual.add(ByteBufferUtil.string(column.name()));
+        }
+        List<String> sorted = new ArrayList<String>(Arrays.asList(expected));
+        Collections.sort(sorted);
+        assertEquals(sorted, actual);
+    }
+}
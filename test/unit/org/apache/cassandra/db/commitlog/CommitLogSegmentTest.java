@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db.commitlog;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.*;
+
+public class CommitLogSegmentTest extends CleanupHelper
+{
+    @Test
+    public void testClosedSegmentRefusesWrites() throws Exception
+    {
+        CommitLogSegment segment = CommitLogSegment.freshSegment(1024 * 1024);
+        assertNotNull(segment.write(mutation()));
+        segment.sync();
+
+        segment.close();
+        // the mapping is gone, so writes must not reach it and syncs have nothing to force
+        assertNull(segment.write(mutation()));
+        segment.sync();
+        // and the file is left for replay
+        assertTrue(new File(segment.getPath()).exists());
+    }
+
+    private static RowMutation mutation()
+    {
+        RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("k"));
+        rm.add(new QueryPath("Standard1", null, ByteBufferUtil.bytes("c")), ByteBufferUtil.bytes("v"), 0);
+        return rm;
+    }
+}
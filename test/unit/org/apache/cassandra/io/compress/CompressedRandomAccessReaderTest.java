@@ -0,0 +1,153 @@
+package org.apache.cassandra.io.compress;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.utils.Pair;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompressedRandomAccessReaderTest
+{
+    private static final int CHUNK_LENGTH = 1024;
+
+    private static Descriptor tempDescriptor() throws IOException
+    {
+        File dir = File.createTempFile("compression", "test");
+        dir.delete();
+        File ksdir = new File(dir, "Keyspace1");
+        ksdir.mkdirs();
+        ksdir.deleteOnExit();
+        dir.deleteOnExit();
+        return Descriptor.fromFilename(new File(ksdir, "Standard1-f-1-Data.db").getPath());
+    }
+
+    /** compressible bytes: a few distinct values in runs */
+    private static byte[] data(int length)
+    {
+        Random random = new Random(length);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) ((i / 7) % 5 + (random.nextInt(10) == 0 ? 1 : 0));
+        return bytes;
+    }
+
+    private static CompressionMetadata write(Descriptor desc, byte[] bytes) throws IOException
+    {
+        String path = desc.filenameFor(Component.DATA);
+        CompressedSequentialWriter writer = new CompressedSequentialWriter(new File(path), desc.filenameFor(Component.COMPRESSION_INFO), CHUNK_LENGTH);
+        // write the first 8 bytes twice, like SSTableWriter rewriting a row size
+        writer.write(new byte[8]);
+        writer.write(bytes, 8, 100);
+        writer.seek(0);
+        writer.write(bytes, 0, 8);
+        writer.seek(108);
+        writer.write(bytes, 108, bytes.length - 108);
+        assertEquals(bytes.length, writer.getFilePointer());
+        writer.close();
+        new File(path).deleteOnExit();
+        new File(desc.filenameFor(Component.COMPRESSION_INFO)).deleteOnExit();
+        return CompressionMetadata.create(path);
+    }
+
+    @Test
+    public void testReadAndSeek() throws IOException
+    {
+        Descriptor desc = tempDescriptor();
+        byte[] bytes = data(CHUNK_LENGTH * 20 + 123);
+        CompressionMetadata metadata = write(desc, bytes);
+        assertEquals(bytes.length, metadata.dataLength);
+        assertEquals(21, metadata.chunkCount());
+        assert metadata.compressedFileLength < bytes.length : metadata.compressedFileLength;
+
+        CompressedRandomAccessReader reader = new CompressedRandomAccessReader(desc.filenameFor(Component.DATA), metadata);
+        assertEquals(bytes.length, reader.length());
+
+        // sequentially, across chunk boundaries
+        byte[] read = new byte[bytes.length];
+        reader.readFully(read);
+        assert Arrays.equals(bytes, read);
+        assert reader.isEOF();
+        assertEquals(-1, reader.read());
+
+        // and at random positions
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++)
+        {
+            int position = random.nextInt(bytes.length);
+            reader.seek(position);
+            assertEquals(bytes[position] & 0xFF, reader.read());
+            assertEquals(bytes.length - position - 1, reader.bytesRemaining());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        Descriptor desc = tempDescriptor();
+        CompressionMetadata metadata = write(desc, new byte[108]);
+        CompressedRandomAccessReader reader = new CompressedRandomAccessReader(desc.filenameFor(Component.DATA), metadata);
+        assertEquals(108, reader.length());
+        reader.seek(108);
+        assert reader.isEOF();
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testSeekToWrittenChunk() throws IOException
+    {
+        Descriptor desc = tempDescriptor();
+        String path = desc.filenameFor(Component.DATA);
+        new File(path).deleteOnExit();
+        CompressedSequentialWriter writer = new CompressedSequentialWriter(new File(path), desc.filenameFor(Component.COMPRESSION_INFO), CHUNK_LENGTH);
+        writer.write(new byte[CHUNK_LENGTH + 1]);
+        writer.seek(CHUNK_LENGTH - 1);
+    }
+
+    @Test
+    public void testChunksForSections() throws IOException
+    {
+        Descriptor desc = tempDescriptor();
+        CompressionMetadata metadata = write(desc, data(CHUNK_LENGTH * 10));
+        List<Pair<Long, Long>> sections = Arrays.asList(new Pair<Long, Long>(0L, 10L),
+                                                        new Pair<Long, Long>(10L, (long) CHUNK_LENGTH + 1),
+                                                        new Pair<Long, Long>(CHUNK_LENGTH * 5L, CHUNK_LENGTH * 7L));
+        List<CompressionMetadata.Chunk> chunks = metadata.getChunksForSections(sections);
+        // chunk 0; chunks 0 and 1; chunks 5 and 6
+        assertEquals(5, chunks.size());
+        assertEquals(0, chunks.get(0).offset);
+        assertEquals(0, chunks.get(1).offset);
+        assertEquals(chunks.get(1).offset + chunks.get(1).length, chunks.get(2).offset);
+        assertEquals(chunks.get(3).offset + chunks.get(3).length, chunks.get(4).offset);
+        assertEquals(metadata.chunkFor(CHUNK_LENGTH * 5L).offset, chunks.get(3).offset);
+    }
+}
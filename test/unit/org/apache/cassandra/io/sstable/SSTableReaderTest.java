@@ -30,12 +30,15 @@ import java.util.List;
 import org.junit.Test;
 
 import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.cache.JMXInstrumentedKeyCache;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.MmappedSegmentedFile;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -132,6 +135,44 @@ public class SSTableReaderTest extends CleanupHelper
         }
     }
 
+    @Test
+    public void testKeyCache() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard2");
+        for (int j = 0; j < 10; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("cached" + j));
+            rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("0")), FBUtilities.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        CompactionManager.instance.performMajor(store);
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        JMXInstrumentedKeyCache keyCache = sstable.getKeyCache();
+        assert keyCache.getCapacity() > 0;
+
+        // the first lookup reads the index and caches the position, the second is served from the cache
+        DecoratedKey dk = Util.dk("cached3");
+        long hits = keyCache.getHits();
+        long position = sstable.getPosition(dk, SSTableReader.Operator.EQ);
+        assert position >= 0;
+        assertEquals(hits, keyCache.getHits());
+        assert keyCache.getKeySet().contains(dk.key);
+        assertEquals(position, sstable.getPosition(dk, SSTableReader.Operator.EQ));
+        assertEquals(hits + 1, keyCache.getHits());
+
+        // and so is a lookup through a key in a buffer of its own
+        ByteBuffer copy = ByteBuffer.allocate(dk.key.remaining() + 2);
+        copy.position(2);
+        copy.put(dk.key.duplicate()).position(2);
+        assertEquals(position, sstable.getPosition(new DecoratedKey(dk.token, copy), SSTableReader.Operator.EQ));
+        assertEquals(hits + 2, keyCache.getHits());
+
+        store.submitKeyCacheWrite().get();
+        assert DatabaseDescriptor.getSerializedKeyCachePath("Keyspace1", "Standard2").length() > 0;
+    }
+
     @Test
     public void testPersistentStatistics() throws IOException, ExecutionException, InterruptedException
     {
@@ -149,4 +190,92 @@ public class SSTableReaderTest extends CleanupHelper
         store.forceBlockingFlush();
         assert store.getMaxRowSize() != 0;
     }
+
+    @Test
+    public void testCompressedData() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("StandardCompressed");
+
+        // two sstables with interleaved keys, big enough to span many 1KB chunks, compacted to one
+        CompactionManager.instance.disableAutoCompaction();
+        for (int i = 0; i < 2; i++)
+        {
+            for (int j = i; j < 200; j += 2)
+            {
+                RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes(String.valueOf(j)));
+                for (int c = 0; c < 10; c++)
+                    rm.add(new QueryPath("StandardCompressed", null, ByteBufferUtil.bytes("col" + c)), ByteBufferUtil.bytes("{\"value\": " + j + "}"), j);
+                rm.apply();
+            }
+            store.forceBlockingFlush();
+        }
+        for (SSTableReader sstable : store.getSSTables())
+            assert sstable.getCompressionMetadata() != null;
+        CompactionManager.instance.performMajor(store);
+
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        assert sstable.components.contains(Component.COMPRESSION_INFO);
+        CompressionMetadata compression = sstable.getCompressionMetadata();
+        assertEquals(sstable.length(), compression.dataLength);
+        assert compression.chunkCount() > 10 : compression.chunkCount();
+        assert compression.compressedFileLength < sstable.length() : compression.compressedFileLength + " >= " + sstable.length();
+
+        // point reads go through getFileDataInput
+        for (int j = 0; j < 200; j++)
+        {
+            ColumnFamily cf = Util.getColumnFamily(table, Util.dk(String.valueOf(j)), "StandardCompressed");
+            assertEquals(10, cf.getSortedColumns().size());
+            assertEquals(ByteBufferUtil.bytes("{\"value\": " + j + "}"), cf.getColumn(ByteBufferUtil.bytes("col9")).value());
+        }
+
+        // and scans through a sequential reader
+        SSTableScanner scanner = sstable.getScanner(1024);
+        int rows = 0;
+        while (scanner.hasNext())
+        {
+            scanner.next();
+            rows++;
+        }
+        scanner.close();
+        assertEquals(200, rows);
+    }
+
+    @Test
+    public void testPersistentSummary() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace2");
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard3");
+
+        // enough keys for several index samples
+        for (int j = 0; j < 1000; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes(String.valueOf(j)));
+            rm.add(new QueryPath("Standard3", null, ByteBufferUtil.bytes("0")), FBUtilities.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        SSTableReader written = store.getSSTables().iterator().next();
+        assert written.components.contains(Component.SUMMARY);
+
+        // opened from the summary
+        SSTableReader loaded = SSTableReader.open(written.descriptor);
+        assert loaded.components.contains(Component.SUMMARY);
+
+        // and rebuilt from the index
+        FileUtils.deleteWithConfirm(written.descriptor.filenameFor(Component.SUMMARY));
+        SSTableReader rebuilt = SSTableReader.open(written.descriptor);
+        assert !rebuilt.components.contains(Component.SUMMARY);
+
+        assertEquals(new ArrayList<DecoratedKey>(rebuilt.getKeySamples()), new ArrayList<DecoratedKey>(loaded.getKeySamples()));
+        assertEquals(rebuilt.getFirstKey(), loaded.getFirstKey());
+        assertEquals(rebuilt.getLastKey(), loaded.getLastKey());
+        for (int j = 0; j < 1000; j++)
+        {
+            DecoratedKey dk = Util.dk(String.valueOf(j));
+            long position = rebuilt.getPosition(dk, SSTableReader.Operator.EQ);
+            assert position >= 0;
+            assertEquals(position, loaded.getPosition(dk, SSTableReader.Operator.EQ));
+        }
+    }
 }
@@ -32,8 +32,10 @@ import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.filter.IFilter;
+import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.dht.IPartitioner;
@@ -96,4 +98,35 @@ public class SSTableWriterTest extends CleanupHelper {
         assertEquals("IndexExpression should return two rows on recoverAndOpen", 2, rows.size());
         assertTrue("First result should be 'k1'",ByteBufferUtil.bytes("k1").equals(rows.get(0).key.key));
     }
+
+    @Test
+    public void testRecoverCompressed() throws IOException, ExecutionException, InterruptedException
+    {
+        Map<ByteBuffer, ByteBuffer> entries = new HashMap<ByteBuffer, ByteBuffer>();
+        ColumnFamily cf = ColumnFamily.create("Keyspace1", "StandardCompressed");
+        for (int i = 0; i < 100; i++)
+        {
+            cf.clear();
+            cf.addColumn(new Column(ByteBufferUtil.bytes("c"), ByteBufferUtil.bytes("value" + i), 0));
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            ColumnFamily.serializer().serializeWithIndexes(cf, buffer);
+            entries.put(ByteBufferUtil.bytes("k" + i), ByteBuffer.wrap(Arrays.copyOf(buffer.getData(), buffer.getLength())));
+        }
+
+        SSTableReader orig = SSTableUtils.writeRawSSTable("Keyspace1", "StandardCompressed", entries);
+        assert orig.getCompressionMetadata() != null;
+        FileUtils.deleteWithConfirm(orig.descriptor.filenameFor(Component.PRIMARY_INDEX));
+        FileUtils.deleteWithConfirm(orig.descriptor.filenameFor(Component.FILTER));
+
+        SSTableReader sstr = CompactionManager.instance.submitSSTableBuild(orig.descriptor).get();
+        assert sstr != null;
+        assert sstr.getCompressionMetadata() != null;
+        ColumnFamilyStore cfs = Table.open("Keyspace1").getColumnFamilyStore("StandardCompressed");
+        cfs.addSSTable(sstr);
+        for (int i = 0; i < 100; i++)
+        {
+            ColumnFamily found = cfs.getColumnFamily(QueryFilter.getIdentityFilter(Util.dk("k" + i), new QueryPath("StandardCompressed")));
+            assertEquals(ByteBufferUtil.bytes("value" + i), found.getColumn(ByteBufferUtil.bytes("c")).value());
+        }
+    }
 }
@@ -104,4 +104,19 @@ public class DynamicEndpointSnitchTest
         order.add(host3);
         assert dsnitch.getSortedListByProximity(self, order).equals(order);
     }
+
+    @Test
+    public void testLatencyPercentile() throws IOException
+    {
+        StorageService.instance.initClient();
+        DynamicEndpointSnitch dsnitch = new DynamicEndpointSnitch(new SimpleSnitch());
+        InetAddress host = InetAddress.getByName("127.0.0.4");
+        assert Double.isNaN(dsnitch.getLatencyPercentile(host, 0.99));
+
+        for (int i = 100; i > 0; i--)
+            dsnitch.receiveTiming(host, (double) i);
+        assert dsnitch.getLatencyPercentile(host, 0.99) == 99.0;
+        assert dsnitch.getLatencyPercentile(host, 0.5) == 50.0;
+        assert dsnitch.getLatencyPercentile(host, 0.001) == 1.0;
+    }
 }
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class MessagingServiceTest extends CleanupHelper
+{
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        InetAddress local = FBUtilities.getLocalAddress();
+        MessagingService.instance.listen(local);
+        // messages from ourselves are delivered without going through a connection
+        InetAddress remote = InetAddress.getByName("127.0.0.2");
+
+        try
+        {
+            // a mix of small messages, to be coalesced into gathering writes, and ones larger than the read buffer
+            int count = 2000;
+            final Map<Integer, byte[]> sent = new ConcurrentHashMap<Integer, byte[]>();
+            final Map<Integer, byte[]> received = new ConcurrentHashMap<Integer, byte[]>();
+            final CountDownLatch latch = new CountDownLatch(count);
+            SinkManager.add(new IMessageSink()
+            {
+                public Message handleMessage(Message message, InetAddress to)
+                {
+                    if (to != null)
+                        return message;
+                    // incoming: keep it from the stages
+                    received.put(message.getMessageId(), message.getMessageBody());
+                    latch.countDown();
+                    return null;
+                }
+            });
+
+            for (int i = 0; i < count; i++)
+            {
+                byte[] body = new byte[i % 100 == 0 ? IncomingMessageConnection.BUFFER_SIZE * 2 + i : i % 50];
+                if (body.length >= 4)
+                    ByteBuffer.wrap(body).putInt(0, i);
+                StorageService.Verb verb = i % 2 == 0 ? StorageService.Verb.BINARY : StorageService.Verb.REQUEST_RESPONSE;
+                Message message = new Message(remote, verb, body);
+                sent.put(message.getMessageId(), body);
+                MessagingService.instance.sendOneWay(message, local);
+            }
+
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertEquals(sent.keySet(), received.keySet());
+            for (Map.Entry<Integer, byte[]> entry : sent.entrySet())
+                assertArrayEquals(entry.getValue(), received.get(entry.getKey()));
+
+            OutboundTcpConnectionPool pool = MessagingService.getConnectionPool(local);
+            assertEquals(0, pool.cmdCon.getPendingMessages());
+            assertEquals(0, pool.ackCon.getPendingMessages());
+            assertEquals(count, pool.cmdCon.getCompletedMesssages() + pool.ackCon.getCompletedMesssages());
+        }
+        finally
+        {
+            SinkManager.clear();
+            MessagingService.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        InetAddress remote = InetAddress.getByName("127.0.0.2");
+        byte[] body = new byte[10000];
+        for (int i = 0; i < body.length; i++)
+            body[i] = (byte) (i % 10);
+        Message message = new Message(remote, StorageService.Verb.BINARY, body);
+        DataOutputBuffer out = new DataOutputBuffer();
+        Message.serializer().serialize(message, out);
+
+        long before = MessagingService.instance.getCompressedMessageBytes();
+        ByteBuffer frame = MessagingService.packIt(out.getData(), out.getLength(), true);
+        assertEquals(out.getLength(), MessagingService.instance.getCompressedMessageBytes() - before);
+        assertTrue(MessagingService.instance.getRecentCompressionRatio() < 0.5);
+        assertEquals(1.0, MessagingService.instance.getRecentCompressionRatio(), 0);
+        assertTrue(frame.remaining() < body.length / 2);
+
+        int header = frame.getInt(4);
+        assertEquals(1, MessagingService.getBits(header, 2, 1));
+        int size = frame.getInt(8);
+        assertEquals(frame.remaining() - 12, size);
+        DataInputStream in = MessagingService.getMessageInput(header, frame.array(), 12, size, new Inflater());
+        Message received = Message.serializer().deserialize(in);
+        assertEquals(message.getMessageId(), received.getMessageId());
+        assertArrayEquals(body, received.getMessageBody());
+
+        // incompressible bodies go out as they are
+        new Random(0).nextBytes(body);
+        out = new DataOutputBuffer();
+        Message.serializer().serialize(new Message(remote, StorageService.Verb.BINARY, body), out);
+        frame = MessagingService.packIt(out.getData(), out.getLength(), true);
+        assertEquals(0, MessagingService.getBits(frame.getInt(4), 2, 1));
+        assertEquals(out.getLength(), frame.getInt(8));
+    }
+
+    @Test
+    public void testSerializedSize() throws Exception
+    {
+        Message message = new Message(InetAddress.getByName("127.0.0.2"), StorageService.Verb.MUTATION, new byte[100]);
+        message.setHeader("hint", new byte[10]);
+        message.setHeader("r\u00e9p\u20acir", new byte[0]);
+        DataOutputBuffer out = new DataOutputBuffer();
+        Message.serializer().serialize(message, out);
+        int size = Message.serializer().serializedSize(message);
+        assertEquals(out.getLength(), size);
+
+        // serialized straight into the frame
+        ByteBuffer frame = MessagingService.packIt(message, size, false);
+        assertEquals(12 + size, frame.remaining());
+        assertEquals(size, frame.getInt(8));
+        Message received = Message.serializer().deserialize(MessagingService.getMessageInput(frame.getInt(4), frame.array(), 12, size, null));
+        assertEquals(message.getMessageId(), received.getMessageId());
+        assertArrayEquals(new byte[10], received.getHeader("hint"));
+        assertEquals(100, received.getMessageBody().length);
+    }
+}
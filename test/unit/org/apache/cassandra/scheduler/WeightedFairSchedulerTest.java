@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import org.apache.cassandra.config.RequestSchedulerOptions;
+
+import static org.junit.Assert.*;
+
+public class WeightedFairSchedulerTest
+{
+    private static final long TIMEOUT = 10000;
+
+    @Test
+    public void testWeightedShares() throws Exception
+    {
+        RequestSchedulerOptions options = new RequestSchedulerOptions();
+        options.throttle_limit = 1;
+        options.default_queue_timeout_in_ms = (int) TIMEOUT;
+        options.weights = new HashMap<String, Integer>();
+        options.weights.put("heavy", 3);
+        final WeightedFairScheduler scheduler = new WeightedFairScheduler(options);
+
+        // hold the only slot while both ids queue up
+        scheduler.queue(Thread.currentThread(), "holder", 1, TIMEOUT);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++)
+        {
+            final String id = i % 2 == 0 ? "heavy" : "light";
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        scheduler.queue(Thread.currentThread(), id, 1, TIMEOUT);
+                        order.add(id);
+                    }
+                    catch (TimeoutException e)
+                    {
+                        throw new AssertionError(e);
+                    }
+                    finally
+                    {
+                        scheduler.release();
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        while (getAttribute("heavy", "PendingRequests") < 4 || getAttribute("light", "PendingRequests") < 4)
+            Thread.sleep(10);
+
+        scheduler.release();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // with three times the weight, heavy gets three of the first four turns
+        assertEquals(3, Collections.frequency(order.subList(0, 4), "heavy"));
+        assertEquals(4, getAttribute("heavy", "DispatchedRequests"));
+        assertEquals(0, getAttribute("light", "PendingRequests"));
+    }
+
+    @Test
+    public void testCostOutweighsCount() throws Exception
+    {
+        RequestSchedulerOptions options = new RequestSchedulerOptions();
+        options.throttle_limit = 1;
+        options.default_queue_timeout_in_ms = (int) TIMEOUT;
+        final WeightedFairScheduler scheduler = new WeightedFairScheduler(options);
+
+        scheduler.queue(Thread.currentThread(), "holder2", 1, TIMEOUT);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++)
+        {
+            final String id = i % 2 == 0 ? "slices" : "gets";
+            final int cost = i % 2 == 0 ? 100 : 1;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        scheduler.queue(Thread.currentThread(), id, cost, TIMEOUT);
+                        order.add(id);
+                    }
+                    catch (TimeoutException e)
+                    {
+                        throw new AssertionError(e);
+                    }
+                    finally
+                    {
+                        scheduler.release();
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        while (getAttribute("slices", "PendingRequests") < 3 || getAttribute("gets", "PendingRequests") < 3)
+            Thread.sleep(10);
+
+        scheduler.release();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // one expensive slice is worth all the cheap gets
+        assertEquals(3, Collections.frequency(order.subList(0, 4), "gets"));
+        assertEquals(300, getAttribute("slices", "DispatchedCost"));
+    }
+
+    @Test
+    public void testConcurrencyLimitAndTimeout() throws Exception
+    {
+        RequestSchedulerOptions options = new RequestSchedulerOptions();
+        options.concurrency_limits = new HashMap<String, Integer>();
+        options.concurrency_limits.put("capped", 1);
+        options.queue_timeouts_in_ms = new HashMap<String, Integer>();
+        options.queue_timeouts_in_ms.put("capped", 100);
+        final WeightedFairScheduler scheduler = new WeightedFairScheduler(options);
+
+        scheduler.queue(Thread.currentThread(), "capped", 1, TIMEOUT);
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        Thread capped = new Thread()
+        {
+            public void run()
+            {
+                long start = System.currentTimeMillis();
+                try
+                {
+                    scheduler.queue(Thread.currentThread(), "capped", 1, TIMEOUT);
+                    results.add("scheduled");
+                }
+                catch (TimeoutException e)
+                {
+                    results.add(System.currentTimeMillis() - start);
+                }
+                finally
+                {
+                    scheduler.release();
+                }
+            }
+        };
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    scheduler.queue(Thread.currentThread(), "uncapped", 1, TIMEOUT);
+                    results.add("scheduled");
+                }
+                catch (TimeoutException e)
+                {
+                    results.add(e);
+                }
+                finally
+                {
+                    scheduler.release();
+                }
+            }
+        };
+        capped.start();
+        other.start();
+        capped.join(TIMEOUT);
+        other.join(TIMEOUT);
+        scheduler.release();
+
+        // the second capped request waits out its queue timeout, while other ids are unaffected
+        assertEquals(2, results.size());
+        assertTrue(results.contains("scheduled"));
+        results.remove("scheduled");
+        long waited = (Long) results.get(0);
+        assertTrue(waited >= 100 && waited < TIMEOUT);
+        assertEquals(1, getAttribute("capped", "TimedOutRequests"));
+        assertEquals(0, getAttribute("capped", "PendingRequests"));
+        assertEquals(0, getAttribute("capped", "ActiveRequests"));
+        assertEquals(0, getAttribute("uncapped", "ActiveRequests"));
+    }
+
+    private static long getAttribute(String id, String attribute) throws Exception
+    {
+        ObjectName name = new ObjectName("org.apache.cassandra.scheduler:type=WeightedQueue,id=" + ObjectName.quote(id));
+        return ((Number) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute)).longValue();
+    }
+}
@@ -19,7 +19,12 @@
 package org.apache.cassandra.service;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
 
 import com.google.common.base.Charsets;
 import org.junit.BeforeClass;
@@ -100,6 +105,39 @@ public class EmbeddedCassandraServiceTest extends CleanupHelper
         assertEquals("Ran", new String(got.getColumn().getValue(), Charsets.UTF_8));
     }
 
+    @Test
+    public void testLocalReadFastPath() throws Exception
+    {
+        Cassandra.Client client = getClient();
+        client.set_keyspace("Keyspace1");
+
+        ColumnParent par = new ColumnParent("Standard1");
+        ColumnPath cp = new ColumnPath("Standard1");
+        cp.column = ByteBufferUtil.bytes("name");
+        List<ByteBuffer> keys = Arrays.asList(ByteBufferUtil.bytes("fast1"), ByteBufferUtil.bytes("fast2"));
+        for (ByteBuffer key : keys)
+            client.insert(key, par, new Column(cp.column, key, System.currentTimeMillis()), ConsistencyLevel.ONE);
+
+        // a lone row at ONE is read on the client's thread
+        long fastReads = getFastPathReadOperations();
+        assertEquals(keys.get(0), ByteBuffer.wrap(client.get(keys.get(0), cp, ConsistencyLevel.ONE).getColumn().getValue()));
+        assertEquals(fastReads + 1, getFastPathReadOperations());
+
+        // but a multiget still reads its rows in parallel on the read stage
+        SlicePredicate predicate = new SlicePredicate().setColumn_names(Arrays.asList(cp.column));
+        Map<ByteBuffer, List<ColumnOrSuperColumn>> rows = client.multiget_slice(keys, par, predicate, ConsistencyLevel.ONE);
+        assertEquals(2, rows.size());
+        for (ByteBuffer key : keys)
+            assertEquals(key, ByteBuffer.wrap(rows.get(key).get(0).getColumn().getValue()));
+        assertEquals(fastReads + 1, getFastPathReadOperations());
+    }
+
+    private static long getFastPathReadOperations() throws Exception
+    {
+        ObjectName name = new ObjectName("org.apache.cassandra.db:type=StorageProxy");
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FastPathReadOperations");
+    }
+
     /**
      * Gets a connection to the localhost client
      *
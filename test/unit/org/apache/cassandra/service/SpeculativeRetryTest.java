@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ReadResponse;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+import static org.apache.cassandra.Util.column;
+import static org.apache.cassandra.Util.dk;
+import static org.junit.Assert.*;
+
+public class SpeculativeRetryTest extends SchemaLoader
+{
+    @Test
+    public void testParse() throws ConfigurationException, IOException
+    {
+        assertSame(SpeculativeRetry.NONE, SpeculativeRetry.fromString("none"));
+
+        SpeculativeRetry fixed = SpeculativeRetry.fromString("20ms");
+        assertEquals(SpeculativeRetry.Type.FIXED, fixed.type);
+        assertEquals(20, fixed.getDelay(InetAddress.getByName("127.0.0.1")));
+        assertEquals("20ms", fixed.toString());
+
+        SpeculativeRetry percentile = SpeculativeRetry.fromString("99.5PERCENTILE");
+        assertEquals(SpeculativeRetry.Type.PERCENTILE, percentile.type);
+        assertEquals(99.5, percentile.value, 0);
+        assertEquals(percentile, SpeculativeRetry.fromString(percentile.toString()));
+
+        for (String invalid : new String[]{ "fast", "ms", "-1ms", "100percentile", "0percentile" })
+        {
+            try
+            {
+                SpeculativeRetry.fromString(invalid);
+                fail(invalid);
+            }
+            catch (ConfigurationException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicateResponsesCountOnce() throws IOException
+    {
+        // RF 3, so QUORUM blocks for two replicas
+        QuorumResponseHandler<Row> handler = new QuorumResponseHandler<Row>(new ReadResponseResolver("Keyspace4"), ConsistencyLevel.QUORUM, "Keyspace4");
+        ColumnFamily cf = ColumnFamily.create("Keyspace4", "Standard1");
+        cf.addColumn(column("c1", "v1", 0));
+        Row row = new Row(dk("key1"), cf);
+        InetAddress slow = InetAddress.getByName("127.0.0.2");
+        InetAddress fast = InetAddress.getByName("127.0.0.3");
+
+        // the fast replica answers its digest request, and then the speculative data request
+        handler.response(response(fast, new ReadResponse(ColumnFamily.digest(cf))));
+        handler.response(response(fast, new ReadResponse(row)));
+        assertTrue(handler.isDataPresent());
+        assertFalse(handler.await(0, 0));
+
+        handler.response(response(slow, new ReadResponse(ColumnFamily.digest(cf))));
+        assertTrue(handler.await(0, 0));
+    }
+
+    @Test
+    public void testOverloadedReplicaWakesWaiter() throws Exception
+    {
+        // await times out relative to the handler's creation
+        long start = System.currentTimeMillis();
+        final QuorumResponseHandler<Row> handler = new QuorumResponseHandler<Row>(new ReadResponseResolver("Keyspace4"), ConsistencyLevel.QUORUM, "Keyspace4");
+        final InetAddress overloaded = InetAddress.getByName("127.0.0.2");
+        final Message request = new Message(overloaded, StorageService.Verb.READ, new byte[0]);
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+                handler.overloaded(request.getOverloadedReply(overloaded));
+            }
+        }.start();
+
+        assertFalse(handler.await(10000, 0));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, handler.getOverloadedEndpoints().size());
+        assertTrue(handler.getOverloadedEndpoints().contains(overloaded));
+        // already seen, so that overload no longer wakes us
+        assertFalse(handler.await(200, 1));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    private static Message response(InetAddress from, ReadResponse response) throws IOException
+    {
+        if (response.row() == null)
+            response.setIsDigestQuery(true);
+        DataOutputBuffer out = new DataOutputBuffer();
+        ReadResponse.serializer().serialize(response, out);
+        byte[] body = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, body, 0, body.length);
+        return new Message(from, StorageService.Verb.REQUEST_RESPONSE, body);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.service;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.RangeSliceCommand;
+import org.apache.cassandra.db.RangeSliceReply;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.apache.cassandra.Util.token;
+import static org.junit.Assert.*;
+
+/**
+ * Range slices over a ring where the local node owns one range and three fake nodes own the others.  A message
+ * sink answers for the fake nodes, from the local data.
+ */
+public class StorageProxyRangeSliceTest extends CleanupHelper
+{
+    private static final String TABLE = "Keyspace1";
+    private static final String CF = "Standard1";
+
+    private static InetAddress first, second, third;
+    private static StorageProxyMBean proxy;
+
+    @BeforeClass
+    public static void beforeClass() throws Throwable
+    {
+        first = InetAddress.getByName("127.0.0.2");
+        second = InetAddress.getByName("127.0.0.3");
+        third = InetAddress.getByName("127.0.0.4");
+
+        // ranges (min, b], (b, d], (d, f] and (h, min] go to the fake nodes, (f, h] is local
+        TokenMetadata tmd = StorageService.instance.getTokenMetadata();
+        tmd.clearUnsafe();
+        tmd.updateNormalToken(token("b"), first);
+        tmd.updateNormalToken(token("d"), second);
+        tmd.updateNormalToken(token("f"), third);
+        tmd.updateNormalToken(token("h"), FBUtilities.getLocalAddress());
+        for (InetAddress endpoint : new InetAddress[]{ first, second, third })
+            Gossiper.instance.initializeNodeUnsafe(endpoint, 1);
+
+        for (String key : new String[]{ "a1", "a2", "c1", "c2", "e1", "e2", "g1", "g2" })
+        {
+            RowMutation rm = new RowMutation(TABLE, ByteBufferUtil.bytes(key));
+            rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes("c")), ByteBufferUtil.bytes("v"), 0);
+            rm.apply();
+        }
+
+        StorageProxy.isHintedHandoffEnabled(); // loads StorageProxy, registering its MBean
+        proxy = JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                                  new ObjectName("org.apache.cassandra.db:type=StorageProxy"),
+                                  StorageProxyMBean.class);
+    }
+
+    @After
+    public void tearDown()
+    {
+        SinkManager.clear();
+        proxy.setRangeRequestConcurrency(1);
+    }
+
+    @Test
+    public void testRangesInTokenOrder() throws Throwable
+    {
+        proxy.setRangeRequestConcurrency(4);
+        // hold the first range's reply until the second range has been asked for too, so the later
+        // ranges are answered first
+        final CountDownLatch secondAsked = new CountDownLatch(1);
+        final AtomicBoolean concurrent = new AtomicBoolean();
+        SinkManager.add(new ReplicaSink()
+        {
+            void reply(final Message message, final InetAddress to) throws Exception
+            {
+                if (to.equals(second))
+                    secondAsked.countDown();
+                if (!to.equals(first))
+                {
+                    super.reply(message, to);
+                    return;
+                }
+                new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            concurrent.set(secondAsked.await(2, TimeUnit.SECONDS));
+                            Thread.sleep(100);
+                            ReplicaSink.deliver(message, to);
+                        }
+                        catch (Exception e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }.start();
+            }
+        });
+
+        List<Row> rows = StorageProxy.getRangeSlice(command(100), ConsistencyLevel.ONE);
+        assertKeys(rows, "a1", "a2", "c1", "c2", "e1", "e2", "g1", "g2");
+        assertTrue(concurrent.get());
+    }
+
+    @Test
+    public void testMaxKeysAcrossRanges() throws Throwable
+    {
+        proxy.setRangeRequestConcurrency(4);
+        SinkManager.add(new ReplicaSink());
+
+        assertKeys(StorageProxy.getRangeSlice(command(3), ConsistencyLevel.ONE), "a1", "a2", "c1");
+        assertKeys(StorageProxy.getRangeSlice(command(4), ConsistencyLevel.ONE), "a1", "a2", "c1", "c2");
+        assertKeys(StorageProxy.getRangeSlice(command(7), ConsistencyLevel.ONE), "a1", "a2", "c1", "c2", "e1", "e2", "g1");
+    }
+
+    @Test
+    public void testRangeTimeout() throws Throwable
+    {
+        proxy.setRangeRequestConcurrency(4);
+        // the second range is never answered, while the ranges around it are
+        SinkManager.add(new ReplicaSink()
+        {
+            void reply(Message message, InetAddress to) throws Exception
+            {
+                if (!to.equals(second))
+                    super.reply(message, to);
+            }
+        });
+
+        try
+        {
+            StorageProxy.getRangeSlice(command(100), ConsistencyLevel.ONE);
+            fail("expected a timeout");
+        }
+        catch (TimeoutException e)
+        {
+            // expected
+        }
+    }
+
+    private static RangeSliceCommand command(int maxKeys)
+    {
+        SlicePredicate predicate = new SlicePredicate().setSlice_range(new SliceRange(FBUtilities.EMPTY_BYTE_BUFFER, FBUtilities.EMPTY_BYTE_BUFFER, false, 10));
+        Token min = StorageService.getPartitioner().getMinimumToken();
+        return new RangeSliceCommand(TABLE, CF, null, predicate, new Bounds(min, min), maxKeys);
+    }
+
+    private static void assertKeys(List<Row> rows, String... expected)
+    {
+        List<String> keys = new ArrayList<String>();
+        for (Row row : rows)
+            keys.add(ByteBufferUtil.string(row.key.key));
+        assertEquals(Arrays.asList(expected), keys);
+    }
+
+    /**
+     * Answers range slice requests meant for the fake nodes from the local data; drops anything else sent to them.
+     */
+    private static class ReplicaSink implements IMessageSink
+    {
+        public Message handleMessage(Message message, InetAddress to)
+        {
+            if (to == null || to.equals(FBUtilities.getLocalAddress()))
+                return message;
+            if (message.getVerb() == StorageService.Verb.RANGE_SLICE)
+            {
+                try
+                {
+                    reply(message, to);
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+            return null;
+        }
+
+        void reply(Message message, InetAddress to) throws Exception
+        {
+            deliver(message, to);
+        }
+
+        static void deliver(Message message, InetAddress from) throws Exception
+        {
+            RangeSliceCommand command = RangeSliceCommand.read(message);
+            ColumnFamilyStore cfs = Table.open(command.keyspace).getColumnFamilyStore(command.column_family);
+            List<Row> rows = cfs.getRangeSlice(command.super_column,
+                                               command.range,
+                                               command.max_keys,
+                                               QueryFilter.getFilter(command.predicate, cfs.getComparator()));
+            byte[] body = new RangeSliceReply(rows).getReply(message).getMessageBody();
+            MessagingService.receive(message.getReply(from, body));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.streaming;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FileStreamTaskTest
+{
+    @Test
+    public void testTargetThroughput()
+    {
+        assertEquals(0, FileStreamTask.targetBytesPerMS(0, 1));
+        assertEquals(52428, FileStreamTask.targetBytesPerMS(400, 1));
+        assertEquals(13107, FileStreamTask.targetBytesPerMS(400, 4));
+        assertEquals(1, FileStreamTask.targetBytesPerMS(1, 1000));
+
+        // from 2048 megabits on, the bits per second no longer fit in an int
+        assertEquals(268435, FileStreamTask.targetBytesPerMS(2048, 1));
+        assertEquals(524288, FileStreamTask.targetBytesPerMS(4000, 1));
+        assertEquals(Integer.MAX_VALUE, FileStreamTask.targetBytesPerMS(Integer.MAX_VALUE, 1));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamBlockReaderTest
+{
+    private static final int BLOCK_SIZE = StreamBlockWriter.BLOCK_SIZE;
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        byte[] data = randomBytes(3 * BLOCK_SIZE);
+        // two ranges, the first ending part way through a block, which together span three blocks
+        byte[] sent = send(data, 100, BLOCK_SIZE + 500, 2 * BLOCK_SIZE, BLOCK_SIZE - 1);
+        // two full blocks and one of 499 bytes, each with its checksum
+        assertEquals(2 * BLOCK_SIZE + 499 + 3 * 4, sent.length);
+
+        StreamBlockReader reader = new StreamBlockReader(Channels.newChannel(new ByteArrayInputStream(sent)), 2 * BLOCK_SIZE - 1 + 500, "test");
+        byte[] first = new byte[BLOCK_SIZE + 500];
+        reader.readFully(first, 0, first.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 100, 100 + BLOCK_SIZE + 500), first));
+        byte[] second = new byte[BLOCK_SIZE - 1];
+        reader.readFully(second, 0, second.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE - 1), second));
+
+        try
+        {
+            reader.readFully(new byte[1], 0, 1);
+            fail();
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptBlock() throws IOException
+    {
+        byte[] data = randomBytes(2 * BLOCK_SIZE);
+        byte[] sent = send(data, 0, 2 * BLOCK_SIZE);
+        // damage the second block
+        sent[BLOCK_SIZE + 4 + 10] ^= 1;
+
+        StreamBlockReader reader = new StreamBlockReader(Channels.newChannel(new ByteArrayInputStream(sent)), 2 * BLOCK_SIZE, "test");
+        byte[] buffer = new byte[BLOCK_SIZE];
+        // the first block is intact, so can be used
+        reader.readFully(buffer, 0, BLOCK_SIZE);
+        assertTrue(Arrays.equals(Arrays.copyOf(data, BLOCK_SIZE), buffer));
+        // but none of the second may be
+        try
+        {
+            reader.readFully(buffer, 0, 1);
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+    }
+
+    private static byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param ranges (position, length) pairs of data to send
+     * @return what is sent
+     */
+    private static byte[] send(byte[] data, long... ranges) throws IOException
+    {
+        File file = File.createTempFile("streamblock", "db");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.write(data);
+            FileChannel fc = raf.getChannel();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamBlockWriter writer = new StreamBlockWriter(Channels.newChannel(out));
+            for (int i = 0; i < ranges.length; i += 2)
+            {
+                long position = ranges[i];
+                long length = ranges[i + 1];
+                while (length > 0)
+                {
+                    int n = writer.write(fc, position, length);
+                    position += n;
+                    length -= n;
+                }
+            }
+            writer.flush();
+            return out.toByteArray();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
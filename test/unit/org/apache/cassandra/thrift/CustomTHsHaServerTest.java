@@ -0,0 +1,176 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.thrift;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.service.EmbeddedCassandraService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import static org.junit.Assert.*;
+
+public class CustomTHsHaServerTest extends CleanupHelper
+{
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        DatabaseDescriptor.setRpcServerType(Config.RpcServerType.hsha);
+        // a single worker serves every connection's requests on the same thread
+        DatabaseDescriptor.setRpcMaxThreads(1);
+
+        EmbeddedCassandraService cassandra = new EmbeddedCassandraService();
+        cassandra.init();
+        Thread t = new Thread(cassandra);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Test
+    public void testClientStatePerConnection() throws Exception
+    {
+        Cassandra.Client client1 = getClient();
+        Cassandra.Client client2 = getClient();
+        client1.set_keyspace("Keyspace1");
+        client2.set_keyspace("Keyspace2");
+
+        ColumnParent parent = new ColumnParent("Standard1");
+        ColumnPath path = new ColumnPath("Standard1").setColumn(ByteBufferUtil.bytes("c"));
+        for (int i = 0; i < 10; i++)
+        {
+            ByteBuffer key1 = ByteBufferUtil.bytes("key1_" + i);
+            ByteBuffer key2 = ByteBufferUtil.bytes("key2_" + i);
+            client1.insert(key1, parent, new Column(path.column, key1, 0), ConsistencyLevel.ONE);
+            client2.insert(key2, parent, new Column(path.column, key2, 0), ConsistencyLevel.ONE);
+
+            assertEquals(key1, ByteBuffer.wrap(client1.get(key1, path, ConsistencyLevel.ONE).getColumn().getValue()));
+            assertEquals(key2, ByteBuffer.wrap(client2.get(key2, path, ConsistencyLevel.ONE).getColumn().getValue()));
+            assertNotFound(client1, key2, path);
+            assertNotFound(client2, key1, path);
+        }
+    }
+
+    @Test
+    public void testOversizedFrame() throws Exception
+    {
+        // an unframed request reads as a frame of over a GB
+        Socket socket = new Socket("localhost", DatabaseDescriptor.getRpcPort());
+        try
+        {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.0\r\n\r\n".getBytes());
+            out.flush();
+            socket.setSoTimeout(10000);
+            InputStream in = socket.getInputStream();
+            assertEquals(-1, in.read());
+        }
+        catch (SocketException e)
+        {
+            // closed with the rest of the request unread
+        }
+        finally
+        {
+            socket.close();
+        }
+
+        // and the server carries on
+        Cassandra.Client client = getClient();
+        client.set_keyspace("Keyspace1");
+        assertEquals("Keyspace1", client.describe_keyspace("Keyspace1").name);
+    }
+
+    @Test
+    public void testFrameSizeLimit() throws Exception
+    {
+        int port = DatabaseDescriptor.getRpcPort() + 1;
+        TCustomNonblockingServerSocket serverSocket = new TCustomNonblockingServerSocket(new InetSocketAddress("localhost", port), false, null, null, 100);
+        serverSocket.listen();
+        Socket client = new Socket("localhost", port);
+        try
+        {
+            TNonblockingSocket accepted;
+            while ((accepted = (TNonblockingSocket) serverSocket.accept()) == null)
+                Thread.sleep(10);
+
+            // a frame of the maximum size is read
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeInt(100);
+            out.write(new byte[100]);
+            out.writeInt(101);
+            out.flush();
+            assertEquals(4, readFully(accepted, ByteBuffer.allocate(4)));
+            assertEquals(100, readFully(accepted, ByteBuffer.allocate(100)));
+
+            // but a larger one is refused after its length
+            assertEquals(-1, readFully(accepted, ByteBuffer.allocate(4)));
+        }
+        finally
+        {
+            client.close();
+            serverSocket.close();
+        }
+    }
+
+    private static int readFully(TNonblockingSocket socket, ByteBuffer buffer) throws Exception
+    {
+        while (buffer.hasRemaining())
+        {
+            if (socket.read(buffer) < 0)
+                return -1;
+        }
+        return buffer.position();
+    }
+
+    private static void assertNotFound(Cassandra.Client client, ByteBuffer key, ColumnPath path) throws Exception
+    {
+        try
+        {
+            client.get(key, path, ConsistencyLevel.ONE);
+            fail("found " + ByteBufferUtil.string(key) + " in the other client's keyspace");
+        }
+        catch (NotFoundException e)
+        {
+            // expected
+        }
+    }
+
+    private static Cassandra.Client getClient() throws Exception
+    {
+        TTransport tr = new TFramedTransport(new TSocket("localhost", DatabaseDescriptor.getRpcPort()));
+        Cassandra.Client client = new Cassandra.Client(new TBinaryProtocol(tr));
+        tr.open();
+        return client;
+    }
+}
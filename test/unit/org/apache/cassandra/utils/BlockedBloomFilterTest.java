@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+public class BlockedBloomFilterTest
+{
+    // keys don't spread evenly over blocks, so we get somewhat more false positives than BloomFilter
+    static final double MAX_FP_RATIO = 1.5;
+
+    public BlockedBloomFilter bf;
+
+    public BlockedBloomFilterTest()
+    {
+        bf = BlockedBloomFilter.getFilter(FilterTest.ELEMENTS, FilterTest.MAX_FAILURE_RATE);
+    }
+
+    @Before
+    public void clear()
+    {
+        bf.clear();
+    }
+
+    @Test
+    public void testOne()
+    {
+        bf.add(ByteBufferUtil.bytes("a"));
+        assert bf.isPresent(ByteBufferUtil.bytes("a"));
+        assert !bf.isPresent(ByteBufferUtil.bytes("b"));
+    }
+
+    @Test
+    public void testFalsePositivesInt()
+    {
+        FilterTest.testFalsePositives(bf, FilterTest.intKeys(), FilterTest.randomKeys2(), MAX_FP_RATIO);
+    }
+
+    @Test
+    public void testFalsePositivesRandom()
+    {
+        FilterTest.testFalsePositives(bf, FilterTest.randomKeys(), FilterTest.randomKeys2(), MAX_FP_RATIO);
+    }
+
+    @Test
+    public void testSerialize() throws IOException
+    {
+        BlockedBloomFilter bf2 = (BlockedBloomFilter) FilterTest.testSerialize(bf);
+        assert bf2.blocks() == bf.blocks();
+        assert bf2.getHashCount() == bf.getHashCount();
+    }
+
+    @Test
+    public void testAlwaysMatching()
+    {
+        BlockedBloomFilter always = BlockedBloomFilter.alwaysMatchingBloomFilter();
+        assert always.isPresent(ByteBufferUtil.bytes("a"));
+        assert always.isPresent(ByteBufferUtil.bytes("b"));
+    }
+
+    @Test
+    public void testBitSetPages() throws IOException
+    {
+        // small pages, so that words land on either side of a page boundary
+        OffHeapBitSet bits = new OffHeapBitSet(10 * 512 + 1, 512);
+        assert bits.capacity() == 10 * 512 + 64;
+        long[] indexes = { 0, 63, 64, 511, 512, 4095, 4096, 10 * 512 };
+        for (long index : indexes)
+            bits.set(index);
+        for (long i = 0; i < bits.capacity(); i++)
+        {
+            boolean expected = false;
+            for (long index : indexes)
+                expected |= index == i;
+            assert bits.get(i) == expected : i;
+        }
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        bits.serialize(out);
+        assert out.getLength() == bits.serializedSize();
+        OffHeapBitSet bits2 = OffHeapBitSet.deserialize(new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength())));
+        for (long i = 0; i < bits.capacity(); i++)
+            assert bits.get(i) == bits2.get(i) : i;
+
+        bits.clear();
+        for (long index : indexes)
+            assert !bits.get(index);
+
+        bits.close();
+        bits2.close();
+        bits.close(); // closing twice is harmless
+    }
+}
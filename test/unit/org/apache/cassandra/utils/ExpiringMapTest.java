@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+import static org.junit.Assert.*;
+
+public class ExpiringMapTest
+{
+    @Test
+    public void testExpiry() throws InterruptedException
+    {
+        final Map<Integer, Long> expired = new ConcurrentHashMap<Integer, Long>();
+        ExpiringMap<Integer, Long> map = new ExpiringMap<Integer, Long>(200, new Function<Pair<Integer, Long>, Object>()
+        {
+            public Object apply(Pair<Integer, Long> pair)
+            {
+                expired.put(pair.left, System.currentTimeMillis() - pair.right);
+                return null;
+            }
+        });
+        try
+        {
+            for (int i = 0; i < 100; i++)
+                map.put(i, System.currentTimeMillis());
+            for (int i = 0; i < 100; i += 2)
+                assertNotNull(map.remove(i));
+            // replaced, so only expires once, 200ms after the second put
+            Thread.sleep(50);
+            map.put(1, System.currentTimeMillis());
+
+            Thread.sleep(100);
+            assertTrue(expired.isEmpty());
+            assertEquals(50, map.size());
+
+            Thread.sleep(600);
+            assertTrue(map.isEmpty());
+            assertNull(map.get(1));
+            assertEquals(50, expired.size());
+            for (Map.Entry<Integer, Long> entry : expired.entrySet())
+            {
+                assertEquals(1, entry.getKey() % 2);
+                assertTrue(entry.getValue() >= 200);
+            }
+        }
+        finally
+        {
+            map.shutdown();
+        }
+    }
+}
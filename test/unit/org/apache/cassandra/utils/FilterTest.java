@@ -76,6 +76,15 @@ public class FilterTest
     }
 
     public static void testFalsePositives(Filter f, ResetableIterator<ByteBuffer> keys, ResetableIterator<ByteBuffer> otherkeys)
+    {
+        testFalsePositives(f, keys, otherkeys, 1.03);
+    }
+
+    /**
+     * @param maxRatio how many times the false positives of an ideal Bloom filter we can live with
+     * @return the actual ratio
+     */
+    public static double testFalsePositives(Filter f, ResetableIterator<ByteBuffer> keys, ResetableIterator<ByteBuffer> otherkeys, double maxRatio)
     {
         assert keys.size() == otherkeys.size();
 
@@ -94,7 +103,8 @@ public class FilterTest
         }
 
         double fp_ratio = fp / (keys.size() * BloomCalculations.probs[spec.bucketsPerElement][spec.K]);
-        assert fp_ratio < 1.03 : fp_ratio;
+        assert fp_ratio < maxRatio : fp_ratio;
+        return fp_ratio;
     }
 
     public static Filter testSerialize(Filter f) throws IOException
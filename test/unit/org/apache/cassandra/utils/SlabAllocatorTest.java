@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlabAllocatorTest
+{
+    @Test
+    public void testClone()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        List<ByteBuffer> originals = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> clones = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 10000; i++)
+        {
+            ByteBuffer bb = ByteBufferUtil.bytes("value " + i);
+            originals.add(bb);
+            clones.add(allocator.clone(bb));
+        }
+
+        // clones must neither alias each other nor disturb the source buffers
+        for (int i = 0; i < originals.size(); i++)
+        {
+            assertEquals(originals.get(i), clones.get(i));
+            assertEquals(0, originals.get(i).position());
+        }
+        // everything fit in a single region
+        assertEquals(1024 * 1024, allocator.getMinimumSize());
+    }
+
+    @Test
+    public void testRegionRollover()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        for (int i = 0; i < 20; i++)
+            assertEquals(100 * 1024, allocator.allocate(100 * 1024).remaining());
+        // ten 100KB buffers fit in each 1MB region
+        assertEquals(2 * 1024 * 1024, allocator.getMinimumSize());
+    }
+
+    @Test
+    public void testOversized()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        ByteBuffer bb = allocator.allocate(1024 * 1024);
+        assertEquals(0, bb.arrayOffset());
+        assertEquals(1024 * 1024, bb.array().length);
+        assertEquals(1024 * 1024, allocator.getMinimumSize());
+    }
+}
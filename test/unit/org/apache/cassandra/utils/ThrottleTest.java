@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class ThrottleTest
+{
+    private static Throttle throttle(final int bytesPerMS)
+    {
+        return new Throttle("test", new Throttle.ThroughputFunction()
+        {
+            public int targetThroughput()
+            {
+                return bytesPerMS;
+            }
+        });
+    }
+
+    @Test
+    public void testThrottled()
+    {
+        // 100 bytes/ms: 20000 bytes in small increments should take about 200ms
+        Throttle throttle = throttle(100);
+        long start = System.currentTimeMillis();
+        for (long bytes = 100; bytes <= 20000; bytes += 100)
+            throttle.throttle(bytes);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("took " + elapsed + "ms", elapsed >= 150);
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        Throttle throttle = throttle(0);
+        long start = System.currentTimeMillis();
+        for (long bytes = 100; bytes <= 20000000; bytes += 100)
+            throttle.throttle(bytes);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+    }
+}